@@ -0,0 +1,62 @@
+#version 330 core
+
+// lit per pixel by the Sun, matching the fixed-function pipeline with GL_AMBIENT_AND_DIFFUSE color material and GL_MODULATE textures
+const int MAX_STREAMS = 16;
+
+uniform sampler2DArray surfaces;
+uniform vec3 lightPosition; // the Sun in eye space
+uniform vec3 lightAmbient; // the light model ambient plus the light's own
+uniform vec3 lightDiffuse;
+// the streamed textures, see TileCache
+uniform sampler2D tileCache; // the tiles in the cache, each with a border
+uniform usamplerBuffer pageTables; // per tile the slot column and row, the level of the tile found and 255, or 0 when there's none yet
+uniform ivec4 streams[MAX_STREAMS]; // first page table entry, tiles across and down at level 0, levels
+uniform vec3 tileLayout; // tile size, border and cache size in texels
+
+in vec3 eyePosition;
+in vec3 eyeNormal;
+in vec2 texCoord;
+flat in vec4 material;
+
+out vec4 fragColor;
+
+// looks up the tile the pixel's footprint needs, or the nearest coarser one in the cache
+vec3 sampleTiles(int stream, vec2 uv, vec2 dx, vec2 dy) {
+	ivec4 s = streams[stream];
+	vec2 size = vec2(s.yz) * tileLayout.x;
+	vec2 du = dx * size, dv = dy * size;
+	float lod = 0.5 * log2(max(max(dot(du, du), dot(dv, dv)), 1e-8));
+	int level = clamp(int(floor(lod)), 0, s.w - 1);
+	int first = s.x;
+	for (int l = 0; l < level; ++l) {
+		first += max(1, s.y >> l) * max(1, s.z >> l);
+	}
+	ivec2 tiles = max(ivec2(1), s.yz >> level);
+	ivec2 tile = clamp(ivec2(uv * vec2(tiles)), ivec2(0), tiles - 1);
+	uvec4 entry = texelFetch(pageTables, first + tile.y * tiles.x + tile.x);
+	if (entry.a == 0u) {
+		return vec3(1.0);
+	}
+	// the tile found may be coarser, covering this point somewhere else within it
+	ivec2 found = max(ivec2(1), s.yz >> int(entry.b));
+	vec2 local = uv * vec2(found) - vec2(clamp(ivec2(uv * vec2(found)), ivec2(0), found - 1));
+	vec2 texel = vec2(entry.rg) * (tileLayout.x + 2.0 * tileLayout.y) + tileLayout.y + local * tileLayout.x;
+	return textureLod(tileCache, texel / tileLayout.z, 0.0).rgb;
+}
+
+void main() {
+	// taken before any branching, where the derivatives are still defined
+	vec2 dx = dFdx(texCoord), dy = dFdy(texCoord);
+	vec3 n = normalize(eyeNormal);
+	vec3 l = normalize(lightPosition - eyePosition);
+	vec3 light = lightAmbient + lightDiffuse * max(dot(n, l), 0.0);
+	vec4 color = vec4(clamp(material.rgb * light, 0.0, 1.0), 1.0);
+	if (material.a >= 0.0) {
+		color *= texture(surfaces, vec3(texCoord, material.a));
+	}
+	else if (material.a <= -2.0) {
+		// streamed textures are numbered down from -2
+		color.rgb *= sampleTiles(int(-material.a) - 2, texCoord, dx, dy);
+	}
+	fragColor = color;
+}
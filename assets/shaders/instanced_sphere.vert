@@ -0,0 +1,28 @@
+#version 330 core
+
+// core profile, so everything comes in through attributes and uniforms instead of the fixed-function state
+uniform mat4 projection;
+uniform mat4 view;
+
+layout(location = 0) in vec3 position;
+layout(location = 1) in vec3 normal;
+layout(location = 2) in vec2 texCoordIn;
+// per instance: the model matrix and the material (rgb color, texture layer, -1 for none or -2 - n for streamed texture n)
+layout(location = 4) in mat4 instanceModel;
+layout(location = 8) in vec4 instanceMaterial;
+
+out vec3 eyePosition;
+out vec3 eyeNormal;
+out vec2 texCoord;
+flat out vec4 material;
+
+void main() {
+	mat4 modelView = view * instanceModel;
+	vec4 eye = modelView * vec4(position, 1.0);
+	eyePosition = eye.xyz;
+	// the spheres are only ever scaled evenly, so the normals don't need the inverse transpose
+	eyeNormal = mat3(modelView) * normal;
+	texCoord = texCoordIn;
+	material = instanceMaterial;
+	gl_Position = projection * eye;
+}
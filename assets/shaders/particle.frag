@@ -0,0 +1,12 @@
+#version 330 core
+
+in vec4 color;
+
+out vec4 fragColor;
+
+void main() {
+	// a soft round spot instead of a square
+	vec2 d = gl_PointCoord * 2.0 - 1.0;
+	float falloff = max(0.0, 1.0 - dot(d, d));
+	fragColor = vec4(color.rgb, color.a * falloff);
+}
@@ -0,0 +1,29 @@
+#version 330 core
+
+// draws the Sun's particles as round points, from either the CPU or the transform feedback buffers
+uniform mat4 projection;
+uniform mat4 modelView;
+uniform float pointScale; // the size of a particle in pixels one unit from the eye
+
+// xyz in the Sun's frame, w is the fraction of its life gone, plus 2 for a prominence, 4 or more for a dead particle
+layout(location = 0) in vec4 particle;
+
+out vec4 color;
+
+void main() {
+	vec4 eye = modelView * vec4(particle.xyz, 1.0);
+	if (particle.w >= 4.0) {
+		// outside the clip volume, so dead particles in the feedback buffers never reach the rasterizer
+		gl_Position = vec4(0.0, 0.0, 2.0, 1.0);
+		gl_PointSize = 1.0;
+		color = vec4(0.0);
+		return;
+	}
+	float prominence = step(2.0, particle.w);
+	float age = particle.w - 2.0 * prominence;
+	vec3 wind = mix(vec3(1.0, 0.95, 0.7), vec3(1.0, 0.5, 0.1), age);
+	vec3 flare = mix(vec3(1.0, 0.45, 0.2), vec3(0.8, 0.1, 0.05), age);
+	color = vec4(mix(wind, flare, prominence), (1.0 - age) * mix(0.35, 0.8, prominence));
+	gl_PointSize = clamp(pointScale / max(-eye.z, 0.001), 1.0, 32.0);
+	gl_Position = projection * eye;
+}
@@ -0,0 +1,77 @@
+#version 330 core
+
+// moves the Sun's particles on by one step entirely on the GPU, written back through transform feedback
+uniform float dt;
+uniform float gm; // the Sun's gravity, pulling prominences back down
+uniform float radius;
+uniform float spawnChance; // the chance a dead particle is emitted this step
+uniform float prominenceFraction;
+uniform int seed;
+
+// xyz and the age, then the velocity and the life, negative for a prominence, a particle is dead once its age reaches its life
+layout(location = 0) in vec4 positionAge;
+layout(location = 1) in vec4 velocityLife;
+
+out vec4 outPositionAge;
+out vec4 outVelocityLife;
+out vec4 outParticle; // what particle.vert draws
+
+uint hash(uint x) {
+	x ^= x >> 16;
+	x *= 0x7feb352du;
+	x ^= x >> 15;
+	x *= 0x846ca68bu;
+	x ^= x >> 16;
+	return x;
+}
+
+float random(inout uint state) {
+	state = hash(state);
+	return float(state) / 4294967295.0;
+}
+
+vec3 randomDirection(inout uint state) {
+	float z = random(state) * 2.0 - 1.0;
+	float phi = random(state) * 6.2831853;
+	float s = sqrt(max(0.0, 1.0 - z * z));
+	return vec3(s * cos(phi), s * sin(phi), z);
+}
+
+void main() {
+	vec3 position = positionAge.xyz;
+	float age = positionAge.w;
+	vec3 velocity = velocityLife.xyz;
+	float life = velocityLife.w;
+	uint state = hash(uint(gl_VertexID) ^ hash(uint(seed)));
+	
+	bool alive = age < abs(life) && dot(position, position) >= radius * radius;
+	if (alive) {
+		float r = length(position);
+		velocity -= position * (gm * dt / (r * r * r));
+		position += velocity * dt;
+		age += dt;
+		alive = age < abs(life) && dot(position, position) >= radius * radius;
+	}
+	else if (random(state) < spawnChance) {
+		// the same launch as on the CPU: a fast radial wind, or a slow prominence leaning over so it arcs back down
+		vec3 normal = randomDirection(state);
+		position = normal * radius * 1.01;
+		age = 0.0;
+		if (random(state) < prominenceFraction) {
+			vec3 side = randomDirection(state);
+			vec3 tangent = normalize(side - normal * dot(normal, side) + vec3(1e-6));
+			float lean = random(state) * 0.9;
+			velocity = (normal * cos(lean) + tangent * sin(lean)) * radius * (0.5 + random(state) * 0.3);
+			life = -(4.0 + random(state) * 2.0);
+		}
+		else {
+			velocity = (normal + randomDirection(state) * 0.1) * radius * (1.0 + random(state) * 0.5);
+			life = 2.0 + random(state) * 2.0;
+		}
+		alive = true;
+	}
+	
+	outPositionAge = vec4(position, alive ? age : abs(life));
+	outVelocityLife = vec4(velocity, life);
+	outParticle = vec4(position, alive ? age / abs(life) + (life < 0.0 ? 2.0 : 0.0) : 4.0);
+}
@@ -0,0 +1,12 @@
+#version 330 core
+
+in vec4 color;
+
+out vec4 fragColor;
+
+void main() {
+	// round stars that fall off towards the edge, a one pixel star keeps its full color
+	vec2 d = gl_PointCoord * 2.0 - 1.0;
+	float falloff = max(0.0, 1.0 - dot(d, d));
+	fragColor = vec4(color.rgb, color.a * falloff);
+}
@@ -0,0 +1,20 @@
+#version 330 core
+
+// draws the catalog stars as points on the far plane, turning with the camera but never getting closer
+uniform mat4 projection;
+uniform mat4 rotation; // the view matrix without its translation
+uniform float pointScale; // the size of the brightest star in pixels
+
+// the direction of the star, then its color and brightness from 0 for the faintest to 1 for the brightest
+layout(location = 0) in vec3 direction;
+layout(location = 1) in vec4 star;
+
+out vec4 color;
+
+void main() {
+	float brightness = star.a;
+	gl_Position = (projection * rotation * vec4(direction, 1.0)).xyww; // depth 1, behind everything else
+	gl_PointSize = max(1.0, pointScale * brightness * brightness);
+	// faint stars are drawn at the smallest size, so fade them instead
+	color = vec4(star.rgb, mix(0.25, 1.0, brightness));
+}
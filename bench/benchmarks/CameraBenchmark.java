@@ -0,0 +1,68 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import utils.Movement;
+import viewer.Camera;
+
+/**
+ * Times the camera math done every frame, moving the camera and working out its matrices and frustum
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CameraBenchmark {
+	private static final double FRAME = 1 / 60.0;
+	
+	private Camera camera;
+	private double yaw;
+	private double[] point = new double[3];
+	
+	@Setup
+	public void setup() {
+		camera = new Camera();
+		camera.newWindowSize(1200, 1200);
+		//every key held at once, the most work update can do
+		camera.setPitch(Movement.PITCH_UP);
+		camera.setYaw(Movement.YAW_LEFT);
+		camera.setStrafe(Movement.STRAFE_LEFT);
+		camera.setElevate(Movement.UP);
+		camera.setMove(Movement.FORWARD);
+	}
+	
+	@Benchmark
+	public double[] projection() {
+		yaw += 0.1;
+		camera.projection(1, 10, yaw, FRAME, point);
+		return point;
+	}
+	
+	@Benchmark
+	public Camera update() {
+		camera.update(FRAME);
+		return camera;
+	}
+	
+	@Benchmark
+	public Camera updateMatrices() {
+		camera.updateMatrices();
+		return camera;
+	}
+}
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rendering.CircleMesh;
+import sceneObjects.Sun;
+
+/**
+ * Times building the geometry that gets uploaded to the GPU, the corona lines and the orbit ring vertices.
+ * None of it needs a GL context
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryBenchmark {
+	/**
+	 * How dense the corona is, 1 is the default and 4 has roughly 16 times the lines
+	 */
+	@Param({"1", "4"})
+	public float coronaDensity;
+	
+	/**
+	 * The number of segments in an orbit ring, from the coarsest level of detail to far more than any level uses
+	 */
+	@Param({"32", "256", "4096"})
+	public int ringSegments;
+	
+	private Sun sun;
+	
+	@Setup
+	public void setup() {
+		sun = new Sun(1f, 25f);
+		sun.setCoronaDensity(coronaDensity);
+	}
+	
+	@Benchmark
+	public Sun generateStaticLines() {
+		sun.generateStaticLines();
+		return sun;
+	}
+	
+	@Benchmark
+	public Sun generateAnimatedLines() {
+		sun.generateAnimatedLines();
+		return sun;
+	}
+	
+	@Benchmark
+	public Object generateRingVertices() {
+		return CircleMesh.generateVertices(ringSegments);
+	}
+}
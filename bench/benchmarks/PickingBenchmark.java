@@ -0,0 +1,121 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rendering.BoundingVolumeHierarchy;
+import simulation.BodyCatalog;
+
+/**
+ * Times picking a body of a generated belt with a click, walking the bounding volume hierarchy the picker uses
+ * against testing every body, and refitting the tree to moved bodies the way the picker does every frame
+ *
+ * @author Thong Teav
+ * 14883251
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PickingBenchmark {
+	private static final int RAYS = 256;
+	private static final double SPREAD = 0.004; //about 4 pixels at 1000 pixels across a 60 degree view
+
+	/**
+	 * The number of bodies in the belt
+	 */
+	@Param({"1000", "100000"})
+	public int bodies;
+
+	private BoundingVolumeHierarchy bounds;
+	private float[] positions;
+	private double[] radii;
+	private double[] rays; //a direction for each click, towards a random body
+	private final double[] eye = {0, 4, 6};
+	private int ray;
+
+	@Setup
+	public void setup() {
+		BodyCatalog belt = BodyCatalog.generateBelt("belt", bodies, 2.2f, 3.2f, 1f, 365.2f, 0.2f, 10f, 42);
+		belt.setTime(100);
+		positions = belt.getLatestPositions();
+		radii = new double[bodies];
+		bounds = new BoundingVolumeHierarchy(bodies);
+		for (int i = 0; i < bodies; ++i) {
+			radii[i] = belt.getRadius(i);
+			bounds.setItem(i, positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2], radii[i]);
+		}
+		bounds.build();
+
+		Random random = new Random(42);
+		rays = new double[RAYS * 3];
+		for (int r = 0; r < RAYS; ++r) {
+			int i = random.nextInt(bodies) * 3;
+			double dx = positions[i] - eye[0], dy = positions[i + 1] - eye[1], dz = positions[i + 2] - eye[2];
+			double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
+			rays[r * 3] = dx / length;
+			rays[r * 3 + 1] = dy / length;
+			rays[r * 3 + 2] = dz / length;
+		}
+	}
+
+	/**
+	 * Picks the nearest body along a ray through the tree
+	 */
+	@Benchmark
+	public int raycast() {
+		int r = (ray++ % RAYS) * 3;
+		return bounds.raycast(eye[0], eye[1], eye[2], rays[r], rays[r + 1], rays[r + 2], SPREAD, null);
+	}
+
+	/**
+	 * Picks the nearest body along a ray by testing every body, what the tree saves
+	 */
+	@Benchmark
+	public int bruteForce() {
+		int r = (ray++ % RAYS) * 3;
+		double dx = rays[r], dy = rays[r + 1], dz = rays[r + 2];
+		int nearest = -1;
+		double best = Double.MAX_VALUE;
+		for (int i = 0; i < bodies; ++i) {
+			double x = positions[i * 3] - eye[0], y = positions[i * 3 + 1] - eye[1], z = positions[i * 3 + 2] - eye[2];
+			double t = x * dx + y * dy + z * dz;
+			if (t < 0 || t >= best) {
+				continue;
+			}
+			double px = dx * t - x, py = dy * t - y, pz = dz * t - z;
+			double distance = radii[i] + t * SPREAD;
+			if (px * px + py * py + pz * pz <= distance * distance) {
+				best = t;
+				nearest = i;
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Fits the tree to the bodies again, what the picker does every frame between rebuilds
+	 */
+	@Benchmark
+	public BoundingVolumeHierarchy refit() {
+		for (int i = 0; i < bodies; ++i) {
+			bounds.setItem(i, positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2], radii[i]);
+		}
+		bounds.refit();
+		return bounds;
+	}
+}
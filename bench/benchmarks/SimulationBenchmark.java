@@ -0,0 +1,118 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import sceneObjects.Moon;
+import sceneObjects.Planet;
+import simulation.BodyCatalog;
+import simulation.KeplerPropagator;
+
+/**
+ * Times one simulation tick of the planets and moons, the Kepler propagation and the catalog step,
+ * from the handful of bodies in the default scenario up to large generated systems
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulationBenchmark {
+	private static final double TICK = 1 / 120.0;
+	
+	/**
+	 * The number of planets, each with one moon, so twice as many bodies. 4 is the default scenario
+	 */
+	@Param({"4", "1000", "100000"})
+	public int planets;
+	
+	private ArrayList<Planet> bodies;
+	private KeplerPropagator orbits;
+	private BodyCatalog belt;
+	private double[] orbitAngles, spinAngles, positions;
+	private double time;
+	
+	@Setup
+	public void setup() {
+		bodies = new ArrayList<>(planets);
+		orbits = new KeplerPropagator(planets * 2);
+		int index = 0;
+		for (int i = 0; i < planets; ++i) {
+			float dist = 1 + i * 0.01f;
+			float period = (float) (365.2 * Math.pow(dist, 1.5));
+			Planet planet = new Planet(0.1f, dist, period, new float[] {1, 1, 1}, 1f, 23.4);
+			planet.setOrbit(0.05, 2, i % 360, 90);
+			planet.setStateIndex(index++);
+			planet.addOrbit(orbits);
+			Moon moon = new Moon(0.02f, 0.2f, 27.3f, new float[] {1, 1, 1}, 5.1);
+			moon.setStateIndex(index++);
+			moon.addOrbit(orbits);
+			planet.addMoon(moon);
+			bodies.add(planet);
+		}
+		orbitAngles = new double[index];
+		spinAngles = new double[index];
+		positions = new double[index * 3];
+		belt = BodyCatalog.generateBelt("belt", planets * 2, 2.2f, 3.2f, 1f, 365.2f, 0.2f, 10f, 42);
+	}
+	
+	/**
+	 * Works out the orbit and spin angles of every planet and moon at the next tick
+	 */
+	@Benchmark
+	public void updateAngles() {
+		time += TICK;
+		for (Planet p : bodies) {
+			p.setTime(time);
+		}
+	}
+	
+	/**
+	 * Copies the angles of every body into the arrays a snapshot is made from
+	 */
+	@Benchmark
+	public void writeState(Blackhole blackhole) {
+		for (Planet p : bodies) {
+			p.writeState(orbitAngles, spinAngles);
+		}
+		blackhole.consume(orbitAngles);
+	}
+	
+	/**
+	 * Moves every body along its elliptical orbit and works out the positions
+	 */
+	@Benchmark
+	public void propagateOrbits(Blackhole blackhole) {
+		time += TICK;
+		orbits.setTime(time);
+		orbits.propagate(positions);
+		blackhole.consume(positions);
+	}
+	
+	/**
+	 * Moves a generated belt with the same number of bodies, the path bulk catalogs take
+	 */
+	@Benchmark
+	public void stepCatalog(Blackhole blackhole) {
+		time += TICK;
+		belt.setTime(time);
+		blackhole.consume(belt.getLatestPositions());
+	}
+}
@@ -1,15 +1,46 @@
 import java.awt.Frame;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.List;
 
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLCapabilities;
+import com.jogamp.opengl.GLDrawableFactory;
 import com.jogamp.opengl.GLEventListener;
+import com.jogamp.opengl.GLOffscreenAutoDrawable;
+import com.jogamp.opengl.GLProfile;
 import com.jogamp.opengl.awt.GLCanvas;
-import com.jogamp.opengl.util.FPSAnimator;
 
+import input.InputQueue;
+import picking.Picker;
+import profiling.FrameProfiler;
+import profiling.ProfilerOverlay;
+import replay.InputRecording;
+import replay.ReplayReport;
+import rendering.FrameCapture;
+import rendering.FramePacer;
+import rendering.FrameStats;
+import rendering.LodManager;
+import rendering.MeshCache;
+import rendering.QualityController;
+import rendering.RenderContext;
+import rendering.StarCatalog;
+import rendering.TilePyramid;
+import sceneObjects.Sun;
+import scenario.Scenario;
+import simulation.BodyCatalog;
+import simulation.NBodySystem;
+import simulation.BodyState;
+import simulation.SimulationClock;
+import simulation.SimulationEngine;
 import utils.Movement;
 import viewer.Camera;
 
@@ -25,55 +56,223 @@ import viewer.Camera;
 public class Main implements GLEventListener, KeyListener {
 	private static int WIN_HEIGHT = 1200;
 	private static int WIN_WIDTH = 1200;
+	private static double TICKS_PER_SECOND = 120;
+	private static double TIME_WARP_FACTOR = 10; //how much [ and ] change the time scale by
+	private static double FOCUS_RADII = 6; //how far from a picked body the camera stops, in radii of the body
+	private static int REPLAY_WARMUP_FRAMES = 60; //frames replayed before timing starts, while the JIT and driver settle
+	private static int INPUT_QUEUE_SIZE = 256; //input events that can wait for the next frame
+	private static double FRAME_BUDGET = 1000 / 60.0; //the default time each frame should take in milliseconds
+	private static double[] QUALITY_SCALES = {8, 4, 2, 1}; //multiples of the pixel error allowed for spheres and rings
+	private static double[] QUALITY_FRACTIONS = {0.25, 0.5, 1}; //fractions of the corona lines and the trails drawn
+	private static long RENDER_SEED = 14883251; //the Sun's random numbers for offscreen renders without --seed
 	
+	private Scenario scenario;
 	private Camera camera;
 	private SolarSystem solarSystem;
-	private double timeEllapsed, tick, prevTick;
+	private SimulationEngine engine;
+	private MeshCache meshes;
+	private RenderContext renderContext;
+	private FrameProfiler profiler;
+	private ProfilerOverlay profilerOverlay;
+	private boolean showProfiler;
+	private int windowHeight = WIN_HEIGHT;
+	private long lastStatsPrint;
+	private long lastFrameStart; //from System.nanoTime(), 0 before the first frame
+	private long prevInputTime; //when the camera was last moved on, from System.nanoTime()
 	private boolean debugging;
-	
-	//lighting
-	float globalAmbient[] = { 0.4f, 0.4f, 0.4f, 1 }; 	// global light properties
-	public float[] lightPosition = { 0.0f, 0.0f, 0.0f, 1.0f };
-	public float[] ambientLight = { 0.5f, 0.5f, 0.5f, 1 };
-	public float[] diffuseLight = { 0.5f, 0.5f, 0.5f, 0.8f };
+	private double fixedStep; //seconds per frame when rendering offscreen, 0 to follow the wall clock
+	private FrameCapture frameCapture;
+	private double startTime; //the simulation time to start from
+	private Picker picker;
+	private InputQueue input = new InputQueue(INPUT_QUEUE_SIZE); //key presses and clicks from the AWT thread
+	private InputQueue.Event inputEvent = new InputQueue.Event();
+	private long[] inputTimes = new long[INPUT_QUEUE_SIZE]; //when each event applied this frame happened
+	private int inputCount;
+	private boolean clicked; //a click is waiting to be picked
+	private int clickX, clickY;
+	private double[] focus = new double[3];
+	private InputRecording recording; //the session being recorded, null if not recording
+	private long recordStart;
+	private InputRecording replay; //the session being replayed, null if not replaying
+	private int replayEvent; //the next event to replay
+	private long replayFrame;
+	private double[] replayEye = new double[3];
+	private QualityController quality; //steps detail down to hold the frame budget, null when frames aren't paced, or while recording
 	
 	@Override
 	public void display(GLAutoDrawable gld) {
 		GL2 gl = gld.getGL().getGL2();
+		FrameStats stats = renderContext.getStats();
+		stats.beginFrame();
+		profiler.beginFrame(gl);
 		// clear the depth and color buffers
+		profiler.begin(gl, "camera");
 		gl.glClear(GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT);
 		
+		if (replay != null) {
+			this.replayInput();
+		}
+		else if (fixedStep <= 0) {
+			//the camera moves before its matrices are loaded, so input shows up in the frame that applies it
+			this.applyInput(System.nanoTime());
+		}
+		if (recording != null) {
+			recording.addCameraSample((System.nanoTime() - recordStart) / 1e9, camera);
+		}
 		camera.draw(gl);
 		
-		// calculate time since last frame
-		tick = System.currentTimeMillis() / 1000.0;
-		timeEllapsed = tick - prevTick;
-		if (prevTick > 0) {
-			camera.update(timeEllapsed);
+		if (fixedStep > 0) {
+			//step everything by exactly one frame so every run draws the same frames
+			engine.step();
+			camera.update(fixedStep);
 		}
-		prevTick = tick;
 		
-		lights(gl);
+		profiler.begin(gl, "lights");
+		//the light only has to move when the camera has
+		renderContext.getLight().update(gl, camera);
 		
 		if (debugging) {
 			drawXYZ(gl);
 		}
 		
-		solarSystem.draw(gl, timeEllapsed);
+		//draw in between the last two simulation ticks so motion stays smooth at any frame rate
+		BodyState state = fixedStep > 0 ? engine.getSnapshot().getCurrent() : engine.getSnapshot().interpolate(System.nanoTime());
+		renderContext.setState(state);
+		renderContext.setFrameTime(this.nextFrameTime());
+		//once a frame, each catalog swaps in new positions every time they're taken
+		renderContext.setCatalogPositions(solarSystem.latchCatalogPositions());
+		this.updateSelection(state);
+		solarSystem.draw(gl, renderContext);
+		
+		if (showProfiler) {
+			profiler.begin(gl, "overlay");
+			profilerOverlay.draw(gl, profiler, windowHeight);
+		}
+		profiler.endFrame(gl);
+		stats.endFrame();
+		long now = System.nanoTime();
+		for (int i = 0; i < inputCount; ++i) {
+			profiler.addInputLatency(now - inputTimes[i]);
+		}
+		inputCount = 0;
+		if (replay != null) {
+			gl.glFinish(); //so the replay's frame times include the GPU
+		}
+		if (frameCapture != null) {
+			try {
+				frameCapture.capture(gl);
+			}
+			catch (IOException e) {
+				System.out.println("Could not write frame: " + e.getMessage());
+			}
+		}
+		if (debugging && now - lastStatsPrint >= 1e9) {
+			//print the counters about once a second while debugging is on
+			System.out.println(stats);
+			SimulationClock clock = engine.getClock();
+			System.out.println("Time: " + String.format("%.3f", clock.getTime()) + " (JD " + String.format("%.3f", clock.getJulianDate()) 
+					+ "), time scale " + clock.getTimeScale());
+			if (solarSystem.getNBody() != null) {
+				System.out.println("Energy drift: " + solarSystem.getNBody().getEnergyDrift());
+			}
+			if (input.getDropped() > 0) {
+				System.out.println("Input events dropped: " + input.getDropped());
+			}
+			if (solarSystem.getTiles() != null) {
+				System.out.println(solarSystem.getTiles());
+			}
+			if (quality != null) {
+				System.out.println(quality);
+			}
+			lastStatsPrint = now;
+		}
 	}
 	
-	public void lights(GL2 gl){
-		// set the global ambient light level
-	    gl.glLightModelfv(GL2.GL_LIGHT_MODEL_AMBIENT, globalAmbient, 0); 
-	    //set light 0 properties
-	    gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_AMBIENT, ambientLight, 0);
-		gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_DIFFUSE, diffuseLight, 0);
-		//normalise the normal surface vectors
-		gl.glEnable(GL2.GL_NORMALIZE);
-		//position light 0 at the origin
-		gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_POSITION, lightPosition, 0);
-		//enable light 0
-		gl.glEnable(GL2.GL_LIGHT0);
+	/**
+	 * Applies the input queued since the last frame in the order it happened. The camera is moved on to the time
+	 * of each event before the event is applied, so a key moves it for exactly as long as it was held,
+	 * however the presses and releases fall between frames.
+	 */
+	private void applyInput(long now) {
+		long from = prevInputTime == 0 ? now : prevInputTime;
+		while (input.poll(inputEvent)) {
+			//an event that came in after the frame started counts as happening now
+			long time = Math.max(from, Math.min(now, inputEvent.getTime()));
+			if (time > from) {
+				camera.update((time - from) / 1e9);
+				from = time;
+			}
+			this.applyEvent(inputEvent.getType(), inputEvent.getA(), inputEvent.getB());
+			if (recording != null) {
+				recording.addEvent((inputEvent.getTime() - recordStart) / 1e9, inputEvent.getType(), inputEvent.getA(), inputEvent.getB());
+			}
+			if (inputCount < inputTimes.length) {
+				inputTimes[inputCount++] = inputEvent.getTime();
+			}
+		}
+		if (now > from) {
+			camera.update((now - from) / 1e9);
+		}
+		prevInputTime = now;
+	}
+	
+	private void applyEvent(int type, int a, int b) {
+		switch (type) {
+			case InputRecording.KEY_PRESSED:
+				this.keyDown(a);
+				break;
+			case InputRecording.KEY_RELEASED:
+				this.keyUp(a);
+				break;
+			case InputRecording.CLICK:
+				clickX = a;
+				clickY = b;
+				clicked = true;
+				break;
+		}
+	}
+	
+	//hands the recorded events up to the current frame to the key and mouse handling, and puts the camera where it was
+	private void replayInput() {
+		double time = replayFrame++ * fixedStep;
+		while (replayEvent < replay.getEventCount() && replay.getEventTime(replayEvent) <= time) {
+			this.applyEvent(replay.getEventType(replayEvent), replay.getEventA(replayEvent), replay.getEventB(replayEvent));
+			replayEvent++;
+		}
+		replay.applyCamera(time, camera, replayEye);
+	}
+	
+	//how long this frame moves things the simulation doesn't, a fixed step when every frame has to come out the same
+	private double nextFrameTime() {
+		if (fixedStep > 0) {
+			return fixedStep;
+		}
+		long now = System.nanoTime();
+		double seconds = lastFrameStart == 0 ? 0 : (now - lastFrameStart) / 1e9;
+		lastFrameStart = now;
+		return seconds;
+	}
+	
+	//picks the body under the last click and keeps the camera following the selected body
+	private void updateSelection(BodyState state) {
+		picker.update(state, renderContext.getCatalogPositions());
+		if (clicked) {
+			clicked = false;
+			int item = picker.pick(camera, clickX, clickY);
+			if (item == Picker.NONE) {
+				camera.clearFocus();
+			}
+			else {
+				picker.getPosition(item, state, focus);
+				camera.focusOn(focus[0], focus[1], focus[2], picker.getRadius(item) * FOCUS_RADII);
+				profilerOverlay.setLastPick(picker.getName(item), picker.getLastPickNanos(), picker.getItemCount());
+			}
+		}
+		int selected = picker.getSelected();
+		if (selected != Picker.NONE && camera.hasFocus()) {
+			picker.getPosition(selected, state, focus);
+			camera.followFocus(focus[0], focus[1], focus[2]);
+		}
 	}
 	
 	//draws the x,y,z axis from the origin
@@ -97,15 +296,63 @@ public class Main implements GLEventListener, KeyListener {
 
 	@Override
 	public void dispose(GLAutoDrawable gld) {
-				
+		if (engine != null) {
+			engine.stop();
+		}
+		if (meshes != null) {
+			meshes.dispose(gld.getGL().getGL2());
+		}
+		if (solarSystem != null) {
+			solarSystem.dispose(gld.getGL().getGL2());
+		}
+		if (profiler != null) {
+			profiler.dispose(gld.getGL().getGL2());
+		}
+		if (frameCapture != null) {
+			try {
+				frameCapture.finish(gld.getGL().getGL2());
+			}
+			catch (IOException e) {
+				System.out.println("Could not write frame: " + e.getMessage());
+			}
+			frameCapture.dispose(gld.getGL().getGL2());
+		}
 	}
 
 	@Override
 	public void init(GLAutoDrawable gld) {
 		GL2 gl = gld.getGL().getGL2();		
 		camera = new Camera();
-		solarSystem = new SolarSystem();
-		solarSystem.getSun().createLineList(gl);//create the display list of lines representing the corona
+		solarSystem = new SolarSystem(scenario);
+		solarSystem.setWaitForTiles(fixedStep > 0); //offscreen runs draw every frame with all its tiles
+		solarSystem.loadTextures(gl);
+		solarSystem.loadStars(gl);
+		solarSystem.getSun().createCorona(gl);//create the vertex buffer of lines representing the corona
+		SimulationClock clock = new SimulationClock(scenario.getEpoch());
+		clock.seek(startTime);
+		clock.setMaxTimeScale(solarSystem.getMaxTimeScale(fixedStep > 0 ? fixedStep : 1 / TICKS_PER_SECOND));
+		if (fixedStep > 0) {
+			engine = new SimulationEngine(solarSystem, 1 / fixedStep, clock); //stepped from display instead of its own thread
+		}
+		else {
+			engine = new SimulationEngine(solarSystem, TICKS_PER_SECOND, clock);
+			engine.start();
+		}
+		if (frameCapture != null) {
+			frameCapture.init(gl);
+		}
+		meshes = new MeshCache();
+		renderContext = new RenderContext(meshes, new FrameStats(), new LodManager(), camera);
+		profiler = new FrameProfiler(gl);
+		profilerOverlay = new ProfilerOverlay();
+		renderContext.setProfiler(profiler);
+		renderContext.getLight().init(gl);
+		picker = new Picker(solarSystem.getSun(), solarSystem.getBodies(), solarSystem.getCatalogs());
+		if (quality != null) {
+			this.addQualityKnobs();
+			profilerOverlay.setQuality(quality);
+			gl.setSwapInterval(0); //waiting for vsync would make every frame look like it cost a whole refresh
+		}
 		
 		// enable depth test and set shading mode
 		gl.glEnable(GL2.GL_DEPTH_TEST);
@@ -119,22 +366,420 @@ public class Main implements GLEventListener, KeyListener {
 		gl.glLoadIdentity();
 	}
 
+	/**
+	 * Lets the quality controller trade detail for time, the first knobs are the ones that show the least when lowered
+	 */
+	private void addQualityKnobs() {
+		Sun sun = solarSystem.getSun();
+		float corona = sun.getCoronaDensity();
+		double sphereError = renderContext.getLod().getMaxPixelError();
+		double ringError = renderContext.getRingLod().getMaxPixelError();
+		if (solarSystem.getStars() != null) {
+			quality.addKnob("star count", QUALITY_FRACTIONS.length, level -> solarSystem.setStarFraction(QUALITY_FRACTIONS[level]));
+		}
+		quality.addKnob("trail length", QUALITY_FRACTIONS.length, level -> solarSystem.setTrailFraction(QUALITY_FRACTIONS[level]));
+		quality.addKnob("corona lines", QUALITY_FRACTIONS.length, level -> sun.setCoronaDensity((float) (corona * QUALITY_FRACTIONS[level])));
+		quality.addKnob("orbit segments", QUALITY_SCALES.length, level -> renderContext.getRingLod().setMaxPixelError(ringError * QUALITY_SCALES[level]));
+		quality.addKnob("sphere tessellation", QUALITY_SCALES.length, level -> renderContext.getLod().setMaxPixelError(sphereError * QUALITY_SCALES[level]));
+	}
+
 	@Override
 	public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
 		camera.newWindowSize(width, height);
+		windowHeight = height;
+		if (recording != null) {
+			//the replay has to draw and pick with the projection that was on screen
+			recording.setSize(width, height);
+		}
+	}
+	
+	/**
+	 * Runs the simulation on its own without any window or GL context and prints the angles at the end
+	 * 
+	 * @param scenario the bodies to simulate
+	 * @param seconds how long to run the simulation for
+	 * @param startTime the simulation time to start from
+	 */
+	public static void runHeadless(Scenario scenario, double seconds, double startTime) throws InterruptedException {
+		SolarSystem solarSystem = new SolarSystem(scenario);
+		SimulationClock clock = new SimulationClock(scenario.getEpoch());
+		clock.seek(startTime);
+		clock.setMaxTimeScale(solarSystem.getMaxTimeScale(1 / TICKS_PER_SECOND));
+		SimulationEngine engine = new SimulationEngine(solarSystem, TICKS_PER_SECOND, clock);
+		engine.start();
+		Thread.sleep((long) (seconds * 1000));
+		engine.stop();
+		
+		BodyState state = engine.getSnapshot().getCurrent();
+		System.out.println("Ticks: " + state.getTick() + ", simulated time: " + state.getTime() + " (JD " + clock.getJulianDate() + ")");
+		double[] position = new double[3];
+		for (int i = 0; i < state.getBodyCount(); ++i) {
+			state.getPosition(i, position);
+			System.out.println("Body " + i + ": orbit " + state.getOrbitAngle(i) + ", spin " + state.getSpinAngle(i) 
+					+ ", position " + position[0] + ", " + position[1] + ", " + position[2]);
+		}
+		for (BodyCatalog catalog : solarSystem.getCatalogs()) {
+			System.out.println("Catalog " + catalog.getName() + ": " + catalog.getCount() + " bodies");
+		}
+		NBodySystem nbody = solarSystem.getNBody();
+		if (nbody != null) {
+			System.out.println("N-body: " + nbody.getCount() + " bodies, " + nbody.getSteps() + " steps, theta " + nbody.getTheta() 
+					+ ", energy drift " + nbody.getEnergyDrift());
+		}
+	}
+	
+	/**
+	 * Renders a sequence of frames into an offscreen framebuffer and saves them as PNG files, without a window.
+	 * Works with software GL such as Mesa on machines with no GPU.
+	 * 
+	 * @param scenario the bodies to draw
+	 * @param directory where to write the frames
+	 * @param frames how many frames to render
+	 * @param step how many seconds of simulation each frame moves on by
+	 * @param width the width of the frames in pixels
+	 * @param height the height of the frames in pixels
+	 * @param startTime the simulation time of the first frame
+	 */
+	public static void runOffscreen(Scenario scenario, String directory, int frames, double step, int width, int height, double startTime) {
+		GLProfile profile = GLProfile.get(GLProfile.GL2);
+		GLCapabilities capabilities = new GLCapabilities(profile);
+		capabilities.setOnscreen(false);
+		capabilities.setFBO(true);
+		GLOffscreenAutoDrawable drawable = GLDrawableFactory.getFactory(profile)
+				.createOffscreenAutoDrawable(null, capabilities, null, width, height);
+		
+		Main app = new Main();
+		app.scenario = scenario;
+		app.fixedStep = step;
+		app.startTime = startTime;
+		app.frameCapture = new FrameCapture(width, height, new File(directory), Runtime.getRuntime().availableProcessors());
+		drawable.addGLEventListener(app);
+		
+		long start = System.nanoTime();
+		for (int i = 0; i < frames; ++i) {
+			drawable.display();
+		}
+		if (app.solarSystem.getTiles() != null) {
+			System.out.println(app.solarSystem.getTiles());
+		}
+		drawable.destroy(); //waits for the last frames to be written
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println("Rendered " + frames + " frames to " + directory + " in " + String.format("%.2f", seconds) + "s");
+	}
+	
+	/**
+	 * Replays a recorded session offscreen at a fixed step and reports its frame times and counters.
+	 * The same recording gives the same frames every time, so the results can be compared against an earlier run.
+	 * 
+	 * @param scenario the bodies to draw, the same ones the session was recorded with
+	 * @param recording the session to replay
+	 * @param width the width of the frames in pixels
+	 * @param height the height of the frames in pixels
+	 * @param baselinePath the results to compare against, null to skip the comparison
+	 * @param saveBaselinePath where to save the results as a new baseline, can be null
+	 * @param tolerance how much slower the frame times can get before it counts as a regression, 0.1 for 10%
+	 * @return false if there was a regression
+	 */
+	public static boolean runReplay(Scenario scenario, InputRecording recording, int width, int height, 
+			String baselinePath, String saveBaselinePath, double tolerance) {
+		GLProfile profile = GLProfile.get(GLProfile.GL2);
+		GLCapabilities capabilities = new GLCapabilities(profile);
+		capabilities.setOnscreen(false);
+		capabilities.setFBO(true);
+		GLOffscreenAutoDrawable drawable = GLDrawableFactory.getFactory(profile)
+				.createOffscreenAutoDrawable(null, capabilities, null, width, height);
+		
+		Main app = new Main();
+		app.scenario = scenario;
+		app.fixedStep = recording.getStep();
+		app.startTime = recording.getStartTime();
+		app.replay = recording;
+		drawable.addGLEventListener(app);
+		
+		int frames = recording.getFrameCount();
+		ReplayReport report = new ReplayReport(frames - REPLAY_WARMUP_FRAMES);
+		for (int i = 0; i < frames; ++i) {
+			long start = System.nanoTime();
+			drawable.display();
+			long nanos = System.nanoTime() - start;
+			if (i >= REPLAY_WARMUP_FRAMES) {
+				report.addFrame(nanos, app.renderContext.getStats());
+			}
+		}
+		if (app.solarSystem.getTiles() != null) {
+			System.out.println(app.solarSystem.getTiles());
+		}
+		drawable.destroy();
+		System.out.println(report);
+		
+		boolean passed = true;
+		if (baselinePath != null) {
+			try {
+				List<String> regressions = report.compare(ReplayReport.loadBaseline(new File(baselinePath)), tolerance);
+				for (String regression : regressions) {
+					System.out.println("Regression: " + regression);
+				}
+				passed = regressions.isEmpty();
+				if (passed) {
+					System.out.println("No regressions against " + baselinePath);
+				}
+			}
+			catch (IOException e) {
+				System.out.println("File not found: " + e.getMessage());
+			}
+		}
+		if (saveBaselinePath != null) {
+			try {
+				report.save(new File(saveBaselinePath));
+			}
+			catch (IOException e) {
+				System.out.println("Could not save baseline: " + e.getMessage());
+			}
+		}
+		return passed;
+	}
+	
+	/**
+	 * Writes the recorded session to a file, does nothing if it wasn't recording
+	 * 
+	 * @param path where to write it
+	 */
+	private void saveRecording(String path) {
+		if (recording == null || path == null) {
+			return;
+		}
+		try {
+			recording.save(new File(path));
+			System.out.println("Recorded " + recording.getEventCount() + " events and " + recording.getCameraSampleCount() 
+					+ " camera samples to " + path);
+		}
+		catch (IOException e) {
+			System.out.println("Could not save recording: " + e.getMessage());
+		}
 	}
 	
-	public static void main(String[] args) {
+	/**
+	 * Reads the scenario file, printing what went wrong if it can't
+	 * 
+	 * @return the scenario, or null if it couldn't be loaded
+	 */
+	private static Scenario loadScenario(String path) {
+		try {
+			return Scenario.load(path);
+		}
+		catch (IOException e) {
+			System.out.println("File not found: " + e.getMessage());
+		}
+		catch (IllegalArgumentException e) {
+			System.out.println("Invalid scenario: " + e.getMessage());
+		}
+		return null;
+	}
+	
+	/**
+	 * Converts a CSV star catalog into the binary one a scenario's stars line points to
+	 * 
+	 * @param csvPath
+	 * @param binaryPath
+	 */
+	private static void convertStars(String csvPath, String binaryPath) {
+		long start = System.nanoTime();
+		try {
+			int count = StarCatalog.convert(csvPath, binaryPath);
+			System.out.printf("Wrote %d stars to %s in %.0f ms%n", count, binaryPath, (System.nanoTime() - start) / 1e6);
+		}
+		catch (NoSuchFileException e) {
+			System.out.println("File not found: " + e.getMessage());
+		}
+		catch (IOException | IllegalArgumentException e) {
+			System.out.println("Could not convert stars: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Cuts a large texture into the tile pyramid a planet's tiles point to
+	 * 
+	 * @param imagePath
+	 * @param tilesPath
+	 * @param tileSize the size of a tile in pixels
+	 */
+	private static void tileTexture(String imagePath, String tilesPath, int tileSize) {
+		long start = System.nanoTime();
+		try {
+			int count = TilePyramid.convert(imagePath, tilesPath, tileSize);
+			System.out.printf("Wrote %d tiles to %s in %.0f ms%n", count, tilesPath, (System.nanoTime() - start) / 1e6);
+		}
+		catch (NoSuchFileException e) {
+			System.out.println("File not found: " + e.getMessage());
+		}
+		catch (IOException e) {
+			System.out.println("Could not tile texture: " + e.getMessage());
+		}
+	}
+	
+	public static void main(String[] args) throws InterruptedException {
+		String scenarioPath = Scenario.DEFAULT_PATH;
+		boolean headless = false;
+		double headlessSeconds = 10;
+		double startTime = 0;
+		String renderDirectory = null;
+		int renderFrames = 300;
+		double renderStep = 1 / 60.0;
+		int renderWidth = 1920, renderHeight = 1080;
+		boolean sizeGiven = false, scenarioGiven = false;
+		String recordPath = null, replayPath = null, baselinePath = null, saveBaselinePath = null;
+		double tolerance = 0.1;
+		double budget = FRAME_BUDGET;
+		String starsCsvPath = null, starsPath = null;
+		String tileImagePath = null, tilesPath = null;
+		int tileSize = TilePyramid.DEFAULT_TILE_SIZE;
+		long seed = System.nanoTime();
+		boolean seedGiven = false;
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("--scenario") && i + 1 < args.length) {
+				scenarioPath = args[++i];
+				scenarioGiven = true;
+			}
+			else if (args[i].equals("--headless")) {
+				headless = true;
+				if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+					headlessSeconds = Double.parseDouble(args[++i]);
+				}
+			}
+			else if (args[i].equals("--time") && i + 1 < args.length) {
+				startTime = Double.parseDouble(args[++i]);
+			}
+			else if (args[i].equals("--render") && i + 1 < args.length) {
+				renderDirectory = args[++i];
+			}
+			else if (args[i].equals("--frames") && i + 1 < args.length) {
+				renderFrames = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--step") && i + 1 < args.length) {
+				renderStep = Double.parseDouble(args[++i]);
+			}
+			else if (args[i].equals("--size") && i + 1 < args.length) {
+				String[] size = args[++i].split("x");
+				renderWidth = Integer.parseInt(size[0]);
+				renderHeight = Integer.parseInt(size[1]);
+				sizeGiven = true;
+			}
+			else if (args[i].equals("--record") && i + 1 < args.length) {
+				recordPath = args[++i];
+			}
+			else if (args[i].equals("--replay") && i + 1 < args.length) {
+				replayPath = args[++i];
+			}
+			else if (args[i].equals("--baseline") && i + 1 < args.length) {
+				baselinePath = args[++i];
+			}
+			else if (args[i].equals("--save-baseline") && i + 1 < args.length) {
+				saveBaselinePath = args[++i];
+			}
+			else if (args[i].equals("--tolerance") && i + 1 < args.length) {
+				tolerance = Double.parseDouble(args[++i]);
+			}
+			else if (args[i].equals("--budget") && i + 1 < args.length) {
+				budget = Double.parseDouble(args[++i]);
+			}
+			else if (args[i].equals("--convert-stars") && i + 2 < args.length) {
+				starsCsvPath = args[++i];
+				starsPath = args[++i];
+			}
+			else if (args[i].equals("--tile-texture") && i + 2 < args.length) {
+				tileImagePath = args[++i];
+				tilesPath = args[++i];
+			}
+			else if (args[i].equals("--tile-size") && i + 1 < args.length) {
+				tileSize = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--seed") && i + 1 < args.length) {
+				seed = Long.parseLong(args[++i]);
+				seedGiven = true;
+			}
+		}
+		if (starsCsvPath != null) {
+			convertStars(starsCsvPath, starsPath);
+			return;
+		}
+		if (tileImagePath != null) {
+			tileTexture(tileImagePath, tilesPath, tileSize);
+			return;
+		}
+		
+		InputRecording replay = null;
+		if (replayPath != null) {
+			try {
+				replay = InputRecording.load(new File(replayPath));
+			}
+			catch (IOException e) {
+				System.out.println("File not found: " + e.getMessage());
+				return;
+			}
+			seed = replay.getSeed();
+			if (!scenarioGiven) {
+				scenarioPath = replay.getScenarioPath();
+			}
+			if (!sizeGiven) {
+				renderWidth = replay.getWidth();
+				renderHeight = replay.getHeight();
+			}
+		}
+		else if (renderDirectory != null && !seedGiven) {
+			seed = RENDER_SEED; //renders are meant to come out the same every time
+		}
+		//the corona is random, so it's seeded before the scenario creates the Sun to be able to draw it again the same way
+		Sun.setSeed(seed);
+		
+		Scenario scenario = loadScenario(scenarioPath);
+		if (scenario == null) {
+			return;
+		}
+		if (replay != null) {
+			boolean passed = runReplay(scenario, replay, renderWidth, renderHeight, baselinePath, saveBaselinePath, tolerance);
+			if (!passed) {
+				System.exit(1);
+			}
+			return;
+		}
+		if (headless) {
+			runHeadless(scenario, headlessSeconds, startTime);
+			return;
+		}
+		if (renderDirectory != null) {
+			runOffscreen(scenario, renderDirectory, renderFrames, renderStep, renderWidth, renderHeight, startTime);
+			return;
+		}
+		
 		Frame frame = new Frame("Inner Solar System Viewer");
 		GLCanvas canvas = new GLCanvas();
 		Main app = new Main();
+		app.scenario = scenario;
+		app.startTime = startTime;
+		if (recordPath == null) {
+			//replays draw at full quality, so a recording is made at full quality too
+			app.quality = new QualityController(budget);
+		}
+		final String recording = recordPath;
 		
 		canvas.addGLEventListener(app);
 		canvas.addKeyListener(app);
+		canvas.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				//picking needs the latest snapshot, so it's done at the start of the next frame
+				app.input.offer(System.nanoTime(), InputRecording.CLICK, e.getX(), e.getY());
+			}
+		});
 		
 		frame.add(canvas);
 		frame.setSize(WIN_WIDTH, WIN_HEIGHT);
-		final FPSAnimator animator = new FPSAnimator(canvas, 60);
+		final FramePacer animator = new FramePacer(canvas, budget, app.quality);
+		if (recordPath != null) {
+			//replayed a frame at a time at the rate the pacer aims for, the size is set once the canvas has one
+			app.recording = new InputRecording(scenarioPath, seed, startTime, animator.getBudgetSeconds(), WIN_WIDTH, WIN_HEIGHT);
+			app.recordStart = System.nanoTime();
+		}
 		frame.addWindowListener(new WindowAdapter() {
 			@Override
 			public void windowClosing(WindowEvent e) {
@@ -146,6 +791,7 @@ public class Main implements GLEventListener, KeyListener {
 					@Override
 					public void run() {
 						animator.stop();
+						app.saveRecording(recording);
 						System.exit(0);
 					}
 				}).start();
@@ -160,11 +806,14 @@ public class Main implements GLEventListener, KeyListener {
 	}
 
 	/**
-	 * Handles the key presses to set different movements of the camera and toggles drawing on or off.
+	 * Queues the key press for the next frame, which sets different movements of the camera and toggles drawing on or off.
 	 */
 	@Override
 	public void keyPressed(KeyEvent e) {
-		int key = e.getKeyCode();
+		input.offer(System.nanoTime(), InputRecording.KEY_PRESSED, e.getKeyCode(), 0);
+	}
+	
+	private void keyDown(int key) {
 		switch (key) {
 			case KeyEvent.VK_UP:
 				camera.setPitch(Movement.PITCH_UP);
@@ -202,19 +851,50 @@ public class Main implements GLEventListener, KeyListener {
 			case KeyEvent.VK_SPACE:
 				solarSystem.toggleOrbit();
 				break;
+			case KeyEvent.VK_L:
+				solarSystem.toggleTrails();
+				break;
+			case KeyEvent.VK_K:
+				solarSystem.getSun().toggleParticles();
+				break;
+			case KeyEvent.VK_B:
+				solarSystem.toggleStars();
+				break;
 			case KeyEvent.VK_T:
 				this.debugging = !this.debugging;
 				solarSystem.toggleAxes();
 				break;
+			case KeyEvent.VK_P:
+				showProfiler = !showProfiler;
+				break;
+			case KeyEvent.VK_CLOSE_BRACKET:
+				engine.getClock().setTimeScale(engine.getClock().getTimeScale() * TIME_WARP_FACTOR);
+				break;
+			case KeyEvent.VK_OPEN_BRACKET:
+				engine.getClock().setTimeScale(engine.getClock().getTimeScale() / TIME_WARP_FACTOR);
+				break;
+			case KeyEvent.VK_R:
+				engine.getClock().reverse();
+				break;
+			case KeyEvent.VK_HOME:
+				engine.getClock().seek(0);
+				break;
+			case KeyEvent.VK_ESCAPE:
+				picker.clearSelection();
+				camera.clearFocus();
+				break;
 		}
 	}
 
 	/**
-	 * Using the key released to reset the corresponding movement of the camera.
+	 * Queues the key release for the next frame, which resets the corresponding movement of the camera.
 	 */
 	@Override
 	public void keyReleased(KeyEvent e) {
-		int key = e.getKeyCode();
+		input.offer(System.nanoTime(), InputRecording.KEY_RELEASED, e.getKeyCode(), 0);
+	}
+	
+	private void keyUp(int key) {
 		switch (key) {
 			case KeyEvent.VK_UP:
 				camera.setPitch(Movement.NONE);
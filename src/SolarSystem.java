@@ -1,14 +1,31 @@
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
 
 import com.jogamp.opengl.GL2;
-import com.jogamp.opengl.util.texture.TextureIO;
+import com.jogamp.opengl.GLException;
 
+import rendering.BoundingVolumeHierarchy;
+import rendering.CatalogRenderer;
+import rendering.InstancedSphereRenderer;
+import rendering.RenderContext;
+import rendering.RenderQueue;
+import rendering.StarCatalog;
+import rendering.Starfield;
+import rendering.TileCache;
+import rendering.TextureManager;
+import rendering.TrailRenderer;
+import sceneObjects.AstronomicalObject;
 import sceneObjects.Moon;
 import sceneObjects.Planet;
 import sceneObjects.Sun;
-import utils.Color;
+import scenario.Scenario;
+import simulation.BodyCatalog;
+import simulation.BodyState;
+import simulation.KeplerPropagator;
+import simulation.NBodySystem;
+import simulation.SimulationClock;
+import simulation.World;
 
 /**
  * Represents the Inner Solar System with a Sun and its first four planets with their moons
@@ -17,65 +34,490 @@ import utils.Color;
  * 14883251
  *
  */
-public class SolarSystem {
+public class SolarSystem implements World {
+	private static final int BOUNDS_REBUILD_INTERVAL = 120; //frames between rebuilding the culling tree, it is refitted in between
+	private static final double NBODY_MAX_STEP = 0.05; //the longest N-body step, longer jumps in time are split up
+	private static final int NBODY_MAX_STEPS = 16; //the most N-body steps in one tick, beyond this the integration falls behind
+	private static final double TRAIL_ORBIT_FRACTION = 0.5; //how much of its orbit a body's full trail covers
+	
 	private Sun sun;
 	private ArrayList<Planet> planets;
+	private ArrayList<AstronomicalObject> bodies; //the planets and all their moons
+	private InstancedSphereRenderer instances;
+	private TextureManager textures;
+	private ArrayList<BodyCatalog> catalogs; //bulk bodies like asteroid belts, kept as arrays instead of objects
+	private CatalogRenderer catalogRenderer;
+	private CatalogCommand[] catalogCommands;
+	private float[][] catalogPositions; //the positions of each catalog for the frame, taken once on the GL thread
+	private TrailRenderer trails; //by state index, the Sun has none
+	private boolean trailsOn = true;
+	private double trailFraction = 1; //how much of each trail is drawn
+	private double[] trailPosition = new double[3]; //scratch space for the GL thread
+	private String starsPath;
+	private long textureBudget; //bytes for the tiles of streamed textures
+	private boolean waitForTiles;
+	private Starfield stars; //null without a star catalog
+	private double starFraction = 1; //how much of the star catalog is drawn
+	private KeplerPropagator orbits; //the orbits of the Sun, planets and moons by state index
+	private NBodySystem nbody; //the Sun, planets and catalogs under their own gravity, null unless the scenario asks for it
+	private int[] catalogFirst; //the index of each catalog's first body in the N-body system
+	private double nbodyTime; //the time the N-body system has been integrated up to
+	private double[] position = new double[3]; //scratch space for the simulation thread
+	
+	//culling, only used on the GL thread
+	private BoundingVolumeHierarchy bounds; //the bodies by state index followed by their orbit rings
+	private boolean[] visible;
+	private double[] sphere = new double[4];
+	private int boundsFrames;
+	private int bodyCount;
 	
-	public SolarSystem() {
-		sun = new Sun(10f, 25f);
+	/**
+	 * Builds the solar system from a scenario
+	 * 
+	 * @param scenario the Sun, planets, moons and catalogs to simulate
+	 */
+	public SolarSystem(Scenario scenario) {
+		sun = scenario.getSun();
+		planets = scenario.getPlanets();
+		catalogs = scenario.getCatalogs();
+		starsPath = scenario.getStarsPath();
+		textureBudget = scenario.getTextureBudget();
 		
-		//scale factors for radius and orbit distance
-		float radiusScale = 1f;
-		float orbitDistScale = 100f;
+		//give every body a slot in the simulation snapshots and the propagator, the Sun first then each planet followed by its moons
+		bodies = new ArrayList<>();
+		orbits = new KeplerPropagator(16);
+		sun.setStateIndex(bodyCount++);
+		orbits.add(0, 0, 0, 0, 0, 0, 0); //the Sun stays at the origin
+		for (Planet p : planets) {
+			p.setStateIndex(bodyCount++);
+			p.addOrbit(orbits);
+			bodies.add(p);
+			for (Moon m : p.getMoons()) {
+				m.setStateIndex(bodyCount++);
+				m.addOrbit(orbits);
+				bodies.add(m);
+			}
+		}
 		
-		//radii are linearly scaled based on Mercury, orbit distances are scaled based on the Earth
-		Planet mercury = new Planet(1f * radiusScale, 0.39f * orbitDistScale, 88f, Color.MERCURY, 58.7f, 0.01);
-		Planet venus = new Planet(2.449f * radiusScale, 0.72f * orbitDistScale, 224.7f, Color.VENUS, 243f, 32.7);
-		Planet earth = new Planet(1.083f * radiusScale, 1f * orbitDistScale, 365.2f, Color.EARTH, 1f, 23.439281);
-		Planet mars = new Planet(0.523f * radiusScale, 1.52f * orbitDistScale, 687f, Color.MARS, 1.0417f, 25.19);		
-		venus.setSelfRotateDirection(-1f); //Venus rotates in anticlockwise
-
-		//create the moons at the distance way from the center of the parent planet and add them to their parent planets
-		//Moon(radius, orbitDist, orbitalPeriod, color, selfOrbitPeriod, tiltingAngle)
-		Moon moon = new Moon(0.289f * radiusScale, 0.013f * orbitDistScale + 1.083f * radiusScale, 27.3f, Color.MOON, 5);
-		Moon phobos = new Moon(0.0017f * radiusScale * 40f, 0.0000313f * orbitDistScale + 0.7f * radiusScale, 0.32f, new float[] {0.3f, 0.3f, 0.3f}, 0);
-		Moon deimos = new Moon(0.002f * radiusScale * 40f, 0.007f * orbitDistScale + 0.7f * radiusScale, 1.3f, new float[] {0.5f, 0.5f, 0.5f}, 0);
-		earth.addMoon(moon);
-		mars.addMoon(phobos);
-		mars.addMoon(deimos);
+		if (scenario.isNBody()) {
+			createNBody(scenario);
+		}
+	}
+	
+	/**
+	 * Starts the Sun, the planets and the catalogs from their orbits, then lets gravity take over.
+	 * The moons stay on their orbits around their planets, since the scene blows their distances up far more
+	 * than the planets' and no single mass per planet would hold them.
+	 */
+	private void createNBody(Scenario scenario) {
+		int capacity = 1 + planets.size();
+		for (BodyCatalog c : catalogs) {
+			capacity += c.getCount();
+		}
+		double sunMass = scenario.getSunMass();
+		double[] velocity = new double[3];
+		nbody = new NBodySystem(capacity, scenario.getTheta(), scenario.getSoftening());
 		
+		//the Sun is body 0 and the planets follow in order, so planet k is body k + 1
+		nbody.add(position, velocity, sunMass);
+		for (Planet p : planets) {
+			orbits.getState(p.getStateIndex(), position, velocity);
+			nbody.add(position, velocity, p.getMass() * sunMass);
+		}
+		catalogFirst = new int[catalogs.size()];
+		for (int i = 0; i < catalogs.size(); ++i) {
+			catalogFirst[i] = catalogs.get(i).addTo(nbody);
+		}
+		nbody.removeMomentum();
+	}
+	
+	/**
+	 * Loads the textures of every body, needs a current GL context.
+	 * If the GPU can draw instanced spheres, the planet and moon textures go into one shared texture array,
+	 * otherwise each body gets its texture from the texture manager, which shares it between bodies using the same image.
+	 * Bodies with tiles stream them instead when batched, and keep their texture otherwise.
+	 * 
+	 * @param gl
+	 */
+	public void loadTextures(GL2 gl) {
+		textures = new TextureManager();
+		sun.loadTexture(gl, textures);
+		if (InstancedSphereRenderer.isSupported(gl)) {
+			ArrayList<String> paths = new ArrayList<>();
+			for (AstronomicalObject body : bodies) {
+				paths.add(body.getTexturePath());
+			}
+			try {
+				instances = new InstancedSphereRenderer(gl, paths, textures);
+				for (AstronomicalObject body : bodies) {
+					body.setTextureLayer(instances.getLayer(body.getTexturePath()));
+				}
+				this.loadTiles(gl);
+				return;
+			}
+			catch (IOException | GLException e) {
+				System.out.println("Instanced rendering not available: " + e.getMessage());
+			}
+		}
+		else {
+			System.out.println("Instanced rendering not available: GL 3.3 is needed");
+		}
+		for (AstronomicalObject body : bodies) {
+			loadTexture(gl, body);
+			if (body.getTilesPath() != null) {
+				System.out.println("Tiled textures not available: needs GL 3.3, using " + body.getTexturePath());
+			}
+		}
+	}
+	
+	/**
+	 * Maps the tile pyramids of the bodies that have them and hands them to the batch as streamed textures
+	 */
+	private void loadTiles(GL2 gl) {
+		ArrayList<String> paths = new ArrayList<>();
+		for (AstronomicalObject body : bodies) {
+			if (body.getTilesPath() != null) {
+				paths.add(body.getTilesPath());
+			}
+		}
+		if (paths.isEmpty()) {
+			return;
+		}
+		TileCache tiles = new TileCache(gl, paths, textureBudget);
+		if (tiles.getStreamCount() == 0) {
+			tiles.dispose(gl);
+			return;
+		}
+		tiles.setWaiting(waitForTiles);
+		instances.setTiles(tiles);
+		for (AstronomicalObject body : bodies) {
+			body.setTileStream(tiles.getStream(body.getTilesPath()));
+		}
+	}
+	
+	/**
+	 * Maps the scenario's star catalog and copies it to the GPU, needs a current GL context.
+	 * Without a catalog, or a GPU that can draw it, the background stays black.
+	 * 
+	 * @param gl
+	 */
+	public void loadStars(GL2 gl) {
+		if (starsPath == null) {
+			return;
+		}
+		if (!Starfield.isSupported(gl)) {
+			System.out.println("Stars not available: needs GL 3.3");
+			return;
+		}
+		long start = System.nanoTime();
+		try {
+			stars = new Starfield(StarCatalog.map(starsPath));
+			stars.init(gl);
+			stars.setDrawnFraction(starFraction);
+		}
+		catch (NoSuchFileException e) {
+			System.out.println("File not found: " + e.getMessage());
+			stars = null;
+			return;
+		}
+		catch (IOException | GLException e) {
+			System.out.println("Could not load stars: " + e.getMessage());
+			stars = null;
+			return;
+		}
+		System.out.printf("Loaded %d stars in %.1f ms%n", stars.getCatalog().getCount(), (System.nanoTime() - start) / 1e6);
+	}
+	
+	private void loadTexture(GL2 gl, AstronomicalObject object) {
+		if (object.getTexturePath() == null) {
+			return;
+		}
 		try {
-			mercury.addTexture(TextureIO.newTexture(new File("assets/2k_mercury.jpg"), true));
-			venus.addTexture(TextureIO.newTexture(new File("assets/2k_venus_atmosphere.jpg"), true));
-			mars.addTexture(TextureIO.newTexture(new File("assets/2k_mars.jpg"), true));
-			earth.addTexture(TextureIO.newTexture(new File("assets/2k_earth.jpg"), true));
-			moon.addTexture(TextureIO.newTexture(new File("assets/2k_moon.jpg"), true));
-			phobos.addTexture(TextureIO.newTexture(new File("assets/2k_moon.jpg"), true));
-			deimos.addTexture(TextureIO.newTexture(new File("assets/2k_moon.jpg"), true));
+			object.addTexture(textures.getTexture(gl, object.getTexturePath()));
 		} 
 		catch (IOException e) {
 			// file not found
 			System.out.println("File not found: " + e.getMessage());
 		}
+	}
+	
+	@Override
+	public int getBodyCount() {
+		return bodyCount;
+	}
+	
+	/**
+	 * Puts the Sun, the planets with their moons and the catalogs where they are at the given time, called from the simulation thread.
+	 * In N-body mode there is no formula for where gravity takes the bodies, so the system is integrated from its last time
+	 * towards the new one instead. The steps are never longer than the integration can take, and only so many are taken
+	 * each tick, so after a jump in time the planets and catalogs catch up over the next ticks.
+	 */
+	@Override
+	public void setTime(double time) {
+		sun.setTime(time);
+		for (Planet p : planets) {
+			p.setTime(time);
+		}
+		if (nbody != null) {
+			double span = time - nbodyTime;
+			int needed = (int) Math.ceil(Math.abs(span) / NBODY_MAX_STEP);
+			int steps = Math.min(needed, NBODY_MAX_STEPS);
+			double step = needed == 0 ? 0 : span / needed;
+			for (int i = 0; i < steps; ++i) {
+				nbody.step(step); //the leapfrog runs backwards just as well
+			}
+			nbodyTime = steps == needed ? time : nbodyTime + step * steps;
+			for (int i = 0; i < catalogs.size(); ++i) {
+				catalogs.get(i).publish(nbody, catalogFirst[i], 0);
+			}
+			return;
+		}
+		for (BodyCatalog c : catalogs) {
+			c.setTime(time);
+		}
+	}
+	
+	/**
+	 * @param tickLength the real time each simulation tick moves the clock on by
+	 * @return the fastest time scale the simulation keeps up with, which in N-body mode is as much time
+	 * as the integration covers in one tick
+	 */
+	public double getMaxTimeScale(double tickLength) {
+		if (nbody == null) {
+			return SimulationClock.MAX_TIME_SCALE;
+		}
+		return NBODY_MAX_STEP * NBODY_MAX_STEPS / tickLength;
+	}
+	
+	/**
+	 * Copies the angles of every body, then solves where each one is along its orbit in one pass
+	 */
+	@Override
+	public void writeState(double[] orbitAngles, double[] spinAngles, double[] positions) {
+		sun.writeState(orbitAngles, spinAngles);
+		for (Planet p : planets) {
+			p.writeState(orbitAngles, spinAngles);
+		}
+		for (int i = 0; i < bodyCount; ++i) {
+			orbits.setMeanAnomaly(i, orbitAngles[i]);
+		}
+		orbits.propagate(positions);
+		
+		//in N-body mode the planets are wherever gravity has taken them, relative to the Sun which moves too
+		if (nbody != null) {
+			for (int k = 0; k < planets.size(); ++k) {
+				nbody.getPosition(k + 1, 0, position);
+				int index = planets.get(k).getStateIndex() * 3;
+				positions[index] = position[0];
+				positions[index + 1] = position[1];
+				positions[index + 2] = position[2];
+			}
+		}
+	}
+	
+	@Override
+	public void writeRates(double[] orbitRates, double[] spinRates) {
+		sun.writeRates(orbitRates, spinRates);
+		for (Planet p : planets) {
+			p.writeRates(orbitRates, spinRates);
+		}
+	}
+	
+	/**
+	 * Solves the orbits at the given angles, only reading the elements which never change after the constructor.
+	 * In N-body mode the planets keep their blended positions, since gravity rather than their angle decides where they are.
+	 */
+	@Override
+	public void writePositions(double[] orbitAngles, double[] positions) {
+		double[] anomalies = new double[bodyCount];
+		for (int i = 0; i < bodyCount; ++i) {
+			anomalies[i] = Math.toRadians(orbitAngles[i]);
+		}
+		if (nbody == null) {
+			orbits.propagate(anomalies, positions);
+			return;
+		}
+		double[] solved = new double[bodyCount * 3];
+		orbits.propagate(anomalies, solved);
+		for (AstronomicalObject body : bodies) {
+			if (body instanceof Moon) {
+				System.arraycopy(solved, body.getStateIndex() * 3, positions, body.getStateIndex() * 3, 3);
+			}
+		}
+	}
+	
+	//draws a catalog through the shared catalog renderer when the queue runs
+	private class CatalogCommand implements RenderQueue.Command {
+		private final BodyCatalog catalog;
+		private final int index;
+		
+		CatalogCommand(BodyCatalog catalog, int index) {
+			this.catalog = catalog;
+			this.index = index;
+		}
 		
-		//add the planets to the arraylist
-		planets = new ArrayList<>();
-		planets.add(mercury);
-		planets.add(venus);
-		planets.add(earth);
-		planets.add(mars);
+		@Override
+		public void execute(GL2 gl, RenderContext context) {
+			context.loadView(gl);
+			catalogRenderer.draw(gl, catalog, context.getCatalogPositions()[index], context.getCamera().getFrustum(), 
+					context.getStats(), context.getStateCache());
+		}
 	}
 	
 	/**
-	 * Draws the inner solar system
+	 * Draws the inner solar system. Everything is submitted to the render queue first,
+	 * then the queue is sorted and run so bodies sharing state are drawn together.
 	 * @param gl
-	 * @param timeEllapsed
+	 * @param context the snapshot of the simulation and the shared meshes to draw with
 	 */
-	public void draw(GL2 gl, double timeEllapsed) {
-		sun.draw(gl, timeEllapsed);
+	public void draw(GL2 gl, RenderContext context) {
+		context.beginPhase(gl, "cull");
+		this.cull(context);
+		context.beginPhase(gl, "submit");
+		context.getModelStack().reset();
+		sun.draw(gl, context);
+		
+		//planets and moons add their spheres to the batch when batching, then it goes in the queue as one command
+		context.setInstances(instances);
 		for (Planet p : planets) {
-			p.draw(gl, timeEllapsed);
+			p.draw(gl, context);
+		}
+		if (instances != null) {
+			instances.submit(context);
+		}
+		context.setInstances(null);
+		this.submitTrails(gl, context);
+		
+		if (!catalogs.isEmpty()) {
+			if (catalogRenderer == null) {
+				catalogRenderer = new CatalogRenderer();
+				catalogCommands = new CatalogCommand[catalogs.size()];
+				for (int i = 0; i < catalogs.size(); ++i) {
+					catalogCommands[i] = new CatalogCommand(catalogs.get(i), i);
+				}
+			}
+			//the points go after every other opaque command, so the depth test skips the ones the bodies cover
+			for (CatalogCommand c : catalogCommands) {
+				context.getQueue().submit(RenderQueue.lastOpaqueKey(RenderQueue.FIXED_FUNCTION, 0, 0), c);
+			}
+		}
+		if (stars != null) {
+			stars.submit(context);
+		}
+		
+		context.beginPhase(gl, "draw");
+		context.getQueue().execute(gl, context);
+		context.loadView(gl); //the commands left their own transforms on the modelview matrix
+		context.endPhase(gl);
+	}
+	
+	/**
+	 * Adds the newest positions to the trails and submits them
+	 * 
+	 * @param gl
+	 * @param context
+	 */
+	private void submitTrails(GL2 gl, RenderContext context) {
+		if (trails == null) {
+			int[] lengths = new int[bodyCount];
+			double[] intervals = new double[bodyCount];
+			float[][] colors = new float[bodyCount][];
+			colors[sun.getStateIndex()] = new float[3];
+			for (AstronomicalObject body : bodies) {
+				int i = body.getStateIndex();
+				lengths[i] = body.getTrailLength();
+				intervals[i] = lengths[i] > 0 ? Math.abs(body.getOrbitalPeriod()) * TRAIL_ORBIT_FRACTION / lengths[i] : 0;
+				colors[i] = body.getColor();
+			}
+			trails = new TrailRenderer(lengths, intervals, colors);
+			trails.init(gl);
+			trails.setOn(trailsOn);
+			trails.setDrawnFraction(trailFraction);
+		}
+		BodyState state = context.getState();
+		for (AstronomicalObject body : bodies) {
+			body.getPosition(state, trailPosition);
+			trails.append(gl, body.getStateIndex(), state.getTime(), trailPosition[0], trailPosition[1], trailPosition[2]);
+		}
+		trails.submit(context);
+	}
+	
+	/**
+	 * Works out which bodies and orbit rings the camera can see this frame, the rest skip their draw calls
+	 * 
+	 * @param context
+	 */
+	private void cull(RenderContext context) {
+		BodyState state = context.getState();
+		if (bounds == null) {
+			bounds = new BoundingVolumeHierarchy(bodyCount * 2);
+			visible = new boolean[bodyCount * 2];
 		}
+		
+		int candidates = 1;
+		sun.getBoundingSphere(sphere);
+		bounds.setItem(sun.getStateIndex(), sphere[0], sphere[1], sphere[2], sphere[3]);
+		bounds.setItem(bodyCount + sun.getStateIndex(), 0, 0, 0, -1); //the Sun has no orbit ring
+		for (AstronomicalObject body : bodies) {
+			body.getBoundingSphere(state, sphere);
+			bounds.setItem(body.getStateIndex(), sphere[0], sphere[1], sphere[2], sphere[3]);
+			candidates++;
+			if (body.isPathOn()) {
+				body.getOrbitBoundingSphere(state, sphere);
+				bounds.setItem(bodyCount + body.getStateIndex(), sphere[0], sphere[1], sphere[2], sphere[3]);
+				candidates++;
+			}
+			else {
+				bounds.setItem(bodyCount + body.getStateIndex(), 0, 0, 0, -1);
+			}
+		}
+		
+		if (boundsFrames++ % BOUNDS_REBUILD_INTERVAL == 0) {
+			bounds.build();
+		}
+		else {
+			bounds.refit();
+		}
+		int drawn = bounds.cull(context.getCamera().getFrustum(), visible);
+		context.getStats().addCulling(drawn, candidates - drawn);
+		context.setVisibility(visible, bodyCount);
+	}
+	
+	/**
+	 * Releases the GPU resources of the solar system
+	 * 
+	 * @param gl
+	 */
+	public void dispose(GL2 gl) {
+		sun.dispose(gl);
+		if (trails != null) {
+			trails.dispose(gl);
+			trails = null;
+		}
+		if (catalogRenderer != null) {
+			catalogRenderer.dispose(gl);
+			catalogRenderer = null;
+		}
+		if (stars != null) {
+			stars.dispose(gl);
+			stars = null;
+		}
+		if (instances != null) {
+			instances.dispose(gl);
+			instances = null;
+		}
+		if (textures != null) {
+			textures.dispose(gl);
+			textures = null;
+		}
+	}
+	
+	public ArrayList<Planet> getPlanets() {
+		return this.planets;
+	}
+	
+	public ArrayList<AstronomicalObject> getBodies() {
+		return this.bodies;
 	}
 		
 	public void toggleDrawPath() {
@@ -84,6 +526,71 @@ public class SolarSystem {
 		}
 	}
 	
+	/**
+	 * Turns the trails behind the planets and moons on or off, they keep recording while off
+	 */
+	public void toggleTrails() {
+		trailsOn = !trailsOn;
+		if (trails != null) {
+			trails.setOn(trailsOn);
+		}
+	}
+	
+	/**
+	 * Shortens the trails that are drawn without losing what they've recorded
+	 * 
+	 * @param fraction how much of each trail to draw, from the newest sample back
+	 */
+	public void setTrailFraction(double fraction) {
+		trailFraction = fraction;
+		if (trails != null) {
+			trails.setDrawnFraction(fraction);
+		}
+	}
+	
+	/**
+	 * @return the cache of the streamed textures, or null if there are none
+	 */
+	public TileCache getTiles() {
+		return instances == null ? null : instances.getTiles();
+	}
+	
+	/**
+	 * @param waitForTiles true to wait for every tile a frame needs before drawing it, so offscreen runs give the same frames,
+	 * set before loading the textures
+	 */
+	public void setWaitForTiles(boolean waitForTiles) {
+		this.waitForTiles = waitForTiles;
+	}
+	
+	/**
+	 * Turns the stars behind the scene on or off
+	 */
+	public void toggleStars() {
+		if (stars != null) {
+			stars.toggle();
+		}
+	}
+	
+	/**
+	 * Draws only the brightest part of the star catalog
+	 * 
+	 * @param fraction how much of the catalog to draw, brightest first
+	 */
+	public void setStarFraction(double fraction) {
+		starFraction = fraction;
+		if (stars != null) {
+			stars.setDrawnFraction(fraction);
+		}
+	}
+	
+	/**
+	 * @return the stars behind the scene, or null if there are none
+	 */
+	public Starfield getStars() {
+		return stars;
+	}
+	
 	public void toggleOrbit() {
 		for (Planet p : planets) {
 			p.toggleOrbit();
@@ -97,6 +604,33 @@ public class SolarSystem {
 		}
 	}
 	
+	/**
+	 * Takes the newest positions of every catalog, called from the GL thread once a frame before anything reads them,
+	 * so the picker and the catalog renderer work from the same positions
+	 * 
+	 * @return the positions by catalog, null for a catalog that hasn't started moving yet
+	 */
+	public float[][] latchCatalogPositions() {
+		if (catalogPositions == null) {
+			catalogPositions = new float[catalogs.size()][];
+		}
+		for (int i = 0; i < catalogs.size(); ++i) {
+			catalogPositions[i] = catalogs.get(i).getLatestPositions();
+		}
+		return catalogPositions;
+	}
+	
+	public ArrayList<BodyCatalog> getCatalogs() {
+		return this.catalogs;
+	}
+	
+	/**
+	 * @return the N-body integration, or null if the scenario uses fixed orbits
+	 */
+	public NBodySystem getNBody() {
+		return this.nbody;
+	}
+	
 	public Sun getSun() {
 		return this.sun;
 	}
@@ -0,0 +1,134 @@
+package input;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands input events from the AWT event thread to the GL thread without locks. Exactly one thread adds and one
+ * takes, so each side only writes its own index and reads the other's. The events live in parallel arrays that
+ * are filled before the index moves past them. Adding an event never allocates or blocks. When the GL thread
+ * falls so far behind that the queue is full, the new event is dropped and counted.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class InputQueue {
+	private final int mask;
+	private final long[] times;
+	private final int[] types;
+	private final int[] as;
+	private final int[] bs;
+	private final AtomicLong head = new AtomicLong(); //the next event to take, only written by the consumer
+	private final AtomicLong tail = new AtomicLong(); //the next free slot, only written by the producer
+	private long cachedHead; //the producer's last look at the head, so it doesn't read it on every add
+	private volatile long dropped;
+	
+	/**
+	 * An event taken off the queue, reused so taking one doesn't allocate
+	 */
+	public static class Event {
+		private long time;
+		private int type, a, b;
+		
+		/**
+		 * @return when the event happened, from System.nanoTime()
+		 */
+		public long getTime() {
+			return time;
+		}
+		
+		public int getType() {
+			return type;
+		}
+		
+		/**
+		 * @return the key code, or the x position of a click
+		 */
+		public int getA() {
+			return a;
+		}
+		
+		/**
+		 * @return the y position of a click
+		 */
+		public int getB() {
+			return b;
+		}
+	}
+	
+	/**
+	 * @param capacity how many events can wait at once, rounded up to a power of two
+	 */
+	public InputQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.mask = size - 1;
+		this.times = new long[size];
+		this.types = new int[size];
+		this.as = new int[size];
+		this.bs = new int[size];
+	}
+	
+	/**
+	 * Adds an event, only ever called from the one producing thread
+	 * 
+	 * @param time when it happened, from System.nanoTime()
+	 * @param type the kind of event, like {@link replay.InputRecording#KEY_PRESSED}
+	 * @param a the key code or x position
+	 * @param b the y position, 0 for keys
+	 * @return false if the queue was full and the event was dropped
+	 */
+	public boolean offer(long time, int type, int a, int b) {
+		long t = tail.get();
+		if (t - cachedHead > mask) {
+			cachedHead = head.get();
+			if (t - cachedHead > mask) {
+				dropped++; //only this thread writes it
+				return false;
+			}
+		}
+		int slot = (int) t & mask;
+		times[slot] = time;
+		types[slot] = type;
+		as[slot] = a;
+		bs[slot] = b;
+		tail.lazySet(t + 1); //publishes the slot after it's filled
+		return true;
+	}
+	
+	/**
+	 * Takes the oldest event, only ever called from the one consuming thread
+	 * 
+	 * @param out where to copy the event
+	 * @return false if there was nothing waiting
+	 */
+	public boolean poll(Event out) {
+		long h = head.get();
+		if (h == tail.get()) {
+			return false;
+		}
+		int slot = (int) h & mask;
+		out.time = times[slot];
+		out.type = types[slot];
+		out.a = as[slot];
+		out.b = bs[slot];
+		head.lazySet(h + 1); //frees the slot after it's read
+		return true;
+	}
+	
+	/**
+	 * @return how many events are waiting, may already be out of date
+	 */
+	public int size() {
+		return (int) (tail.get() - head.get());
+	}
+	
+	public int getCapacity() {
+		return mask + 1;
+	}
+	
+	/**
+	 * @return how many events were dropped because the queue was full
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+}
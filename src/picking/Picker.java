@@ -0,0 +1,193 @@
+package picking;
+
+import java.util.List;
+
+import rendering.BoundingVolumeHierarchy;
+import sceneObjects.AstronomicalObject;
+import sceneObjects.Sun;
+import simulation.BodyCatalog;
+import simulation.BodyState;
+import viewer.Camera;
+
+/**
+ * Finds the body under the mouse by casting a ray from the camera through a tree of bounding spheres
+ * around the Sun, the planets, the moons and every body of the catalogs. The spheres are refitted to the
+ * newest positions every frame and the tree is only rebuilt now and then, so a pick only has to walk the tree.
+ * Items are numbered by state index for the Sun, planets and moons, followed by the catalog bodies in order.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class Picker {
+	public static final int NONE = -1;
+	private static final int REBUILD_INTERVAL = 600; //frames between rebuilding the tree, it is refitted in between
+	private static final double PICK_PIXELS = 4; //how far from a body a click can be and still pick it
+	
+	private final Sun sun;
+	private final AstronomicalObject[] bodies; //by state index, null for the Sun
+	private final List<BodyCatalog> catalogs;
+	private final int[] catalogFirst; //the item number of each catalog's first body
+	private final float[][] catalogPositions; //the positions the tree was last fitted to
+	private final BoundingVolumeHierarchy bounds;
+	private final double[] position = new double[3];
+	private final double[] origin = new double[3];
+	private final double[] direction = new double[3];
+	private final double[] hit = new double[1];
+	private int frames;
+	private volatile int selected = NONE;
+	private long lastPickNanos;
+	
+	/**
+	 * @param sun
+	 * @param bodies the planets and all their moons
+	 * @param catalogs
+	 */
+	public Picker(Sun sun, List<AstronomicalObject> bodies, List<BodyCatalog> catalogs) {
+		this.sun = sun;
+		this.bodies = new AstronomicalObject[bodies.size() + 1];
+		for (AstronomicalObject body : bodies) {
+			this.bodies[body.getStateIndex()] = body;
+		}
+		this.catalogs = catalogs;
+		this.catalogFirst = new int[catalogs.size()];
+		this.catalogPositions = new float[catalogs.size()][];
+		int items = this.bodies.length;
+		for (int i = 0; i < catalogs.size(); ++i) {
+			catalogFirst[i] = items;
+			items += catalogs.get(i).getCount();
+		}
+		this.bounds = new BoundingVolumeHierarchy(items);
+	}
+	
+	/**
+	 * Refits the tree to a snapshot, called from the GL thread once a frame
+	 * 
+	 * @param state
+	 * @param positions the positions of each catalog for the frame, the same ones the catalogs are drawn at
+	 */
+	public void update(BodyState state, float[][] positions) {
+		for (int i = 0; i < bodies.length; ++i) {
+			if (i == sun.getStateIndex()) {
+				bounds.setItem(i, 0, 0, 0, sun.getRadius());
+				continue;
+			}
+			bodies[i].getPosition(state, position);
+			bounds.setItem(i, position[0], position[1], position[2], bodies[i].getRadius());
+		}
+		for (int c = 0; c < catalogs.size(); ++c) {
+			BodyCatalog catalog = catalogs.get(c);
+			float[] p = positions[c];
+			catalogPositions[c] = p;
+			for (int i = 0; i < catalog.getCount(); ++i) {
+				if (p == null) {
+					bounds.setItem(catalogFirst[c] + i, 0, 0, 0, -1); //not moving yet, so nowhere to pick
+				}
+				else {
+					bounds.setItem(catalogFirst[c] + i, p[i * 3], p[i * 3 + 1], p[i * 3 + 2], catalog.getRadius(i));
+				}
+			}
+		}
+		if (frames++ % REBUILD_INTERVAL == 0) {
+			bounds.build();
+		}
+		else {
+			bounds.refit();
+		}
+	}
+	
+	/**
+	 * Selects the nearest body under a point on the screen, as of the last {@link #update(BodyState, float[][])}
+	 * 
+	 * @param camera
+	 * @param x the position on the window in pixels from the left
+	 * @param y the position on the window in pixels from the top
+	 * @return the item picked, or {@link #NONE} if the click missed everything
+	 */
+	public int pick(Camera camera, double x, double y) {
+		long start = System.nanoTime();
+		camera.getPickRay(x, y, origin, direction);
+		selected = bounds.raycast(origin[0], origin[1], origin[2], direction[0], direction[1], direction[2], 
+				camera.getPixelAngle() * PICK_PIXELS, hit);
+		lastPickNanos = System.nanoTime() - start;
+		return selected;
+	}
+	
+	/**
+	 * @return the selected item, or {@link #NONE}
+	 */
+	public int getSelected() {
+		return selected;
+	}
+	
+	public void clearSelection() {
+		selected = NONE;
+	}
+	
+	/**
+	 * Works out where an item is, catalog bodies are where the tree was last fitted
+	 * 
+	 * @param item
+	 * @param state
+	 * @param out the array to write x, y, z into
+	 */
+	public void getPosition(int item, BodyState state, double[] out) {
+		if (item == sun.getStateIndex()) {
+			out[0] = out[1] = out[2] = 0;
+		}
+		else if (item < bodies.length) {
+			bodies[item].getPosition(state, out);
+		}
+		else {
+			int c = this.catalogOf(item);
+			int i = (item - catalogFirst[c]) * 3;
+			float[] positions = catalogPositions[c];
+			out[0] = positions[i];
+			out[1] = positions[i + 1];
+			out[2] = positions[i + 2];
+		}
+	}
+	
+	public double getRadius(int item) {
+		if (item == sun.getStateIndex()) {
+			return sun.getRadius();
+		}
+		if (item < bodies.length) {
+			return bodies[item].getRadius();
+		}
+		int c = this.catalogOf(item);
+		return catalogs.get(c).getRadius(item - catalogFirst[c]);
+	}
+	
+	/**
+	 * @return a name to show for an item, like "Planet 3" or "asteroids #120"
+	 */
+	public String getName(int item) {
+		if (item == sun.getStateIndex()) {
+			return "Sun";
+		}
+		if (item < bodies.length) {
+			return bodies[item].getClass().getSimpleName() + " " + item;
+		}
+		int c = this.catalogOf(item);
+		return catalogs.get(c).getName() + " #" + (item - catalogFirst[c]);
+	}
+	
+	private int catalogOf(int item) {
+		int c = catalogFirst.length - 1;
+		while (catalogFirst[c] > item) {
+			c--;
+		}
+		return c;
+	}
+	
+	/**
+	 * @return how long the last pick took in nanoseconds
+	 */
+	public long getLastPickNanos() {
+		return lastPickNanos;
+	}
+	
+	public int getItemCount() {
+		return bounds.getItemCount();
+	}
+}
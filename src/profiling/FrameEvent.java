@@ -0,0 +1,33 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A Flight Recorder event for one whole frame
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+@Name("innersolarsystem.Frame")
+@Label("Frame")
+@Category({"Inner Solar System", "Rendering"})
+@Description("Time between frames and CPU time spent drawing one")
+@StackTrace(false)
+public class FrameEvent extends jdk.jfr.Event {
+	@Label("Frame")
+	long frame;
+	
+	@Label("Frame Time")
+	@Description("Time since the previous frame started")
+	@Timespan(Timespan.NANOSECONDS)
+	long frameTime;
+	
+	@Label("CPU Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long cpuTime;
+}
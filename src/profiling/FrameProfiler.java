@@ -0,0 +1,244 @@
+package profiling;
+
+import java.util.HashMap;
+
+import com.jogamp.opengl.GL2;
+
+import jdk.jfr.EventType;
+
+/**
+ * Measures where each frame goes, phase by phase. CPU time comes from {@link System#nanoTime()} and GPU time
+ * from GL_TIME_ELAPSED queries. The queries are double buffered: a frame's results are only read two frames later
+ * when the same queries come round again, and if the GPU still hasn't finished them the phase simply isn't timed
+ * that frame, so reading them never stalls.
+ * 
+ * Phases must not overlap, since only one time query can run at once. Every phase also goes out as a
+ * Flight Recorder event while a recording is running.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class FrameProfiler {
+	public static final int MAX_PHASES = 16;
+	private static final int BUFFERS = 2;
+	private static final double SMOOTHING = 0.05; //weight of the newest sample in the averages
+	
+	private final boolean gpuTimers;
+	private final int[][] queries = new int[BUFFERS][MAX_PHASES];
+	private final boolean[][] issued = new boolean[BUFFERS][MAX_PHASES]; //waiting for a result
+	private final long[][] cpuTimes = new long[BUFFERS][MAX_PHASES]; //kept until the GPU result comes back
+	private final long[] frameNumbers = new long[BUFFERS];
+	private final long[] queryResult = new long[1];
+	private final int[] available = new int[1];
+	
+	private final HashMap<String, Integer> phaseIndices = new HashMap<>();
+	private final String[] phaseNames = new String[MAX_PHASES];
+	private int phaseCount;
+	private final double[] cpuAverage = new double[MAX_PHASES]; //milliseconds
+	private final double[] gpuAverage = new double[MAX_PHASES];
+	
+	private final RollingHistogram frameTimes = new RollingHistogram(600);
+	private final RollingHistogram inputLatency = new RollingHistogram(600);
+	private final EventType phaseEventType = EventType.getEventType(PhaseEvent.class);
+	private final EventType frameEventType = EventType.getEventType(FrameEvent.class);
+	private long frame;
+	private int buffer;
+	private long frameStart;
+	private long lastFrameStart;
+	private int currentPhase = -1;
+	private long phaseStart;
+	private boolean queryRunning;
+	
+	/**
+	 * Creates the time queries if the GPU supports them, needs a current GL context
+	 * 
+	 * @param gl
+	 */
+	public FrameProfiler(GL2 gl) {
+		this.gpuTimers = isTimerQuerySupported(gl);
+		if (gpuTimers) {
+			for (int b = 0; b < BUFFERS; ++b) {
+				gl.glGenQueries(MAX_PHASES, queries[b], 0);
+			}
+		}
+	}
+	
+	/**
+	 * @return true if the GPU can time how long commands take
+	 */
+	public static boolean isTimerQuerySupported(GL2 gl) {
+		return (gl.isExtensionAvailable("GL_ARB_timer_query") || gl.isExtensionAvailable("GL_EXT_timer_query")) 
+				&& gl.isFunctionAvailable("glGetQueryObjectui64v");
+	}
+	
+	/**
+	 * Starts a frame, collecting the GPU results of the frame that last used this frame's queries
+	 * 
+	 * @param gl
+	 */
+	public void beginFrame(GL2 gl) {
+		long now = System.nanoTime();
+		if (lastFrameStart != 0) {
+			frameTimes.add(now - lastFrameStart);
+		}
+		frameStart = now;
+		buffer = (int) (frame % BUFFERS);
+		
+		for (int p = 0; p < phaseCount; ++p) {
+			if (!issued[buffer][p]) {
+				continue;
+			}
+			gl.glGetQueryObjectiv(queries[buffer][p], GL2.GL_QUERY_RESULT_AVAILABLE, available, 0);
+			if (available[0] == 0) {
+				continue; //still running, leave it and skip timing this phase on the GPU this frame
+			}
+			gl.glGetQueryObjectui64v(queries[buffer][p], GL2.GL_QUERY_RESULT, queryResult, 0);
+			issued[buffer][p] = false;
+			gpuAverage[p] += (queryResult[0] / 1e6 - gpuAverage[p]) * SMOOTHING;
+			commitPhase(frameNumbers[buffer], p, cpuTimes[buffer][p], queryResult[0]);
+		}
+		frameNumbers[buffer] = frame;
+	}
+	
+	/**
+	 * Starts timing a phase, ending the previous one if it is still running
+	 * 
+	 * @param gl
+	 * @param phase the name of the phase, the same name always adds up into the same phase
+	 */
+	public void begin(GL2 gl, String phase) {
+		if (currentPhase >= 0) {
+			end(gl);
+		}
+		Integer index = phaseIndices.get(phase);
+		if (index == null) {
+			if (phaseCount == MAX_PHASES) {
+				return; //out of room, leave it unmeasured
+			}
+			index = phaseCount++;
+			phaseIndices.put(phase, index);
+			phaseNames[index] = phase;
+		}
+		currentPhase = index;
+		if (gpuTimers && !issued[buffer][currentPhase]) {
+			gl.glBeginQuery(GL2.GL_TIME_ELAPSED, queries[buffer][currentPhase]);
+			queryRunning = true;
+		}
+		phaseStart = System.nanoTime();
+	}
+	
+	/**
+	 * Stops timing the current phase
+	 * 
+	 * @param gl
+	 */
+	public void end(GL2 gl) {
+		if (currentPhase < 0) {
+			return;
+		}
+		long cpu = System.nanoTime() - phaseStart;
+		cpuAverage[currentPhase] += (cpu / 1e6 - cpuAverage[currentPhase]) * SMOOTHING;
+		if (queryRunning) {
+			gl.glEndQuery(GL2.GL_TIME_ELAPSED);
+			queryRunning = false;
+			issued[buffer][currentPhase] = true;
+			cpuTimes[buffer][currentPhase] = cpu;
+		}
+		else {
+			commitPhase(frame, currentPhase, cpu, -1);
+		}
+		currentPhase = -1;
+	}
+	
+	/**
+	 * Finishes the frame
+	 * 
+	 * @param gl
+	 */
+	public void endFrame(GL2 gl) {
+		end(gl);
+		long now = System.nanoTime();
+		if (frameEventType.isEnabled() && lastFrameStart != 0) {
+			FrameEvent event = new FrameEvent();
+			event.frame = frame;
+			event.frameTime = frameStart - lastFrameStart;
+			event.cpuTime = now - frameStart;
+			event.commit();
+		}
+		lastFrameStart = frameStart;
+		frame++;
+	}
+	
+	private void commitPhase(long frame, int phase, long cpu, long gpu) {
+		if (!phaseEventType.isEnabled()) {
+			return;
+		}
+		PhaseEvent event = new PhaseEvent();
+		event.frame = frame;
+		event.phase = phaseNames[phase];
+		event.cpuTime = cpu;
+		event.gpuTime = gpu;
+		event.commit();
+	}
+	
+	public void dispose(GL2 gl) {
+		if (gpuTimers) {
+			for (int b = 0; b < BUFFERS; ++b) {
+				gl.glDeleteQueries(MAX_PHASES, queries[b], 0);
+			}
+		}
+	}
+	
+	public boolean hasGpuTimers() {
+		return gpuTimers;
+	}
+	
+	public int getPhaseCount() {
+		return phaseCount;
+	}
+	
+	public String getPhaseName(int phase) {
+		return phaseNames[phase];
+	}
+	
+	/**
+	 * @return the smoothed CPU time of a phase in milliseconds
+	 */
+	public double getCpuMillis(int phase) {
+		return cpuAverage[phase];
+	}
+	
+	/**
+	 * @return the smoothed GPU time of a phase in milliseconds, 0 without GPU timers
+	 */
+	public double getGpuMillis(int phase) {
+		return gpuAverage[phase];
+	}
+	
+	/**
+	 * @return the time between frame starts in nanoseconds over the last 600 frames
+	 */
+	public RollingHistogram getFrameTimes() {
+		return frameTimes;
+	}
+	
+	/**
+	 * Adds how long an input event took to reach the screen
+	 * 
+	 * @param nanos from the event to the end of the frame it changed
+	 */
+	public void addInputLatency(long nanos) {
+		inputLatency.add(nanos);
+	}
+	
+	/**
+	 * @return the input latency in nanoseconds over the last 600 events
+	 */
+	public RollingHistogram getInputLatency() {
+		return inputLatency;
+	}
+	
+	public long getFrame() {
+		return frame;
+	}
+}
@@ -0,0 +1,36 @@
+package profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A Flight Recorder event for one phase of one frame
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+@Name("innersolarsystem.FramePhase")
+@Label("Frame Phase")
+@Category({"Inner Solar System", "Rendering"})
+@Description("CPU and GPU time spent in one phase of a frame")
+@StackTrace(false)
+public class PhaseEvent extends jdk.jfr.Event {
+	@Label("Frame")
+	long frame;
+	
+	@Label("Phase")
+	String phase;
+	
+	@Label("CPU Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long cpuTime;
+	
+	@Label("GPU Time")
+	@Description("-1 when the GPU can't time queries")
+	@Timespan(Timespan.NANOSECONDS)
+	long gpuTime;
+}
@@ -0,0 +1,116 @@
+package profiling;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.util.gl2.GLUT;
+
+import rendering.QualityController;
+
+/**
+ * Prints the frame time percentiles, the quality levels, the time of the last pick and the time of every phase in the corner of the window
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class ProfilerOverlay {
+	private static final int LINE_HEIGHT = 15;
+	private static final int MARGIN = 10;
+	
+	private final GLUT glut = new GLUT();
+	private final StringBuilder line = new StringBuilder();
+	private String pickedName; //the body picked last, null until something is
+	private long pickNanos;
+	private int pickItems;
+	private QualityController quality; //null when quality isn't being scaled
+	
+	/**
+	 * Draws the overlay on top of whatever is on screen
+	 * 
+	 * @param gl
+	 * @param profiler
+	 * @param windowHeight the height of the window in pixels
+	 */
+	public void draw(GL2 gl, FrameProfiler profiler, int windowHeight) {
+		gl.glPushAttrib(GL2.GL_ENABLE_BIT | GL2.GL_CURRENT_BIT);
+		gl.glDisable(GL2.GL_LIGHTING);
+		gl.glDisable(GL2.GL_DEPTH_TEST);
+		gl.glDisable(GL2.GL_TEXTURE_2D);
+		gl.glColor3f(1f, 1f, 0.6f);
+		
+		int y = windowHeight - MARGIN - LINE_HEIGHT;
+		RollingHistogram frames = profiler.getFrameTimes();
+		line.setLength(0);
+		line.append("frame ms  p50 ").append(format(frames.getPercentile(50) / 1e6))
+				.append("  p95 ").append(format(frames.getPercentile(95) / 1e6))
+				.append("  p99 ").append(format(frames.getPercentile(99) / 1e6));
+		y = print(gl, y);
+		
+		RollingHistogram input = profiler.getInputLatency();
+		if (input.getCount() > 0) {
+			line.setLength(0);
+			line.append("input ms  p50 ").append(format(input.getPercentile(50) / 1e6))
+					.append("  p95 ").append(format(input.getPercentile(95) / 1e6))
+					.append("  max ").append(format(input.getPercentile(100) / 1e6));
+			y = print(gl, y);
+		}
+		
+		if (quality != null) {
+			line.setLength(0);
+			line.append(quality);
+			y = print(gl, y);
+		}
+		
+		if (pickedName != null) {
+			line.setLength(0);
+			line.append("pick us   ").append(pickNanos / 1000).append("  ").append(pickedName)
+					.append(" of ").append(pickItems).append(" bodies");
+			y = print(gl, y);
+		}
+		
+		line.setLength(0);
+		line.append(profiler.hasGpuTimers() ? "phase     cpu ms   gpu ms" : "phase     cpu ms   (no GPU timers)");
+		y = print(gl, y);
+		for (int p = 0; p < profiler.getPhaseCount(); ++p) {
+			line.setLength(0);
+			line.append(profiler.getPhaseName(p));
+			while (line.length() < 10) {
+				line.append(' ');
+			}
+			line.append(format(profiler.getCpuMillis(p)));
+			if (profiler.hasGpuTimers()) {
+				line.append("    ").append(format(profiler.getGpuMillis(p)));
+			}
+			y = print(gl, y);
+		}
+		gl.glPopAttrib();
+	}
+	
+	/**
+	 * Shows how long the last pick took, until the next one
+	 * 
+	 * @param name the body picked
+	 * @param nanos how long the pick took
+	 * @param items how many bodies it picked from
+	 */
+	public void setLastPick(String name, long nanos, int items) {
+		this.pickedName = name;
+		this.pickNanos = nanos;
+		this.pickItems = items;
+	}
+	
+	/**
+	 * @param quality the controller to show the levels of, or null to show none
+	 */
+	public void setQuality(QualityController quality) {
+		this.quality = quality;
+	}
+	
+	private int print(GL2 gl, int y) {
+		gl.glWindowPos2i(MARGIN, y);
+		glut.glutBitmapString(GLUT.BITMAP_HELVETICA_12, line.toString());
+		return y - LINE_HEIGHT;
+	}
+	
+	private static String format(double millis) {
+		return String.format("%.2f", millis);
+	}
+}
@@ -0,0 +1,62 @@
+package profiling;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the last few hundred samples, like frame times, and works out percentiles over them
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class RollingHistogram {
+	private final long[] samples;
+	private final long[] sorted; //scratch space for percentiles
+	private int next;
+	private int count;
+	private boolean dirty;
+	
+	/**
+	 * @param size how many of the latest samples to keep
+	 */
+	public RollingHistogram(int size) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Size must be positive: " + size);
+		}
+		this.samples = new long[size];
+		this.sorted = new long[size];
+	}
+	
+	public void add(long sample) {
+		samples[next] = sample;
+		next = (next + 1) % samples.length;
+		count = Math.min(count + 1, samples.length);
+		dirty = true;
+	}
+	
+	/**
+	 * @param percentile from 0 to 100
+	 * @return the sample below which the given percent of the samples fall, 0 if there are none
+	 */
+	public long getPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		if (dirty) {
+			System.arraycopy(samples, 0, sorted, 0, count);
+			Arrays.sort(sorted, 0, count);
+			dirty = false;
+		}
+		int index = (int) Math.ceil(percentile / 100 * count) - 1;
+		return sorted[Math.max(0, Math.min(count - 1, index))];
+	}
+	
+	public int getCount() {
+		return count;
+	}
+	
+	public void clear() {
+		count = 0;
+		next = 0;
+		dirty = true;
+	}
+}
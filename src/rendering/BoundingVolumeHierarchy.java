@@ -0,0 +1,391 @@
+package rendering;
+
+import java.util.Arrays;
+
+import viewer.Frustum;
+
+/**
+ * A tree of bounding spheres over a fixed set of items, for finding which of them the camera can see
+ * without testing every one. Items move every frame, so the spheres are refitted bottom up instead of
+ * rebuilding the tree, and the tree is rebuilt every so often once the fit has loosened.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class BoundingVolumeHierarchy {
+	private static final int LEAF_SIZE = 4;
+	private static final int NONE = -1;
+	
+	private int itemCount;
+	private double[] itemX, itemY, itemZ, itemRadius;
+	private int[] order; //the items sorted so every leaf is a range of it
+	
+	//one entry per node, children are always after their parent
+	private int nodeCount;
+	private double[] nodeX, nodeY, nodeZ, nodeRadius;
+	private int[] left, right; //child nodes, NONE for leaves
+	private int[] first, count; //the range of order a leaf covers
+	private int[] stack = new int[64];
+	private double[] keys; //scratch space for splitting
+	
+	/**
+	 * @param itemCount the number of items, each one set with {@link #setItem(int, double, double, double, double)}
+	 */
+	public BoundingVolumeHierarchy(int itemCount) {
+		this.itemCount = itemCount;
+		itemX = new double[itemCount];
+		itemY = new double[itemCount];
+		itemZ = new double[itemCount];
+		itemRadius = new double[itemCount];
+		order = new int[itemCount];
+		keys = new double[itemCount];
+		int capacity = Math.max(1, 2 * itemCount / LEAF_SIZE + 2);
+		nodeX = new double[capacity];
+		nodeY = new double[capacity];
+		nodeZ = new double[capacity];
+		nodeRadius = new double[capacity];
+		left = new int[capacity];
+		right = new int[capacity];
+		first = new int[capacity];
+		count = new int[capacity];
+	}
+	
+	/**
+	 * Sets the bounding sphere of an item, a negative radius hides the item
+	 */
+	public void setItem(int item, double x, double y, double z, double radius) {
+		itemX[item] = x;
+		itemY[item] = y;
+		itemZ[item] = z;
+		itemRadius[item] = radius;
+	}
+	
+	/**
+	 * Builds the tree from scratch around the current item spheres, splitting on the longest axis at the median
+	 */
+	public void build() {
+		for (int i = 0; i < itemCount; ++i) {
+			order[i] = i;
+		}
+		nodeCount = 0;
+		if (itemCount == 0) {
+			return;
+		}
+		buildNode(0, itemCount);
+		refit();
+	}
+	
+	private int buildNode(int from, int to) {
+		if (nodeCount == left.length) {
+			grow(nodeCount * 2);
+		}
+		int node = nodeCount++;
+		first[node] = from;
+		count[node] = to - from;
+		left[node] = right[node] = NONE;
+		if (to - from <= LEAF_SIZE) {
+			return node;
+		}
+		
+		//the axis the centres are spread the most along
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+		for (int i = from; i < to; ++i) {
+			int item = order[i];
+			minX = Math.min(minX, itemX[item]);
+			maxX = Math.max(maxX, itemX[item]);
+			minY = Math.min(minY, itemY[item]);
+			maxY = Math.max(maxY, itemY[item]);
+			minZ = Math.min(minZ, itemZ[item]);
+			maxZ = Math.max(maxZ, itemZ[item]);
+		}
+		double[] axis = itemX;
+		if (maxY - minY > maxX - minX && maxY - minY >= maxZ - minZ) {
+			axis = itemY;
+		}
+		else if (maxZ - minZ > maxX - minX) {
+			axis = itemZ;
+		}
+		int middle = (from + to) >>> 1;
+		select(axis, from, to - 1, middle);
+		
+		int l = buildNode(from, middle);
+		int r = buildNode(middle, to);
+		left[node] = l;
+		right[node] = r;
+		return node;
+	}
+	
+	//moves the items around so the one at k is where it would be if the range was sorted along the axis
+	private void select(double[] axis, int lo, int hi, int k) {
+		for (int i = lo; i <= hi; ++i) {
+			keys[i] = axis[order[i]];
+		}
+		while (hi > lo) {
+			double pivot = keys[(lo + hi) >>> 1];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (keys[i] < pivot) {
+					i++;
+				}
+				while (keys[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					double key = keys[i];
+					keys[i] = keys[j];
+					keys[j] = key;
+					int item = order[i];
+					order[i] = order[j];
+					order[j] = item;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			}
+			else if (k >= i) {
+				lo = i;
+			}
+			else {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Refits every node's sphere around the current item spheres, keeping the shape of the tree
+	 */
+	public void refit() {
+		for (int node = nodeCount - 1; node >= 0; --node) {
+			if (left[node] == NONE) {
+				fitLeaf(node);
+			}
+			else {
+				merge(node, left[node], right[node]);
+			}
+		}
+	}
+	
+	private void fitLeaf(int node) {
+		//centre of the bounding box of the spheres, then the furthest sphere edge from it
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+		int end = first[node] + count[node];
+		for (int i = first[node]; i < end; ++i) {
+			int item = order[i];
+			if (itemRadius[item] < 0) {
+				continue;
+			}
+			minX = Math.min(minX, itemX[item]);
+			maxX = Math.max(maxX, itemX[item]);
+			minY = Math.min(minY, itemY[item]);
+			maxY = Math.max(maxY, itemY[item]);
+			minZ = Math.min(minZ, itemZ[item]);
+			maxZ = Math.max(maxZ, itemZ[item]);
+		}
+		if (minX > maxX) {
+			nodeRadius[node] = -1; //nothing in here to see
+			return;
+		}
+		double cx = (minX + maxX) / 2, cy = (minY + maxY) / 2, cz = (minZ + maxZ) / 2;
+		double radius = 0;
+		for (int i = first[node]; i < end; ++i) {
+			int item = order[i];
+			if (itemRadius[item] < 0) {
+				continue;
+			}
+			double dx = itemX[item] - cx, dy = itemY[item] - cy, dz = itemZ[item] - cz;
+			radius = Math.max(radius, Math.sqrt(dx * dx + dy * dy + dz * dz) + itemRadius[item]);
+		}
+		nodeX[node] = cx;
+		nodeY[node] = cy;
+		nodeZ[node] = cz;
+		nodeRadius[node] = radius;
+	}
+	
+	//the smallest sphere around two child spheres
+	private void merge(int node, int a, int b) {
+		if (nodeRadius[a] < 0 || nodeRadius[b] < 0) {
+			int other = nodeRadius[a] < 0 ? b : a;
+			nodeX[node] = nodeX[other];
+			nodeY[node] = nodeY[other];
+			nodeZ[node] = nodeZ[other];
+			nodeRadius[node] = nodeRadius[other];
+			return;
+		}
+		double dx = nodeX[b] - nodeX[a], dy = nodeY[b] - nodeY[a], dz = nodeZ[b] - nodeZ[a];
+		double dist = Math.sqrt(dx * dx + dy * dy + dz * dz);
+		if (dist + nodeRadius[b] <= nodeRadius[a]) {
+			copy(node, a);
+			return;
+		}
+		if (dist + nodeRadius[a] <= nodeRadius[b]) {
+			copy(node, b);
+			return;
+		}
+		double radius = (dist + nodeRadius[a] + nodeRadius[b]) / 2;
+		double t = (radius - nodeRadius[a]) / dist;
+		nodeX[node] = nodeX[a] + dx * t;
+		nodeY[node] = nodeY[a] + dy * t;
+		nodeZ[node] = nodeZ[a] + dz * t;
+		nodeRadius[node] = radius;
+	}
+	
+	private void copy(int node, int from) {
+		nodeX[node] = nodeX[from];
+		nodeY[node] = nodeY[from];
+		nodeZ[node] = nodeZ[from];
+		nodeRadius[node] = nodeRadius[from];
+	}
+	
+	/**
+	 * Marks which items could be on screen. Whole subtrees outside the frustum are skipped,
+	 * and whole subtrees inside it are marked without testing their items.
+	 * 
+	 * @param frustum
+	 * @param visible set to true for every item that could be on screen, false for the rest
+	 * @return the number of visible items
+	 */
+	public int cull(Frustum frustum, boolean[] visible) {
+		Arrays.fill(visible, 0, itemCount, false);
+		if (nodeCount == 0) {
+			return 0;
+		}
+		int visibleCount = 0;
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (nodeRadius[node] < 0) {
+				continue;
+			}
+			int side = frustum.classifySphere(nodeX[node], nodeY[node], nodeZ[node], nodeRadius[node]);
+			if (side == Frustum.OUTSIDE) {
+				continue;
+			}
+			if (left[node] == NONE || side == Frustum.INSIDE) {
+				boolean test = side != Frustum.INSIDE;
+				visibleCount += markRange(node, frustum, visible, test);
+				continue;
+			}
+			if (top + 2 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			}
+			stack[top++] = left[node];
+			stack[top++] = right[node];
+		}
+		return visibleCount;
+	}
+	
+	//every node's items are a range of order, so a whole subtree is marked in one loop
+	private int markRange(int node, Frustum frustum, boolean[] visible, boolean test) {
+		int marked = 0;
+		int end = first[node] + count[node];
+		for (int i = first[node]; i < end; ++i) {
+			int item = order[i];
+			if (itemRadius[item] < 0) {
+				continue;
+			}
+			if (!test || frustum.intersectsSphere(itemX[item], itemY[item], itemZ[item], itemRadius[item])) {
+				visible[item] = true;
+				marked++;
+			}
+		}
+		return marked;
+	}
+	
+	/**
+	 * Finds the nearest item along a ray. The ray can be widened into a cone, so small items can still be hit,
+	 * and subtrees the cone misses or that start behind the nearest hit so far are skipped.
+	 *
+	 * @param ox the origin of the ray
+	 * @param oy
+	 * @param oz
+	 * @param dx the direction of the ray, normalised
+	 * @param dy
+	 * @param dz
+	 * @param spread how much the radius of the cone grows per unit of distance, 0 for a thin ray
+	 * @param hit where to write the distance along the ray to the item, can be null
+	 * @return the nearest item hit, or -1 if there is none
+	 */
+	public int raycast(double ox, double oy, double oz, double dx, double dy, double dz, double spread, double[] hit) {
+		if (nodeCount == 0) {
+			return NONE;
+		}
+		int nearest = NONE;
+		double best = Double.MAX_VALUE;
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			double radius = nodeRadius[node];
+			if (radius < 0) {
+				continue;
+			}
+			double t = along(node, ox, oy, oz, dx, dy, dz);
+			//the furthest a point of the sphere can be along the ray sets how wide the cone is there
+			if (t + radius < 0 || t - radius > best || !near(nodeX[node], nodeY[node], nodeZ[node], t, radius + (t + radius) * spread, ox, oy, oz, dx, dy, dz)) {
+				continue;
+			}
+			if (left[node] != NONE) {
+				if (top + 2 > stack.length) {
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				stack[top++] = left[node];
+				stack[top++] = right[node];
+				continue;
+			}
+			int end = first[node] + count[node];
+			for (int i = first[node]; i < end; ++i) {
+				int item = order[i];
+				if (itemRadius[item] < 0) {
+					continue;
+				}
+				double ti = (itemX[item] - ox) * dx + (itemY[item] - oy) * dy + (itemZ[item] - oz) * dz;
+				if (ti < 0 || ti >= best) {
+					continue;
+				}
+				if (near(itemX[item], itemY[item], itemZ[item], ti, itemRadius[item] + ti * spread, ox, oy, oz, dx, dy, dz)) {
+					best = ti;
+					nearest = item;
+				}
+			}
+		}
+		if (hit != null && nearest != NONE) {
+			hit[0] = best;
+		}
+		return nearest;
+	}
+
+	//the distance along the ray to the point closest to a node's centre
+	private double along(int node, double ox, double oy, double oz, double dx, double dy, double dz) {
+		return (nodeX[node] - ox) * dx + (nodeY[node] - oy) * dy + (nodeZ[node] - oz) * dz;
+	}
+
+	//whether a point t along the ray is within a distance of the centre
+	private static boolean near(double x, double y, double z, double t, double distance, double ox, double oy, double oz, double dx, double dy, double dz) {
+		double px = ox + dx * t - x, py = oy + dy * t - y, pz = oz + dz * t - z;
+		return px * px + py * py + pz * pz <= distance * distance;
+	}
+
+	private void grow(int capacity) {
+		nodeX = Arrays.copyOf(nodeX, capacity);
+		nodeY = Arrays.copyOf(nodeY, capacity);
+		nodeZ = Arrays.copyOf(nodeZ, capacity);
+		nodeRadius = Arrays.copyOf(nodeRadius, capacity);
+		left = Arrays.copyOf(left, capacity);
+		right = Arrays.copyOf(right, capacity);
+		first = Arrays.copyOf(first, capacity);
+		count = Arrays.copyOf(count, capacity);
+	}
+	
+	public int getItemCount() {
+		return itemCount;
+	}
+	
+	public int getNodeCount() {
+		return nodeCount;
+	}
+}
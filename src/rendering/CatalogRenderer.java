@@ -0,0 +1,182 @@
+package rendering;
+
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.fixedfunc.GLPointerFunc;
+
+import simulation.BodyCatalog;
+import viewer.Frustum;
+
+/**
+ * Draws the bodies of a catalog as unlit points, streaming the newest positions into a vertex buffer every frame.
+ * There are far too many of them for spheres, and most are smaller than a pixel anyway.
+ * The bodies are culled in fixed chunks through a bounding volume hierarchy, and only the chunks in view are drawn.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class CatalogRenderer {
+	private static final int CHUNK = 1024; //bodies per culling chunk
+	private static final int BOUNDS_REBUILD_INTERVAL = 120; //frames between rebuilding the tree, it is refitted in between
+	
+	//the GPU buffer and culling state of one catalog
+	private static class CatalogBuffers {
+		int vbo;
+		BoundingVolumeHierarchy bounds;
+		boolean[] visible;
+		int[] firsts;
+		int[] counts;
+		int frames;
+	}
+	
+	private HashMap<BodyCatalog, CatalogBuffers> buffers = new HashMap<>();
+	private FloatBuffer upload; //direct copy of the positions for glBufferData, grown as needed
+	private float pointSize = 1.5f;
+	
+	/**
+	 * Draws every body in the catalog the camera can see, needs a current GL context
+	 * 
+	 * @param gl
+	 * @param catalog the catalog to draw
+	 * @param positions the positions of the frame from {@link BodyCatalog#getLatestPositions()}, null to draw nothing
+	 * @param frustum the camera's view, null to draw everything
+	 * @param stats the counters to add the draw call to, can be null
+	 * @param state the state cache to turn lighting off through
+	 */
+	public void draw(GL2 gl, BodyCatalog catalog, float[] positions, Frustum frustum, FrameStats stats, GLStateCache state) {
+		if (positions == null) {
+			return;
+		}
+		CatalogBuffers cb = buffers.get(catalog);
+		if (cb == null) {
+			cb = createBuffers(gl, catalog.getCount());
+			buffers.put(catalog, cb);
+		}
+		
+		int bodies = positions.length / 3;
+		int ranges = this.cull(cb, positions, bodies, frustum, stats);
+		if (ranges == 0) {
+			return;
+		}
+		
+		if (upload == null || upload.capacity() < positions.length) {
+			upload = Buffers.newDirectFloatBuffer(positions.length);
+		}
+		upload.clear();
+		upload.put(positions).flip();
+		
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, cb.vbo);
+		//orphan the old storage so the driver doesn't wait for last frame's draw to finish
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) positions.length * Buffers.SIZEOF_FLOAT, null, GL2.GL_STREAM_DRAW);
+		gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0, (long) positions.length * Buffers.SIZEOF_FLOAT, upload);
+		
+		state.useProgram(gl, 0);
+		state.setEnabled(gl, GL2.GL_LIGHTING, false);
+		state.setEnabled(gl, GL2.GL_TEXTURE_2D, false);
+		state.setEnabled(gl, GL2.GL_BLEND, false);
+		state.pointSize(gl, pointSize);
+		float[] color = catalog.getColor();
+		gl.glColor3f(color[0], color[1], color[2]);
+		gl.glEnableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+		gl.glVertexPointer(3, GL.GL_FLOAT, 0, 0);
+		gl.glMultiDrawArrays(GL.GL_POINTS, cb.firsts, 0, cb.counts, 0, ranges);
+		gl.glDisableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+		
+		if (stats != null) {
+			stats.addDrawCall();
+		}
+	}
+	
+	private CatalogBuffers createBuffers(GL2 gl, int bodies) {
+		CatalogBuffers cb = new CatalogBuffers();
+		int[] ids = new int[1];
+		gl.glGenBuffers(1, ids, 0);
+		cb.vbo = ids[0];
+		int chunks = (bodies + CHUNK - 1) / CHUNK;
+		cb.bounds = new BoundingVolumeHierarchy(chunks);
+		cb.visible = new boolean[chunks];
+		cb.firsts = new int[chunks];
+		cb.counts = new int[chunks];
+		return cb;
+	}
+	
+	/**
+	 * Fits a sphere around each chunk of bodies, culls the chunks and joins the visible ones next to each other into ranges
+	 * 
+	 * @return the number of ranges to draw
+	 */
+	private int cull(CatalogBuffers cb, float[] positions, int bodies, Frustum frustum, FrameStats stats) {
+		int chunks = cb.visible.length;
+		if (frustum == null) {
+			cb.firsts[0] = 0;
+			cb.counts[0] = bodies;
+			return bodies > 0 ? 1 : 0;
+		}
+		for (int c = 0; c < chunks; ++c) {
+			int from = c * CHUNK;
+			int to = Math.min(bodies, from + CHUNK);
+			float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+			float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+			for (int i = from * 3; i < to * 3; i += 3) {
+				minX = Math.min(minX, positions[i]);
+				maxX = Math.max(maxX, positions[i]);
+				minY = Math.min(minY, positions[i + 1]);
+				maxY = Math.max(maxY, positions[i + 1]);
+				minZ = Math.min(minZ, positions[i + 2]);
+				maxZ = Math.max(maxZ, positions[i + 2]);
+			}
+			double dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+			cb.bounds.setItem(c, (minX + maxX) / 2.0, (minY + maxY) / 2.0, (minZ + maxZ) / 2.0, Math.sqrt(dx * dx + dy * dy + dz * dz) / 2);
+		}
+		if (cb.frames++ % BOUNDS_REBUILD_INTERVAL == 0) {
+			cb.bounds.build();
+		}
+		else {
+			cb.bounds.refit();
+		}
+		cb.bounds.cull(frustum, cb.visible);
+		
+		int ranges = 0;
+		int drawn = 0;
+		for (int c = 0; c < chunks; ++c) {
+			if (!cb.visible[c]) {
+				continue;
+			}
+			int from = c * CHUNK;
+			int count = Math.min(bodies, from + CHUNK) - from;
+			drawn += count;
+			if (ranges > 0 && cb.firsts[ranges - 1] + cb.counts[ranges - 1] == from) {
+				cb.counts[ranges - 1] += count;
+			}
+			else {
+				cb.firsts[ranges] = from;
+				cb.counts[ranges] = count;
+				ranges++;
+			}
+		}
+		if (stats != null) {
+			stats.addCulling(drawn, bodies - drawn);
+		}
+		return ranges;
+	}
+	
+	public void dispose(GL2 gl) {
+		for (CatalogBuffers cb : buffers.values()) {
+			gl.glDeleteBuffers(1, new int[] {cb.vbo}, 0);
+		}
+		buffers.clear();
+	}
+	
+	public float getPointSize() {
+		return pointSize;
+	}
+	
+	public void setPointSize(float pointSize) {
+		this.pointSize = pointSize;
+	}
+}
@@ -0,0 +1,79 @@
+package rendering;
+
+import java.nio.FloatBuffer;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.fixedfunc.GLPointerFunc;
+
+/**
+ * A unit circle in the xz plane stored in a vertex buffer, drawn as a line loop.
+ * Orbit rings scale it to their radius, so it never has to be rebuilt when an orbit changes.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class CircleMesh {
+	private final int segments;
+	private int vbo;
+	
+	/**
+	 * Generates the circle and uploads it, needs a current GL context
+	 * 
+	 * @param gl
+	 * @param segments the number of vertices around the circle
+	 */
+	public CircleMesh(GL2 gl, int segments) {
+		this.segments = segments;
+		FloatBuffer vertices = generateVertices(segments);
+		
+		int[] buffers = new int[1];
+		gl.glGenBuffers(1, buffers, 0);
+		this.vbo = buffers[0];
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) vertices.capacity() * Buffers.SIZEOF_FLOAT, vertices, GL.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+	}
+	
+	/**
+	 * Generates the points of the circle starting at +x and going towards +z, without repeating the first point
+	 */
+	public static FloatBuffer generateVertices(int segments) {
+		FloatBuffer vertices = Buffers.newDirectFloatBuffer(segments * 3);
+		for (int i = 0; i < segments; ++i) {
+			double rad = 2 * Math.PI * i / segments;
+			vertices.put((float) Math.cos(rad)).put(0f).put((float) Math.sin(rad));
+		}
+		vertices.flip();
+		return vertices;
+	}
+	
+	/**
+	 * Draws the circle with the current modelview matrix and color
+	 * 
+	 * @param gl
+	 * @param stats the counters to add the draw call to, can be null
+	 */
+	public void draw(GL2 gl, FrameStats stats) {
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+		gl.glEnableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+		gl.glVertexPointer(3, GL.GL_FLOAT, 0, 0);
+		gl.glDrawArrays(GL.GL_LINE_LOOP, 0, segments);
+		gl.glDisableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+		
+		if (stats != null) {
+			stats.addDrawCall();
+		}
+	}
+	
+	public void dispose(GL2 gl) {
+		gl.glDeleteBuffers(1, new int[] {vbo}, 0);
+		vbo = 0;
+	}
+	
+	public int getSegments() {
+		return segments;
+	}
+}
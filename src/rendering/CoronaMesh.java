@@ -0,0 +1,111 @@
+package rendering;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.fixedfunc.GLPointerFunc;
+
+/**
+ * All the corona lines of the Sun in one interleaved position/color vertex buffer.
+ * The buffer holds the static lines followed by a few pre-jittered copies of the animated lines,
+ * so animating is just drawing a different range of the buffer, with no work per line on the CPU.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class CoronaMesh {
+	public static final int ANIMATION_FRAMES = 16;
+	private static final int FLOATS_PER_VERTEX = 7; //position, color with alpha
+	private static final int STRIDE = FLOATS_PER_VERTEX * Buffers.SIZEOF_FLOAT;
+	
+	private final int staticVertices;
+	private final int animatedVertices;
+	private final int[] first = new int[2];
+	private final int[] count = new int[2];
+	private int vbo;
+	
+	/**
+	 * Builds the buffer and uploads it, needs a current GL context
+	 * 
+	 * @param gl
+	 * @param staticLines the end points of the static lines, x, y, z for each line
+	 * @param animatedLines the end points of the animated lines before jittering
+	 * @param color the color of the lines
+	 * @param rand the random generator for the jitter
+	 */
+	public CoronaMesh(GL2 gl, float[] staticLines, float[] animatedLines, float[] color, Random rand) {
+		this.staticVertices = staticLines.length / 3 * 2;
+		this.animatedVertices = animatedLines.length / 3 * 2;
+		
+		FloatBuffer vertices = Buffers.newDirectFloatBuffer((staticVertices + animatedVertices * ANIMATION_FRAMES) * FLOATS_PER_VERTEX);
+		for (int i = 0; i < staticLines.length; i += 3) {
+			putVertex(vertices, 0, 0, 0, color, 1f);
+			putVertex(vertices, staticLines[i], staticLines[i + 1], staticLines[i + 2], color, 0.2f);
+		}
+		//varying the x,y,z and the alpha value of every copy, to have some animations
+		for (int frame = 0; frame < ANIMATION_FRAMES; ++frame) {
+			for (int i = 0; i < animatedLines.length; i += 3) {
+				putVertex(vertices, 0, 0, 0, color, 1f);
+				putVertex(vertices, 
+						animatedLines[i] + rand.nextFloat(), 
+						animatedLines[i + 1] + rand.nextFloat(), 
+						animatedLines[i + 2] + rand.nextFloat(), 
+						color, rand.nextFloat() * 0.3f);
+			}
+		}
+		vertices.flip();
+		
+		int[] buffers = new int[1];
+		gl.glGenBuffers(1, buffers, 0);
+		this.vbo = buffers[0];
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) vertices.capacity() * Buffers.SIZEOF_FLOAT, vertices, GL.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+	}
+	
+	private static void putVertex(FloatBuffer vertices, float x, float y, float z, float[] color, float alpha) {
+		vertices.put(x).put(y).put(z);
+		vertices.put(color[0]).put(color[1]).put(color[2]).put(alpha);
+	}
+	
+	/**
+	 * Draws the static lines and one copy of the animated lines in a single call
+	 * 
+	 * @param gl
+	 * @param frame which jittered copy of the animated lines to draw
+	 * @param stats the counters to add the draw call to, can be null
+	 */
+	public void draw(GL2 gl, int frame, FrameStats stats) {
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+		gl.glEnableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+		gl.glEnableClientState(GLPointerFunc.GL_COLOR_ARRAY);
+		gl.glVertexPointer(3, GL.GL_FLOAT, STRIDE, 0);
+		gl.glColorPointer(4, GL.GL_FLOAT, STRIDE, 3 * Buffers.SIZEOF_FLOAT);
+		
+		first[0] = 0;
+		count[0] = staticVertices;
+		first[1] = staticVertices + (frame % ANIMATION_FRAMES) * animatedVertices;
+		count[1] = animatedVertices;
+		gl.glMultiDrawArrays(GL.GL_LINES, first, 0, count, 0, 2);
+		
+		gl.glDisableClientState(GLPointerFunc.GL_COLOR_ARRAY);
+		gl.glDisableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+		
+		if (stats != null) {
+			stats.addDrawCall();
+		}
+	}
+	
+	public void dispose(GL2 gl) {
+		gl.glDeleteBuffers(1, new int[] {vbo}, 0);
+		vbo = 0;
+	}
+	
+	public int getLineCount() {
+		return (staticVertices + animatedVertices) / 2;
+	}
+}
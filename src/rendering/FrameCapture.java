@@ -0,0 +1,173 @@
+package rendering;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import com.jogamp.opengl.GL2;
+
+/**
+ * Saves rendered frames as numbered PNG files without waiting on the GPU. Each frame is read into one of a ring
+ * of pixel buffers, which the GPU fills in the background. It is only copied out a few frames later, once the
+ * buffer comes round again. The copy is then compressed on a pool of encoder threads while the next frames render.
+ *
+ * @author Thong Teav
+ * 14883251
+ */
+public class FrameCapture {
+	private static final int PIXEL_BUFFERS = 3;
+
+	private final int width, height;
+	private final File directory;
+	private final ExecutorService encoders;
+	private final ArrayBlockingQueue<BufferedImage> images; //free images, bounds how far encoding can fall behind
+	private final int[] pbos = new int[PIXEL_BUFFERS];
+	private final long[] pending = new long[PIXEL_BUFFERS]; //the frame waiting in each buffer, -1 if empty
+	private long frame;
+	private volatile IOException failure;
+
+	/**
+	 * @param width the width of the frames in pixels
+	 * @param height the height of the frames in pixels
+	 * @param directory where to write the PNG files, created if it doesn't exist
+	 * @param encoderThreads how many frames to compress at once
+	 */
+	public FrameCapture(int width, int height, File directory, int encoderThreads) {
+		this.width = width;
+		this.height = height;
+		this.directory = directory;
+		this.encoders = Executors.newFixedThreadPool(encoderThreads, r -> {
+			Thread thread = new Thread(r, "png-encoder");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.images = new ArrayBlockingQueue<>(encoderThreads * 2);
+		for (int i = 0; i < encoderThreads * 2; ++i) {
+			images.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+		}
+		directory.mkdirs();
+	}
+
+	/**
+	 * Creates the pixel buffers, needs a current GL context
+	 *
+	 * @param gl
+	 */
+	public void init(GL2 gl) {
+		gl.glGenBuffers(PIXEL_BUFFERS, pbos, 0);
+		for (int i = 0; i < PIXEL_BUFFERS; ++i) {
+			gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, pbos[i]);
+			gl.glBufferData(GL2.GL_PIXEL_PACK_BUFFER, (long) width * height * 4, null, GL2.GL_STREAM_READ);
+			pending[i] = -1;
+		}
+		gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, 0);
+	}
+
+	/**
+	 * Starts reading back the frame just drawn, and hands the oldest frame still in flight to the encoders
+	 *
+	 * @param gl
+	 */
+	public void capture(GL2 gl) throws IOException {
+		if (failure != null) {
+			throw failure;
+		}
+		int slot = (int) (frame % PIXEL_BUFFERS);
+		if (pending[slot] >= 0) {
+			this.save(gl, slot);
+		}
+
+		gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, pbos[slot]);
+		gl.glPixelStorei(GL2.GL_PACK_ALIGNMENT, 4);
+		//the reversed packed format lands as ARGB ints, the same layout as the image so no swizzling is needed
+		gl.glReadPixels(0, 0, width, height, GL2.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, 0);
+		gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, 0);
+		pending[slot] = frame++;
+	}
+
+	/**
+	 * Saves the frames still in the pixel buffers and waits for every file to be written
+	 *
+	 * @param gl
+	 */
+	public void finish(GL2 gl) throws IOException {
+		for (int i = 0; i < PIXEL_BUFFERS; ++i) {
+			int slot = (int) ((frame + i) % PIXEL_BUFFERS);
+			if (pending[slot] >= 0) {
+				this.save(gl, slot);
+			}
+		}
+		encoders.shutdown();
+		try {
+			encoders.awaitTermination(1, TimeUnit.HOURS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	//copies a finished frame out of its pixel buffer and queues it for encoding
+	private void save(GL2 gl, int slot) {
+		BufferedImage image;
+		try {
+			image = images.take(); //waits here if the encoders are too far behind
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+		gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, pbos[slot]);
+		ByteBuffer mapped = gl.glMapBuffer(GL2.GL_PIXEL_PACK_BUFFER, GL2.GL_READ_ONLY);
+		if (mapped != null) {
+			IntBuffer source = mapped.order(ByteOrder.nativeOrder()).asIntBuffer();
+			//GL rows go bottom to top, images go top to bottom
+			for (int y = 0; y < height; ++y) {
+				source.position((height - 1 - y) * width);
+				source.get(pixels, y * width, width);
+			}
+			gl.glUnmapBuffer(GL2.GL_PIXEL_PACK_BUFFER);
+		}
+		gl.glBindBuffer(GL2.GL_PIXEL_PACK_BUFFER, 0);
+
+		File file = new File(directory, String.format("frame_%06d.png", pending[slot]));
+		pending[slot] = -1;
+		encoders.execute(() -> {
+			try {
+				ImageIO.write(image, "png", file);
+			}
+			catch (IOException e) {
+				failure = e;
+			}
+			finally {
+				images.add(image);
+			}
+		});
+	}
+
+	public void dispose(GL2 gl) {
+		gl.glDeleteBuffers(PIXEL_BUFFERS, pbos, 0);
+		encoders.shutdownNow();
+	}
+
+	/**
+	 * @return how many frames have been captured so far
+	 */
+	public long getFrameCount() {
+		return frame;
+	}
+}
@@ -0,0 +1,88 @@
+package rendering;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.jogamp.opengl.GLAutoDrawable;
+
+/**
+ * Drives a drawable at a steady frame time instead of a fixed rate. Each frame is timed, and the thread sleeps
+ * for what's left of the budget. A frame that runs over starts the next one straight away, without trying to
+ * catch up on the frames it missed. The frame times go to a quality controller, if there is one.
+ * Swapping should not wait for vsync, or every frame would appear to cost a whole refresh.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class FramePacer {
+	private final GLAutoDrawable drawable;
+	private final long budget;
+	private final QualityController quality;
+	private volatile boolean running;
+	private Thread thread;
+	
+	/**
+	 * @param drawable
+	 * @param budgetMillis the time each frame should take
+	 * @param quality what to tell how long the frames took, can be null
+	 */
+	public FramePacer(GLAutoDrawable drawable, double budgetMillis, QualityController quality) {
+		this.drawable = drawable;
+		this.budget = (long) (budgetMillis * 1e6);
+		this.quality = quality;
+	}
+	
+	/**
+	 * @return the time each frame should take
+	 */
+	public double getBudgetSeconds() {
+		return budget / 1e9;
+	}
+	
+	public void start() {
+		running = true;
+		thread = new Thread(this::run, "frame-pacer");
+		thread.start();
+	}
+	
+	/**
+	 * Stops after the current frame and waits for it to finish
+	 */
+	public void stop() {
+		running = false;
+		try {
+			thread.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void run() {
+		long next = System.nanoTime();
+		while (running) {
+			long start = System.nanoTime();
+			drawable.display();
+			long cost = System.nanoTime() - start;
+			if (quality != null && quality.addFrame(cost)) {
+				//the knobs change what's drawn, so they're applied on the GL thread before the next frame
+				drawable.invoke(false, d -> {
+					quality.applyChanges();
+					return true;
+				});
+			}
+			
+			next += budget;
+			long wait = next - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			else {
+				next = System.nanoTime();
+			}
+		}
+	}
+	
+	public boolean isRunning() {
+		return running;
+	}
+}
@@ -0,0 +1,147 @@
+package rendering;
+
+/**
+ * Counters collected while drawing a frame, only touched from the GL thread
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class FrameStats {
+	private long frames;
+	private int drawCalls;
+	private int spheres;
+	private int sphereIndices;
+	private int legacySphereIndices;
+	private int drawnObjects;
+	private int culledObjects;
+	private int stateChanges;
+	private int elidedStateChanges;
+	
+	//values of the last finished frame
+	private int lastDrawCalls;
+	private int lastSpheres;
+	private int lastSphereIndices;
+	private int lastLegacySphereIndices;
+	private int lastDrawnObjects;
+	private int lastCulledObjects;
+	private int lastStateChanges;
+	private int lastElidedStateChanges;
+	
+	/**
+	 * Resets the counters at the start of a frame
+	 */
+	public void beginFrame() {
+		drawCalls = 0;
+		spheres = 0;
+		sphereIndices = 0;
+		legacySphereIndices = 0;
+		drawnObjects = 0;
+		culledObjects = 0;
+		stateChanges = 0;
+		elidedStateChanges = 0;
+	}
+	
+	/**
+	 * Keeps the counters of the frame that just finished
+	 */
+	public void endFrame() {
+		frames++;
+		lastDrawCalls = drawCalls;
+		lastSpheres = spheres;
+		lastSphereIndices = sphereIndices;
+		lastLegacySphereIndices = legacySphereIndices;
+		lastDrawnObjects = drawnObjects;
+		lastCulledObjects = culledObjects;
+		lastStateChanges = stateChanges;
+		lastElidedStateChanges = elidedStateChanges;
+	}
+	
+	/**
+	 * Counts one draw call of one or more spheres
+	 * 
+	 * @param count the number of spheres drawn
+	 * @param indices the number of indices drawn from the buffers, three for each triangle
+	 * @param legacyVertices the number the original 50x50 gluSphere calls would have streamed for the same spheres
+	 */
+	public void addSpheres(int count, int indices, int legacyVertices) {
+		drawCalls++;
+		spheres += count;
+		sphereIndices += indices;
+		legacySphereIndices += legacyVertices;
+	}
+	
+	/**
+	 * Counts a draw call that isn't a sphere
+	 */
+	public void addDrawCall() {
+		drawCalls++;
+	}
+	
+	/**
+	 * Counts the result of a frustum culling pass
+	 * 
+	 * @param drawn the number of objects that could be on screen
+	 * @param culled the number of objects skipped
+	 */
+	public void addCulling(int drawn, int culled) {
+		drawnObjects += drawn;
+		culledObjects += culled;
+	}
+	
+	/**
+	 * Counts the state changes made through the state cache
+	 * 
+	 * @param issued the number passed on to GL
+	 * @param elided the number dropped because GL was already in that state
+	 */
+	public void addStateChanges(int issued, int elided) {
+		stateChanges += issued;
+		elidedStateChanges += elided;
+	}
+	
+	public long getFrames() {
+		return frames;
+	}
+
+	public int getDrawCalls() {
+		return lastDrawCalls;
+	}
+
+	public int getSpheres() {
+		return lastSpheres;
+	}
+
+	public int getSphereIndices() {
+		return lastSphereIndices;
+	}
+
+	public int getLegacySphereIndices() {
+		return lastLegacySphereIndices;
+	}
+	
+	public int getDrawnObjects() {
+		return lastDrawnObjects;
+	}
+	
+	public int getCulledObjects() {
+		return lastCulledObjects;
+	}
+	
+	public int getStateChanges() {
+		return lastStateChanges;
+	}
+	
+	public int getElidedStateChanges() {
+		return lastElidedStateChanges;
+	}
+	
+	@Override
+	public String toString() {
+		return "draw calls: " + lastDrawCalls
+				+ ", spheres: " + lastSpheres 
+				+ ", vertices streamed: 0 (gluSphere: " + lastLegacySphereIndices + ")"
+				+ ", indices drawn from buffers: " + lastSphereIndices
+				+ ", objects drawn: " + lastDrawnObjects + ", culled: " + lastCulledObjects
+				+ ", state changes: " + lastStateChanges + " (elided: " + lastElidedStateChanges + ")";
+	}
+}
@@ -0,0 +1,156 @@
+package rendering;
+
+import com.jogamp.opengl.GL2;
+
+/**
+ * Keeps a copy of the GL state the draw commands change, and only passes a change on to GL when it is really a change.
+ * Anything that touches the same state without going through the cache has to be followed by {@link #invalidate()}.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class GLStateCache {
+	private static final int UNKNOWN = -1;
+	//the capabilities that are tracked, anything else goes straight to GL
+	private static final int[] CAPABILITIES = { GL2.GL_LIGHTING, GL2.GL_TEXTURE_2D, GL2.GL_BLEND, GL2.GL_DEPTH_TEST, GL2.GL_COLOR_MATERIAL };
+	
+	private final int[] enabled = new int[CAPABILITIES.length]; //1 on, 0 off
+	private int colorMaterialFace, colorMaterialMode;
+	private float lineWidth, pointSize;
+	private int texture2D;
+	private int program;
+	private int issued;
+	private int elided;
+	
+	public GLStateCache() {
+		invalidate();
+	}
+	
+	/**
+	 * Forgets everything, so the next call for each piece of state goes through to GL
+	 */
+	public void invalidate() {
+		for (int i = 0; i < enabled.length; ++i) {
+			enabled[i] = UNKNOWN;
+		}
+		colorMaterialFace = colorMaterialMode = UNKNOWN;
+		lineWidth = pointSize = UNKNOWN;
+		texture2D = UNKNOWN;
+		program = UNKNOWN;
+	}
+	
+	/**
+	 * Turns a capability on or off, the same as glEnable or glDisable
+	 * 
+	 * @param gl
+	 * @param capability
+	 * @param on
+	 */
+	public void setEnabled(GL2 gl, int capability, boolean on) {
+		int slot = slot(capability);
+		int value = on ? 1 : 0;
+		if (slot >= 0 && enabled[slot] == value) {
+			elided++;
+			return;
+		}
+		if (on) {
+			gl.glEnable(capability);
+		}
+		else {
+			gl.glDisable(capability);
+		}
+		if (slot >= 0) {
+			enabled[slot] = value;
+		}
+		issued++;
+	}
+	
+	private static int slot(int capability) {
+		for (int i = 0; i < CAPABILITIES.length; ++i) {
+			if (CAPABILITIES[i] == capability) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	public void colorMaterial(GL2 gl, int face, int mode) {
+		if (face == colorMaterialFace && mode == colorMaterialMode) {
+			elided++;
+			return;
+		}
+		gl.glColorMaterial(face, mode);
+		colorMaterialFace = face;
+		colorMaterialMode = mode;
+		issued++;
+	}
+	
+	public void lineWidth(GL2 gl, float width) {
+		if (width == lineWidth) {
+			elided++;
+			return;
+		}
+		gl.glLineWidth(width);
+		lineWidth = width;
+		issued++;
+	}
+	
+	public void pointSize(GL2 gl, float size) {
+		if (size == pointSize) {
+			elided++;
+			return;
+		}
+		gl.glPointSize(size);
+		pointSize = size;
+		issued++;
+	}
+	
+	/**
+	 * Binds a 2D texture to the active unit
+	 * 
+	 * @param gl
+	 * @param texture the texture object, 0 for none
+	 */
+	public void bindTexture(GL2 gl, int texture) {
+		if (texture == texture2D) {
+			elided++;
+			return;
+		}
+		gl.glBindTexture(GL2.GL_TEXTURE_2D, texture);
+		texture2D = texture;
+		issued++;
+	}
+	
+	/**
+	 * @param gl
+	 * @param program the shader program, 0 for the fixed-function pipeline
+	 */
+	public void useProgram(GL2 gl, int program) {
+		if (program == this.program) {
+			elided++;
+			return;
+		}
+		gl.glUseProgram(program);
+		this.program = program;
+		issued++;
+	}
+	
+	/**
+	 * @return the number of state changes passed on to GL since the counters were reset
+	 */
+	public int getIssued() {
+		return issued;
+	}
+	
+	/**
+	 * @return the number of state changes dropped since the counters were reset, because GL was already in that state
+	 */
+	public int getElided() {
+		return elided;
+	}
+	
+	public void resetCounters() {
+		issued = 0;
+		elided = 0;
+	}
+}
@@ -0,0 +1,461 @@
+package rendering;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL2ES3;
+import com.jogamp.opengl.util.texture.TextureData;
+import com.jogamp.opengl.util.texture.TextureIO;
+import com.jogamp.opengl.util.texture.spi.DDSImage;
+
+import utils.Matrix4;
+import viewer.Camera;
+
+/**
+ * Collects the spheres of a frame and draws them with one instanced draw call per tessellation,
+ * so each body keeps the level of detail it asked for.
+ * Each instance carries its model matrix, color and texture layer, and all the surface textures
+ * live in one texture array, so bodies sharing an image also share the layer.
+ * The shaders are core profile GLSL lit per pixel by the Sun, reading nothing from the fixed-function state:
+ * the view and projection come from the camera as uniforms, only uploaded again when the camera changes.
+ * Bodies with a streamed texture read it from a {@link TileCache} instead of the texture array.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class InstancedSphereRenderer implements RenderQueue.Command {
+	private static final int FLOATS_PER_INSTANCE = 20; //model matrix, color, texture layer
+	private static final int STRIDE = FLOATS_PER_INSTANCE * Buffers.SIZEOF_FLOAT;
+	private static final int MODEL_LOCATION = 4; //a mat4 takes four locations, 4 to 7
+	private static final int MATERIAL_LOCATION = 8;
+	private static final int TILE_CACHE_UNIT = 1;
+	private static final int PAGE_TABLE_UNIT = 2;
+	
+	private ShaderProgram program;
+	private int surfacesLocation;
+	private int projectionLocation, viewLocation;
+	private int lightPositionLocation, lightAmbientLocation, lightDiffuseLocation;
+	private int tileCacheLocation, pageTablesLocation, streamsLocation, tileLayoutLocation;
+	private TileCache tiles; //null without streamed textures
+	private boolean tileUniformsSet;
+	private long cameraVersion = -1; //the camera matrices the uniforms hold
+	private float[] matrix = new float[16]; //scratch space for uploading the matrices
+	private int vertexArray;
+	private int textureArray;
+	private HashMap<String, Integer> layers = new HashMap<>();
+	private int instanceBuffer;
+	
+	private float[] instances = new float[FLOATS_PER_INSTANCE * 64];
+	private int[] instanceSegments = new int[64];
+	private FloatBuffer upload;
+	private int count;
+	//the instances grouped by tessellation for the upload, each group one run of the buffer
+	private int[] groupSegments = new int[LodManager.DEFAULT_LEVELS.length];
+	private int[] groupStart = new int[LodManager.DEFAULT_LEVELS.length];
+	private int[] groupCount = new int[LodManager.DEFAULT_LEVELS.length];
+	private int groups;
+	
+	/**
+	 * Checks for GL 3.3, which the core profile shaders, instanced arrays and texture arrays need.
+	 * The ARB instancing extensions on an older context aren't enough, the shaders are GLSL 3.30.
+	 * 
+	 * @param gl
+	 */
+	public static boolean isSupported(GL2 gl) {
+		return gl.isExtensionAvailable("GL_VERSION_3_3")
+				&& gl.isFunctionAvailable("glDrawElementsInstanced") 
+				&& gl.isFunctionAvailable("glVertexAttribDivisor")
+				&& gl.isFunctionAvailable("glGenVertexArrays");
+	}
+	
+	/**
+	 * Builds the shader and the texture array, needs a current GL context
+	 * 
+	 * @param gl
+	 * @param texturePaths the images to put in the texture array, duplicates share one layer
+	 * @param textures the texture manager, for the content checksums and the compressed image cache
+	 * @throws IOException if a shader or texture can't be read
+	 */
+	public InstancedSphereRenderer(GL2 gl, Collection<String> texturePaths, TextureManager textures) throws IOException {
+		HashMap<String, Integer> attributes = new HashMap<>();
+		attributes.put("position", SphereMesh.POSITION_LOCATION);
+		attributes.put("normal", SphereMesh.NORMAL_LOCATION);
+		attributes.put("texCoordIn", SphereMesh.TEXCOORD_LOCATION);
+		attributes.put("instanceModel", MODEL_LOCATION);
+		attributes.put("instanceMaterial", MATERIAL_LOCATION);
+		program = new ShaderProgram(gl, "assets/shaders/instanced_sphere.vert", "assets/shaders/instanced_sphere.frag", attributes);
+		surfacesLocation = program.getUniformLocation(gl, "surfaces");
+		projectionLocation = program.getUniformLocation(gl, "projection");
+		viewLocation = program.getUniformLocation(gl, "view");
+		lightPositionLocation = program.getUniformLocation(gl, "lightPosition");
+		lightAmbientLocation = program.getUniformLocation(gl, "lightAmbient");
+		lightDiffuseLocation = program.getUniformLocation(gl, "lightDiffuse");
+		tileCacheLocation = program.getUniformLocation(gl, "tileCache");
+		pageTablesLocation = program.getUniformLocation(gl, "pageTables");
+		streamsLocation = program.getUniformLocation(gl, "streams");
+		tileLayoutLocation = program.getUniformLocation(gl, "tileLayout");
+		
+		createTextureArray(gl, texturePaths, textures);
+		
+		int[] buffers = new int[1];
+		gl.glGenBuffers(1, buffers, 0);
+		instanceBuffer = buffers[0];
+		//a core profile can't draw without a vertex array object
+		gl.glGenVertexArrays(1, buffers, 0);
+		vertexArray = buffers[0];
+	}
+	
+	private void createTextureArray(GL2 gl, Collection<String> texturePaths, TextureManager textures) throws IOException {
+		//one layer per distinct image content, so copies of the same image under different paths share it
+		LinkedHashMap<String, String> sources = new LinkedHashMap<>();
+		for (String path : texturePaths) {
+			if (path != null) {
+				sources.putIfAbsent(textures.getContentHash(path), path);
+			}
+		}
+		
+		int[] ids = new int[1];
+		gl.glGenTextures(1, ids, 0);
+		textureArray = ids[0];
+		gl.glBindTexture(GL2ES3.GL_TEXTURE_2D_ARRAY, textureArray);
+		HashMap<String, Integer> hashLayers = new HashMap<>();
+		if (!TextureManager.isCompressionSupported(gl) || !uploadCompressed(gl, sources, textures, hashLayers)) {
+			uploadUncompressed(gl, sources, hashLayers);
+		}
+		gl.glTexParameteri(GL2ES3.GL_TEXTURE_2D_ARRAY, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR_MIPMAP_LINEAR);
+		gl.glTexParameteri(GL2ES3.GL_TEXTURE_2D_ARRAY, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+		gl.glBindTexture(GL2ES3.GL_TEXTURE_2D_ARRAY, 0);
+		
+		for (String path : texturePaths) {
+			if (path != null && hashLayers.containsKey(textures.getContentHash(path))) {
+				layers.put(path, hashLayers.get(textures.getContentHash(path)));
+			}
+		}
+	}
+	
+	/**
+	 * Fills the array from the compressed, pre-mipmapped images in the texture cache
+	 * 
+	 * @return false if the images don't all have the same layout, so the uncompressed path has to be used
+	 */
+	private boolean uploadCompressed(GL2 gl, Map<String, String> sources, TextureManager textures, Map<String, Integer> hashLayers) throws IOException {
+		ArrayList<DDSImage> images = new ArrayList<>();
+		try {
+			for (Map.Entry<String, String> source : sources.entrySet()) {
+				DDSImage image = textures.getCompressedImage(gl, source.getValue());
+				if (image == null || image.getNumMipMaps() == 0) {
+					return false;
+				}
+				DDSImage first = images.isEmpty() ? image : images.get(0);
+				if (image.getWidth() != first.getWidth() || image.getHeight() != first.getHeight() 
+						|| image.getCompressionFormat() != first.getCompressionFormat() || image.getNumMipMaps() != first.getNumMipMaps()) {
+					System.out.println("Texture " + source.getValue() + " doesn't match the other textures, drawing without it");
+					image.close();
+					continue;
+				}
+				hashLayers.put(source.getKey(), images.size());
+				images.add(image);
+			}
+			if (images.isEmpty()) {
+				return false;
+			}
+			
+			//every mip level holds all the layers one after the other
+			int levels = images.get(0).getNumMipMaps();
+			for (int level = 0; level < levels; ++level) {
+				DDSImage.ImageInfo info = images.get(0).getMipMap(level);
+				int size = info.getData().remaining();
+				ByteBuffer data = Buffers.newDirectByteBuffer(size * images.size());
+				for (DDSImage image : images) {
+					data.put(image.getMipMap(level).getData().duplicate());
+				}
+				data.flip();
+				gl.glCompressedTexImage3D(GL2ES3.GL_TEXTURE_2D_ARRAY, level, GL.GL_COMPRESSED_RGB_S3TC_DXT1_EXT, 
+						info.getWidth(), info.getHeight(), images.size(), 0, data.remaining(), data);
+			}
+			gl.glTexParameteri(GL2ES3.GL_TEXTURE_2D_ARRAY, GL2ES3.GL_TEXTURE_MAX_LEVEL, levels - 1);
+			return true;
+		}
+		finally {
+			for (DDSImage image : images) {
+				image.close();
+			}
+		}
+	}
+	
+	/**
+	 * Decodes every image and lets the GPU generate the mipmaps, the first image decides the size of the layers
+	 */
+	private void uploadUncompressed(GL2 gl, Map<String, String> sources, Map<String, Integer> hashLayers) throws IOException {
+		hashLayers.clear();
+		HashMap<String, TextureData> images = new HashMap<>();
+		int width = 0, height = 0;
+		for (Map.Entry<String, String> source : sources.entrySet()) {
+			TextureData data = TextureIO.newTextureData(gl.getGLProfile(), new File(source.getValue()), false, null);
+			if (images.isEmpty()) {
+				width = data.getWidth();
+				height = data.getHeight();
+			}
+			else if (data.getWidth() != width || data.getHeight() != height) {
+				System.out.println("Texture " + source.getValue() + " is not " + width + "x" + height + ", drawing without it");
+				data.destroy();
+				continue;
+			}
+			hashLayers.put(source.getKey(), images.size());
+			images.put(source.getKey(), data);
+		}
+		
+		gl.glTexImage3D(GL2ES3.GL_TEXTURE_2D_ARRAY, 0, GL.GL_RGBA8, Math.max(1, width), Math.max(1, height), Math.max(1, images.size()), 
+				0, GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, null);
+		for (Map.Entry<String, TextureData> image : images.entrySet()) {
+			TextureData data = image.getValue();
+			gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, data.getAlignment());
+			gl.glTexSubImage3D(GL2ES3.GL_TEXTURE_2D_ARRAY, 0, 0, 0, hashLayers.get(image.getKey()), width, height, 1, 
+					data.getPixelFormat(), data.getPixelType(), data.getBuffer());
+			data.destroy();
+		}
+		gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 4);
+		gl.glGenerateMipmap(GL2ES3.GL_TEXTURE_2D_ARRAY);
+	}
+	
+	/**
+	 * @param path the path the texture was loaded from
+	 * @return the layer of the texture array holding it, or -1 if it isn't in the array
+	 */
+	public int getLayer(String path) {
+		Integer layer = path == null ? null : layers.get(path);
+		return layer == null ? -1 : layer;
+	}
+	
+	/**
+	 * Queues a sphere to be drawn at the next flush
+	 * 
+	 * @param model the transform of the unit sphere, including the scale to the radius
+	 * @param color the surface color
+	 * @param layer the texture layer or -1 for none
+	 * @param segments the tessellation this sphere wants, spheres wanting the same one are drawn together
+	 */
+	public void add(Matrix4 model, float[] color, int layer, int segments) {
+		int offset = count * FLOATS_PER_INSTANCE;
+		if (offset + FLOATS_PER_INSTANCE > instances.length) {
+			instances = Arrays.copyOf(instances, instances.length * 2);
+			instanceSegments = Arrays.copyOf(instanceSegments, instanceSegments.length * 2);
+		}
+		model.get(instances, offset);
+		instances[offset + 16] = color[0];
+		instances[offset + 17] = color[1];
+		instances[offset + 18] = color[2];
+		instances[offset + 19] = layer;
+		instanceSegments[count] = segments;
+		count++;
+	}
+	
+	/**
+	 * Queues a sphere with a streamed texture, asking the tile cache for the tiles it needs from where the camera is
+	 * 
+	 * @param model the transform of the unit sphere, including the scale to the radius
+	 * @param color the surface color
+	 * @param stream the texture in the tile cache
+	 * @param segments the tessellation this sphere wants
+	 * @param camera
+	 */
+	public void addStreamed(Matrix4 model, float[] color, int stream, int segments, Camera camera) {
+		tiles.request(stream, model, camera);
+		this.add(model, color, -2 - stream, segments);
+	}
+	
+	/**
+	 * @param tiles the streamed textures, owned by the renderer from now on
+	 */
+	public void setTiles(TileCache tiles) {
+		this.tiles = tiles;
+		this.tileUniformsSet = false;
+	}
+	
+	public TileCache getTiles() {
+		return tiles;
+	}
+	
+	/**
+	 * Submits the batch to the render queue, once every sphere of the frame has been added
+	 * 
+	 * @param context
+	 */
+	public void submit(RenderContext context) {
+		if (count > 0) {
+			context.getQueue().submit(RenderQueue.key(false, program.getProgram(), 0, 0), this);
+		}
+	}
+	
+	@Override
+	public void execute(GL2 gl, RenderContext context) {
+		this.flush(gl, context);
+	}
+	
+	/**
+	 * Draws every queued sphere, one call for each tessellation wanted, and empties the queue
+	 * 
+	 * @param gl
+	 * @param context the camera, the Sun's light, the shared meshes and the counters
+	 */
+	public void flush(GL2 gl, RenderContext context) {
+		if (count == 0) {
+			return;
+		}
+		
+		gl.glBindVertexArray(vertexArray);		
+		int floats = count * FLOATS_PER_INSTANCE;
+		if (upload == null || upload.capacity() < floats) {
+			upload = Buffers.newDirectFloatBuffer(instances.length);
+		}
+		this.groupBySegments();
+		upload.flip();
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, instanceBuffer);
+		//respecifying the whole store lets the driver hand out fresh memory instead of waiting on the last frame
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) floats * Buffers.SIZEOF_FLOAT, upload, GL2.GL_STREAM_DRAW);
+		for (int i = 0; i < 4; ++i) {
+			gl.glEnableVertexAttribArray(MODEL_LOCATION + i);
+			gl.glVertexAttribDivisor(MODEL_LOCATION + i, 1);
+		}
+		gl.glEnableVertexAttribArray(MATERIAL_LOCATION);
+		gl.glVertexAttribDivisor(MATERIAL_LOCATION, 1);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+		
+		context.getStateCache().useProgram(gl, program.getProgram());
+		this.uploadCamera(gl, context.getCamera(), context.getLight());
+		gl.glActiveTexture(GL.GL_TEXTURE0);
+		gl.glBindTexture(GL2ES3.GL_TEXTURE_2D_ARRAY, textureArray);
+		gl.glUniform1i(surfacesLocation, 0);
+		if (tiles != null) {
+			this.bindTiles(gl);
+		}
+		
+		for (int g = 0; g < groups; ++g) {
+			this.pointInstances(gl, groupStart[g]);
+			context.getMeshes().getSphere(gl, groupSegments[g]).drawInstanced(gl, groupCount[g], context.getStats());
+		}
+		
+		gl.glBindTexture(GL2ES3.GL_TEXTURE_2D_ARRAY, 0);
+		if (tiles != null) {
+			tiles.unbind(gl, TILE_CACHE_UNIT, PAGE_TABLE_UNIT);
+		}
+		for (int i = 0; i < 4; ++i) {
+			gl.glVertexAttribDivisor(MODEL_LOCATION + i, 0);
+			gl.glDisableVertexAttribArray(MODEL_LOCATION + i);
+		}
+		gl.glVertexAttribDivisor(MATERIAL_LOCATION, 0);
+		gl.glDisableVertexAttribArray(MATERIAL_LOCATION);
+		gl.glBindVertexArray(0);
+		count = 0;
+	}
+	
+	/**
+	 * Copies the instances into the upload buffer grouped by the tessellation they want, in the order each was first wanted
+	 */
+	private void groupBySegments() {
+		groups = 0;
+		for (int i = 0; i < count; ++i) {
+			int g = 0;
+			while (g < groups && groupSegments[g] != instanceSegments[i]) {
+				g++;
+			}
+			if (g == groups) {
+				if (groups == groupSegments.length) {
+					groupSegments = Arrays.copyOf(groupSegments, groups * 2);
+					groupStart = Arrays.copyOf(groupStart, groups * 2);
+					groupCount = Arrays.copyOf(groupCount, groups * 2);
+				}
+				groupSegments[g] = instanceSegments[i];
+				groupCount[g] = 0;
+				groups++;
+			}
+			groupCount[g]++;
+		}
+		int start = 0;
+		for (int g = 0; g < groups; ++g) {
+			groupStart[g] = start;
+			start += groupCount[g];
+			groupCount[g] = 0;
+		}
+		//the counts go back up as the instances are placed, giving the next free spot in each group
+		upload.clear();
+		for (int i = 0; i < count; ++i) {
+			int g = 0;
+			while (groupSegments[g] != instanceSegments[i]) {
+				g++;
+			}
+			upload.position((groupStart[g] + groupCount[g]++) * FLOATS_PER_INSTANCE);
+			upload.put(instances, i * FLOATS_PER_INSTANCE, FLOATS_PER_INSTANCE);
+		}
+		upload.position(count * FLOATS_PER_INSTANCE);
+	}
+	
+	//points the per instance attributes at a group, without base instances the group's offset has to go in the pointers
+	private void pointInstances(GL2 gl, int first) {
+		long offset = (long) first * STRIDE;
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, instanceBuffer);
+		for (int i = 0; i < 4; ++i) {
+			gl.glVertexAttribPointer(MODEL_LOCATION + i, 4, GL.GL_FLOAT, false, STRIDE, offset + i * 4 * Buffers.SIZEOF_FLOAT);
+		}
+		gl.glVertexAttribPointer(MATERIAL_LOCATION, 4, GL.GL_FLOAT, false, STRIDE, offset + 16 * Buffers.SIZEOF_FLOAT);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+	}
+	
+	//copies in the tiles decoded since the last frame, the layout of the streams only changes when the cache does
+	private void bindTiles(GL2 gl) {
+		tiles.update(gl);
+		if (!tileUniformsSet) {
+			int[] streams = tiles.getStreamLayout();
+			gl.glUniform4iv(streamsLocation, streams.length / 4, streams, 0);
+			float[] layout = tiles.getTileLayout();
+			gl.glUniform3f(tileLayoutLocation, layout[0], layout[1], layout[2]);
+			gl.glUniform1i(tileCacheLocation, TILE_CACHE_UNIT);
+			gl.glUniform1i(pageTablesLocation, PAGE_TABLE_UNIT);
+			tileUniformsSet = true;
+		}
+		tiles.bind(gl, TILE_CACHE_UNIT, PAGE_TABLE_UNIT);
+	}
+	
+	//uniforms stay with the program, so they only need setting again when the camera has moved
+	private void uploadCamera(GL2 gl, Camera camera, SunLight light) {
+		if (camera.getVersion() == cameraVersion) {
+			return;
+		}
+		cameraVersion = camera.getVersion();
+		camera.getProjectionMatrix().get(matrix, 0);
+		gl.glUniformMatrix4fv(projectionLocation, 1, false, matrix, 0);
+		camera.getViewMatrix().get(matrix, 0);
+		gl.glUniformMatrix4fv(viewLocation, 1, false, matrix, 0);
+		float[] position = light.getEyePosition();
+		gl.glUniform3f(lightPositionLocation, position[0], position[1], position[2]);
+		gl.glUniform3f(lightAmbientLocation, light.getAmbient(0), light.getAmbient(1), light.getAmbient(2));
+		float[] diffuse = light.getDiffuse();
+		gl.glUniform3f(lightDiffuseLocation, diffuse[0], diffuse[1], diffuse[2]);
+	}
+	
+	public int getLayerCount() {
+		return layers.size();
+	}
+	
+	public void dispose(GL2 gl) {
+		if (tiles != null) {
+			tiles.dispose(gl);
+			tiles = null;
+		}
+		program.dispose(gl);
+		gl.glDeleteTextures(1, new int[] {textureArray}, 0);
+		gl.glDeleteBuffers(1, new int[] {instanceBuffer}, 0);
+		gl.glDeleteVertexArrays(1, new int[] {vertexArray}, 0);
+	}
+}
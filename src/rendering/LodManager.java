@@ -0,0 +1,115 @@
+package rendering;
+
+import java.util.Arrays;
+
+/**
+ * Picks the sphere tessellation for each body from how big it looks on screen.
+ * The level is the coarsest one whose silhouette stays within the allowed pixel error,
+ * and a body only drops to a coarser level once it is well inside the error so levels don't pop back and forth.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class LodManager {
+	public static final int[] DEFAULT_LEVELS = {6, 8, 12, 16, 24, 32, 48, 64};
+	public static final int[] DEFAULT_RING_LEVELS = {16, 32, 64, 128, 256, 512, 1024};
+	
+	private int[] levels;
+	private double maxPixelError;
+	private double hysteresis;
+	private int[] current = new int[0]; //level index of each body, -1 if it hasn't been drawn yet
+	
+	public LodManager() {
+		this(DEFAULT_LEVELS, 0.5, 0.25);
+	}
+	
+	/**
+	 * @param levels the segment counts to pick from, using the default error and hysteresis
+	 */
+	public LodManager(int[] levels) {
+		this(levels, 0.5, 0.25);
+	}
+	
+	/**
+	 * @param levels the segment counts to pick from, in increasing order
+	 * @param maxPixelError how far the silhouette is allowed to be from a perfect circle, in pixels
+	 * @param hysteresis how far under the error a coarser level has to be before switching down, from 0 to 1
+	 */
+	public LodManager(int[] levels, double maxPixelError, double hysteresis) {
+		setLevels(levels);
+		this.maxPixelError = maxPixelError;
+		this.hysteresis = hysteresis;
+	}
+	
+	/**
+	 * Gets the number of segments to draw a body with
+	 * 
+	 * @param body the state index of the body
+	 * @param screenRadius the projected radius of the body in pixels
+	 */
+	public int select(int body, double screenRadius) {
+		if (body >= current.length) {
+			int oldLength = current.length;
+			current = Arrays.copyOf(current, Math.max(body + 1, oldLength * 2));
+			Arrays.fill(current, oldLength, current.length, -1);
+		}
+		
+		int wanted = levels.length - 1;
+		for (int i = 0; i < levels.length; ++i) {
+			if (silhouetteError(levels[i], screenRadius) <= maxPixelError) {
+				wanted = i;
+				break;
+			}
+		}
+		
+		int level = current[body];
+		if (level < 0 || wanted > level) {
+			//refine straight away, a coarse silhouette is easy to notice
+			level = wanted;
+		}
+		else if (wanted < level) {
+			//only coarsen once the next level down is comfortably inside the error
+			while (level > wanted && silhouetteError(levels[level - 1], screenRadius) <= maxPixelError * (1 - hysteresis)) {
+				level--;
+			}
+		}
+		current[body] = level;
+		return levels[level];
+	}
+	
+	/**
+	 * The largest gap between a circle and the polygon with the given number of segments drawn at that radius
+	 */
+	public static double silhouetteError(int segments, double screenRadius) {
+		return screenRadius * (1 - Math.cos(Math.PI / segments));
+	}
+	
+	public int[] getLevels() {
+		return levels.clone();
+	}
+	
+	public void setLevels(int[] levels) {
+		if (levels.length == 0) {
+			throw new IllegalArgumentException("At least one tessellation level is needed");
+		}
+		this.levels = levels.clone();
+		Arrays.sort(this.levels);
+		Arrays.fill(current, -1);
+	}
+
+	public double getMaxPixelError() {
+		return maxPixelError;
+	}
+
+	public void setMaxPixelError(double maxPixelError) {
+		this.maxPixelError = maxPixelError;
+	}
+
+	public double getHysteresis() {
+		return hysteresis;
+	}
+
+	public void setHysteresis(double hysteresis) {
+		this.hysteresis = hysteresis;
+	}
+}
@@ -0,0 +1,62 @@
+package rendering;
+
+import java.util.HashMap;
+
+import com.jogamp.opengl.GL2;
+
+/**
+ * Builds each sphere tessellation once and shares it between every body that draws with it
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class MeshCache {
+	private HashMap<Integer, SphereMesh> spheres = new HashMap<>();
+	private HashMap<Integer, CircleMesh> circles = new HashMap<>();
+	
+	/**
+	 * Gets the unit sphere with the same number of slices and stacks, uploading it on first use
+	 * 
+	 * @param gl
+	 * @param segments the number of slices and stacks
+	 */
+	public SphereMesh getSphere(GL2 gl, int segments) {
+		SphereMesh mesh = spheres.get(segments);
+		if (mesh == null) {
+			mesh = new SphereMesh(gl, segments, segments);
+			spheres.put(segments, mesh);
+		}
+		return mesh;
+	}
+	
+	/**
+	 * Gets the unit circle with the given number of segments, uploading it on first use
+	 * 
+	 * @param gl
+	 * @param segments the number of vertices around the circle
+	 */
+	public CircleMesh getCircle(GL2 gl, int segments) {
+		CircleMesh mesh = circles.get(segments);
+		if (mesh == null) {
+			mesh = new CircleMesh(gl, segments);
+			circles.put(segments, mesh);
+		}
+		return mesh;
+	}
+	
+	/**
+	 * Releases all the GPU buffers
+	 * 
+	 * @param gl
+	 */
+	public void dispose(GL2 gl) {
+		for (SphereMesh mesh : spheres.values()) {
+			mesh.dispose(gl);
+		}
+		spheres.clear();
+		for (CircleMesh mesh : circles.values()) {
+			mesh.dispose(gl);
+		}
+		circles.clear();
+	}
+}
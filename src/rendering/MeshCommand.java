@@ -0,0 +1,120 @@
+package rendering;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.util.texture.Texture;
+
+import utils.Matrix4;
+
+/**
+ * A draw of one of the shared meshes with the fixed-function pipeline, lit by the Sun.
+ * Bodies keep their own commands and fill them in every frame, the modelview matrix is copied when submitted
+ * since the matrix stack has moved on by the time the queue runs.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class MeshCommand implements RenderQueue.Command {
+	public static final int SPHERE = 0;
+	public static final int RING = 1;
+	public static final int AXIS = 2; //a line through the y axis
+	
+	private final int kind;
+	private final float[] modelView = new float[16];
+	private final float[] color = {1, 1, 1, 1};
+	private SphereMesh sphere;
+	private CircleMesh circle;
+	private float length;
+	private Texture texture;
+	private boolean blended;
+	
+	/**
+	 * @param kind {@link #SPHERE}, {@link #RING} or {@link #AXIS}
+	 */
+	public MeshCommand(int kind) {
+		this.kind = kind;
+	}
+	
+	/**
+	 * @param sphere the mesh to draw
+	 * @param texture the surface texture, null for just the color
+	 */
+	public void setSphere(SphereMesh sphere, Texture texture) {
+		this.sphere = sphere;
+		this.texture = texture;
+	}
+	
+	public void setCircle(CircleMesh circle) {
+		this.circle = circle;
+	}
+	
+	/**
+	 * @param length how far the axis reaches either side of the center
+	 */
+	public void setLength(float length) {
+		this.length = length;
+	}
+	
+	public void setColor(float r, float g, float b, float a) {
+		color[0] = r;
+		color[1] = g;
+		color[2] = b;
+		color[3] = a;
+	}
+	
+	/**
+	 * @param rgb an opaque color
+	 */
+	public void setColor(float[] rgb) {
+		this.setColor(rgb[0], rgb[1], rgb[2], 1);
+	}
+	
+	/**
+	 * Queues the command for this frame
+	 * 
+	 * @param context
+	 * @param model the transform from the mesh's space to world space
+	 * @param blended true to draw it in the blended pass, after everything opaque
+	 */
+	public void submit(RenderContext context, Matrix4 model, boolean blended) {
+		this.blended = blended;
+		context.getModelView(model, this.modelView);
+		int textureId = texture == null ? 0 : texture.getTextureObject();
+		context.getQueue().submit(RenderQueue.key(blended, RenderQueue.FIXED_FUNCTION, textureId, context.getDepth(model)), this);
+	}
+	
+	@Override
+	public void execute(GL2 gl, RenderContext context) {
+		GLStateCache state = context.getStateCache();
+		state.useProgram(gl, 0);
+		state.setEnabled(gl, GL2.GL_LIGHTING, true);
+		state.setEnabled(gl, GL2.GL_BLEND, blended);
+		state.colorMaterial(gl, GL2.GL_FRONT_AND_BACK, GL2.GL_AMBIENT_AND_DIFFUSE);
+		if (texture != null && kind == SPHERE) {
+			state.setEnabled(gl, GL2.GL_TEXTURE_2D, true);
+			state.bindTexture(gl, texture.getTextureObject());
+		}
+		else {
+			state.setEnabled(gl, GL2.GL_TEXTURE_2D, false);
+		}
+		gl.glLoadMatrixf(modelView, 0);
+		gl.glColor4fv(color, 0);
+		
+		switch (kind) {
+		case SPHERE:
+			sphere.draw(gl, context.getStats());
+			break;
+		case RING:
+			state.lineWidth(gl, 1f);
+			circle.draw(gl, context.getStats());
+			break;
+		case AXIS:
+			state.lineWidth(gl, 1f);
+			gl.glBegin(GL2.GL_LINES);
+				gl.glVertex3f(0f, length, 0f);
+				gl.glVertex3f(0f, -length, 0f);
+			gl.glEnd();
+			context.getStats().addDrawCall();
+			break;
+		}
+	}
+}
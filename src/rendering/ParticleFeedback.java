@@ -0,0 +1,135 @@
+package rendering;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL2ES3;
+
+/**
+ * Keeps the Sun's particles on the GPU and moves them there, so the CPU never touches them. The state is in two
+ * buffers that take turns: a vertex shader reads every particle from one and writes it moved on into the other
+ * through transform feedback, with rasterizing turned off. Dead particles stay in their slots and are emitted again
+ * at random, at a chance worked out to keep close to the emission rate. Each slot also holds what
+ * the point shader draws, so drawing reads straight from the buffer just written.
+ *
+ * @author Thong Teav
+ * 14883251
+ */
+public class ParticleFeedback {
+	static final int FLOATS_PER_PARTICLE = 12; //position and age, velocity and life, what's drawn
+	static final int STRIDE = FLOATS_PER_PARTICLE * Buffers.SIZEOF_FLOAT;
+	static final long DRAW_OFFSET = 8 * Buffers.SIZEOF_FLOAT;
+	private static final String[] VARYINGS = {"outPositionAge", "outVelocityLife", "outParticle"};
+
+	private final int budget;
+	private final ShaderProgram program;
+	private final int dtLocation, gmLocation, radiusLocation, spawnChanceLocation, prominenceLocation, seedLocation;
+	private final int[] buffers = new int[2];
+	private final int vertexArray;
+	private int current; //the buffer holding the latest state
+	private int seed;
+
+	/**
+	 * Checks for GL 3.3 with transform feedback
+	 *
+	 * @param gl
+	 */
+	public static boolean isSupported(GL2 gl) {
+		return gl.isExtensionAvailable("GL_VERSION_3_3")
+				&& gl.isFunctionAvailable("glTransformFeedbackVaryings")
+				&& gl.isFunctionAvailable("glBeginTransformFeedback")
+				&& gl.isFunctionAvailable("glGenVertexArrays");
+	}
+
+	/**
+	 * Builds the update shader and the two state buffers with every particle dead, needs a current GL context
+	 *
+	 * @param gl
+	 * @param budget how many particles there are
+	 * @param seed
+	 * @throws IOException if the shader can't be read
+	 */
+	public ParticleFeedback(GL2 gl, int budget, long seed) throws IOException {
+		this.budget = budget;
+		this.seed = (int) seed;
+		HashMap<String, Integer> attributes = new HashMap<>();
+		attributes.put("positionAge", 0);
+		attributes.put("velocityLife", 1);
+		program = new ShaderProgram(gl, "assets/shaders/particle_update.vert", VARYINGS, attributes);
+		dtLocation = program.getUniformLocation(gl, "dt");
+		gmLocation = program.getUniformLocation(gl, "gm");
+		radiusLocation = program.getUniformLocation(gl, "radius");
+		spawnChanceLocation = program.getUniformLocation(gl, "spawnChance");
+		prominenceLocation = program.getUniformLocation(gl, "prominenceFraction");
+		seedLocation = program.getUniformLocation(gl, "seed");
+
+		//all zeros is a particle with no life left, so both buffers start with every particle dead
+		gl.glGenBuffers(2, buffers, 0);
+		for (int i = 0; i < 2; ++i) {
+			gl.glBindBuffer(GL.GL_ARRAY_BUFFER, buffers[i]);
+			gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) budget * STRIDE, Buffers.newDirectByteBuffer(budget * STRIDE), GL2ES3.GL_DYNAMIC_COPY);
+		}
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+		int[] ids = new int[1];
+		gl.glGenVertexArrays(1, ids, 0);
+		vertexArray = ids[0];
+	}
+
+	/**
+	 * Moves every particle on by one step and emits new ones into the dead slots
+	 *
+	 * @param gl
+	 * @param context the state cache
+	 * @param dt the time to move on by in seconds
+	 * @param emissionRate particles emitted per second
+	 * @param radius the radius of the Sun
+	 */
+	public void update(GL2 gl, RenderContext context, float dt, float emissionRate, float radius) {
+		//once it settles about rate times the mean life are alive, so the rest are dead and waiting
+		double dead = Math.max(1, budget - emissionRate * ParticleSystem.MEAN_LIFE);
+		float spawnChance = (float) Math.min(1, emissionRate * dt / dead);
+
+		context.getStateCache().useProgram(gl, program.getProgram());
+		gl.glUniform1f(dtLocation, dt);
+		gl.glUniform1f(gmLocation, ParticleSystem.GRAVITY * radius * radius * radius);
+		gl.glUniform1f(radiusLocation, radius);
+		gl.glUniform1f(spawnChanceLocation, spawnChance);
+		gl.glUniform1f(prominenceLocation, ParticleSystem.PROMINENCE_FRACTION);
+		gl.glUniform1i(seedLocation, seed++);
+
+		gl.glBindVertexArray(vertexArray);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, buffers[current]);
+		gl.glEnableVertexAttribArray(0);
+		gl.glEnableVertexAttribArray(1);
+		gl.glVertexAttribPointer(0, 4, GL.GL_FLOAT, false, STRIDE, 0);
+		gl.glVertexAttribPointer(1, 4, GL.GL_FLOAT, false, STRIDE, 4 * Buffers.SIZEOF_FLOAT);
+		gl.glBindBufferBase(GL2ES3.GL_TRANSFORM_FEEDBACK_BUFFER, 0, buffers[1 - current]);
+		gl.glEnable(GL2ES3.GL_RASTERIZER_DISCARD);
+		gl.glBeginTransformFeedback(GL.GL_POINTS);
+		gl.glDrawArrays(GL.GL_POINTS, 0, budget);
+		gl.glEndTransformFeedback();
+		gl.glDisable(GL2ES3.GL_RASTERIZER_DISCARD);
+		gl.glBindBufferBase(GL2ES3.GL_TRANSFORM_FEEDBACK_BUFFER, 0, 0);
+		gl.glDisableVertexAttribArray(1);
+		gl.glDisableVertexAttribArray(0);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+		gl.glBindVertexArray(0);
+		current = 1 - current;
+	}
+
+	/**
+	 * @return the buffer holding the latest state, to draw from at {@link #DRAW_OFFSET} with a stride of {@link #STRIDE}
+	 */
+	public int getDrawBuffer() {
+		return buffers[current];
+	}
+
+	public void dispose(GL2 gl) {
+		program.dispose(gl);
+		gl.glDeleteBuffers(2, buffers, 0);
+		gl.glDeleteVertexArrays(1, new int[] {vertexArray}, 0);
+	}
+}
@@ -0,0 +1,450 @@
+package rendering;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL2ES2;
+import com.jogamp.opengl.GL3ES3;
+import com.jogamp.opengl.GL4;
+
+import utils.Matrix4;
+import viewer.Camera;
+
+/**
+ * The solar wind and prominences thrown off the Sun, as up to a few hundred thousand points.
+ * Particles are plain floats in one array per field, with no object per particle, and the live ones are kept
+ * packed at the front by moving the last one into the place of any that dies. Emitting and moving them go through
+ * the arrays in fixed-size batches, each a tight loop over a few arrays the JIT can keep in cache, and with enough
+ * particles the batches are moved on every core at once. Moving a batch also lays it out for the vertex buffer.
+ * Every frame the live particles are copied into a vertex buffer. Where the GPU allows it the buffer stays mapped,
+ * split into regions so the CPU writes one while the GPU may still be drawing another, each guarded by a fence.
+ * Otherwise the buffer is orphaned every frame, letting the driver hand out fresh memory instead of waiting.
+ * With transform feedback the particles can instead live and move on the GPU alone, see {@link ParticleFeedback}.
+ *
+ * Wind leaves faster than the Sun's escape speed and fades as it goes. Prominences leave slower and sideways,
+ * so gravity bends them back down into arcs that die when they fall back in.
+ *
+ * @author Thong Teav
+ * 14883251
+ */
+public class ParticleSystem implements RenderQueue.Command {
+	public static final int BATCH = 4096; //particles emitted or moved in one pass
+	private static final int PARALLEL_THRESHOLD = 16384; //below this a single thread is faster
+	public static final float GRAVITY = 0.4f; //the Sun's gravity as a multiple of its radius cubed per second squared
+	public static final float PROMINENCE_FRACTION = 0.25f; //the share of the particles emitted as prominences
+	public static final float MEAN_LIFE = 3.5f; //roughly how long a particle lasts in seconds, to keep the GPU path at the rate
+	public static final float PARTICLE_SIZE = 0.05f; //the size of a particle as a fraction of the Sun's radius
+	static final int FLOATS_PER_PARTICLE = 4; //position, fraction of life gone plus the kind
+	private static final int REGIONS = 3; //frames the mapped buffer is split into
+	private static final long FENCE_TIMEOUT = 100_000_000; //how long to wait for the GPU to free a region, in nanoseconds
+	private static final int MAP_FLAGS = GL.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_COHERENT_BIT;
+
+	private final int budget;
+	private final float radius;
+	private final Random rand;
+	private float emissionRate;
+	private double pending; //particles owed by the emission rate but not emitted yet
+
+	//one array per field, the first alive entries are the live particles
+	private final float[] x, y, z;
+	private final float[] vx, vy, vz;
+	private final float[] age, life;
+	private final float[] kind; //2 for a prominence and 0 for the solar wind, added to the age the shader reads
+	private int alive;
+	private final float[] staging; //the live particles laid out for the vertex buffer
+
+	private ShaderProgram program;
+	private int projectionLocation, modelViewLocation, pointScaleLocation;
+	private int vertexArray;
+	private int vbo;
+	private boolean persistent;
+	private FloatBuffer mapped; //the whole mapped buffer, or the orphaning upload buffer
+	private final long[] fences = new long[REGIONS];
+	private long frame;
+	private ParticleFeedback feedback; //null unless the particles live on the GPU
+	private double step; //the time to move the GPU particles on by at the next draw
+	private final float[] modelView = new float[16];
+	private final float[] matrix = new float[16];
+
+	/**
+	 * @param budget the most particles alive at once
+	 * @param emissionRate particles emitted per second
+	 * @param radius the radius of the Sun
+	 * @param seed
+	 */
+	public ParticleSystem(int budget, float emissionRate, float radius, long seed) {
+		this.budget = Math.max(1, budget);
+		this.emissionRate = emissionRate;
+		this.radius = radius;
+		this.rand = new Random(seed);
+		int size = this.budget;
+		x = new float[size];
+		y = new float[size];
+		z = new float[size];
+		vx = new float[size];
+		vy = new float[size];
+		vz = new float[size];
+		age = new float[size];
+		life = new float[size];
+		kind = new float[size];
+		staging = new float[size * FLOATS_PER_PARTICLE];
+	}
+
+	/**
+	 * Checks for GL 3.3, which the point shaders need
+	 * 
+	 * @param gl
+	 */
+	public static boolean isSupported(GL2 gl) {
+		return gl.isExtensionAvailable("GL_VERSION_3_3") && gl.isFunctionAvailable("glGenVertexArrays");
+	}
+
+	/**
+	 * @param gl
+	 * @return true if the GPU can keep a buffer mapped while drawing from it, and fence each region
+	 */
+	public static boolean isPersistentMappingSupported(GL2 gl) {
+		return gl.isGL4() && gl.isExtensionAvailable("GL_ARB_buffer_storage");
+	}
+
+	/**
+	 * Builds the shader and the buffers, needs a current GL context
+	 *
+	 * @param gl
+	 * @param onGpu true to move the particles with transform feedback if the GPU can, on the CPU otherwise
+	 * @throws IOException if a shader can't be read
+	 */
+	public void init(GL2 gl, boolean onGpu) throws IOException {
+		HashMap<String, Integer> attributes = new HashMap<>();
+		attributes.put("particle", 0);
+		program = new ShaderProgram(gl, "assets/shaders/particle.vert", "assets/shaders/particle.frag", attributes);
+		projectionLocation = program.getUniformLocation(gl, "projection");
+		modelViewLocation = program.getUniformLocation(gl, "modelView");
+		pointScaleLocation = program.getUniformLocation(gl, "pointScale");
+		int[] ids = new int[1];
+		gl.glGenVertexArrays(1, ids, 0);
+		vertexArray = ids[0];
+
+		if (onGpu && ParticleFeedback.isSupported(gl)) {
+			feedback = new ParticleFeedback(gl, budget, rand.nextLong());
+			return;
+		}
+		gl.glGenBuffers(1, ids, 0);
+		vbo = ids[0];
+		long regionBytes = (long) budget * FLOATS_PER_PARTICLE * Buffers.SIZEOF_FLOAT;
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+		persistent = isPersistentMappingSupported(gl);
+		if (persistent) {
+			gl.getGL4().glBufferStorage(GL.GL_ARRAY_BUFFER, regionBytes * REGIONS, null, MAP_FLAGS);
+			ByteBuffer buffer = gl.glMapBufferRange(GL.GL_ARRAY_BUFFER, 0, regionBytes * REGIONS, MAP_FLAGS);
+			if (buffer != null) {
+				mapped = buffer.order(ByteOrder.nativeOrder()).asFloatBuffer();
+			}
+			else {
+				//start again with a normal buffer, storage made with glBufferStorage can't be respecified
+				gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+				gl.glDeleteBuffers(1, ids, 0);
+				gl.glGenBuffers(1, ids, 0);
+				vbo = ids[0];
+				gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+				persistent = false;
+			}
+		}
+		if (!persistent) {
+			gl.glBufferData(GL.GL_ARRAY_BUFFER, regionBytes, null, GL2ES2.GL_STREAM_DRAW);
+			mapped = Buffers.newDirectFloatBuffer(budget * FLOATS_PER_PARTICLE);
+		}
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Emits new particles for the time passed and moves the live ones on, called on the GL thread before submitting
+	 *
+	 * @param dt the real time passed in seconds
+	 */
+	public void update(double dt) {
+		if (feedback != null) {
+			step += dt; //moved on the GPU when drawn
+			return;
+		}
+		//the ones that died in the last step were still drawn faded out or behind the Sun, so they go now
+		this.retire();
+		pending += emissionRate * dt;
+		int emit = (int) Math.min(pending, budget - alive);
+		pending -= (int) pending;
+		while (emit > 0) {
+			int count = Math.min(emit, BATCH);
+			this.emitBatch(alive, alive + count);
+			alive += count;
+			emit -= count;
+		}
+
+		float seconds = (float) dt;
+		int batches = (alive + BATCH - 1) / BATCH;
+		if (alive < PARALLEL_THRESHOLD) {
+			for (int b = 0; b < batches; ++b) {
+				this.moveBatch(b * BATCH, Math.min(alive, (b + 1) * BATCH), seconds);
+			}
+		}
+		else {
+			IntStream.range(0, batches).parallel().forEach(b -> moveBatch(b * BATCH, Math.min(alive, (b + 1) * BATCH), seconds));
+		}
+	}
+
+	//pulls a run of particles towards the Sun, moves them and lays them out for the vertex buffer, with no branches so the loop stays tight
+	private void moveBatch(int start, int end, float dt) {
+		float gm = GRAVITY * radius * radius * radius * dt;
+		for (int i = start, j = start * FLOATS_PER_PARTICLE; i < end; ++i, j += FLOATS_PER_PARTICLE) {
+			float r2 = x[i] * x[i] + y[i] * y[i] + z[i] * z[i];
+			float pull = gm / (r2 * (float) Math.sqrt(r2));
+			vx[i] -= x[i] * pull;
+			vy[i] -= y[i] * pull;
+			vz[i] -= z[i] * pull;
+			x[i] += vx[i] * dt;
+			y[i] += vy[i] * dt;
+			z[i] += vz[i] * dt;
+			age[i] += dt;
+			staging[j] = x[i];
+			staging[j + 1] = y[i];
+			staging[j + 2] = z[i];
+			staging[j + 3] = age[i] / life[i] + kind[i];
+		}
+	}
+
+	//drops the particles that have run out of life or fallen back in, keeping the live ones packed at the front
+	private void retire() {
+		float inside = radius * radius;
+		int i = 0;
+		while (i < alive) {
+			if (age[i] >= life[i] || x[i] * x[i] + y[i] * y[i] + z[i] * z[i] < inside) {
+				int last = --alive;
+				x[i] = x[last];
+				y[i] = y[last];
+				z[i] = z[last];
+				vx[i] = vx[last];
+				vy[i] = vy[last];
+				vz[i] = vz[last];
+				age[i] = age[last];
+				life[i] = life[last];
+				kind[i] = kind[last];
+			}
+			else {
+				++i;
+			}
+		}
+	}
+
+	//starts a run of new particles just above the surface
+	private void emitBatch(int start, int end) {
+		for (int i = start; i < end; ++i) {
+			//a random direction, evenly over the sphere
+			float nz = rand.nextFloat() * 2 - 1;
+			double phi = rand.nextDouble() * 2 * Math.PI;
+			float s = (float) Math.sqrt(1 - nz * nz);
+			float nx = s * (float) Math.cos(phi), ny = s * (float) Math.sin(phi);
+			x[i] = nx * radius * 1.01f;
+			y[i] = ny * radius * 1.01f;
+			z[i] = nz * radius * 1.01f;
+			age[i] = 0;
+			boolean prominence = rand.nextFloat() < PROMINENCE_FRACTION;
+			kind[i] = prominence ? 2 : 0;
+			if (prominence) {
+				//slower than escape and leaning over, so it comes back down somewhere else
+				float tx = (float) rand.nextGaussian(), ty = (float) rand.nextGaussian(), tz = (float) rand.nextGaussian();
+				float along = tx * nx + ty * ny + tz * nz;
+				tx -= nx * along;
+				ty -= ny * along;
+				tz -= nz * along;
+				float length = (float) Math.sqrt(tx * tx + ty * ty + tz * tz) + 1e-6f;
+				double lean = rand.nextDouble() * 0.9;
+				float up = (float) Math.cos(lean), side = (float) Math.sin(lean) / length;
+				float speed = radius * (0.5f + rand.nextFloat() * 0.3f);
+				vx[i] = (nx * up + tx * side) * speed;
+				vy[i] = (ny * up + ty * side) * speed;
+				vz[i] = (nz * up + tz * side) * speed;
+				life[i] = 4 + rand.nextFloat() * 2;
+			}
+			else {
+				float speed = radius * (1 + rand.nextFloat() * 0.5f);
+				vx[i] = (nx + (float) rand.nextGaussian() * 0.06f) * speed;
+				vy[i] = (ny + (float) rand.nextGaussian() * 0.06f) * speed;
+				vz[i] = (nz + (float) rand.nextGaussian() * 0.06f) * speed;
+				life[i] = 2 + rand.nextFloat() * 2;
+			}
+		}
+	}
+
+	/**
+	 * Submits the particles to the render queue
+	 *
+	 * @param context
+	 * @param model the transform of the Sun, without its spin
+	 */
+	public void submit(RenderContext context, Matrix4 model) {
+		if (program == null || (feedback == null && alive == 0)) {
+			return;
+		}
+		context.getModelView(model, modelView);
+		context.getQueue().submit(RenderQueue.key(true, program.getProgram(), 0, context.getDepth(model)), this);
+	}
+
+	@Override
+	public void execute(GL2 gl, RenderContext context) {
+		int first = 0, count;
+		int stride = FLOATS_PER_PARTICLE * Buffers.SIZEOF_FLOAT;
+		long offset = 0;
+		int source;
+		if (feedback != null) {
+			//the step can't be too long or the prominences fly through the Sun
+			feedback.update(gl, context, (float) Math.min(step, 0.1), emissionRate, radius);
+			step = 0;
+			source = feedback.getDrawBuffer();
+			count = budget;
+			stride = ParticleFeedback.STRIDE;
+			offset = ParticleFeedback.DRAW_OFFSET;
+		}
+		else {
+			first = this.upload(gl);
+			source = vbo;
+			count = alive;
+		}
+
+		GLStateCache state = context.getStateCache();
+		state.useProgram(gl, program.getProgram());
+		state.setEnabled(gl, GL2.GL_BLEND, true);
+		Camera camera = context.getCamera();
+		camera.getProjectionMatrix().get(matrix, 0);
+		gl.glUniformMatrix4fv(projectionLocation, 1, false, matrix, 0);
+		gl.glUniformMatrix4fv(modelViewLocation, 1, false, modelView, 0);
+		gl.glUniform1f(pointScaleLocation, (float) (PARTICLE_SIZE * radius / camera.getPixelAngle()));
+		//added on top of each other so dense streams glow, without hiding each other in the depth buffer
+		gl.glBlendFunc(GL.GL_SRC_ALPHA, GL.GL_ONE);
+		gl.glDepthMask(false);
+		gl.glEnable(GL2.GL_VERTEX_PROGRAM_POINT_SIZE);
+		gl.glEnable(GL2.GL_POINT_SPRITE);
+
+		gl.glBindVertexArray(vertexArray);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, source);
+		gl.glEnableVertexAttribArray(0);
+		gl.glVertexAttribPointer(0, 4, GL.GL_FLOAT, false, stride, offset);
+		gl.glDrawArrays(GL.GL_POINTS, first, count);
+		context.getStats().addDrawCall();
+		gl.glDisableVertexAttribArray(0);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+		gl.glBindVertexArray(0);
+		if (persistent) {
+			int region = (int) (frame % REGIONS);
+			fences[region] = gl.getGL4().glFenceSync(GL3ES3.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		}
+		frame++;
+
+		gl.glDisable(GL2.GL_POINT_SPRITE);
+		gl.glDisable(GL2.GL_VERTEX_PROGRAM_POINT_SIZE);
+		gl.glDepthMask(true);
+		gl.glBlendFunc(GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA);
+	}
+
+	/**
+	 * Copies the live particles, as laid out by the last update, into the vertex buffer
+	 *
+	 * @return the first vertex to draw from
+	 */
+	private int upload(GL2 gl) {
+		int floats = alive * FLOATS_PER_PARTICLE;
+		if (persistent) {
+			int region = (int) (frame % REGIONS);
+			if (fences[region] != 0) {
+				//the GPU is three frames behind at most, so this almost never waits
+				GL4 gl4 = gl.getGL4();
+				gl4.glClientWaitSync(fences[region], GL3ES3.GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT);
+				gl4.glDeleteSync(fences[region]);
+				fences[region] = 0;
+			}
+			mapped.position(region * budget * FLOATS_PER_PARTICLE);
+			mapped.put(staging, 0, floats);
+			return region * budget;
+		}
+		mapped.clear();
+		mapped.put(staging, 0, floats).flip();
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+		//orphan the old store first, so the driver doesn't wait for the GPU to finish drawing from it
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) budget * FLOATS_PER_PARTICLE * Buffers.SIZEOF_FLOAT, null, GL2ES2.GL_STREAM_DRAW);
+		gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0, (long) floats * Buffers.SIZEOF_FLOAT, mapped);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+		return 0;
+	}
+
+	public void dispose(GL2 gl) {
+		if (program == null) {
+			return;
+		}
+		if (feedback != null) {
+			feedback.dispose(gl);
+			feedback = null;
+		}
+		if (vbo != 0) {
+			if (persistent) {
+				GL4 gl4 = gl.getGL4();
+				for (int i = 0; i < REGIONS; ++i) {
+					if (fences[i] != 0) {
+						gl4.glDeleteSync(fences[i]);
+						fences[i] = 0;
+					}
+				}
+				gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+				gl.glUnmapBuffer(GL.GL_ARRAY_BUFFER);
+				gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+			}
+			gl.glDeleteBuffers(1, new int[] {vbo}, 0);
+			vbo = 0;
+		}
+		gl.glDeleteVertexArrays(1, new int[] {vertexArray}, 0);
+		program.dispose(gl);
+		program = null;
+		mapped = null;
+	}
+
+	/**
+	 * @param emissionRate particles emitted per second
+	 */
+	public void setEmissionRate(float emissionRate) {
+		this.emissionRate = Math.max(0, emissionRate);
+	}
+
+	public float getEmissionRate() {
+		return emissionRate;
+	}
+
+	public int getBudget() {
+		return budget;
+	}
+
+	/**
+	 * @return how many particles are alive, or -1 if they're on the GPU and not counted
+	 */
+	public int getAlive() {
+		return feedback != null ? -1 : alive;
+	}
+
+	/**
+	 * @return true if the particles are moved on the GPU with transform feedback
+	 */
+	public boolean isOnGpu() {
+		return feedback != null;
+	}
+
+	/**
+	 * @return true if the particles are written straight into a mapped buffer
+	 */
+	public boolean isPersistent() {
+		return persistent;
+	}
+}
@@ -0,0 +1,141 @@
+package rendering;
+
+import java.util.ArrayList;
+import java.util.function.IntConsumer;
+
+import profiling.RollingHistogram;
+
+/**
+ * Steps quality settings down when frames cost more than the budget, and back up when there's plenty of room.
+ * Each setting is a knob with a few levels, the highest being the best looking. Knobs added first are the first
+ * to go down and the last to come back. The decision is made on the 95th percentile of a window of frames,
+ * and quality only goes back up once frames are well under the budget, so it doesn't flip between two levels.
+ * After every change the window starts again, so the next decision only sees frames drawn at the new quality.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class QualityController {
+	private static final int WINDOW = 120; //frames to measure before deciding
+	private static final double RAISE_FRACTION = 0.6; //how far under the budget frames have to be to raise quality
+	
+	//one setting and the level it's at
+	private static class Knob {
+		final String name;
+		final int levels;
+		final IntConsumer apply;
+		int level;
+		int applied; //the level last handed to apply
+		
+		Knob(String name, int levels, IntConsumer apply) {
+			this.name = name;
+			this.levels = levels;
+			this.apply = apply;
+			this.level = levels - 1;
+			this.applied = level;
+		}
+	}
+	
+	private final ArrayList<Knob> knobs = new ArrayList<>();
+	private final RollingHistogram costs = new RollingHistogram(WINDOW);
+	private final long budget;
+	private long lastPercentile;
+	
+	/**
+	 * @param budgetMillis the frame time to keep the 95th percentile under
+	 */
+	public QualityController(double budgetMillis) {
+		this.budget = (long) (budgetMillis * 1e6);
+	}
+	
+	/**
+	 * Adds a setting, which is taken to be at its best level already
+	 * 
+	 * @param name what to call it when the levels are shown
+	 * @param levels how many levels it has
+	 * @param apply sets the level, from 0 for the cheapest to levels - 1 for the best, called on the GL thread
+	 */
+	public synchronized void addKnob(String name, int levels, IntConsumer apply) {
+		knobs.add(new Knob(name, levels, apply));
+	}
+	
+	/**
+	 * Adds the cost of a frame and decides whether to change quality once the window is full
+	 * 
+	 * @param nanos how long the frame took to draw
+	 * @return true if a knob changed, and {@link #applyChanges()} needs to be called on the GL thread
+	 */
+	public synchronized boolean addFrame(long nanos) {
+		costs.add(nanos);
+		if (costs.getCount() < WINDOW) {
+			return false;
+		}
+		lastPercentile = costs.getPercentile(95);
+		boolean changed = false;
+		if (lastPercentile > budget) {
+			//lower the first knob that still can go down
+			for (Knob knob : knobs) {
+				if (knob.level > 0) {
+					knob.level--;
+					changed = true;
+					break;
+				}
+			}
+		}
+		else if (lastPercentile < budget * RAISE_FRACTION) {
+			//raise the last knob that isn't at its best
+			for (int i = knobs.size() - 1; i >= 0; --i) {
+				Knob knob = knobs.get(i);
+				if (knob.level < knob.levels - 1) {
+					knob.level++;
+					changed = true;
+					break;
+				}
+			}
+		}
+		costs.clear();
+		return changed;
+	}
+	
+	/**
+	 * Hands the knobs that have changed their new levels, called on the GL thread
+	 */
+	public synchronized void applyChanges() {
+		for (Knob knob : knobs) {
+			if (knob.level != knob.applied) {
+				knob.apply.accept(knob.level);
+				knob.applied = knob.level;
+			}
+		}
+	}
+	
+	/**
+	 * @param name
+	 * @return the level of a knob, or -1 if there isn't one by that name
+	 */
+	public synchronized int getLevel(String name) {
+		for (Knob knob : knobs) {
+			if (knob.name.equals(name)) {
+				return knob.level;
+			}
+		}
+		return -1;
+	}
+	
+	public double getBudgetMillis() {
+		return budget / 1e6;
+	}
+	
+	/**
+	 * @return the level of every knob out of its levels, and the 95th percentile the last decision was made on
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder text = new StringBuilder("quality");
+		for (Knob knob : knobs) {
+			text.append(knob == knobs.get(0) ? " " : ", ").append(knob.name).append(' ').append(knob.level + 1).append('/').append(knob.levels);
+		}
+		return text.append(" (p95 ").append(String.format("%.2f", lastPercentile / 1e6))
+				.append(" of ").append(String.format("%.2f", getBudgetMillis())).append(" ms)").toString();
+	}
+}
@@ -0,0 +1,266 @@
+package rendering;
+
+import com.jogamp.opengl.GL2;
+
+import profiling.FrameProfiler;
+import simulation.BodyState;
+import utils.Matrix4;
+import utils.MatrixStack;
+import viewer.Camera;
+
+/**
+ * Everything a body needs to draw itself in the current frame
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class RenderContext {
+	private final MeshCache meshes;
+	private final FrameStats stats;
+	private final LodManager lod;
+	private final LodManager ringLod;
+	private final Camera camera;
+	private BodyState state;
+	private double frameTime; //seconds since the last frame, a whole fixed step when rendering offscreen
+	private float[][] catalogPositions; //by catalog, taken once a frame so everything sees the same ones
+	private InstancedSphereRenderer instances;
+	private boolean[] visible; //which bodies and orbit rings survived culling, null to draw everything
+	private int orbitOffset;
+	private FrameProfiler profiler;
+	private final SunLight light = new SunLight();
+	private final MatrixStack modelStack = new MatrixStack(16);
+	private final Matrix4 modelView = new Matrix4(); //scratch space for loadModelView
+	private final float[] upload = new float[16];
+	private final RenderQueue queue = new RenderQueue();
+	private final GLStateCache stateCache = new GLStateCache();
+	
+	public RenderContext(MeshCache meshes, FrameStats stats, LodManager lod, Camera camera) {
+		this.meshes = meshes;
+		this.stats = stats;
+		this.lod = lod;
+		this.ringLod = new LodManager(LodManager.DEFAULT_RING_LEVELS);
+		this.camera = camera;
+	}
+	
+	/**
+	 * Gets the shared sphere to draw a body with, tessellated for how big the body looks from the camera
+	 * 
+	 * @param gl
+	 * @param body the state index of the body
+	 * @param center the center of the body in world space
+	 * @param radius the radius of the body
+	 */
+	public SphereMesh getSphere(GL2 gl, int body, double[] center, double radius) {
+		int segments = lod.select(body, camera.getProjectedRadius(center, radius));
+		return meshes.getSphere(gl, segments);
+	}
+
+	public BodyState getState() {
+		return state;
+	}
+
+	/**
+	 * @param state the snapshot of the simulation to draw this frame
+	 */
+	public void setState(BodyState state) {
+		this.state = state;
+	}
+
+	public double getFrameTime() {
+		return frameTime;
+	}
+
+	/**
+	 * @param frameTime how far things that move outside the simulation, like particles, move this frame, in seconds
+	 */
+	public void setFrameTime(double frameTime) {
+		this.frameTime = frameTime;
+	}
+
+	public float[][] getCatalogPositions() {
+		return catalogPositions;
+	}
+
+	/**
+	 * @param catalogPositions the positions of each catalog to draw this frame, null for one that isn't moving yet
+	 */
+	public void setCatalogPositions(float[][] catalogPositions) {
+		this.catalogPositions = catalogPositions;
+	}
+
+	/**
+	 * Gets the shared circle to draw an orbit ring with, with enough segments for how big the ring looks
+	 * 
+	 * @param gl
+	 * @param body the state index of the body the ring belongs to
+	 * @param center the center of the ring in world space
+	 * @param radius the radius of the ring
+	 */
+	public CircleMesh getCircle(GL2 gl, int body, double[] center, double radius) {
+		int segments = ringLod.select(body, camera.getProjectedRadius(center, radius));
+		return meshes.getCircle(gl, segments);
+	}
+	
+	/**
+	 * @param visible the result of the culling pass, the bodies by state index followed by their orbit rings, null to draw everything
+	 * @param orbitOffset where the orbit rings start in the array
+	 */
+	public void setVisibility(boolean[] visible, int orbitOffset) {
+		this.visible = visible;
+		this.orbitOffset = orbitOffset;
+	}
+	
+	/**
+	 * @param body the state index of the body
+	 * @return false if the body is outside the camera's view
+	 */
+	public boolean isBodyVisible(int body) {
+		return visible == null || visible[body];
+	}
+	
+	/**
+	 * @param body the state index of the body
+	 * @return false if the orbit ring of the body is outside the camera's view
+	 */
+	public boolean isOrbitVisible(int body) {
+		return visible == null || visible[orbitOffset + body];
+	}
+	
+	/**
+	 * @return the model transforms of the frame, worked out on the CPU
+	 */
+	public MatrixStack getModelStack() {
+		return modelStack;
+	}
+	
+	/**
+	 * Hands a model matrix to the fixed-function pipeline, combined with the camera's view on the CPU
+	 * 
+	 * @param gl
+	 * @param model the transform from the object's space to world space
+	 */
+	public void loadModelView(GL2 gl, Matrix4 model) {
+		modelView.set(camera.getViewMatrix()).multiply(model);
+		modelView.get(upload, 0);
+		gl.glLoadMatrixf(upload, 0);
+	}
+	
+	/**
+	 * Combines a model matrix with the camera's view, for commands that load it later
+	 * 
+	 * @param model the transform from the object's space to world space
+	 * @param out the array to write the 16 values into, column by column
+	 */
+	public void getModelView(Matrix4 model, float[] out) {
+		modelView.set(camera.getViewMatrix()).multiply(model);
+		modelView.get(out, 0);
+	}
+	
+	/**
+	 * @param model the transform from the object's space to world space
+	 * @return how far the origin of the model is from the camera, from 0 at the eye to 1 at the far plane
+	 */
+	public double getDepth(Matrix4 model) {
+		double[] eye = camera.getEye();
+		double dx = model.get(12) - eye[0];
+		double dy = model.get(13) - eye[1];
+		double dz = model.get(14) - eye[2];
+		return Math.sqrt(dx * dx + dy * dy + dz * dz) / Camera.FAR;
+	}
+	
+	/**
+	 * @return the draw commands of the frame, run once everything has been submitted
+	 */
+	public RenderQueue getQueue() {
+		return queue;
+	}
+	
+	/**
+	 * @return the copy of the GL state the queued commands change state through
+	 */
+	public GLStateCache getStateCache() {
+		return stateCache;
+	}
+	
+	/**
+	 * Puts just the camera's view back on the modelview matrix
+	 * 
+	 * @param gl
+	 */
+	public void loadView(GL2 gl) {
+		camera.getViewMatrix().get(upload, 0);
+		gl.glLoadMatrixf(upload, 0);
+	}
+	
+	/**
+	 * @return the Sun's light, shared with the shaders
+	 */
+	public SunLight getLight() {
+		return light;
+	}
+	
+	/**
+	 * @return the batch to add spheres to, or null if they should be drawn straight away
+	 */
+	public InstancedSphereRenderer getInstances() {
+		return instances;
+	}
+
+	public void setInstances(InstancedSphereRenderer instances) {
+		this.instances = instances;
+	}
+	
+	/**
+	 * Starts timing a phase of the frame, does nothing without a profiler
+	 * 
+	 * @param gl
+	 * @param phase the name of the phase
+	 */
+	public void beginPhase(GL2 gl, String phase) {
+		if (profiler != null) {
+			profiler.begin(gl, phase);
+		}
+	}
+	
+	/**
+	 * Stops timing the current phase of the frame
+	 * 
+	 * @param gl
+	 */
+	public void endPhase(GL2 gl) {
+		if (profiler != null) {
+			profiler.end(gl);
+		}
+	}
+	
+	/**
+	 * @return the profiler timing the frame, or null if it isn't being profiled
+	 */
+	public FrameProfiler getProfiler() {
+		return profiler;
+	}
+
+	public void setProfiler(FrameProfiler profiler) {
+		this.profiler = profiler;
+	}
+	
+	public MeshCache getMeshes() {
+		return meshes;
+	}
+
+	public FrameStats getStats() {
+		return stats;
+	}
+
+	public LodManager getLod() {
+		return lod;
+	}
+
+	public LodManager getRingLod() {
+		return ringLod;
+	}
+
+	public Camera getCamera() {
+		return camera;
+	}
+}
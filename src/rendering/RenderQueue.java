@@ -0,0 +1,133 @@
+package rendering;
+
+import java.util.Arrays;
+
+import com.jogamp.opengl.GL2;
+
+/**
+ * Collects the draw commands of a frame and runs them in an order that keeps state changes down.
+ * Each command comes with a 64 bit key, and sorting the keys as plain numbers gives the order:
+ * opaque commands grouped by shader, then texture, then front to back so the depth test throws away hidden pixels early,
+ * then the opaque commands asked to go last, like points and the stars that only fill in what the bodies leave,
+ * followed by the blended ones back to front so they mix with what's behind them.
+ * The lowest bits of a key hold where the command was submitted, so the sort is just a sort of longs.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class RenderQueue {
+	public static final int FIXED_FUNCTION = 0; //the shader of commands using the fixed-function pipeline
+	
+	private static final int INDEX_BITS = 20;
+	private static final int DEPTH_BITS = 23;
+	private static final int TEXTURE_BITS = 12;
+	private static final int SHADER_BITS = 6;
+	private static final long BLENDED = 1L << 62;
+	private static final long LAST = 1L << 61; //opaque commands that go after all the others, above the shader
+	private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+	private static final long DEPTH_MAX = (1L << DEPTH_BITS) - 1;
+	private static final int MAX_COMMANDS = 1 << INDEX_BITS;
+	
+	/**
+	 * Something to draw, run by the queue once it's sorted
+	 */
+	public interface Command {
+		/**
+		 * Draws, changing tracked state only through the context's state cache
+		 * 
+		 * @param gl
+		 * @param context
+		 */
+		void execute(GL2 gl, RenderContext context);
+	}
+	
+	private long[] keys = new long[256];
+	private Command[] commands = new Command[256];
+	private int count;
+	
+	/**
+	 * Builds the sort key of a command
+	 * 
+	 * @param blended true if the command blends with what's behind it
+	 * @param shader the program the command draws with, {@link #FIXED_FUNCTION} for none
+	 * @param texture the texture the command binds, 0 for none
+	 * @param depth how far the command is from the camera, from 0 at the eye to 1 at the far plane
+	 */
+	public static long key(boolean blended, int shader, int texture, double depth) {
+		long s = shader & ((1 << SHADER_BITS) - 1);
+		long t = texture & ((1 << TEXTURE_BITS) - 1);
+		long d = Math.round(Math.max(0, Math.min(1, depth)) * DEPTH_MAX);
+		if (blended) {
+			//the depth goes first and is inverted, so the farthest is drawn first
+			return BLENDED | ((DEPTH_MAX - d) << (INDEX_BITS + TEXTURE_BITS + SHADER_BITS)) | (s << (INDEX_BITS + TEXTURE_BITS)) | (t << INDEX_BITS);
+		}
+		return (s << (INDEX_BITS + DEPTH_BITS + TEXTURE_BITS)) | (t << (INDEX_BITS + DEPTH_BITS)) | (d << INDEX_BITS);
+	}
+	
+	/**
+	 * Builds the sort key of an opaque command that runs after every other opaque one, whatever its shader,
+	 * so the depth test can skip what the bodies already cover
+	 * 
+	 * @param shader the program the command draws with, {@link #FIXED_FUNCTION} for none
+	 * @param texture the texture the command binds, 0 for none
+	 * @param depth how far the command is from the camera, from 0 at the eye to 1 at the far plane
+	 */
+	public static long lastOpaqueKey(int shader, int texture, double depth) {
+		return LAST | key(false, shader, texture, depth);
+	}
+	
+	/**
+	 * Adds a command to the frame, it keeps a reference so the command must not be changed until the queue has run
+	 * 
+	 * @param key the sort key from {@link #key(boolean, int, int, double)}
+	 * @param command
+	 */
+	public void submit(long key, Command command) {
+		if (count == MAX_COMMANDS) {
+			throw new IllegalStateException("Too many draw commands in one frame");
+		}
+		if (count == keys.length) {
+			keys = Arrays.copyOf(keys, count * 2);
+			commands = Arrays.copyOf(commands, count * 2);
+		}
+		keys[count] = (key & ~INDEX_MASK) | count;
+		commands[count] = command;
+		count++;
+	}
+	
+	/**
+	 * Sorts the commands and runs them, then empties the queue.
+	 * The state cache is reset first, since anything could have been changed since the last frame,
+	 * and the state the rest of the frame expects is put back at the end.
+	 * 
+	 * @param gl
+	 * @param context
+	 */
+	public void execute(GL2 gl, RenderContext context) {
+		GLStateCache state = context.getStateCache();
+		state.invalidate();
+		state.resetCounters();
+		
+		Arrays.sort(keys, 0, count);
+		for (int i = 0; i < count; ++i) {
+			int index = (int) (keys[i] & INDEX_MASK);
+			commands[index].execute(gl, context);
+			commands[index] = null;
+		}
+		count = 0;
+		
+		state.useProgram(gl, 0);
+		state.bindTexture(gl, 0);
+		state.setEnabled(gl, GL2.GL_TEXTURE_2D, false);
+		state.setEnabled(gl, GL2.GL_LIGHTING, true);
+		state.setEnabled(gl, GL2.GL_BLEND, true);
+		context.getStats().addStateChanges(state.getIssued(), state.getElided());
+	}
+	
+	/**
+	 * @return the number of commands waiting to run
+	 */
+	public int size() {
+		return count;
+	}
+}
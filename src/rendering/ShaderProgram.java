@@ -0,0 +1,130 @@
+package rendering;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import com.jogamp.opengl.GL2ES2;
+import com.jogamp.opengl.GL2ES3;
+import com.jogamp.opengl.GLException;
+
+/**
+ * A GLSL program built from a vertex and a fragment shader file, or from a vertex shader alone for transform feedback
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class ShaderProgram {
+	private int program;
+	
+	/**
+	 * Compiles and links the shaders, needs a current GL context
+	 * 
+	 * @param gl
+	 * @param vertexPath the path to the vertex shader source
+	 * @param fragmentPath the path to the fragment shader source
+	 * @param attributes the generic attribute locations to bind before linking, can be null
+	 * @throws IOException if a source file can't be read
+	 * @throws GLException if a shader doesn't compile or the program doesn't link
+	 */
+	public ShaderProgram(GL2ES2 gl, String vertexPath, String fragmentPath, Map<String, Integer> attributes) throws IOException {
+		int vertex = compile(gl, GL2ES2.GL_VERTEX_SHADER, vertexPath);
+		int fragment = compile(gl, GL2ES2.GL_FRAGMENT_SHADER, fragmentPath);
+		
+		program = gl.glCreateProgram();
+		gl.glAttachShader(program, vertex);
+		gl.glAttachShader(program, fragment);
+		bindAttributes(gl, attributes);
+		gl.glLinkProgram(program);
+		gl.glDeleteShader(vertex);
+		gl.glDeleteShader(fragment);
+		checkLink(gl, vertexPath + " and " + fragmentPath);
+	}
+	
+	/**
+	 * Compiles and links a vertex shader on its own, with its outputs captured by transform feedback
+	 * instead of going on to be rasterized, needs a current GL context
+	 * 
+	 * @param gl
+	 * @param vertexPath the path to the vertex shader source
+	 * @param varyings the outputs to capture, interleaved into one buffer in this order
+	 * @param attributes the generic attribute locations to bind before linking, can be null
+	 * @throws IOException if the source file can't be read
+	 * @throws GLException if the shader doesn't compile or the program doesn't link
+	 */
+	public ShaderProgram(GL2ES3 gl, String vertexPath, String[] varyings, Map<String, Integer> attributes) throws IOException {
+		int vertex = compile(gl, GL2ES2.GL_VERTEX_SHADER, vertexPath);
+		
+		program = gl.glCreateProgram();
+		gl.glAttachShader(program, vertex);
+		bindAttributes(gl, attributes);
+		gl.glTransformFeedbackVaryings(program, varyings.length, varyings, GL2ES3.GL_INTERLEAVED_ATTRIBS);
+		gl.glLinkProgram(program);
+		gl.glDeleteShader(vertex);
+		checkLink(gl, vertexPath);
+	}
+	
+	private void bindAttributes(GL2ES2 gl, Map<String, Integer> attributes) {
+		if (attributes != null) {
+			for (Map.Entry<String, Integer> attribute : attributes.entrySet()) {
+				gl.glBindAttribLocation(program, attribute.getValue(), attribute.getKey());
+			}
+		}
+	}
+	
+	private void checkLink(GL2ES2 gl, String sources) {
+		int[] status = new int[1];
+		gl.glGetProgramiv(program, GL2ES2.GL_LINK_STATUS, status, 0);
+		if (status[0] == 0) {
+			String log = getProgramLog(gl, program);
+			gl.glDeleteProgram(program);
+			throw new GLException("Could not link " + sources + ": " + log);
+		}
+	}
+	
+	private static int compile(GL2ES2 gl, int type, String path) throws IOException {
+		String source = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+		int shader = gl.glCreateShader(type);
+		gl.glShaderSource(shader, 1, new String[] {source}, null);
+		gl.glCompileShader(shader);
+		
+		int[] status = new int[1];
+		gl.glGetShaderiv(shader, GL2ES2.GL_COMPILE_STATUS, status, 0);
+		if (status[0] == 0) {
+			int[] length = new int[1];
+			gl.glGetShaderiv(shader, GL2ES2.GL_INFO_LOG_LENGTH, length, 0);
+			byte[] log = new byte[Math.max(1, length[0])];
+			gl.glGetShaderInfoLog(shader, log.length, null, 0, log, 0);
+			gl.glDeleteShader(shader);
+			throw new GLException("Could not compile " + path + ": " + new String(log, StandardCharsets.UTF_8).trim());
+		}
+		return shader;
+	}
+	
+	private static String getProgramLog(GL2ES2 gl, int program) {
+		int[] length = new int[1];
+		gl.glGetProgramiv(program, GL2ES2.GL_INFO_LOG_LENGTH, length, 0);
+		byte[] log = new byte[Math.max(1, length[0])];
+		gl.glGetProgramInfoLog(program, log.length, null, 0, log, 0);
+		return new String(log, StandardCharsets.UTF_8).trim();
+	}
+	
+	public void use(GL2ES2 gl) {
+		gl.glUseProgram(program);
+	}
+	
+	public int getUniformLocation(GL2ES2 gl, String name) {
+		return gl.glGetUniformLocation(program, name);
+	}
+	
+	public int getProgram() {
+		return program;
+	}
+	
+	public void dispose(GL2ES2 gl) {
+		gl.glDeleteProgram(program);
+		program = 0;
+	}
+}
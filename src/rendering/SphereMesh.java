@@ -0,0 +1,198 @@
+package rendering;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.fixedfunc.GLPointerFunc;
+
+/**
+ * A unit UV-sphere stored in a vertex buffer and an index buffer on the GPU.
+ * The layout and texture coordinates match gluSphere, so textures wrap the same way as before.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class SphereMesh {
+	private static final int FLOATS_PER_VERTEX = 8; //position, normal, texture coordinate
+	private static final int STRIDE = FLOATS_PER_VERTEX * Buffers.SIZEOF_FLOAT;
+	private static final int LEGACY_SEGMENTS = 50; //the slices and stacks of every gluSphere the bodies used to draw
+	//the generic attribute locations the shaders read the vertices from
+	public static final int POSITION_LOCATION = 0;
+	public static final int NORMAL_LOCATION = 1;
+	public static final int TEXCOORD_LOCATION = 2;
+	
+	private final int slices;
+	private final int stacks;
+	private final int vertexCount;
+	private final int indexCount;
+	private int vbo;
+	private int ibo;
+	
+	/**
+	 * Generates the sphere and uploads it, needs a current GL context
+	 * 
+	 * @param gl
+	 * @param slices the number of subdivisions around the z axis
+	 * @param stacks the number of subdivisions along the z axis
+	 */
+	public SphereMesh(GL2 gl, int slices, int stacks) {
+		this.slices = slices;
+		this.stacks = stacks;
+		this.vertexCount = (slices + 1) * (stacks + 1);
+		this.indexCount = slices * stacks * 6;
+		
+		FloatBuffer vertices = generateVertices(slices, stacks);
+		IntBuffer indices = generateIndices(slices, stacks);
+		
+		int[] buffers = new int[2];
+		gl.glGenBuffers(2, buffers, 0);
+		this.vbo = buffers[0];
+		this.ibo = buffers[1];
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) vertices.capacity() * Buffers.SIZEOF_FLOAT, vertices, GL.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, ibo);
+		gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, (long) indices.capacity() * Buffers.SIZEOF_INT, indices, GL.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+	}
+	
+	/**
+	 * Generates the interleaved vertices the same way gluSphere does: the poles are on the z axis,
+	 * s goes from 0 to 1 around the sphere and t goes from 1 at +z to 0 at -z
+	 */
+	public static FloatBuffer generateVertices(int slices, int stacks) {
+		FloatBuffer vertices = Buffers.newDirectFloatBuffer((slices + 1) * (stacks + 1) * FLOATS_PER_VERTEX);
+		for (int i = 0; i <= stacks; ++i) {
+			double rho = Math.PI * i / stacks;
+			double sinRho = Math.sin(rho);
+			double cosRho = Math.cos(rho);
+			for (int j = 0; j <= slices; ++j) {
+				double theta = j == slices ? 0 : 2 * Math.PI * j / slices;
+				float x = (float) (-Math.sin(theta) * sinRho);
+				float y = (float) (Math.cos(theta) * sinRho);
+				float z = (float) cosRho;
+				//on a unit sphere the normal is the position
+				vertices.put(x).put(y).put(z);
+				vertices.put(x).put(y).put(z);
+				vertices.put((float) j / slices).put(1f - (float) i / stacks);
+			}
+		}
+		vertices.flip();
+		return vertices;
+	}
+	
+	/**
+	 * Generates two counter-clockwise triangles for every quad of the grid
+	 */
+	public static IntBuffer generateIndices(int slices, int stacks) {
+		IntBuffer indices = Buffers.newDirectIntBuffer(slices * stacks * 6);
+		int row = slices + 1;
+		for (int i = 0; i < stacks; ++i) {
+			for (int j = 0; j < slices; ++j) {
+				int a = i * row + j;
+				int b = a + row;
+				indices.put(a).put(b).put(a + 1);
+				indices.put(a + 1).put(b).put(b + 1);
+			}
+		}
+		indices.flip();
+		return indices;
+	}
+	
+	/**
+	 * Draws the sphere with the current modelview matrix, scale it to change the radius
+	 * 
+	 * @param gl
+	 * @param stats the counters to add the drawn indices to, can be null
+	 */
+	public void draw(GL2 gl, FrameStats stats) {
+		bind(gl);
+		gl.glDrawElements(GL.GL_TRIANGLES, indexCount, GL.GL_UNSIGNED_INT, 0);
+		unbind(gl);
+		
+		if (stats != null) {
+			stats.addSpheres(1, indexCount, getLegacyVertexCount());
+		}
+	}
+	
+	/**
+	 * Draws several copies of the sphere in one call with a shader, feeding the vertices through the generic attributes
+	 * instead of the fixed-function arrays. The per instance attributes have to be set up already.
+	 * 
+	 * @param gl
+	 * @param instances the number of copies
+	 * @param stats the counters to add the drawn indices to, can be null
+	 */
+	public void drawInstanced(GL2 gl, int instances, FrameStats stats) {
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+		gl.glEnableVertexAttribArray(POSITION_LOCATION);
+		gl.glEnableVertexAttribArray(NORMAL_LOCATION);
+		gl.glEnableVertexAttribArray(TEXCOORD_LOCATION);
+		gl.glVertexAttribPointer(POSITION_LOCATION, 3, GL.GL_FLOAT, false, STRIDE, 0);
+		gl.glVertexAttribPointer(NORMAL_LOCATION, 3, GL.GL_FLOAT, false, STRIDE, 3 * Buffers.SIZEOF_FLOAT);
+		gl.glVertexAttribPointer(TEXCOORD_LOCATION, 2, GL.GL_FLOAT, false, STRIDE, 6 * Buffers.SIZEOF_FLOAT);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, ibo);
+		gl.glDrawElementsInstanced(GL.GL_TRIANGLES, indexCount, GL.GL_UNSIGNED_INT, 0, instances);
+		gl.glDisableVertexAttribArray(TEXCOORD_LOCATION);
+		gl.glDisableVertexAttribArray(NORMAL_LOCATION);
+		gl.glDisableVertexAttribArray(POSITION_LOCATION);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+		
+		if (stats != null) {
+			stats.addSpheres(instances, indexCount * instances, getLegacyVertexCount() * instances);
+		}
+	}
+	
+	private void bind(GL2 gl) {
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+		gl.glEnableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+		gl.glEnableClientState(GLPointerFunc.GL_NORMAL_ARRAY);
+		gl.glEnableClientState(GLPointerFunc.GL_TEXTURE_COORD_ARRAY);
+		gl.glVertexPointer(3, GL.GL_FLOAT, STRIDE, 0);
+		gl.glNormalPointer(GL.GL_FLOAT, STRIDE, 3 * Buffers.SIZEOF_FLOAT);
+		gl.glTexCoordPointer(2, GL.GL_FLOAT, STRIDE, 6 * Buffers.SIZEOF_FLOAT);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, ibo);
+	}
+	
+	private void unbind(GL2 gl) {
+		gl.glDisableClientState(GLPointerFunc.GL_TEXTURE_COORD_ARRAY);
+		gl.glDisableClientState(GLPointerFunc.GL_NORMAL_ARRAY);
+		gl.glDisableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+	}
+	
+	/**
+	 * @return the number of vertices gluSphere streamed in immediate mode for each sphere before they were put in buffers,
+	 * always at 50 slices and 50 stacks whatever the size on screen
+	 */
+	public static int getLegacyVertexCount() {
+		return LEGACY_SEGMENTS * (LEGACY_SEGMENTS + 1) * 2;
+	}
+	
+	public void dispose(GL2 gl) {
+		gl.glDeleteBuffers(2, new int[] {vbo, ibo}, 0);
+		vbo = 0;
+		ibo = 0;
+	}
+
+	public int getSlices() {
+		return slices;
+	}
+
+	public int getStacks() {
+		return stacks;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getIndexCount() {
+		return indexCount;
+	}
+}
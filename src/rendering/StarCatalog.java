@@ -0,0 +1,282 @@
+package rendering;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A star catalog in a binary file laid out exactly like the vertex buffer it's drawn from, so loading it is mapping
+ * the file and handing the mapped bytes to GL with no parsing. After a short header each star takes 16 bytes:
+ * its direction in the scene as three floats, then its color and brightness as four unsigned bytes.
+ * The stars are sorted brightest first, so drawing fewer of them drops the faintest.
+ * Everything is little-endian, the order the GPU reads the floats in.
+ *
+ * @author Thong Teav
+ * 14883251
+ */
+public class StarCatalog {
+	public static final int MAGIC = 0x49535343; //"ISSC"
+	public static final int VERSION = 1;
+	public static final int HEADER_BYTES = 16; //magic, version, star count, faintest magnitude
+	public static final int STAR_BYTES = 16;
+	public static final float BRIGHTEST = -1.5f; //Sirius, brighter stars get the same size
+	private static final float SUN_MAGNITUDE = -5; //anything brighter is the Sun itself, which some catalogs list
+	private static final double OBLIQUITY = Math.toRadians(23.4393); //the tilt of the equator to the ecliptic
+	private static final float DEFAULT_COLOR_INDEX = 0.6f; //B-V for stars that don't give one, about the Sun's
+	//star colors along the B-V color index, from hot blue-white to cool orange-red
+	private static final float[] COLOR_INDICES = {-0.4f, 0f, 0.6f, 1f, 1.5f, 2f};
+	private static final float[][] COLORS = {
+		{0.61f, 0.71f, 1f}, {0.8f, 0.85f, 1f}, {1f, 0.96f, 0.9f}, {1f, 0.85f, 0.6f}, {1f, 0.7f, 0.4f}, {1f, 0.55f, 0.3f}
+	};
+
+	private final ByteBuffer stars;
+	private final int count;
+	private final float faintest;
+
+	private StarCatalog(ByteBuffer stars, int count, float faintest) {
+		this.stars = stars;
+		this.count = count;
+		this.faintest = faintest;
+	}
+
+	/**
+	 * Maps a catalog written by {@link #convert(String, String)}, the stars are only read from disk when GL copies them
+	 *
+	 * @param path
+	 * @throws IOException if the file can't be read or isn't a star catalog
+	 */
+	public static StarCatalog map(String path) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_BYTES) {
+				throw new IOException(path + ": not a star catalog");
+			}
+			//the mapping stays valid after the channel is closed
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			if (mapped.getInt(0) != MAGIC) {
+				throw new IOException(path + ": not a star catalog");
+			}
+			if (mapped.getInt(4) != VERSION) {
+				throw new IOException(path + ": unsupported version " + mapped.getInt(4));
+			}
+			int count = mapped.getInt(8);
+			if (count < 0 || size < HEADER_BYTES + (long) count * STAR_BYTES) {
+				throw new IOException(path + ": truncated, expected " + count + " stars");
+			}
+			mapped.position(HEADER_BYTES).limit(HEADER_BYTES + count * STAR_BYTES);
+			ByteBuffer stars = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+			return new StarCatalog(stars, count, mapped.getFloat(12));
+		}
+	}
+
+	/**
+	 * Converts a CSV star catalog to the binary format. A first line of column names picks out rarad and decrad in radians,
+	 * or ra in hours and dec in degrees, then mag and optionally ci, the B-V color index, which is how the HYG database is laid out.
+	 * Without one every line is ra, dec, mag and optionally ci, with both angles in degrees.
+	 * Empty lines and lines starting with # are skipped.
+	 *
+	 * @param csvPath the catalog to read
+	 * @param binaryPath the file to write
+	 * @return the number of stars written
+	 * @throws IOException if a file can't be read or written
+	 * @throws IllegalArgumentException if a line is missing values or has something that isn't a number
+	 */
+	public static int convert(String csvPath, String binaryPath) throws IOException {
+		int capacity = 1024, count = 0;
+		float[] rightAscension = new float[capacity], declination = new float[capacity], magnitude = new float[capacity];
+		float[] colorIndex = new float[capacity];
+		try (BufferedReader reader = Files.newBufferedReader(Paths.get(csvPath), StandardCharsets.UTF_8)) {
+			//where each value is on a line, and what turns each angle into radians
+			int raColumn = 0, decColumn = 1, magColumn = 2, ciColumn = 3;
+			double raScale = Math.PI / 180, decScale = Math.PI / 180;
+			String line;
+			int lineNumber = 0;
+			boolean first = true;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split(",", -1);
+				if (first) {
+					first = false;
+					if (!fields[0].trim().isEmpty() && !Character.isDigit(fields[0].trim().charAt(0)) && fields[0].trim().charAt(0) != '-') {
+						//a line of column names
+						int[] columns = findColumns(fields);
+						if (columns == null) {
+							throw new IllegalArgumentException(csvPath + ":" + lineNumber + ": expected columns rarad, decrad or ra, dec, and mag");
+						}
+						raColumn = columns[0];
+						decColumn = columns[1];
+						magColumn = columns[2];
+						ciColumn = columns[3];
+						if (columns[4] == 1) {
+							raScale = decScale = 1;
+						}
+						else {
+							raScale = Math.PI / 12; //15 degrees an hour
+						}
+						continue;
+					}
+				}
+				if (fields.length <= Math.max(raColumn, Math.max(decColumn, magColumn))) {
+					throw new IllegalArgumentException(csvPath + ":" + lineNumber + ": expected at least "
+							+ (Math.max(raColumn, Math.max(decColumn, magColumn)) + 1) + " values but got " + fields.length);
+				}
+				try {
+					float mag = Float.parseFloat(fields[magColumn].trim());
+					if (mag < SUN_MAGNITUDE) {
+						continue;
+					}
+					if (count == capacity) {
+						capacity *= 2;
+						rightAscension = Arrays.copyOf(rightAscension, capacity);
+						declination = Arrays.copyOf(declination, capacity);
+						magnitude = Arrays.copyOf(magnitude, capacity);
+						colorIndex = Arrays.copyOf(colorIndex, capacity);
+					}
+					rightAscension[count] = (float) (Double.parseDouble(fields[raColumn].trim()) * raScale);
+					declination[count] = (float) (Double.parseDouble(fields[decColumn].trim()) * decScale);
+					magnitude[count] = mag;
+					String ci = ciColumn >= 0 && ciColumn < fields.length ? fields[ciColumn].trim() : "";
+					colorIndex[count] = ci.isEmpty() ? DEFAULT_COLOR_INDEX : Float.parseFloat(ci);
+					count++;
+				}
+				catch (NumberFormatException e) {
+					throw new IllegalArgumentException(csvPath + ":" + lineNumber + ": " + e.getMessage());
+				}
+			}
+		}
+
+		//brightest first, sorting the magnitude and the index packed together so no objects are needed
+		long[] keys = new long[count];
+		float faintest = BRIGHTEST;
+		for (int i = 0; i < count; ++i) {
+			int bits = Float.floatToIntBits(magnitude[i]);
+			int sortable = bits ^ ((bits >> 31) & 0x7FFFFFFF); //orders like the floats, negative ones included
+			keys[i] = ((long) sortable << 32) | i;
+			faintest = Math.max(faintest, magnitude[i]);
+		}
+		Arrays.sort(keys);
+
+		ByteBuffer out = ByteBuffer.allocateDirect(HEADER_BYTES + count * STAR_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		out.putInt(MAGIC).putInt(VERSION).putInt(count).putFloat(faintest);
+		double cosE = Math.cos(OBLIQUITY), sinE = Math.sin(OBLIQUITY);
+		float[] color = new float[3];
+		for (long key : keys) {
+			int i = (int) key;
+			//equatorial to ecliptic, then ecliptic north is +y and the planets go round from +x towards -z
+			double cosDec = Math.cos(declination[i]);
+			double xq = cosDec * Math.cos(rightAscension[i]), yq = cosDec * Math.sin(rightAscension[i]), zq = Math.sin(declination[i]);
+			double ye = yq * cosE + zq * sinE;
+			double ze = -yq * sinE + zq * cosE;
+			out.putFloat((float) xq).putFloat((float) ze).putFloat((float) -ye);
+			getColor(colorIndex[i], color);
+			out.put(toByte(color[0])).put(toByte(color[1])).put(toByte(color[2]));
+			out.put(toByte(faintest == BRIGHTEST ? 1 : (faintest - magnitude[i]) / (faintest - BRIGHTEST)));
+		}
+		out.flip();
+		try (FileChannel channel = FileChannel.open(Paths.get(binaryPath), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the right ascension, declination, magnitude and color index columns, then 1 if the angles are in radians
+	 * or 0 if the right ascension is in hours and the declination in degrees,
+	 * or null if a needed column is missing
+	 */
+	private static int[] findColumns(String[] names) {
+		int ra = -1, dec = -1, raRad = -1, decRad = -1, mag = -1, ci = -1;
+		for (int i = 0; i < names.length; ++i) {
+			switch (names[i].trim().toLowerCase()) {
+				case "ra":
+					ra = i;
+					break;
+				case "dec":
+					dec = i;
+					break;
+				case "rarad":
+					raRad = i;
+					break;
+				case "decrad":
+					decRad = i;
+					break;
+				case "mag":
+					mag = i;
+					break;
+				case "ci":
+					ci = i;
+					break;
+			}
+		}
+		if (mag < 0) {
+			return null;
+		}
+		if (raRad >= 0 && decRad >= 0) {
+			return new int[] {raRad, decRad, mag, ci, 1};
+		}
+		if (ra >= 0 && dec >= 0) {
+			return new int[] {ra, dec, mag, ci, 0};
+		}
+		return null;
+	}
+
+	//the color of a star from its B-V color index
+	private static void getColor(float colorIndex, float[] out) {
+		int last = COLOR_INDICES.length - 1;
+		float ci = Math.max(COLOR_INDICES[0], Math.min(COLOR_INDICES[last], colorIndex));
+		int i = 0;
+		while (i < last - 1 && ci > COLOR_INDICES[i + 1]) {
+			i++;
+		}
+		float t = (ci - COLOR_INDICES[i]) / (COLOR_INDICES[i + 1] - COLOR_INDICES[i]);
+		for (int c = 0; c < 3; ++c) {
+			out[c] = COLORS[i][c] + (COLORS[i + 1][c] - COLORS[i][c]) * t;
+		}
+	}
+
+	private static byte toByte(float value) {
+		return (byte) Math.round(Math.max(0, Math.min(1, value)) * 255);
+	}
+
+	/**
+	 * @return the stars, ready to hand to glBufferData
+	 */
+	public ByteBuffer getStars() {
+		return stars.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the magnitude of the faintest star, which has a brightness of 0
+	 */
+	public float getFaintest() {
+		return faintest;
+	}
+
+	/**
+	 * @param i
+	 * @return the brightness of a star from 0 for the faintest to 1 for the brightest
+	 */
+	public float getBrightness(int i) {
+		return (stars.get(i * STAR_BYTES + 15) & 0xFF) / 255f;
+	}
+}
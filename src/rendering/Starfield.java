@@ -0,0 +1,147 @@
+package rendering;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+
+/**
+ * Draws the stars of a {@link StarCatalog} as points behind everything else, in one draw call.
+ * The catalog is uploaded into a vertex buffer once, straight from the mapped file. The shader turns the stars with
+ * the camera but leaves out its position, so flying around never brings them any closer, and puts them on
+ * the far plane so the planets always cover them. The brightest are drawn first, so drawing fewer drops the faintest.
+ *
+ * @author Thong Teav
+ * 14883251
+ */
+public class Starfield implements RenderQueue.Command {
+	private static final float POINT_SCALE = 4; //the size of the brightest star in pixels
+
+	private final StarCatalog catalog;
+	private ShaderProgram program;
+	private int projectionLocation, rotationLocation, pointScaleLocation;
+	private int vertexArray;
+	private int vbo;
+	private int drawn;
+	private boolean on = true;
+	private final float[] matrix = new float[16];
+
+	public Starfield(StarCatalog catalog) {
+		this.catalog = catalog;
+		this.drawn = catalog.getCount();
+	}
+
+	/**
+	 * Checks for GL 3.3, which the star shaders need
+	 *
+	 * @param gl
+	 */
+	public static boolean isSupported(GL2 gl) {
+		return gl.isExtensionAvailable("GL_VERSION_3_3") && gl.isFunctionAvailable("glGenVertexArrays");
+	}
+
+	/**
+	 * Builds the shader and copies the catalog into a vertex buffer, needs a current GL context
+	 *
+	 * @param gl
+	 * @throws IOException if a shader can't be read
+	 */
+	public void init(GL2 gl) throws IOException {
+		HashMap<String, Integer> attributes = new HashMap<>();
+		attributes.put("direction", 0);
+		attributes.put("star", 1);
+		program = new ShaderProgram(gl, "assets/shaders/star.vert", "assets/shaders/star.frag", attributes);
+		projectionLocation = program.getUniformLocation(gl, "projection");
+		rotationLocation = program.getUniformLocation(gl, "rotation");
+		pointScaleLocation = program.getUniformLocation(gl, "pointScale");
+
+		int[] ids = new int[1];
+		gl.glGenBuffers(1, ids, 0);
+		vbo = ids[0];
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+		//the mapped file is already laid out as vertices, so GL copies it as it is
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, (long) catalog.getCount() * StarCatalog.STAR_BYTES, catalog.getStars(), GL.GL_STATIC_DRAW);
+
+		//the vertex array keeps the layout, so drawing only binds it
+		gl.glGenVertexArrays(1, ids, 0);
+		vertexArray = ids[0];
+		gl.glBindVertexArray(vertexArray);
+		gl.glEnableVertexAttribArray(0);
+		gl.glEnableVertexAttribArray(1);
+		gl.glVertexAttribPointer(0, 3, GL.GL_FLOAT, false, StarCatalog.STAR_BYTES, 0);
+		gl.glVertexAttribPointer(1, 4, GL.GL_UNSIGNED_BYTE, true, StarCatalog.STAR_BYTES, 12);
+		gl.glBindVertexArray(0);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+	}
+
+	/**
+	 * Submits the stars to the render queue, after the opaque bodies so the depth test skips the stars behind them
+	 *
+	 * @param context
+	 */
+	public void submit(RenderContext context) {
+		if (program == null || !on || drawn == 0) {
+			return;
+		}
+		context.getQueue().submit(RenderQueue.lastOpaqueKey(program.getProgram(), 0, 1), this);
+	}
+
+	@Override
+	public void execute(GL2 gl, RenderContext context) {
+		GLStateCache state = context.getStateCache();
+		state.useProgram(gl, program.getProgram());
+		state.setEnabled(gl, GL2.GL_BLEND, true);
+		context.getCamera().getProjectionMatrix().get(matrix, 0);
+		gl.glUniformMatrix4fv(projectionLocation, 1, false, matrix, 0);
+		//the view without the translation, only which way the camera faces
+		context.getCamera().getViewMatrix().get(matrix, 0);
+		matrix[12] = matrix[13] = matrix[14] = 0;
+		gl.glUniformMatrix4fv(rotationLocation, 1, false, matrix, 0);
+		gl.glUniform1f(pointScaleLocation, POINT_SCALE);
+		//on the far plane, where the depth buffer was cleared to, and never written so nothing is hidden behind them
+		gl.glDepthFunc(GL.GL_LEQUAL);
+		gl.glDepthMask(false);
+		gl.glEnable(GL2.GL_VERTEX_PROGRAM_POINT_SIZE);
+		gl.glEnable(GL2.GL_POINT_SPRITE);
+
+		gl.glBindVertexArray(vertexArray);
+		gl.glDrawArrays(GL.GL_POINTS, 0, drawn);
+		context.getStats().addDrawCall();
+		gl.glBindVertexArray(0);
+
+		gl.glDisable(GL2.GL_POINT_SPRITE);
+		gl.glDisable(GL2.GL_VERTEX_PROGRAM_POINT_SIZE);
+		gl.glDepthMask(true);
+		gl.glDepthFunc(GL.GL_LESS);
+	}
+
+	/**
+	 * @param fraction how much of the catalog to draw, brightest first
+	 */
+	public void setDrawnFraction(double fraction) {
+		drawn = (int) Math.ceil(catalog.getCount() * Math.max(0, Math.min(1, fraction)));
+	}
+
+	public int getDrawn() {
+		return drawn;
+	}
+
+	public StarCatalog getCatalog() {
+		return catalog;
+	}
+
+	public void toggle() {
+		on = !on;
+	}
+
+	public void dispose(GL2 gl) {
+		if (program == null) {
+			return;
+		}
+		program.dispose(gl);
+		gl.glDeleteBuffers(1, new int[] {vbo}, 0);
+		gl.glDeleteVertexArrays(1, new int[] {vertexArray}, 0);
+		program = null;
+	}
+}
@@ -0,0 +1,79 @@
+package rendering;
+
+import com.jogamp.opengl.GL2;
+
+import utils.Matrix4;
+import viewer.Camera;
+
+/**
+ * The light given off by the Sun at the origin, shared by the fixed-function pipeline and the shaders.
+ * The colors are set once, and the position is only handed over again when the camera has moved,
+ * since GL keeps it in eye space.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class SunLight {
+	private final float[] globalAmbient = { 0.4f, 0.4f, 0.4f, 1 };
+	private final float[] ambient = { 0.5f, 0.5f, 0.5f, 1 };
+	private final float[] diffuse = { 0.5f, 0.5f, 0.5f, 0.8f };
+	private final float[] position = { 0, 0, 0, 1 };
+	private final float[] eyePosition = new float[3]; //where the Sun is from the camera's point of view
+	private final double[] point = new double[3];
+	private long cameraVersion = -1;
+	
+	/**
+	 * Sets up light 0 with the Sun's colors
+	 * 
+	 * @param gl
+	 */
+	public void init(GL2 gl) {
+		gl.glLightModelfv(GL2.GL_LIGHT_MODEL_AMBIENT, globalAmbient, 0);
+		gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_AMBIENT, ambient, 0);
+		gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_DIFFUSE, diffuse, 0);
+		//normalise the normal surface vectors
+		gl.glEnable(GL2.GL_NORMALIZE);
+		gl.glEnable(GL2.GL_LIGHT0);
+	}
+	
+	/**
+	 * Moves the light along with the camera, must be called with the camera's view on the modelview matrix
+	 * 
+	 * @param gl
+	 * @param camera
+	 */
+	public void update(GL2 gl, Camera camera) {
+		if (camera.getVersion() == cameraVersion) {
+			return;
+		}
+		cameraVersion = camera.getVersion();
+		gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_POSITION, position, 0);
+		
+		Matrix4 view = camera.getViewMatrix();
+		point[0] = position[0];
+		point[1] = position[1];
+		point[2] = position[2];
+		view.transformPoint(point, point);
+		eyePosition[0] = (float) point[0];
+		eyePosition[1] = (float) point[1];
+		eyePosition[2] = (float) point[2];
+	}
+	
+	/**
+	 * @return the position of the Sun in eye space as of the last update
+	 */
+	public float[] getEyePosition() {
+		return eyePosition;
+	}
+	
+	/**
+	 * @return the light model ambient and the light's own ambient added up, everything the shaders need
+	 */
+	public float getAmbient(int channel) {
+		return globalAmbient[channel] + ambient[channel];
+	}
+	
+	public float[] getDiffuse() {
+		return diffuse;
+	}
+}
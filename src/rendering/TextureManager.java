@@ -0,0 +1,270 @@
+package rendering;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.util.texture.Texture;
+import com.jogamp.opengl.util.texture.TextureData;
+import com.jogamp.opengl.util.texture.TextureIO;
+import com.jogamp.opengl.util.texture.spi.DDSImage;
+
+/**
+ * Loads each texture once, sharing it between every body that uses the same path or the same image content.
+ * When the GPU supports DXT compression, the first load compresses the image and its mipmaps on the GPU
+ * and saves them in a DDS file named after the checksum of the source, so later startups load that file
+ * directly without decoding the JPEG or generating mipmaps, and the texture takes a sixth of the memory.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class TextureManager {
+	public static final String DEFAULT_CACHE_DIR = "cache/textures";
+	
+	private final File cacheDir;
+	private HashMap<String, Texture> byPath = new HashMap<>();
+	private HashMap<String, Texture> byHash = new HashMap<>();
+	private HashMap<String, String> hashes = new HashMap<>();
+	private int loads, hits;
+	
+	public TextureManager() {
+		this(new File(DEFAULT_CACHE_DIR));
+	}
+	
+	/**
+	 * @param cacheDir the folder to keep the compressed images in
+	 */
+	public TextureManager(File cacheDir) {
+		this.cacheDir = cacheDir;
+	}
+	
+	/**
+	 * Checks for the S3TC formats the disk cache is stored in
+	 * 
+	 * @param gl
+	 */
+	public static boolean isCompressionSupported(GL2 gl) {
+		return gl.isExtensionAvailable("GL_EXT_texture_compression_s3tc");
+	}
+	
+	/**
+	 * Gets the texture for an image file, loading it the first time, needs a current GL context
+	 * 
+	 * @param gl
+	 * @param path the path of the image
+	 * @throws IOException if the image can't be read
+	 */
+	public Texture getTexture(GL2 gl, String path) throws IOException {
+		Texture texture = byPath.get(path);
+		if (texture == null) {
+			String hash = getContentHash(path);
+			texture = byHash.get(hash);
+			if (texture == null) {
+				texture = load(gl, path, hash);
+				byHash.put(hash, texture);
+				loads++;
+			}
+			else {
+				hits++;
+			}
+			byPath.put(path, texture);
+		}
+		else {
+			hits++;
+		}
+		return texture;
+	}
+	
+	private Texture load(GL2 gl, String path, String hash) throws IOException {
+		if (isCompressionSupported(gl)) {
+			File cached = getCacheFile(hash);
+			if (cached.exists()) {
+				try {
+					return TextureIO.newTexture(cached, true);
+				}
+				catch (IOException e) {
+					System.out.println("Ignoring broken texture cache " + cached + ": " + e.getMessage());
+				}
+			}
+			int texture = compress(gl, path);
+			if (texture != 0) {
+				writeCache(readBack(gl, texture), cached);
+				int[] size = new int[2];
+				gl.glBindTexture(GL.GL_TEXTURE_2D, texture);
+				gl.glGetTexLevelParameteriv(GL.GL_TEXTURE_2D, 0, GL2.GL_TEXTURE_WIDTH, size, 0);
+				gl.glGetTexLevelParameteriv(GL.GL_TEXTURE_2D, 0, GL2.GL_TEXTURE_HEIGHT, size, 1);
+				gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+				return new Texture(texture, GL.GL_TEXTURE_2D, size[0], size[1], size[0], size[1], false);
+			}
+		}
+		return TextureIO.newTexture(new File(path), true);
+	}
+	
+	/**
+	 * Gets the compressed and mipmapped version of an image, from the disk cache if it's there.
+	 * If the cache can't be written the image is still returned, straight from memory.
+	 * 
+	 * @param gl
+	 * @param path the path of the source image
+	 * @return the image, or null if compression isn't supported
+	 * @throws IOException if the source can't be read
+	 */
+	public DDSImage getCompressedImage(GL2 gl, String path) throws IOException {
+		if (!isCompressionSupported(gl)) {
+			return null;
+		}
+		File cached = getCacheFile(getContentHash(path));
+		if (cached.exists()) {
+			try {
+				return DDSImage.read(cached);
+			}
+			catch (IOException | IllegalArgumentException e) {
+				System.out.println("Ignoring broken texture cache " + cached + ": " + e.getMessage());
+			}
+		}
+		int texture = compress(gl, path);
+		if (texture == 0) {
+			return null;
+		}
+		DDSImage image = readBack(gl, texture);
+		gl.glDeleteTextures(1, new int[] {texture}, 0);
+		writeCache(image, cached);
+		return image;
+	}
+	
+	/**
+	 * Uploads the image with a DXT1 internal format so the driver compresses it and generates the mipmaps
+	 * 
+	 * @return the compressed texture object, or 0 if it couldn't be compressed
+	 */
+	private int compress(GL2 gl, String path) throws IOException {
+		TextureData data = TextureIO.newTextureData(gl.getGLProfile(), new File(path), false, null);
+		int width = data.getWidth();
+		int height = data.getHeight();
+		
+		int[] textures = new int[1];
+		gl.glGenTextures(1, textures, 0);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, textures[0]);
+		gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, data.getAlignment());
+		gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_COMPRESSED_RGB_S3TC_DXT1_EXT, width, height, 0, 
+				data.getPixelFormat(), data.getPixelType(), data.getBuffer());
+		gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 4);
+		data.destroy();
+		gl.glGenerateMipmap(GL.GL_TEXTURE_2D);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR_MIPMAP_LINEAR);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+		
+		int[] compressed = new int[1];
+		gl.glGetTexLevelParameteriv(GL.GL_TEXTURE_2D, 0, GL2.GL_TEXTURE_COMPRESSED, compressed, 0);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+		if (compressed[0] == 0) {
+			gl.glDeleteTextures(1, textures, 0);
+			return 0;
+		}
+		return textures[0];
+	}
+	
+	/**
+	 * Reads every compressed level of a texture back from the GPU
+	 * 
+	 * @param gl
+	 * @param texture a texture made by {@link #compress(GL2, String)}
+	 * @return the image with all its levels, or null if the levels don't make a DDS image
+	 */
+	private static DDSImage readBack(GL2 gl, int texture) {
+		int[] size = new int[2];
+		gl.glBindTexture(GL.GL_TEXTURE_2D, texture);
+		gl.glGetTexLevelParameteriv(GL.GL_TEXTURE_2D, 0, GL2.GL_TEXTURE_WIDTH, size, 0);
+		gl.glGetTexLevelParameteriv(GL.GL_TEXTURE_2D, 0, GL2.GL_TEXTURE_HEIGHT, size, 1);
+		int width = size[0], height = size[1];
+		int levels = 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+		ByteBuffer[] mipmaps = new ByteBuffer[levels];
+		for (int level = 0; level < levels; ++level) {
+			gl.glGetTexLevelParameteriv(GL.GL_TEXTURE_2D, level, GL2.GL_TEXTURE_COMPRESSED_IMAGE_SIZE, size, 0);
+			mipmaps[level] = Buffers.newDirectByteBuffer(size[0]);
+			gl.glGetCompressedTexImage(GL.GL_TEXTURE_2D, level, mipmaps[level]);
+		}
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+		try {
+			return DDSImage.createFromData(DDSImage.D3DFMT_DXT1, width, height, mipmaps);
+		}
+		catch (IllegalArgumentException e) {
+			System.out.println("Could not read back compressed texture: " + e.getMessage());
+			return null;
+		}
+	}
+	
+	//saves a compressed image for the next run, a read-only folder only means compressing again next time
+	private void writeCache(DDSImage image, File cached) {
+		if (image == null) {
+			return;
+		}
+		try {
+			cacheDir.mkdirs();
+			image.write(cached);
+		}
+		catch (IOException e) {
+			System.out.println("Could not write texture cache " + cached + ": " + e.getMessage());
+			cached.delete();
+		}
+	}
+	
+	/**
+	 * Gets the SHA-1 checksum of an image file, which names its cache file and dedups identical images
+	 * 
+	 * @param path
+	 * @throws IOException if the file can't be read
+	 */
+	public String getContentHash(String path) throws IOException {
+		String hash = hashes.get(path);
+		if (hash == null) {
+			try {
+				byte[] digest = MessageDigest.getInstance("SHA-1").digest(Files.readAllBytes(new File(path).toPath()));
+				StringBuilder hex = new StringBuilder();
+				for (byte b : digest) {
+					hex.append(String.format("%02x", b));
+				}
+				hash = hex.toString();
+			}
+			catch (NoSuchAlgorithmException e) {
+				//every JVM has SHA-1, fall back to the path just in case
+				hash = path;
+			}
+			hashes.put(path, hash);
+		}
+		return hash;
+	}
+	
+	private File getCacheFile(String hash) {
+		return new File(cacheDir, hash + ".dds");
+	}
+	
+	/**
+	 * @return the number of textures actually loaded
+	 */
+	public int getLoads() {
+		return loads;
+	}
+	
+	/**
+	 * @return the number of requests answered with an already loaded texture
+	 */
+	public int getHits() {
+		return hits;
+	}
+	
+	public void dispose(GL2 gl) {
+		for (Texture texture : byHash.values()) {
+			texture.destroy(gl);
+		}
+		byHash.clear();
+		byPath.clear();
+	}
+}
@@ -0,0 +1,568 @@
+package rendering;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL2ES3;
+
+import utils.Matrix4;
+import viewer.Camera;
+
+/**
+ * Streams the tiles of large {@link TilePyramid} textures into one cache texture on the GPU, which is as big as
+ * the memory budget allows and never grows. Each frame every streamed body asks for the tiles facing the camera,
+ * down to the level its size on screen needs, coarsest first. Tiles that aren't in the cache are decoded on
+ * background threads and copied in a few per frame, taking a free slot or the one used longest ago.
+ * The coarsest tile of every texture stays in the cache for good.
+ * A page table for each texture says which slot holds each tile, or the nearest coarser tile that is in the cache,
+ * so the shader always has something to draw while the finer tiles load.
+ *
+ * @author Thong Teav
+ * 14883251
+ */
+public class TileCache {
+	public static final int MAX_STREAMS = 16; //the size of the table in the sphere shader
+	public static final long DEFAULT_BUDGET = 256L << 20; //bytes
+	private static final int BYTES_PER_TEXEL = 4;
+	private static final int MAX_UPLOADS = 4; //tiles copied to the GPU in one frame, about a megabyte each
+	private static final int MAX_PENDING = 16; //tiles being decoded at once, each holds a pixel buffer
+	private static final int STALE_FRAMES = 30; //a tile nobody has asked for in this many frames is dropped when it arrives
+	private static final int MAX_SLOTS_ACROSS = 255; //the page table holds the column and row of a slot in a byte each
+
+	private final ArrayList<TilePyramid> streams = new ArrayList<>();
+	private final HashMap<String, Integer> streamsByPath = new HashMap<>();
+	private final int[] pageFirst; //the first page table entry of each stream
+	private final int[][] tileSlots; //by stream then tile, the slot holding it or -1
+	private final long[][] requested; //by stream then tile, the last frame it was asked for
+	private final boolean[][] pending; //by stream then tile, being decoded, or failed to
+	private final byte[][] entries; //the page table of each stream
+	private final boolean[] dirty;
+	private ByteBuffer pageUpload; //big enough for the largest page table
+
+	private final long budget;
+	private final int slotSize, slotsAcross, slotCount;
+	private final int[] slotStream, slotTile; //what each slot holds, -1 if it's free
+	private final long[] slotUsed; //the last frame each slot was drawn from
+	private final boolean[] pinned;
+	private int resident;
+
+	private final ExecutorService loaders;
+	private final LinkedBlockingQueue<LoadedTile> loaded = new LinkedBlockingQueue<>();
+	private final ArrayBlockingQueue<IntBuffer> freePixels = new ArrayBlockingQueue<>(MAX_PENDING);
+	private int pendingCount;
+	private boolean waiting; //wait for every tile asked for, so offscreen runs give the same frames every time
+
+	private int atlas, pageBuffer, pageTexture;
+	private long frame;
+	private final double[] center = new double[3];
+
+	private long hits, misses, loads, evictions, discarded;
+	private int frameHits, frameMisses, lastHits, lastMisses;
+	private boolean reportedFailure;
+
+	//a decoded tile on its way to the GPU
+	private static class LoadedTile {
+		final int stream, tile;
+		final IntBuffer pixels;
+		final IOException failure;
+
+		LoadedTile(int stream, int tile, IntBuffer pixels, IOException failure) {
+			this.stream = stream;
+			this.tile = tile;
+			this.pixels = pixels;
+			this.failure = failure;
+		}
+	}
+
+	/**
+	 * Maps the tile pyramids and creates the cache texture, then loads the coarsest tile of each, needs a current GL context.
+	 * Pyramids that can't be read, or have a different tile size from the first, are left out.
+	 *
+	 * @param gl
+	 * @param paths the tile pyramids, duplicates share one stream
+	 * @param budget the most GPU memory for the tiles in bytes
+	 */
+	public TileCache(GL2 gl, List<String> paths, long budget) {
+		for (String path : paths) {
+			if (streamsByPath.containsKey(path)) {
+				continue;
+			}
+			TilePyramid pyramid;
+			try {
+				pyramid = TilePyramid.map(path);
+			}
+			catch (NoSuchFileException e) {
+				System.out.println("File not found: " + e.getMessage());
+				continue;
+			}
+			catch (IOException e) {
+				System.out.println("Could not load tiles: " + e.getMessage());
+				continue;
+			}
+			if (streams.size() == MAX_STREAMS) {
+				System.out.println("Too many tiled textures, drawing " + path + " without it");
+				continue;
+			}
+			if (!streams.isEmpty() && pyramid.getSlotSize() != streams.get(0).getSlotSize()) {
+				System.out.println("Tiles of " + path + " are not " + streams.get(0).getTileSize() + " pixels, drawing without them");
+				continue;
+			}
+			streamsByPath.put(path, streams.size());
+			streams.add(pyramid);
+		}
+
+		int count = streams.size();
+		pageFirst = new int[count];
+		tileSlots = new int[count][];
+		requested = new long[count][];
+		pending = new boolean[count][];
+		entries = new byte[count][];
+		dirty = new boolean[count];
+		int pageEntries = 0;
+		for (int s = 0; s < count; ++s) {
+			int tiles = streams.get(s).getTileCount();
+			pageFirst[s] = pageEntries;
+			pageEntries += tiles;
+			tileSlots[s] = new int[tiles];
+			Arrays.fill(tileSlots[s], -1);
+			requested[s] = new long[tiles];
+			pending[s] = new boolean[tiles];
+			entries[s] = new byte[tiles * 4];
+			pageUpload = pageUpload != null && pageUpload.capacity() >= tiles * 4 ? pageUpload : Buffers.newDirectByteBuffer(tiles * 4);
+			dirty[s] = true;
+		}
+
+		//as many slots as fit in the budget, but always room for the pinned tiles and a frame of uploads
+		slotSize = count == 0 ? 1 : streams.get(0).getSlotSize();
+		long slotBytes = (long) slotSize * slotSize * BYTES_PER_TEXEL;
+		int[] maxSize = new int[1];
+		gl.glGetIntegerv(GL.GL_MAX_TEXTURE_SIZE, maxSize, 0);
+		int across = (int) Math.sqrt((double) budget / slotBytes);
+		across = Math.min(across, Math.min(MAX_SLOTS_ACROSS, Math.max(1, maxSize[0] / slotSize)));
+		int least = (int) Math.ceil(Math.sqrt(count + MAX_UPLOADS));
+		if (across < least) {
+			across = least;
+			System.out.println("Texture budget too small for " + count + " tiled textures, using "
+					+ String.format("%.1f", across * across * slotBytes / 1048576.0) + " MB");
+		}
+		this.budget = budget;
+		slotsAcross = across;
+		slotCount = across * across;
+		slotStream = new int[slotCount];
+		slotTile = new int[slotCount];
+		slotUsed = new long[slotCount];
+		pinned = new boolean[slotCount];
+		Arrays.fill(slotStream, -1);
+
+		loaders = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), r -> {
+			Thread thread = new Thread(r, "tile-loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		for (int i = 0; i < MAX_PENDING; ++i) {
+			freePixels.add(Buffers.newDirectIntBuffer(slotSize * slotSize));
+		}
+		if (count == 0) {
+			return;
+		}
+
+		int[] ids = new int[1];
+		gl.glGenTextures(1, ids, 0);
+		atlas = ids[0];
+		gl.glBindTexture(GL.GL_TEXTURE_2D, atlas);
+		gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA8, slotsAcross * slotSize, slotsAcross * slotSize, 0,
+				GL.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, null);
+		//the shader picks the level itself, so the cache has no mipmaps
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+		gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+
+		gl.glGenBuffers(1, ids, 0);
+		pageBuffer = ids[0];
+		gl.glBindBuffer(GL2ES3.GL_TEXTURE_BUFFER, pageBuffer);
+		gl.glBufferData(GL2ES3.GL_TEXTURE_BUFFER, (long) pageEntries * 4, null, GL.GL_DYNAMIC_DRAW);
+		gl.glBindBuffer(GL2ES3.GL_TEXTURE_BUFFER, 0);
+		gl.glGenTextures(1, ids, 0);
+		pageTexture = ids[0];
+		gl.glBindTexture(GL2ES3.GL_TEXTURE_BUFFER, pageTexture);
+		gl.glTexBuffer(GL2ES3.GL_TEXTURE_BUFFER, GL2ES3.GL_RGBA8UI, pageBuffer);
+		gl.glBindTexture(GL2ES3.GL_TEXTURE_BUFFER, 0);
+
+		//the coarsest tile covers the whole body, so there's always something to fall back to
+		IntBuffer pixels = freePixels.poll();
+		for (int s = 0; s < count; ++s) {
+			TilePyramid pyramid = streams.get(s);
+			int tile = pyramid.getFirstTile(pyramid.getLevels() - 1);
+			try {
+				pyramid.decode(tile, pixels);
+				int slot = this.allocate();
+				this.upload(gl, slot, s, tile, pixels);
+				pinned[slot] = true;
+			}
+			catch (IOException e) {
+				System.out.println("Could not load tiles: " + e.getMessage());
+			}
+		}
+		freePixels.add(pixels);
+		this.updatePageTables(gl);
+	}
+
+	/**
+	 * Asks for the tiles of a body that face the camera, down to the level its size on screen needs, called while submitting
+	 *
+	 * @param stream the body's texture
+	 * @param model the transform of the unit sphere, including the scale to the radius
+	 * @param camera
+	 */
+	public void request(int stream, Matrix4 model, Camera camera) {
+		TilePyramid pyramid = streams.get(stream);
+		center[0] = model.get(12);
+		center[1] = model.get(13);
+		center[2] = model.get(14);
+		double radius = Math.sqrt(model.get(0) * model.get(0) + model.get(1) * model.get(1) + model.get(2) * model.get(2));
+		double[] eye = camera.getEye();
+		double ex = eye[0] - center[0], ey = eye[1] - center[1], ez = eye[2] - center[2];
+		double distance = Math.sqrt(ex * ex + ey * ey + ez * ez);
+		if (distance <= radius) {
+			return;
+		}
+		ex /= distance;
+		ey /= distance;
+		ez /= distance;
+		double cap = Math.acos(radius / distance); //the angle from the point facing the camera to the horizon
+
+		//in the middle of the disc a radian of longitude covers the radius on screen, and level 0 spreads its width over 2 pi.
+		//Rounded down like the shader rounds its level, so the finest level it looks up is the finest one asked for
+		double pixels = camera.getProjectedRadius(center, radius);
+		double width = (double) pyramid.getTilesAcross(0) * pyramid.getTileSize();
+		int finest = (int) Math.floor(Math.log(width / (2 * Math.PI * pixels)) / Math.log(2));
+		finest = Math.max(0, Math.min(pyramid.getLevels() - 1, finest));
+
+		int room = slotCount - streams.size(); //asking for more than the cache holds would only thrash it
+		for (int level = pyramid.getLevels() - 1; level >= finest; --level) {
+			int across = pyramid.getTilesAcross(level), down = pyramid.getTilesDown(level);
+			//roughly the angle from the middle of a tile to its corner
+			double extent = Math.hypot(Math.PI / across, Math.PI / (2 * down));
+			double least = cap + extent >= Math.PI ? -2 : Math.cos(cap + extent);
+			int first = pyramid.getFirstTile(level);
+			for (int y = 0; y < down; ++y) {
+				//the same mapping as the sphere mesh, t from 0 at -z to 1 at +z with the top row of the image at 0
+				double rho = Math.PI * (1 - (y + 0.5) / down);
+				double sinRho = Math.sin(rho), cosRho = Math.cos(rho);
+				for (int x = 0; x < across; ++x) {
+					double theta = 2 * Math.PI * (x + 0.5) / across;
+					double px = -Math.sin(theta) * sinRho, py = Math.cos(theta) * sinRho, pz = cosRho;
+					double wx = model.get(0) * px + model.get(4) * py + model.get(8) * pz;
+					double wy = model.get(1) * px + model.get(5) * py + model.get(9) * pz;
+					double wz = model.get(2) * px + model.get(6) * py + model.get(10) * pz;
+					if ((wx * ex + wy * ey + wz * ez) / radius < least) {
+						continue;
+					}
+					this.touch(stream, first + y * across + x);
+					if (--room == 0) {
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	//marks a tile as needed this frame, and starts decoding it if it isn't in the cache
+	private void touch(int stream, int tile) {
+		requested[stream][tile] = frame;
+		int slot = tileSlots[stream][tile];
+		if (slot >= 0) {
+			slotUsed[slot] = frame;
+			hits++;
+			frameHits++;
+			return;
+		}
+		misses++;
+		frameMisses++;
+		if (pending[stream][tile]) {
+			return;
+		}
+		//the rest are asked for again next frame, once buffers are free
+		IntBuffer pixels = freePixels.poll();
+		if (pixels == null) {
+			return;
+		}
+		pending[stream][tile] = true;
+		pendingCount++;
+		TilePyramid pyramid = streams.get(stream);
+		loaders.execute(() -> {
+			IOException failure = null;
+			try {
+				pyramid.decode(tile, pixels);
+			}
+			catch (IOException | RuntimeException e) {
+				failure = e instanceof IOException ? (IOException) e : new IOException(e);
+			}
+			loaded.add(new LoadedTile(stream, tile, pixels, failure));
+		});
+	}
+
+	/**
+	 * Copies the tiles decoded since the last frame into the cache and updates the page tables, once per frame before drawing
+	 *
+	 * @param gl
+	 */
+	public void update(GL2 gl) {
+		int uploads = 0;
+		while (waiting ? pendingCount > 0 : uploads < MAX_UPLOADS) {
+			LoadedTile tile;
+			try {
+				tile = waiting ? loaded.take() : loaded.poll();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			if (tile == null) {
+				break;
+			}
+			pendingCount--;
+			if (tile.failure != null) {
+				//left pending, so a broken tile isn't asked for again
+				if (!reportedFailure) {
+					System.out.println("Could not load tile: " + tile.failure.getMessage());
+					reportedFailure = true;
+				}
+			}
+			else {
+				pending[tile.stream][tile.tile] = false;
+				if (requested[tile.stream][tile.tile] < frame - STALE_FRAMES) {
+					discarded++;
+				}
+				else {
+					int slot = this.allocate();
+					if (slot >= 0) {
+						this.upload(gl, slot, tile.stream, tile.tile, tile.pixels);
+						uploads++;
+					}
+				}
+			}
+			freePixels.add(tile.pixels);
+		}
+		this.updatePageTables(gl);
+		lastHits = frameHits;
+		lastMisses = frameMisses;
+		frameHits = frameMisses = 0;
+		frame++;
+	}
+
+	/**
+	 * @return a free slot, or the one drawn from longest ago, or -1 if every slot was needed this frame
+	 */
+	private int allocate() {
+		if (resident < slotCount) {
+			for (int slot = 0; slot < slotCount; ++slot) {
+				if (slotStream[slot] < 0) {
+					return slot;
+				}
+			}
+		}
+		int oldest = -1;
+		for (int slot = 0; slot < slotCount; ++slot) {
+			if (!pinned[slot] && slotUsed[slot] < frame && (oldest < 0 || slotUsed[slot] < slotUsed[oldest])) {
+				oldest = slot;
+			}
+		}
+		if (oldest >= 0) {
+			tileSlots[slotStream[oldest]][slotTile[oldest]] = -1;
+			dirty[slotStream[oldest]] = true;
+			slotStream[oldest] = -1;
+			resident--;
+			evictions++;
+		}
+		return oldest;
+	}
+
+	private void upload(GL2 gl, int slot, int stream, int tile, IntBuffer pixels) {
+		gl.glBindTexture(GL.GL_TEXTURE_2D, atlas);
+		//the pixels are RGB ints, which the reversed packed format reads without swizzling
+		gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, (slot % slotsAcross) * slotSize, (slot / slotsAcross) * slotSize, slotSize, slotSize,
+				GL.GL_BGRA, GL2.GL_UNSIGNED_INT_8_8_8_8_REV, pixels);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+		slotStream[slot] = stream;
+		slotTile[slot] = tile;
+		slotUsed[slot] = frame;
+		tileSlots[stream][tile] = slot;
+		dirty[stream] = true;
+		resident++;
+		loads++;
+	}
+
+	/**
+	 * Points every tile of the changed streams at its slot, or at the entry of the tile above it when it isn't in the cache
+	 */
+	private void updatePageTables(GL2 gl) {
+		for (int s = 0; s < streams.size(); ++s) {
+			if (!dirty[s]) {
+				continue;
+			}
+			TilePyramid pyramid = streams.get(s);
+			byte[] table = entries[s];
+			for (int level = pyramid.getLevels() - 1; level >= 0; --level) {
+				int across = pyramid.getTilesAcross(level), down = pyramid.getTilesDown(level);
+				int first = pyramid.getFirstTile(level);
+				for (int y = 0; y < down; ++y) {
+					for (int x = 0; x < across; ++x) {
+						int entry = (first + y * across + x) * 4;
+						int slot = tileSlots[s][first + y * across + x];
+						if (slot >= 0) {
+							table[entry] = (byte) (slot % slotsAcross);
+							table[entry + 1] = (byte) (slot / slotsAcross);
+							table[entry + 2] = (byte) level;
+							table[entry + 3] = (byte) 255;
+						}
+						else if (level == pyramid.getLevels() - 1) {
+							table[entry + 3] = 0; //nothing at all yet
+						}
+						else {
+							int parentAcross = pyramid.getTilesAcross(level + 1);
+							int parentX = Math.min(x >> 1, parentAcross - 1);
+							int parentY = Math.min(y >> 1, pyramid.getTilesDown(level + 1) - 1);
+							int parent = (pyramid.getFirstTile(level + 1) + parentY * parentAcross + parentX) * 4;
+							System.arraycopy(table, parent, table, entry, 4);
+						}
+					}
+				}
+			}
+			gl.glBindBuffer(GL2ES3.GL_TEXTURE_BUFFER, pageBuffer);
+			pageUpload.clear();
+			pageUpload.put(table).flip();
+			gl.glBufferSubData(GL2ES3.GL_TEXTURE_BUFFER, (long) pageFirst[s] * 4, table.length, pageUpload);
+			gl.glBindBuffer(GL2ES3.GL_TEXTURE_BUFFER, 0);
+			dirty[s] = false;
+		}
+	}
+
+	/**
+	 * Binds the cache and the page tables for the sphere shader
+	 *
+	 * @param gl
+	 * @param cacheUnit the texture unit for the cache
+	 * @param pageUnit the texture unit for the page tables
+	 */
+	public void bind(GL2 gl, int cacheUnit, int pageUnit) {
+		gl.glActiveTexture(GL.GL_TEXTURE0 + cacheUnit);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, atlas);
+		gl.glActiveTexture(GL.GL_TEXTURE0 + pageUnit);
+		gl.glBindTexture(GL2ES3.GL_TEXTURE_BUFFER, pageTexture);
+		gl.glActiveTexture(GL.GL_TEXTURE0);
+	}
+
+	public void unbind(GL2 gl, int cacheUnit, int pageUnit) {
+		gl.glActiveTexture(GL.GL_TEXTURE0 + cacheUnit);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+		gl.glActiveTexture(GL.GL_TEXTURE0 + pageUnit);
+		gl.glBindTexture(GL2ES3.GL_TEXTURE_BUFFER, 0);
+		gl.glActiveTexture(GL.GL_TEXTURE0);
+	}
+
+	/**
+	 * @return for each stream its first page table entry, its tiles across and down at level 0 and its levels
+	 */
+	public int[] getStreamLayout() {
+		int[] layout = new int[streams.size() * 4];
+		for (int s = 0; s < streams.size(); ++s) {
+			TilePyramid pyramid = streams.get(s);
+			layout[s * 4] = pageFirst[s];
+			layout[s * 4 + 1] = pyramid.getTilesAcross(0);
+			layout[s * 4 + 2] = pyramid.getTilesDown(0);
+			layout[s * 4 + 3] = pyramid.getLevels();
+		}
+		return layout;
+	}
+
+	/**
+	 * @return the tile size, the border and the size of the cache texture, all in texels
+	 */
+	public float[] getTileLayout() {
+		int border = streams.isEmpty() ? 0 : streams.get(0).getBorder();
+		return new float[] {slotSize - 2 * border, border, slotsAcross * slotSize};
+	}
+
+	/**
+	 * @param path the path of a tile pyramid
+	 * @return its stream, or -1 if it couldn't be loaded
+	 */
+	public int getStream(String path) {
+		Integer stream = path == null ? null : streamsByPath.get(path);
+		return stream == null ? -1 : stream;
+	}
+
+	public int getStreamCount() {
+		return streams.size();
+	}
+
+	/**
+	 * @param waiting true to wait for every tile asked for before drawing, so offscreen runs always give the same frames
+	 */
+	public void setWaiting(boolean waiting) {
+		this.waiting = waiting;
+	}
+
+	/**
+	 * @return the GPU memory taken by the tiles in the cache and the page tables
+	 */
+	public long getResidentBytes() {
+		long pages = 0;
+		for (byte[] table : entries) {
+			pages += table.length;
+		}
+		return (long) resident * slotSize * slotSize * BYTES_PER_TEXEL + pages;
+	}
+
+	public long getBudget() {
+		return budget;
+	}
+
+	public int getResidentTiles() {
+		return resident;
+	}
+
+	/**
+	 * @return the fraction of the tiles asked for so far that were already in the cache
+	 */
+	public double getHitRate() {
+		return hits + misses == 0 ? 1 : (double) hits / (hits + misses);
+	}
+
+	/**
+	 * @return the fraction of the tiles asked for in the last frame that were already in the cache
+	 */
+	public double getLastHitRate() {
+		return lastHits + lastMisses == 0 ? 1 : (double) lastHits / (lastHits + lastMisses);
+	}
+
+	public void dispose(GL2 gl) {
+		loaders.shutdownNow();
+		gl.glDeleteTextures(2, new int[] {atlas, pageTexture}, 0);
+		gl.glDeleteBuffers(1, new int[] {pageBuffer}, 0);
+	}
+
+	@Override
+	public String toString() {
+		return "tiles: " + resident + " of " + slotCount + " resident"
+				+ ", " + String.format("%.1f", getResidentBytes() / 1048576.0) + " MB of " + budget / 1048576 + " MB"
+				+ ", hit rate " + String.format("%.1f", getHitRate() * 100) + "% (last frame " + String.format("%.1f", getLastHitRate() * 100) + "%)"
+				+ ", loaded: " + loads + ", evicted: " + evictions + ", dropped stale: " + discarded;
+	}
+}
@@ -0,0 +1,283 @@
+package rendering;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * A large surface texture cut into square tiles at every mip level, kept in one file so any tile can be read on its own.
+ * Level 0 is the full image, each level after it has half as many tiles across and down, down to a single tile.
+ * Every tile has a border copied from its neighbours, wrapping around the globe from left to right, so filtering
+ * at its edge blends into the next tile. The tiles are JPEG compressed, after a header and a table of where each starts.
+ * Tiles are numbered level by level, row by row from the top of the image, the same way round as the other textures.
+ * Everything is little-endian.
+ *
+ * @author Thong Teav
+ * 14883251
+ */
+public class TilePyramid {
+	public static final int MAGIC = 0x49535454; //"ISTT"
+	public static final int VERSION = 1;
+	public static final int DEFAULT_TILE_SIZE = 512;
+	public static final int BORDER = 1;
+	private static final int HEADER_BYTES = 32; //magic, version, tile size, border, tiles across and down at level 0, levels, unused
+	private static final int ENTRY_BYTES = 12; //where a tile starts in the file and its length
+	private static final float QUALITY = 0.9f;
+
+	private final String path;
+	private final ByteBuffer file;
+	private final int tileSize, border, levels;
+	private final int[] across, down, first; //by level
+	private final int tileCount;
+
+	private TilePyramid(String path, ByteBuffer file, int tileSize, int border, int tilesAcross, int tilesDown, int levels) {
+		this.path = path;
+		this.file = file;
+		this.tileSize = tileSize;
+		this.border = border;
+		this.levels = levels;
+		this.across = new int[levels];
+		this.down = new int[levels];
+		this.first = new int[levels];
+		int count = 0;
+		for (int level = 0; level < levels; ++level) {
+			across[level] = Math.max(1, tilesAcross >> level);
+			down[level] = Math.max(1, tilesDown >> level);
+			first[level] = count;
+			count += across[level] * down[level];
+		}
+		this.tileCount = count;
+	}
+
+	/**
+	 * @return the number of levels for a level 0 of the given tiles, down to and including a single tile
+	 */
+	private static int countLevels(int tilesAcross, int tilesDown) {
+		return 32 - Integer.numberOfLeadingZeros(Math.max(tilesAcross, tilesDown));
+	}
+
+	/**
+	 * Maps a pyramid written by {@link #convert(String, String, int)}, the tiles are only read from disk when decoded
+	 *
+	 * @param path
+	 * @throws IOException if the file can't be read or isn't a tile pyramid
+	 */
+	public static TilePyramid map(String path) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+				throw new IOException(path + ": not a tile pyramid");
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			if (mapped.getInt(0) != MAGIC) {
+				throw new IOException(path + ": not a tile pyramid");
+			}
+			if (mapped.getInt(4) != VERSION) {
+				throw new IOException(path + ": unsupported version " + mapped.getInt(4));
+			}
+			int tileSize = mapped.getInt(8), border = mapped.getInt(12);
+			int tilesAcross = mapped.getInt(16), tilesDown = mapped.getInt(20), levels = mapped.getInt(24);
+			if (tileSize <= 0 || border < 0 || tilesAcross <= 0 || tilesDown <= 0 || levels != countLevels(tilesAcross, tilesDown)) {
+				throw new IOException(path + ": broken header");
+			}
+			TilePyramid pyramid = new TilePyramid(path, mapped, tileSize, border, tilesAcross, tilesDown, levels);
+			if (size < HEADER_BYTES + (long) pyramid.tileCount * ENTRY_BYTES) {
+				throw new IOException(path + ": truncated");
+			}
+			return pyramid;
+		}
+	}
+
+	/**
+	 * Cuts an image into a pyramid of tiles. The image is first stretched to a whole number of tiles across and down.
+	 * A 16k image needs a couple of gigabytes of heap while it's being cut up.
+	 *
+	 * @param imagePath the image to cut up
+	 * @param pyramidPath the file to write
+	 * @param tileSize the size of a tile in pixels, without the border
+	 * @return the number of tiles written over all the levels
+	 * @throws IOException if a file can't be read or written
+	 */
+	public static int convert(String imagePath, String pyramidPath, int tileSize) throws IOException {
+		File source = new File(imagePath);
+		if (!source.exists()) {
+			throw new NoSuchFileException(imagePath);
+		}
+		BufferedImage image = ImageIO.read(source);
+		if (image == null) {
+			throw new IOException(imagePath + ": not an image");
+		}
+		int tilesAcross = (image.getWidth() + tileSize - 1) / tileSize;
+		int tilesDown = (image.getHeight() + tileSize - 1) / tileSize;
+		TilePyramid pyramid = new TilePyramid(pyramidPath, null, tileSize, BORDER, tilesAcross, tilesDown, countLevels(tilesAcross, tilesDown));
+
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		param.setCompressionQuality(QUALITY);
+		int slot = pyramid.getSlotSize();
+		BufferedImage tile = new BufferedImage(slot, slot, BufferedImage.TYPE_INT_RGB);
+		int[] tilePixels = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+		ByteBuffer table = ByteBuffer.allocate(pyramid.tileCount * ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		long offset = HEADER_BYTES + (long) pyramid.tileCount * ENTRY_BYTES;
+
+		try (FileChannel channel = FileChannel.open(Paths.get(pyramidPath), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			channel.position(offset);
+			BufferedImage level = image;
+			for (int l = 0; l < pyramid.levels; ++l) {
+				//each level is scaled from the one before, halving it is an even blend of four pixels
+				level = scale(level, pyramid.across[l] * tileSize, pyramid.down[l] * tileSize);
+				int width = level.getWidth(), height = level.getHeight();
+				int[] pixels = ((DataBufferInt) level.getRaster().getDataBuffer()).getData();
+				for (int y = 0; y < pyramid.down[l]; ++y) {
+					for (int x = 0; x < pyramid.across[l]; ++x) {
+						for (int row = 0; row < slot; ++row) {
+							//clamped at the poles, wrapped round from one side of the map to the other
+							int sy = Math.max(0, Math.min(height - 1, y * tileSize + row - BORDER));
+							for (int column = 0; column < slot; ++column) {
+								int sx = Math.floorMod(x * tileSize + column - BORDER, width);
+								tilePixels[row * slot + column] = pixels[sy * width + sx];
+							}
+						}
+						ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+						try (MemoryCacheImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+							writer.setOutput(out);
+							writer.write(null, new IIOImage(tile, null, null), param);
+						}
+						ByteBuffer data = ByteBuffer.wrap(bytes.toByteArray());
+						table.putLong(offset).putInt(data.remaining());
+						offset += data.remaining();
+						while (data.hasRemaining()) {
+							channel.write(data);
+						}
+					}
+				}
+			}
+			writer.dispose();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(tileSize).putInt(BORDER)
+					.putInt(tilesAcross).putInt(tilesDown).putInt(pyramid.levels).putInt(0);
+			header.flip();
+			table.flip();
+			channel.position(0);
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			while (table.hasRemaining()) {
+				channel.write(table);
+			}
+		}
+		return pyramid.tileCount;
+	}
+
+	private static BufferedImage scale(BufferedImage image, int width, int height) {
+		if (image.getWidth() == width && image.getHeight() == height && image.getType() == BufferedImage.TYPE_INT_RGB) {
+			return image;
+		}
+		BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = scaled.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(image, 0, 0, width, height, null);
+		g.dispose();
+		return scaled;
+	}
+
+	/**
+	 * Decodes one tile with its border, safe to call from any thread
+	 *
+	 * @param tile the index of the tile over all the levels
+	 * @param out where to put the pixels, as RGB ints a whole tile with its border across, top row first
+	 * @throws IOException if the tile can't be decoded
+	 */
+	public void decode(int tile, IntBuffer out) throws IOException {
+		int entry = HEADER_BYTES + tile * ENTRY_BYTES;
+		long offset = file.getLong(entry);
+		int length = file.getInt(entry + 8);
+		if (offset < 0 || length <= 0 || offset + length > file.capacity()) {
+			throw new IOException(path + ": tile " + tile + " is outside the file");
+		}
+		byte[] bytes = new byte[length];
+		//a duplicate has its own position, so threads can read tiles at the same time
+		ByteBuffer data = file.duplicate();
+		data.position((int) offset);
+		data.get(bytes);
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+		int slot = this.getSlotSize();
+		if (image == null || image.getWidth() != slot || image.getHeight() != slot) {
+			throw new IOException(path + ": tile " + tile + " is broken");
+		}
+		if (image.getType() != BufferedImage.TYPE_INT_RGB) {
+			image = scale(image, slot, slot);
+		}
+		out.clear();
+		out.put(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0, slot * slot);
+		out.flip();
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	public int getBorder() {
+		return border;
+	}
+
+	/**
+	 * @return the size of a tile with its border on both sides
+	 */
+	public int getSlotSize() {
+		return tileSize + 2 * border;
+	}
+
+	public int getLevels() {
+		return levels;
+	}
+
+	public int getTilesAcross(int level) {
+		return across[level];
+	}
+
+	public int getTilesDown(int level) {
+		return down[level];
+	}
+
+	/**
+	 * @return the index of the top left tile of a level
+	 */
+	public int getFirstTile(int level) {
+		return first[level];
+	}
+
+	/**
+	 * @return the number of tiles over all the levels
+	 */
+	public int getTileCount() {
+		return tileCount;
+	}
+}
@@ -0,0 +1,264 @@
+package rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL4;
+import com.jogamp.opengl.fixedfunc.GLPointerFunc;
+
+/**
+ * Draws the recent path of each body as a line behind it. Every trail is a ring of samples in one shared vertex buffer,
+ * so adding a sample overwrites the oldest one and nothing is ever reallocated or shifted.
+ * Where the GPU allows it the buffer stays mapped for good and samples are written straight into it,
+ * otherwise they're kept in an off-heap copy and only the new ones are uploaded.
+ * A wrapped ring is drawn as two ranges, oldest to the end and then the start up to the newest.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class TrailRenderer implements RenderQueue.Command {
+	private static final float ALPHA = 0.6f;
+	private static final int MAP_FLAGS = GL.GL_MAP_WRITE_BIT | GL4.GL_MAP_PERSISTENT_BIT | GL4.GL_MAP_COHERENT_BIT;
+	
+	private final int trails;
+	private final int[] first; //the first vertex of each ring in the buffer
+	private final int[] capacity; //the samples each ring holds, there is one more vertex after them repeating the first
+	private final int[] head; //where the next sample goes
+	private final int[] count;
+	private final double[] interval; //the simulation time between samples
+	private final double[] lastTime; //the time of the newest sample
+	private final float[][] colors;
+	private final int vertices;
+	private FloatBuffer history; //x, y, z of every vertex, either the mapped buffer or an off-heap copy of it
+	private int vbo;
+	private boolean persistent;
+	private final int[] firsts = new int[2];
+	private final int[] counts = new int[2];
+	private boolean on = true;
+	private double drawnFraction = 1; //how much of each trail is drawn, newest first
+	
+	/**
+	 * @param capacity the number of samples kept for each trail, 0 for none
+	 * @param interval the simulation time between the samples of each trail
+	 * @param colors the color of each trail
+	 */
+	public TrailRenderer(int[] capacity, double[] interval, float[][] colors) {
+		this.trails = capacity.length;
+		this.capacity = capacity.clone();
+		this.interval = interval.clone();
+		this.lastTime = new double[trails];
+		this.colors = colors;
+		this.first = new int[trails];
+		this.head = new int[trails];
+		this.count = new int[trails];
+		int total = 0;
+		for (int i = 0; i < trails; ++i) {
+			first[i] = total;
+			total += capacity[i] > 0 ? capacity[i] + 1 : 0;
+		}
+		this.vertices = total;
+	}
+	
+	/**
+	 * @param gl
+	 * @return true if the GPU can keep a buffer mapped while drawing from it
+	 */
+	public static boolean isPersistentMappingSupported(GL2 gl) {
+		return gl.isGL4() && gl.isExtensionAvailable("GL_ARB_buffer_storage");
+	}
+	
+	/**
+	 * Creates the vertex buffer, needs a current GL context
+	 * 
+	 * @param gl
+	 */
+	public void init(GL2 gl) {
+		int[] ids = new int[1];
+		gl.glGenBuffers(1, ids, 0);
+		vbo = ids[0];
+		long bytes = (long) Math.max(1, vertices) * 3 * Buffers.SIZEOF_FLOAT;
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+		persistent = isPersistentMappingSupported(gl);
+		if (persistent) {
+			gl.getGL4().glBufferStorage(GL.GL_ARRAY_BUFFER, bytes, null, MAP_FLAGS);
+			ByteBuffer mapped = gl.glMapBufferRange(GL.GL_ARRAY_BUFFER, 0, bytes, MAP_FLAGS);
+			if (mapped != null) {
+				history = mapped.order(ByteOrder.nativeOrder()).asFloatBuffer();
+			}
+			else {
+				//start again with a normal buffer, storage made with glBufferStorage can't be respecified
+				gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+				gl.glDeleteBuffers(1, ids, 0);
+				gl.glGenBuffers(1, ids, 0);
+				vbo = ids[0];
+				gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+				persistent = false;
+			}
+		}
+		if (!persistent) {
+			gl.glBufferData(GL.GL_ARRAY_BUFFER, bytes, null, GL.GL_DYNAMIC_DRAW);
+			history = Buffers.newDirectFloatBuffer(Math.max(1, vertices) * 3);
+		}
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+	}
+	
+	/**
+	 * Adds a sample to a trail if enough time has passed since the last one, either way since time can run backwards.
+	 * A jump in time longer than the whole trail, like after seeking, starts a new trail.
+	 * 
+	 * @param gl
+	 * @param trail
+	 * @param time the simulation time
+	 * @param x the position of the body in world space
+	 * @param y
+	 * @param z
+	 */
+	public void append(GL2 gl, int trail, double time, double x, double y, double z) {
+		int size = capacity[trail];
+		if (size == 0 || history == null) {
+			return;
+		}
+		if (count[trail] > 0) {
+			double passed = Math.abs(time - lastTime[trail]);
+			if (passed < interval[trail]) {
+				return;
+			}
+			if (passed > interval[trail] * size) {
+				this.clear(trail);
+			}
+		}
+		lastTime[trail] = time;
+		//only the oldest sample is overwritten, so a frame still drawing from a mapped buffer sees at most one vertex change
+		this.write(gl, first[trail] + head[trail], x, y, z);
+		if (head[trail] == 0) {
+			this.write(gl, first[trail] + size, x, y, z); //the copy after the end joins the two ranges of a wrapped ring
+		}
+		head[trail] = (head[trail] + 1) % size;
+		count[trail] = Math.min(count[trail] + 1, size);
+	}
+	
+	private void write(GL2 gl, int vertex, double x, double y, double z) {
+		int index = vertex * 3;
+		history.put(index, (float) x);
+		history.put(index + 1, (float) y);
+		history.put(index + 2, (float) z);
+		if (!persistent) {
+			gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+			history.position(index);
+			gl.glBufferSubData(GL.GL_ARRAY_BUFFER, (long) index * Buffers.SIZEOF_FLOAT, 3 * Buffers.SIZEOF_FLOAT, history);
+			history.position(0);
+			gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+		}
+	}
+	
+	/**
+	 * Empties a trail, it starts again from the next sample
+	 */
+	public void clear(int trail) {
+		head[trail] = 0;
+		count[trail] = 0;
+	}
+	
+	/**
+	 * Submits the trails to the render queue, drawn with the blended objects
+	 * 
+	 * @param context
+	 */
+	public void submit(RenderContext context) {
+		if (on && vbo != 0) {
+			context.getQueue().submit(RenderQueue.key(true, RenderQueue.FIXED_FUNCTION, 0, 1), this);
+		}
+	}
+	
+	@Override
+	public void execute(GL2 gl, RenderContext context) {
+		GLStateCache state = context.getStateCache();
+		state.useProgram(gl, 0);
+		state.setEnabled(gl, GL2.GL_LIGHTING, false);
+		state.setEnabled(gl, GL2.GL_TEXTURE_2D, false);
+		state.setEnabled(gl, GL2.GL_BLEND, true);
+		state.lineWidth(gl, 1f);
+		context.loadView(gl);
+		
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+		gl.glEnableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+		gl.glVertexPointer(3, GL.GL_FLOAT, 0, 0);
+		for (int i = 0; i < trails; ++i) {
+			if (count[i] < 2) {
+				continue;
+			}
+			int drawn = Math.min(count[i], Math.max(2, (int) Math.ceil(capacity[i] * drawnFraction)));
+			int end = head[i] == 0 ? capacity[i] : head[i]; //one past the newest sample
+			int start = end - drawn;
+			int ranges;
+			if (start >= 0) {
+				//the newest samples don't cross the end of the ring
+				firsts[0] = first[i] + start;
+				counts[0] = drawn;
+				ranges = 1;
+			}
+			else {
+				//the oldest drawn up to the copy of the first vertex, then the start up to the newest
+				firsts[0] = first[i] + capacity[i] + start;
+				counts[0] = 1 - start;
+				firsts[1] = first[i];
+				counts[1] = end;
+				ranges = 2;
+			}
+			float[] color = colors[i];
+			gl.glColor4f(color[0], color[1], color[2], ALPHA);
+			gl.glMultiDrawArrays(GL.GL_LINE_STRIP, firsts, 0, counts, 0, ranges);
+			context.getStats().addDrawCall();
+		}
+		gl.glDisableClientState(GLPointerFunc.GL_VERTEX_ARRAY);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+	}
+	
+	public void dispose(GL2 gl) {
+		if (vbo == 0) {
+			return;
+		}
+		if (persistent) {
+			gl.glBindBuffer(GL.GL_ARRAY_BUFFER, vbo);
+			gl.glUnmapBuffer(GL.GL_ARRAY_BUFFER);
+			gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+		}
+		gl.glDeleteBuffers(1, new int[] {vbo}, 0);
+		vbo = 0;
+		history = null;
+	}
+	
+	/**
+	 * @param on false to stop drawing the trails, they keep recording
+	 */
+	public void setOn(boolean on) {
+		this.on = on;
+	}
+	
+	public boolean isOn() {
+		return on;
+	}
+	
+	/**
+	 * @param drawnFraction how much of each trail to draw from the newest sample back, between 0 and 1,
+	 * the rest is still recorded so it comes back when this goes up again
+	 */
+	public void setDrawnFraction(double drawnFraction) {
+		this.drawnFraction = Math.max(0, Math.min(1, drawnFraction));
+	}
+	
+	public double getDrawnFraction() {
+		return drawnFraction;
+	}
+	
+	/**
+	 * @return true if the samples are written straight into a mapped buffer
+	 */
+	public boolean isPersistent() {
+		return persistent;
+	}
+}
@@ -0,0 +1,269 @@
+package replay;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import viewer.Camera;
+
+/**
+ * A recorded session: the key presses and clicks with the time they happened, and the camera's position and
+ * direction every frame, along with what is needed to set up the same scene again.
+ * It's written as a gzipped stream of numbers, a minute of flying takes a few tens of kilobytes.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class InputRecording {
+	public static final int KEY_PRESSED = 0;
+	public static final int KEY_RELEASED = 1;
+	public static final int CLICK = 2;
+	
+	private static final int MAGIC = 0x49535252; //"ISRR"
+	private static final int VERSION = 1;
+	private static final int CAMERA_FLOATS = 6; //time, eye x, y, z, pitch, yaw
+	
+	private final String scenarioPath;
+	private final long seed;
+	private final double startTime;
+	private final double step;
+	private int width, height;
+	
+	//events, in the order they happened
+	private float[] eventTimes = new float[64];
+	private int[] eventTypes = new int[64];
+	private int[] eventA = new int[64], eventB = new int[64];
+	private int events;
+	
+	private float[] camera = new float[CAMERA_FLOATS * 1024];
+	private int cameraSamples;
+	
+	/**
+	 * @param scenarioPath the scenario file the session was recorded with
+	 * @param seed the seed of the Sun's random numbers
+	 * @param startTime the simulation time the session started at
+	 * @param step the seconds per frame to replay at
+	 * @param width the size of the drawable when recording starts, see {@link #setSize(int, int)}
+	 * @param height
+	 */
+	public InputRecording(String scenarioPath, long seed, double startTime, double step, int width, int height) {
+		this.scenarioPath = scenarioPath;
+		this.seed = seed;
+		this.startTime = startTime;
+		this.step = step;
+		this.width = width;
+		this.height = height;
+	}
+	
+	/**
+	 * Adds an event, called from the GL thread as the frame applies it
+	 * 
+	 * @param time the seconds since the recording started
+	 * @param type {@link #KEY_PRESSED}, {@link #KEY_RELEASED} or {@link #CLICK}
+	 * @param a the key code, or the x of the click
+	 * @param b the y of the click, 0 for keys
+	 */
+	public void addEvent(double time, int type, int a, int b) {
+		if (events == eventTimes.length) {
+			eventTimes = Arrays.copyOf(eventTimes, events * 2);
+			eventTypes = Arrays.copyOf(eventTypes, events * 2);
+			eventA = Arrays.copyOf(eventA, events * 2);
+			eventB = Arrays.copyOf(eventB, events * 2);
+		}
+		eventTimes[events] = (float) time;
+		eventTypes[events] = type;
+		eventA[events] = a;
+		eventB[events] = b;
+		events++;
+	}
+	
+	/**
+	 * Keeps the size of the drawable, called from the GL thread whenever it changes, so the replay draws at the last one
+	 * 
+	 * @param width
+	 * @param height
+	 */
+	public void setSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+	
+	/**
+	 * Adds where the camera is, called from the GL thread once a frame
+	 * 
+	 * @param time the seconds since the recording started
+	 * @param c
+	 */
+	public synchronized void addCameraSample(double time, Camera c) {
+		if ((cameraSamples + 1) * CAMERA_FLOATS > camera.length) {
+			camera = Arrays.copyOf(camera, camera.length * 2);
+		}
+		int i = cameraSamples * CAMERA_FLOATS;
+		double[] eye = c.getEye();
+		camera[i] = (float) time;
+		camera[i + 1] = (float) eye[0];
+		camera[i + 2] = (float) eye[1];
+		camera[i + 3] = (float) eye[2];
+		camera[i + 4] = (float) c.getPitch();
+		camera[i + 5] = (float) c.getYaw();
+		cameraSamples++;
+	}
+	
+	/**
+	 * Puts the camera where it was at a time, in between the samples either side of it
+	 * 
+	 * @param time the seconds since the recording started
+	 * @param c
+	 * @param eye scratch space for the position
+	 */
+	public synchronized void applyCamera(double time, Camera c, double[] eye) {
+		if (cameraSamples == 0) {
+			return;
+		}
+		//the first sample at or after the time
+		int lo = 0, hi = cameraSamples - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (camera[mid * CAMERA_FLOATS] < time) {
+				lo = mid + 1;
+			}
+			else {
+				hi = mid;
+			}
+		}
+		int b = lo * CAMERA_FLOATS;
+		int a = Math.max(0, lo - 1) * CAMERA_FLOATS;
+		double span = camera[b] - camera[a];
+		double t = span > 0 ? Math.max(0, Math.min(1, (time - camera[a]) / span)) : 1;
+		for (int i = 0; i < 3; ++i) {
+			eye[i] = camera[a + 1 + i] + (camera[b + 1 + i] - camera[a + 1 + i]) * t;
+		}
+		double pitch = camera[a + 4] + (camera[b + 4] - camera[a + 4]) * t;
+		//the yaw wraps around, so go the short way
+		double turn = camera[b + 5] - camera[a + 5];
+		turn -= 360 * Math.floor((turn + 180) / 360);
+		double yaw = camera[a + 5] + turn * t;
+		c.setPose(eye, pitch, (yaw + 360) % 360);
+	}
+	
+	public void save(File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))))) {
+			synchronized (this) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(scenarioPath);
+				out.writeLong(seed);
+				out.writeDouble(startTime);
+				out.writeDouble(step);
+				out.writeInt(width);
+				out.writeInt(height);
+				out.writeInt(events);
+				for (int i = 0; i < events; ++i) {
+					out.writeFloat(eventTimes[i]);
+					out.writeByte(eventTypes[i]);
+					out.writeShort(eventA[i]);
+					out.writeShort(eventB[i]);
+				}
+				out.writeInt(cameraSamples);
+				for (int i = 0; i < cameraSamples * CAMERA_FLOATS; ++i) {
+					out.writeFloat(camera[i]);
+				}
+			}
+		}
+	}
+	
+	public static InputRecording load(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a recording: " + file);
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported recording version " + version + ": " + file);
+			}
+			InputRecording recording = new InputRecording(in.readUTF(), in.readLong(), in.readDouble(), in.readDouble(), in.readInt(), in.readInt());
+			int events = in.readInt();
+			for (int i = 0; i < events; ++i) {
+				recording.addEvent(in.readFloat(), in.readByte(), in.readUnsignedShort(), in.readUnsignedShort());
+			}
+			int samples = in.readInt();
+			recording.camera = new float[Math.max(1, samples) * CAMERA_FLOATS];
+			for (int i = 0; i < samples * CAMERA_FLOATS; ++i) {
+				recording.camera[i] = in.readFloat();
+			}
+			recording.cameraSamples = samples;
+			return recording;
+		}
+	}
+	
+	/**
+	 * @return how long the recording lasts in seconds
+	 */
+	public synchronized double getDuration() {
+		double end = events > 0 ? eventTimes[events - 1] : 0;
+		return cameraSamples > 0 ? Math.max(end, camera[(cameraSamples - 1) * CAMERA_FLOATS]) : end;
+	}
+	
+	/**
+	 * @return how many frames the recording takes at its step
+	 */
+	public int getFrameCount() {
+		return (int) Math.ceil(this.getDuration() / step) + 1;
+	}
+	
+	public synchronized int getEventCount() {
+		return events;
+	}
+	
+	public synchronized double getEventTime(int event) {
+		return eventTimes[event];
+	}
+	
+	public synchronized int getEventType(int event) {
+		return eventTypes[event];
+	}
+	
+	public synchronized int getEventA(int event) {
+		return eventA[event];
+	}
+	
+	public synchronized int getEventB(int event) {
+		return eventB[event];
+	}
+	
+	public synchronized int getCameraSampleCount() {
+		return cameraSamples;
+	}
+
+	public String getScenarioPath() {
+		return scenarioPath;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public double getStartTime() {
+		return startTime;
+	}
+
+	public double getStep() {
+		return step;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+}
@@ -0,0 +1,134 @@
+package replay;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import profiling.RollingHistogram;
+import rendering.FrameStats;
+
+/**
+ * The frame times and counters of one replay, and how they compare to a baseline run.
+ * Frame times can wobble from run to run, so they're allowed to get worse by a tolerance before counting as a regression.
+ * The counters come out the same on every replay of a recording, so any increase in them is a regression.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class ReplayReport {
+	private static final double[] PERCENTILES = {50, 95, 99, 100};
+	private static final String[] PERCENTILE_KEYS = {"frame.p50.ms", "frame.p95.ms", "frame.p99.ms", "frame.max.ms"};
+	private static final String[] COUNTER_KEYS = {"draw.calls", "spheres", "state.changes", "state.changes.elided", "objects.drawn", "objects.culled"};
+	
+	private final RollingHistogram frameTimes;
+	private final double[] counters = new double[COUNTER_KEYS.length]; //totals over the frames
+	private int frames;
+	
+	/**
+	 * @param frames how many frames will be measured
+	 */
+	public ReplayReport(int frames) {
+		this.frameTimes = new RollingHistogram(Math.max(1, frames));
+	}
+	
+	/**
+	 * Adds a finished frame
+	 * 
+	 * @param nanos how long the frame took, including waiting for the GPU
+	 * @param stats the counters of the frame
+	 */
+	public void addFrame(long nanos, FrameStats stats) {
+		frameTimes.add(nanos);
+		counters[0] += stats.getDrawCalls();
+		counters[1] += stats.getSpheres();
+		counters[2] += stats.getStateChanges();
+		counters[3] += stats.getElidedStateChanges();
+		counters[4] += stats.getDrawnObjects();
+		counters[5] += stats.getCulledObjects();
+		frames++;
+	}
+	
+	/**
+	 * @return the results, frame times in milliseconds and counters averaged per frame
+	 */
+	public Properties toProperties() {
+		Properties properties = new Properties();
+		properties.setProperty("frames", Integer.toString(frames));
+		for (int i = 0; i < PERCENTILES.length; ++i) {
+			properties.setProperty(PERCENTILE_KEYS[i], format(frameTimes.getPercentile(PERCENTILES[i]) / 1e6));
+		}
+		for (int i = 0; i < COUNTER_KEYS.length; ++i) {
+			properties.setProperty(COUNTER_KEYS[i], format(frames == 0 ? 0 : counters[i] / frames));
+		}
+		return properties;
+	}
+	
+	private static String format(double value) {
+		return String.format("%.3f", value);
+	}
+	
+	public void save(File file) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			this.toProperties().store(out, "replay baseline");
+		}
+	}
+	
+	public static Properties loadBaseline(File file) throws IOException {
+		Properties baseline = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			baseline.load(in);
+		}
+		return baseline;
+	}
+	
+	/**
+	 * Compares the run against a baseline
+	 * 
+	 * @param baseline the results of an earlier run of the same recording
+	 * @param tolerance how much slower the frame times can be before it counts, 0.1 for 10%
+	 * @return a line for each regression, empty if there are none
+	 */
+	public List<String> compare(Properties baseline, double tolerance) {
+		List<String> regressions = new ArrayList<>();
+		Properties current = this.toProperties();
+		for (String key : PERCENTILE_KEYS) {
+			check(key, baseline, current, tolerance, regressions);
+		}
+		for (String key : COUNTER_KEYS) {
+			if (!key.equals("state.changes.elided") && !key.equals("objects.culled")) { //more of these is better
+				check(key, baseline, current, 0, regressions);
+			}
+		}
+		return regressions;
+	}
+	
+	private static void check(String key, Properties baseline, Properties current, double tolerance, List<String> regressions) {
+		String expected = baseline.getProperty(key);
+		if (expected == null) {
+			return;
+		}
+		double before = Double.parseDouble(expected);
+		double now = Double.parseDouble(current.getProperty(key));
+		//the values are rounded to 3 places when written, so allow for that
+		if (now > before * (1 + tolerance) + 0.001) {
+			regressions.add(key + ": " + expected + " -> " + current.getProperty(key));
+		}
+	}
+	
+	@Override
+	public String toString() {
+		Properties p = this.toProperties();
+		return "frames: " + p.getProperty("frames")
+				+ ", frame time p50: " + p.getProperty("frame.p50.ms") + " ms, p95: " + p.getProperty("frame.p95.ms") 
+				+ " ms, p99: " + p.getProperty("frame.p99.ms") + " ms, max: " + p.getProperty("frame.max.ms") + " ms"
+				+ "\nper frame - draw calls: " + p.getProperty("draw.calls") + ", spheres: " + p.getProperty("spheres")
+				+ ", state changes: " + p.getProperty("state.changes") + " (elided: " + p.getProperty("state.changes.elided") + ")"
+				+ ", objects drawn: " + p.getProperty("objects.drawn") + ", culled: " + p.getProperty("objects.culled");
+	}
+}
@@ -0,0 +1,308 @@
+package scenario;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import rendering.TileCache;
+import sceneObjects.AstronomicalObject;
+import sceneObjects.Moon;
+import sceneObjects.Planet;
+import sceneObjects.Sun;
+import simulation.BodyCatalog;
+import simulation.SimulationClock;
+import utils.Color;
+
+/**
+ * Reads the bodies of a scene from a text file, one body per line written as a kind followed by key=value pairs:
+ * <pre>
+ * scale radius=1 distance=100
+ * sun radius=10 period=25 texture=assets/2k_sun.jpg
+ * planet name=earth radius=1.083 distance=1 period=365.2 color=EARTH day=1 tilt=23.44 eccentricity=0.0167 periapsis=102.9
+ * moon parent=earth radius=0.289 distance=0.013 offset=1.083 period=27.3 color=MOON tilt=5
+ * belt name=asteroids count=100000 inner=2.1 outer=3.3 eccentricity=0.2 inclination=15 seed=1
+ * catalog name=neos file=scenarios/neos.csv
+ * nbody theta=0.5 softening=0.01
+ * epoch jd=2451545.0
+ * stars file=assets/stars.bin
+ * textures budget=256
+ * </pre>
+ * Planets and moons can also give eccentricity, inclination, node and periapsis for an elliptical orbit.
+ * With an nbody line the Sun, the planets and the catalogs are integrated under their own gravity instead, planets and
+ * catalogs taking a mass in solar masses.
+ * The Sun can also give particles, the most solar wind particles alive at once, wind, how many it throws off per second,
+ * and particlesim=gpu to move them with transform feedback instead of on the CPU.
+ * The stars are a binary catalog written by {@link rendering.StarCatalog#convert(String, String)}, drawn behind everything.
+ * Planets and moons can give tiles, a pyramid cut with {@link rendering.TilePyramid#convert(String, String, int)}, to stream
+ * a large texture a tile at a time instead of loading it whole. The textures budget is the GPU memory for those tiles in megabytes.
+ * The epoch is the Julian date at time 0, J2000 if it isn't given.
+ * The Sun, planets and moons become scene objects, belts and catalogs become {@link BodyCatalog}s.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class Scenario {
+	public static final String DEFAULT_PATH = "scenarios/inner_solar_system.txt";
+	public static final float REFERENCE_PERIOD = 365.2f; //the period of an orbit one distance unit from the Sun, the Earth's
+	
+	private Sun sun;
+	private Map<String, Planet> planets = new LinkedHashMap<>();
+	private ArrayList<BodyCatalog> catalogs = new ArrayList<>();
+	private float radiusScale = 1f;
+	private float distanceScale = 1f;
+	private double theta = Double.NaN; //the opening angle of the N-body mode, NaN when it's off
+	private double softening;
+	private double epoch = SimulationClock.J2000;
+	private String starsPath; //null for a plain black background
+	private long textureBudget = TileCache.DEFAULT_BUDGET; //bytes for streamed tiles
+	
+	/**
+	 * Reads a scenario file
+	 * 
+	 * @param path the path of the scenario file
+	 * @return the scenario
+	 * @throws IOException if the file, or a catalog it points to, can't be read
+	 * @throws IllegalArgumentException if a line is malformed, the message says which line
+	 */
+	public static Scenario load(String path) throws IOException {
+		Scenario scenario = new Scenario();
+		Path file = Paths.get(path);
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				try {
+					scenario.parse(line);
+				}
+				catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException(path + ":" + lineNumber + ": " + e.getMessage());
+				}
+			}
+		}
+		if (scenario.sun == null) {
+			throw new IllegalArgumentException(path + ": no sun");
+		}
+		return scenario;
+	}
+	
+	private void parse(String line) throws IOException {
+		String[] tokens = line.split("\\s+");
+		HashMap<String, String> values = new HashMap<>();
+		for (int i = 1; i < tokens.length; ++i) {
+			int equals = tokens[i].indexOf('=');
+			if (equals <= 0) {
+				throw new IllegalArgumentException("expected key=value but got " + tokens[i]);
+			}
+			values.put(tokens[i].substring(0, equals), tokens[i].substring(equals + 1));
+		}
+		
+		switch (tokens[0]) {
+			case "scale":
+				radiusScale = getFloat(values, "radius", 1);
+				distanceScale = getFloat(values, "distance", 1);
+				break;
+			case "sun":
+				sun = new Sun(getFloat(values, "radius") * radiusScale, getFloat(values, "period"));
+				sun.setTexturePath(values.get("texture"));
+				sun.setParticleBudget((int) getFloat(values, "particles", Sun.DEFAULT_PARTICLE_BUDGET));
+				sun.setEmissionRate(getFloat(values, "wind", Sun.DEFAULT_EMISSION_RATE));
+				sun.setParticlesOnGpu("gpu".equals(values.get("particlesim")));
+				break;
+			case "planet":
+				String name = getString(values, "name");
+				if (planets.containsKey(name)) {
+					throw new IllegalArgumentException("duplicate planet " + name);
+				}
+				Planet planet = new Planet(getFloat(values, "radius") * radiusScale, getFloat(values, "distance") * distanceScale, 
+						getFloat(values, "period"), getColor(values), getFloat(values, "day"), getFloat(values, "tilt", 0));
+				planet.setSelfRotateDirection(getFloat(values, "direction", 1));
+				setOrbit(planet, values, 0);
+				planet.setTexturePath(values.get("texture"));
+				planet.setTilesPath(values.get("tiles"));
+				planet.setMass(getFloat(values, "mass", 0));
+				planet.setTrailLength((int) getFloat(values, "trail", AstronomicalObject.DEFAULT_TRAIL_LENGTH));
+				planets.put(name, planet);
+				break;
+			case "moon":
+				Planet parent = planets.get(getString(values, "parent"));
+				if (parent == null) {
+					throw new IllegalArgumentException("unknown parent " + values.get("parent") + ", planets must come before their moons");
+				}
+				Moon moon = new Moon(getFloat(values, "radius") * radiusScale, 
+						getFloat(values, "distance") * distanceScale + getFloat(values, "offset", 0) * radiusScale, 
+						getFloat(values, "period"), getColor(values), getFloat(values, "tilt", 0));
+				moon.setTexturePath(values.get("texture"));
+				moon.setTilesPath(values.get("tiles"));
+				setOrbit(moon, values, getFloat(values, "tilt", 0));
+				moon.setTrailLength((int) getFloat(values, "trail", AstronomicalObject.DEFAULT_TRAIL_LENGTH));
+				parent.addMoon(moon);
+				break;
+			case "belt":
+				//periods follow Kepler's third law from the Earth's orbit
+				BodyCatalog belt = BodyCatalog.generateBelt(getString(values, "name"), (int) getFloat(values, "count"), 
+						getFloat(values, "inner") * distanceScale, getFloat(values, "outer") * distanceScale, 
+						distanceScale, REFERENCE_PERIOD, getFloat(values, "eccentricity", 0), getFloat(values, "inclination", 0), 
+						(long) getFloat(values, "seed", 0));
+				belt.setColor(getColor(values));
+				belt.setMass(getFloat(values, "mass", 0) * getSunMass());
+				catalogs.add(belt);
+				break;
+			case "catalog":
+				BodyCatalog catalog = BodyCatalog.loadCsv(getString(values, "name"), getString(values, "file"));
+				catalog.setColor(getColor(values));
+				catalog.setMass(getFloat(values, "mass", 0) * getSunMass());
+				catalogs.add(catalog);
+				break;
+			case "nbody":
+				theta = getFloat(values, "theta", 0.5f);
+				softening = getFloat(values, "softening", 0.01f) * distanceScale;
+				if (theta < 0 || softening < 0) {
+					throw new IllegalArgumentException("theta and softening can't be negative");
+				}
+				break;
+			case "epoch":
+				epoch = getDouble(values, "jd"); //a float can't hold a Julian date to better than a quarter of a day
+				break;
+			case "textures":
+				float budget = getFloat(values, "budget", TileCache.DEFAULT_BUDGET >> 20);
+				if (budget <= 0) {
+					throw new IllegalArgumentException("budget must be positive");
+				}
+				textureBudget = (long) (budget * (1 << 20));
+				break;
+			case "stars":
+				starsPath = getString(values, "file"); //mapped when the GL context is up, a missing file only loses the stars
+				break;
+			default:
+				throw new IllegalArgumentException("unknown kind " + tokens[0]);
+		}
+	}
+	
+	//the optional orbital elements, angles in degrees
+	private static void setOrbit(AstronomicalObject body, Map<String, String> values, float defaultInclination) {
+		body.setOrbit(getFloat(values, "eccentricity", 0), getFloat(values, "inclination", defaultInclination), 
+				getFloat(values, "node", 0), getFloat(values, "periapsis", 0));
+	}
+	
+	private static String getString(Map<String, String> values, String key) {
+		String value = values.get(key);
+		if (value == null) {
+			throw new IllegalArgumentException("missing " + key);
+		}
+		return value;
+	}
+	
+	private static float getFloat(Map<String, String> values, String key) {
+		try {
+			return Float.parseFloat(getString(values, key));
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException(key + " is not a number: " + values.get(key));
+		}
+	}
+	
+	private static double getDouble(Map<String, String> values, String key) {
+		try {
+			return Double.parseDouble(getString(values, key));
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException(key + " is not a number: " + values.get(key));
+		}
+	}
+	
+	private static float getFloat(Map<String, String> values, String key, float defaultValue) {
+		return values.containsKey(key) ? getFloat(values, key) : defaultValue;
+	}
+	
+	//either r,g,b or the name of a colour in utils.Color
+	private static float[] getColor(Map<String, String> values) {
+		String value = values.get("color");
+		if (value == null) {
+			return new float[] {0.6f, 0.6f, 0.6f};
+		}
+		String[] rgb = value.split(",");
+		if (rgb.length == 3) {
+			try {
+				return new float[] {Float.parseFloat(rgb[0]), Float.parseFloat(rgb[1]), Float.parseFloat(rgb[2])};
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException("color is not r,g,b: " + value);
+			}
+		}
+		try {
+			Field field = Color.class.getField(value.toUpperCase());
+			return (float[]) field.get(null);
+		}
+		catch (ReflectiveOperationException | ClassCastException e) {
+			throw new IllegalArgumentException("unknown color " + value);
+		}
+	}
+	
+	/**
+	 * @return the gravitational parameter of the Sun in scene units, so that an orbit one distance unit away takes the reference period
+	 */
+	public double getSunMass() {
+		return 4 * Math.PI * Math.PI * Math.pow(distanceScale, 3) / (REFERENCE_PERIOD * REFERENCE_PERIOD);
+	}
+	
+	/**
+	 * @return true if the scenario asks for the bodies to be integrated under their own gravity
+	 */
+	public boolean isNBody() {
+		return !Double.isNaN(theta);
+	}
+	
+	public double getTheta() {
+		return theta;
+	}
+	
+	public double getSoftening() {
+		return softening;
+	}
+	
+	/**
+	 * @return the Julian date at time 0
+	 */
+	public double getEpoch() {
+		return epoch;
+	}
+	
+	/**
+	 * @return the path of the star catalog, or null if the scenario has none
+	 */
+	public String getStarsPath() {
+		return starsPath;
+	}
+	
+	/**
+	 * @return the GPU memory for streamed texture tiles in bytes
+	 */
+	public long getTextureBudget() {
+		return textureBudget;
+	}
+	
+	public Sun getSun() {
+		return sun;
+	}
+	
+	public ArrayList<Planet> getPlanets() {
+		return new ArrayList<>(planets.values());
+	}
+	
+	public ArrayList<BodyCatalog> getCatalogs() {
+		return catalogs;
+	}
+}
@@ -1,10 +1,18 @@
 package sceneObjects;
 
 import com.jogamp.opengl.GL2;
-import com.jogamp.opengl.glu.GLU;
-import com.jogamp.opengl.glu.GLUquadric;
 import com.jogamp.opengl.util.texture.Texture;
 
+import rendering.CircleMesh;
+import rendering.InstancedSphereRenderer;
+import rendering.MeshCommand;
+import rendering.RenderContext;
+import rendering.SphereMesh;
+import simulation.BodyState;
+import simulation.KeplerPropagator;
+import simulation.SimulationClock;
+import utils.Matrix4;
+
 /**
  * Represents spherical object in space like Planets or Moon
  * 
@@ -12,15 +20,33 @@ import com.jogamp.opengl.util.texture.Texture;
  * 14883251
  */
 public abstract class AstronomicalObject {
+	public static final int DEFAULT_TRAIL_LENGTH = 256;
+	
 	protected float radius;
 	protected float orbitDist;
 	protected float orbitalPeriod;
 	protected float[] color;
-	protected float angle;
+	protected double angle; //the mean anomaly in degrees, the position along the orbit is solved from it in the simulation
 	protected double tiltingAngle;
-	protected GLU glu;
-	protected GLUquadric quadric;
+	protected double eccentricity;
+	protected double inclination;
+	protected double ascendingNode;
+	protected double periapsis;
+	protected double mass; //in solar masses, only used in N-body mode
+	protected Matrix4 orbitMatrix = new Matrix4(); //turns the unit circle into the orbit's ellipse
+	protected int stateIndex;
+	protected volatile boolean pathOn;
+	protected int trailLength = DEFAULT_TRAIL_LENGTH;
+	protected double[] position = new double[3]; //scratch space for the world position, only used on the GL thread
+	protected double[] offset = new double[3]; //scratch space for the position relative to the parent, only used on the GL thread
 	protected Texture texture;
+	protected String texturePath;
+	protected int textureLayer;
+	protected String tilesPath; //a tile pyramid streamed in place of the texture, null for none
+	protected int tileStream = -1;
+	protected Matrix4 model = new Matrix4(); //scratch space for the model matrix, only used on the GL thread
+	protected MeshCommand sphereCommand = new MeshCommand(MeshCommand.SPHERE);
+	protected MeshCommand ringCommand = new MeshCommand(MeshCommand.RING);
 	
 	/**
 	 * Constructor to initialize an astronomical object
@@ -35,24 +61,125 @@ public abstract class AstronomicalObject {
 		this.radius = radius;
 		this.orbitDist = orbitDist;
 		this.orbitalPeriod = orbitalPeriod;
-		this.glu = new GLU();
-		this.quadric = glu.gluNewQuadric();
 		this.color = color;
 		this.angle = 0;
 		this.tiltingAngle = tiltingAngle;
+		this.pathOn = true;
+		this.textureLayer = -1;
+		this.setOrbit(0, 0, 0, 0);
 	}
 	
 	/**
-	 * Sets the color material to reflect light and the surface color
+	 * Sets the shape and orientation of the orbit, the orbit distance is used as the semi-major axis
 	 * 
-	 * @param gl
-	 * @param timeEllapsed
+	 * @param eccentricity 0 for a circle up to but not including 1
+	 * @param inclination the tilt of the orbit in degrees
+	 * @param ascendingNode the longitude of the ascending node in degrees
+	 * @param periapsis the argument of periapsis in degrees
+	 */
+	public void setOrbit(double eccentricity, double inclination, double ascendingNode, double periapsis) {
+		if (eccentricity < 0 || eccentricity >= 1) {
+			throw new IllegalArgumentException("Eccentricity must be in [0, 1): " + eccentricity);
+		}
+		this.eccentricity = eccentricity;
+		this.inclination = inclination;
+		this.ascendingNode = ascendingNode;
+		this.periapsis = periapsis;
+		KeplerPropagator.getOrbitMatrix(this.orbitDist, eccentricity, inclination, ascendingNode, periapsis, this.orbitMatrix);
+	}
+	
+	/**
+	 * Adds the orbit of the object to the propagator
+	 * 
+	 * @param orbits
+	 * @return the index of the orbit in the propagator
+	 */
+	public int addOrbit(KeplerPropagator orbits) {
+		return orbits.add(this.orbitDist, this.eccentricity, this.inclination, this.ascendingNode, this.periapsis, this.angle, this.orbitalPeriod);
+	}
+	
+	/**
+	 * Puts the angles of the object where they are at the given time, called from the simulation thread
+	 * 
+	 * @param time the simulation time since the epoch
+	 */
+	public abstract void setTime(double time);
+	
+	/**
+	 * Works out where the center of the object is in world space for the given snapshot
+	 * 
+	 * @param state
+	 * @param out the array to write x, y, z into
+	 */
+	public abstract void getPosition(BodyState state, double[] out);
+	
+	/**
+	 * Works out a sphere around everything drawn for the object, for culling
+	 * 
+	 * @param state
+	 * @param out x, y, z of the centre and the radius
+	 */
+	public void getBoundingSphere(BodyState state, double[] out) {
+		this.getPosition(state, out);
+		out[3] = this.getBoundingRadius();
+	}
+	
+	protected double getBoundingRadius() {
+		return this.radius;
+	}
+	
+	/**
+	 * Works out a sphere around the orbit ring, for culling
+	 * 
+	 * @param state
+	 * @param out x, y, z of the centre and the radius
+	 */
+	public void getOrbitBoundingSphere(BodyState state, double[] out) {
+		this.getOrbitCenter(state, out);
+		//the ellipse is centred away from the focus, which is where the orbit matrix moves the unit circle to
+		out[0] += this.orbitMatrix.get(12);
+		out[1] += this.orbitMatrix.get(13);
+		out[2] += this.orbitMatrix.get(14);
+		out[3] = this.orbitDist;
+	}
+	
+	/**
+	 * Works out the point the object orbits in world space
+	 * 
+	 * @param state
+	 * @param out the array to write x, y, z into
+	 */
+	protected void getOrbitCenter(BodyState state, double[] out) {
+		out[0] = out[1] = out[2] = 0;
+	}
+	
+	/**
+	 * Copies the angles of the object into the snapshot arrays at its state index
+	 * 
+	 * @param orbitAngles
+	 * @param spinAngles
+	 */
+	public void writeState(double[] orbitAngles, double[] spinAngles) {
+		orbitAngles[stateIndex] = this.angle;
+	}
+	
+	/**
+	 * Copies how fast the object's angles are turning into the arrays at its state index
+	 * 
+	 * @param orbitRates degrees per unit of time around the parent
+	 * @param spinRates degrees per unit of time around its own axis
 	 */
-	public void draw(GL2 gl, double timeEllapsed) {
-		gl.glColorMaterial(GL2.GL_FRONT_AND_BACK, GL2.GL_AMBIENT_AND_DIFFUSE);
-		gl.glColor3fv(this.color, 0);
-		gl.glLineWidth(1f);
+	public void writeRates(double[] orbitRates, double[] spinRates) {
+		orbitRates[stateIndex] = SimulationClock.turnRate(this.orbitalPeriod);
 	}
+	
+	/**
+	 * Submits the draw commands of the object to the context's render queue, nothing is drawn until the queue runs
+	 * 
+	 * @param gl
+	 * @param context the snapshot of the simulation and the shared meshes to draw with
+	 */
+	public abstract void draw(GL2 gl, RenderContext context);
 
 	public float getRadius() {
 		return radius;
@@ -66,15 +193,150 @@ public abstract class AstronomicalObject {
 		return orbitalPeriod;
 	}
 
+	public double getEccentricity() {
+		return eccentricity;
+	}
+	
+	public double getInclination() {
+		return inclination;
+	}
+	
+	public double getAscendingNode() {
+		return ascendingNode;
+	}
+	
+	public double getPeriapsis() {
+		return periapsis;
+	}
+
+	public double getMass() {
+		return mass;
+	}
+	
+	public void setMass(double mass) {
+		this.mass = mass;
+	}
+
 	public float[] getColor() {
 		return color;
 	}
 
-	public GLUquadric getQuadric() {
-		return quadric;
+	public int getStateIndex() {
+		return stateIndex;
+	}
+	
+	public void setStateIndex(int stateIndex) {
+		this.stateIndex = stateIndex;
+	}
+	
+	/**
+	 * Submits the shared unit sphere scaled to the radius at the top of the context's matrix stack, with the texture if it's loaded.
+	 * When the spheres are batched, it is added to the batch with its model matrix instead.
+	 * 
+	 * @param gl
+	 * @param context
+	 */
+	protected void drawSphere(GL2 gl, RenderContext context) {
+		if (!context.isBodyVisible(this.stateIndex)) {
+			return;
+		}
+		this.getPosition(context.getState(), this.position);
+		SphereMesh sphere = context.getSphere(gl, this.stateIndex, this.position, this.radius);
+		this.model.set(context.getModelStack().top()).scale(this.radius, this.radius, this.radius);
+		InstancedSphereRenderer instances = context.getInstances();
+		if (instances != null) {
+			if (this.tileStream >= 0) {
+				instances.addStreamed(this.model, this.color, this.tileStream, sphere.getSlices(), context.getCamera());
+			}
+			else {
+				instances.add(this.model, this.color, this.textureLayer, sphere.getSlices());
+			}
+			return;
+		}
+		this.sphereCommand.setSphere(sphere, this.texture);
+		this.sphereCommand.setColor(this.color);
+		this.sphereCommand.submit(context, this.model, false);
+	}
+	
+	/**
+	 * Submits the orbit as an ellipse around the origin at the top of the context's matrix stack.
+	 * The ring is a shared unit circle stretched into the orbit, so nothing is regenerated per frame.
+	 * 
+	 * @param gl
+	 * @param context
+	 * @param center the center of the ring in world space, used to pick the number of segments
+	 */
+	protected void drawOrbitPath(GL2 gl, RenderContext context, double[] center) {
+		if (!context.isOrbitVisible(this.stateIndex)) {
+			return;
+		}
+		CircleMesh circle = context.getCircle(gl, this.stateIndex, center, this.orbitDist);
+		this.model.set(context.getModelStack().top()).multiply(this.orbitMatrix);
+		this.ringCommand.setCircle(circle);
+		this.ringCommand.setColor(1, 1, 1, 0.5f);
+		this.ringCommand.submit(context, this.model, true);
+	}
+	
+	public void toggleDrawPath() {
+		this.pathOn = !this.pathOn;
+	}
+	
+	public boolean isPathOn() {
+		return pathOn;
 	}
 	
 	public void addTexture(Texture texture) {
 		this.texture = texture;
 	}
+	
+	public int getTextureLayer() {
+		return textureLayer;
+	}
+	
+	/**
+	 * @param textureLayer the layer of the shared texture array to use when batched, -1 for none
+	 */
+	public void setTextureLayer(int textureLayer) {
+		this.textureLayer = textureLayer;
+	}
+	
+	public String getTilesPath() {
+		return tilesPath;
+	}
+	
+	/**
+	 * @param tilesPath a tile pyramid to stream instead of the texture when batched, null for none
+	 */
+	public void setTilesPath(String tilesPath) {
+		this.tilesPath = tilesPath;
+	}
+	
+	/**
+	 * @param tileStream the streamed texture in the batch's tile cache, -1 for none
+	 */
+	public void setTileStream(int tileStream) {
+		this.tileStream = tileStream;
+	}
+	
+	public int getTrailLength() {
+		return trailLength;
+	}
+	
+	/**
+	 * @param trailLength the number of samples in the trail behind the object, 0 for no trail
+	 */
+	public void setTrailLength(int trailLength) {
+		if (trailLength < 0) {
+			throw new IllegalArgumentException("Trail length can't be negative: " + trailLength);
+		}
+		this.trailLength = trailLength;
+	}
+	
+	public String getTexturePath() {
+		return texturePath;
+	}
+	
+	public void setTexturePath(String texturePath) {
+		this.texturePath = texturePath;
+	}
 }
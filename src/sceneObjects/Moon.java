@@ -2,6 +2,11 @@ package sceneObjects;
 
 import com.jogamp.opengl.GL2;
 
+import rendering.RenderContext;
+import simulation.BodyState;
+import simulation.SimulationClock;
+import utils.MatrixStack;
+
 /**
  * The moon orbits around the parent parent at the tilting angle specified from the horizontal axis (z axis)
  * 
@@ -10,6 +15,7 @@ import com.jogamp.opengl.GL2;
  * 
  */
 public class Moon extends AstronomicalObject{
+	private Planet parent;
 
 	/**
 	 * The constructor to instantiate a moon
@@ -18,38 +24,68 @@ public class Moon extends AstronomicalObject{
 	 * @param orbitDist The distance away from the center of the parent planet
 	 * @param orbitalPeriod The time taken to orbit around the parent planet
 	 * @param color The color of the moon surface
-	 * @param tiltingAngle The angle above the horizontal axis for its orbit
+	 * @param tiltingAngle The angle above the horizontal axis for its orbit, used as the inclination
 	 */
 	public Moon(float radius, float orbitDist, float orbitalPeriod, float[] color, double tiltingAngle) {
 		super(radius, orbitDist, orbitalPeriod, color, tiltingAngle);
+		this.setOrbit(0, tiltingAngle, 0, 0);
+	}
+
+	/**
+	 * The position in the snapshot is relative to the planet, so the planet's position is added to it
+	 */
+	@Override
+	public void getPosition(BodyState state, double[] out) {
+		if (parent != null) {
+			parent.getPosition(state, out);
+		}
+		else {
+			out[0] = out[1] = out[2] = 0;
+		}
+		state.getPosition(this.stateIndex, this.offset);
+		out[0] += this.offset[0];
+		out[1] += this.offset[1];
+		out[2] += this.offset[2];
+	}
+	
+	@Override
+	protected void getOrbitCenter(BodyState state, double[] out) {
+		if (parent != null) {
+			parent.getPosition(state, out);
+		}
+		else {
+			super.getOrbitCenter(state, out);
+		}
+	}
+	
+	public Planet getParent() {
+		return parent;
+	}
+	
+	public void setParent(Planet parent) {
+		this.parent = parent;
+	}
+	
+	@Override
+	public void setTime(double time) {
+		this.angle = SimulationClock.angleAt(0, this.orbitalPeriod, time);
 	}
 
 	@Override
-	public void draw(GL2 gl, double timeEllapsed) {
-		super.draw(gl, timeEllapsed);
+	public void draw(GL2 gl, RenderContext context) {
+		//the planet's position is already applied, so only move by the offset from the planet
+		context.getState().getPosition(this.stateIndex, this.offset);
+		MatrixStack stack = context.getModelStack();
+		stack.push();
+			stack.translate(this.offset[0], this.offset[1], this.offset[2]);
+			this.drawSphere(gl, context);
+		stack.pop();
 		
-		this.angle += (360/this.orbitalPeriod*timeEllapsed) % 360;
-		gl.glPushMatrix();
-			//tilt the orbit
-			gl.glRotated(tiltingAngle, Math.cos(Math.toRadians(tiltingAngle)), Math.sin(Math.toRadians(this.tiltingAngle)), 0);
-			gl.glTranslatef(this.getOrbitDist(), 0f, 0f);
-			
-			//rotate the moon around the parent planet
-			gl.glTranslatef(-this.getOrbitDist(), 0f, 0f);
-			gl.glRotatef(angle, 0, 1, 0);
-			gl.glTranslatef(this.getOrbitDist(), 0f, 0f);
-			
-			if (texture == null) {
-				glu.gluSphere(this.quadric, this.radius, 50, 50);
-			}
-			else {
-				glu.gluQuadricTexture(quadric, true);
-				this.texture.enable(gl);
-				texture.bind(gl);
-				glu.gluSphere(quadric, this.radius, 50, 50);
-				texture.disable(gl);
-			}
-		gl.glPopMatrix();
+		//draw the orbit path around the parent planet
+		if (pathOn && parent != null) {
+			parent.getPosition(context.getState(), this.position);
+			this.drawOrbitPath(gl, context, this.position);
+		}
 	}
 
 }
@@ -4,6 +4,12 @@ import java.util.ArrayList;
 
 import com.jogamp.opengl.GL2;
 
+import rendering.MeshCommand;
+import rendering.RenderContext;
+import simulation.BodyState;
+import simulation.SimulationClock;
+import utils.MatrixStack;
+
 /**
  * The planet rotates around its axis at a tilting angle and around the Sun
  * 
@@ -12,11 +18,15 @@ import com.jogamp.opengl.GL2;
  * 
  */
 public class Planet extends AstronomicalObject {
+	private static final double[] ORIGIN = {0, 0, 0};
 	private ArrayList<Moon> moons;
-	private boolean pathOn, orbitOn, axisOn;
-	private float selfRotateAngle;
+	private volatile boolean orbitOn, axisOn;
+	private double selfRotateAngle;
+	private double orbitTime; //how long the planet has been going around the Sun, stands still while the orbit is paused
+	private double pausedFor; //the total time the orbit has been paused
 	private float selfOrbitPeriod;
 	private float selfRotateDirection;
+	private MeshCommand axisCommand = new MeshCommand(MeshCommand.AXIS);
 
 	/**
 	 * 
@@ -30,7 +40,6 @@ public class Planet extends AstronomicalObject {
 	public Planet(float radius, float orbitDist, float orbitalPeriod, float[] color, float selfOrbitPeriod, double tiltingAngle) {
 		super(radius, orbitDist, orbitalPeriod, color, tiltingAngle);
 		this.moons = new ArrayList<>();
-		this.pathOn = true;
 		this.orbitOn = true;
 		this.axisOn = false;
 		this.selfRotateAngle = 0;
@@ -43,89 +52,103 @@ public class Planet extends AstronomicalObject {
 	}
 	
 	public boolean addMoon(Moon moon) {
+		moon.setParent(this);
 		return this.moons.add(moon);
 	}
+	
+	@Override
+	public void getPosition(BodyState state, double[] out) {
+		state.getPosition(this.stateIndex, out);
+	}
 
 	@Override
-	public void draw(GL2 gl, double timeEllapsed) {
-		super.draw(gl, timeEllapsed);
-		
-		if(orbitOn) {//update the angle to rotate the planet around the Sun
-			this.angle = (float) ((this.angle + 360*timeEllapsed/this.orbitalPeriod) % 360);			
+	protected double getBoundingRadius() {
+		return this.axisOn ? this.radius * 2 : this.radius; //the axis sticks out past the surface
+	}
+	
+	@Override
+	public void setTime(double time) {
+		if(orbitOn) {//the angle around the Sun, leaving out the time spent paused
+			this.orbitTime = time - this.pausedFor;
+			this.angle = SimulationClock.angleAt(0, this.orbitalPeriod, this.orbitTime);
+		}
+		else {
+			this.pausedFor = time - this.orbitTime;
 		}
 		
-		//update the angle to rotate around its axis
-		this.selfRotateAngle = (float) (this.selfRotateAngle + (360 * this.selfRotateDirection*timeEllapsed /this.selfOrbitPeriod) % 360);
-		gl.glPushMatrix();
-			gl.glTranslatef(this.getOrbitDist(), 0, 0);//move the planet away from the Sun
-			gl.glPushMatrix();
-				//rotate the planet around the sun
-				gl.glTranslatef(-this.getOrbitDist(), 0f, 0f);
-				gl.glRotatef(angle, 0, 1, 0);
-				gl.glTranslatef(this.getOrbitDist(), 0f, 0f);
-				
-				gl.glPushMatrix();//moon shouldn't inherit this rotation	
-					//tilt the axis of planet at the specified angle
-					gl.glRotated(this.tiltingAngle, -Math.sin(Math.toRadians(this.tiltingAngle)) * this.selfRotateDirection, Math.cos(Math.toRadians(this.tiltingAngle)) * this.selfRotateDirection, 0);
-					gl.glRotated(this.selfRotateAngle, 0, 1, 0);//rotate the planet around y axis, so it will apply the tilting angle
+		//the angle around its axis, a negative period turns it the other way
+		this.selfRotateAngle = SimulationClock.angleAt(0, this.selfOrbitPeriod / this.selfRotateDirection, time);
+		
+		for (Moon m: this.getMoons()) {
+			m.setTime(time);
+		}
+	}
 	
-					//draw the axis with the planet color called in the superclass draw method
-					if (this.axisOn) {
-						gl.glBegin(GL2.GL_LINES);
-							gl.glVertex3f(0f, this.radius * 2, 0f);
-							gl.glVertex3f(0f, -this.radius * 2, 0f);
-						gl.glEnd();
-					}
-					
-					//apply the texture if it's loaded
-					if (texture == null) {
-						glu.gluSphere(this.quadric, this.radius, 50, 50);
-					}
-					else {
-						glu.gluQuadricTexture(quadric, true);
-						this.texture.enable(gl);
-						texture.bind(gl);
-						glu.gluSphere(quadric, this.radius, 50, 50);
-						texture.disable(gl);
-					}
-				gl.glPopMatrix();			
-				
-				//draw the moons at the distance away from the planet
-				for (Moon m: this.getMoons()) {
-					m.draw(gl, timeEllapsed);
-				}
-			gl.glPopMatrix();
-			
-			//draw the orbit path
-			if(pathOn) {
-				this.drawOrbitPath(gl);
-			}
-		gl.glPopMatrix();
+	@Override
+	public void writeState(double[] orbitAngles, double[] spinAngles) {
+		super.writeState(orbitAngles, spinAngles);
+		spinAngles[stateIndex] = this.selfRotateAngle;
+		for (Moon m: this.getMoons()) {
+			m.writeState(orbitAngles, spinAngles);
+		}
 	}
 	
-	public void drawOrbitPath(GL2 gl) {
-		gl.glPushMatrix();
-			gl.glColor4f(1, 1, 1, 0.5f);
-			gl.glLineWidth(1f);
-			gl.glTranslatef(-this.getOrbitDist(), 0f, 0f);
-			gl.glBegin(GL2.GL_LINE_LOOP);
-			//360 divided by number of vertices wanted
-			//in this case, 360 vertices, because this will generate a smoother circle
-			int degree = 360 / 360; 
-			//this leaves a gap from the last point to the first point so that the loop can be connected
-			for(int deg = 0; deg < 360; deg += degree) { 
-				double rad = Math.toRadians(deg);
-				double x = this.orbitDist * Math.cos(rad);
-				double z = this.orbitDist * Math.sin(rad);
-				double[] vertex = {x, 0, z};
-				gl.glVertex3dv(vertex, 0);
+	@Override
+	public void writeRates(double[] orbitRates, double[] spinRates) {
+		orbitRates[stateIndex] = orbitOn ? SimulationClock.turnRate(this.orbitalPeriod) : 0;
+		spinRates[stateIndex] = SimulationClock.turnRate(this.selfOrbitPeriod / this.selfRotateDirection);
+		for (Moon m: this.getMoons()) {
+			m.writeRates(orbitRates, spinRates);
+		}
+	}
+
+	@Override
+	public void draw(GL2 gl, RenderContext context) {
+		double selfRotateAngle = context.getState().getSpinAngle(this.stateIndex);
+		context.getState().getPosition(this.stateIndex, this.offset);
+		//the transforms are worked out on the CPU and copied into the commands
+		MatrixStack stack = context.getModelStack();
+		stack.push();
+			//move the planet to where it is along its orbit around the Sun
+			stack.translate(this.offset[0], this.offset[1], this.offset[2]);
+			
+			stack.push();//moon shouldn't inherit this rotation	
+				//tilt the axis of planet at the specified angle
+				stack.rotate(this.tiltingAngle, -Math.sin(Math.toRadians(this.tiltingAngle)) * this.selfRotateDirection, Math.cos(Math.toRadians(this.tiltingAngle)) * this.selfRotateDirection, 0);
+				stack.rotate(selfRotateAngle, 0, 1, 0);//rotate the planet around y axis, so it will apply the tilting angle
+
+				//draw the axis with the planet color
+				if (this.axisOn && context.isBodyVisible(this.stateIndex)) {
+					axisCommand.setLength(this.radius * 2);
+					axisCommand.setColor(this.color);
+					axisCommand.submit(context, stack.top(), false);
+				}
+				
+				//apply the texture if it's loaded
+				this.drawSphere(gl, context);
+			stack.pop();
+			
+			//draw the moons around the planet
+			for (Moon m: this.getMoons()) {
+				m.draw(gl, context);
 			}
-			gl.glEnd();
-		gl.glPopMatrix();
+		stack.pop();
+		
+		//draw the orbit path around the Sun
+		if(pathOn) {
+			this.drawOrbitPath(gl, context, ORIGIN);
+		}
 	}
 	
+	/**
+	 * Turns the orbit path of the planet and its moons on or off
+	 */
+	@Override
 	public void toggleDrawPath() {
-		this.pathOn = !this.pathOn;
+		super.toggleDrawPath();
+		for (Moon m: this.getMoons()) {
+			m.toggleDrawPath();
+		}
 	}
 	
 	public void toggleOrbit() {
@@ -1,17 +1,23 @@
 package sceneObjects;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Random;
 
 import com.jogamp.opengl.GL2;
-import com.jogamp.opengl.glu.GLU;
-import com.jogamp.opengl.glu.GLUquadric;
+import com.jogamp.opengl.GLException;
 import com.jogamp.opengl.util.texture.Texture;
-import com.jogamp.opengl.util.texture.TextureIO;
 
+import rendering.CoronaMesh;
+import rendering.MeshCommand;
+import rendering.ParticleSystem;
+import rendering.RenderContext;
+import rendering.RenderQueue;
+import rendering.TextureManager;
+import rendering.SphereMesh;
+import simulation.SimulationClock;
 import utils.Color;
+import utils.Matrix4;
+import utils.MatrixStack;
 
 /**
  * This class represents a Sun, it also draws the corona of the Sun
@@ -20,18 +26,55 @@ import utils.Color;
  * 14883251
  */
 public class Sun {
+	public static final int DEFAULT_PARTICLE_BUDGET = 200000;
+	public static final float DEFAULT_EMISSION_RATE = 50000; //particles per second
+	private static final double MAX_PARTICLE_STEP = 0.1; //the longest step the particles take, so a stall doesn't scatter them
+	private static final double PARTICLE_REACH = 6; //how far the particles get, in radii, for culling
+	
 	private float radius;
 	private float orbitPeriod;
 	private double angle;
-	private boolean axisOn;
-	private ArrayList<double[]> staticLines;
-	private ArrayList<double[]> animatedLines;
+	private volatile boolean axisOn;
+	private int stateIndex;
+	private double[] center = {0, 0, 0};
+	private float coronaDensity;
+	private float[] staticLines; //end points of the corona lines, x, y, z for each line
+	private float[] animatedLines;
 
-	private GLU glu;
-	private GLUquadric quadric;
 	private Texture texture;
-	private static Random rand = new Random(System.currentTimeMillis());
-	private int base;
+	private String texturePath = "assets/2k_sun.jpg";
+	private static long seed = System.currentTimeMillis();
+	private static Random rand = new Random(seed);
+	private CoronaMesh corona;
+	private Matrix4 model = new Matrix4(); //scratch space for the model matrix, only used on the GL thread
+	private boolean coronaChanged;
+	private MeshCommand sphereCommand = new MeshCommand(MeshCommand.SPHERE);
+	private MeshCommand haloCommand = new MeshCommand(MeshCommand.SPHERE);
+	private MeshCommand axisCommand = new MeshCommand(MeshCommand.AXIS);
+	private CoronaCommand coronaCommand = new CoronaCommand();
+	private ParticleSystem particles;
+	private int particleBudget = DEFAULT_PARTICLE_BUDGET;
+	private float emissionRate = DEFAULT_EMISSION_RATE;
+	private boolean particlesOnGpu;
+	private boolean particlesChanged;
+	private volatile boolean particlesOn = true;
+	
+	//draws the corona lines, they carry their own colors so only the transform is kept
+	private class CoronaCommand implements RenderQueue.Command {
+		private final float[] modelView = new float[16];
+		private int frame;
+		
+		@Override
+		public void execute(GL2 gl, RenderContext context) {
+			context.getStateCache().useProgram(gl, 0);
+			context.getStateCache().setEnabled(gl, GL2.GL_LIGHTING, true);
+			context.getStateCache().setEnabled(gl, GL2.GL_TEXTURE_2D, false);
+			context.getStateCache().setEnabled(gl, GL2.GL_BLEND, true);
+			context.getStateCache().lineWidth(gl, 1f);
+			gl.glLoadMatrixf(modelView, 0);
+			corona.draw(gl, frame, context.getStats());
+		}
+	}
 	
 	/**
 	 * The constructor to initialize a Sun
@@ -44,135 +87,332 @@ public class Sun {
 		this.orbitPeriod = orbitPeriod;
 		this.angle = 0;
 		this.axisOn = false;
+		this.coronaDensity = 1f;
 		
-		this.glu = new GLU();
-		this.quadric = glu.gluNewQuadric();
+		this.generateStaticLines();
+		this.generateAnimatedLines();
+	}
+	
+	/**
+	 * Reseeds the random numbers the corona and the particles are made from, so replays draw them the same every time.
+	 * Has to be called before the Sun is created.
+	 * 
+	 * @param seed
+	 */
+	public static void setSeed(long seed) {
+		Sun.seed = seed;
+		rand.setSeed(seed);
+	}
+	
+	/**
+	 * Loads the surface texture, needs a current GL context
+	 * 
+	 * @param gl
+	 * @param textures the texture manager to load it through
+	 */
+	public void loadTexture(GL2 gl, TextureManager textures) {
+		if (texturePath == null) {
+			return;
+		}
 		try {
-			texture = TextureIO.newTexture(new File("assets/2k_sun.jpg"), true);
+			texture = textures.getTexture(gl, texturePath);
 		} 
 		catch (IOException e) {
 			// file not found
 			System.out.println("File not found: " + e.getMessage());
 		}
-		this.generateStaticLines();
-		this.generateAnimatedLines();
 	}
 	
 	/**
-	 * Generates some line vertices for the Corona which will be put in the display list
+	 * Turns the Sun to its angle at the given time, called from the simulation thread
+	 * 
+	 * @param time the simulation time since the epoch
+	 */
+	public void setTime(double time) {
+		this.angle = SimulationClock.angleAt(0, this.orbitPeriod, time);
+	}
+	
+	public void writeState(double[] orbitAngles, double[] spinAngles) {
+		spinAngles[stateIndex] = this.angle;
+	}
+	
+	public void writeRates(double[] orbitRates, double[] spinRates) {
+		spinRates[stateIndex] = SimulationClock.turnRate(this.orbitPeriod);
+	}
+	
+	/**
+	 * Generates some line vertices for the Corona which never move
 	 */
 	public void generateStaticLines() {
-		this.staticLines = new ArrayList<>();
-		int deltaPhi = 5;
-		int deltaTheta = 8;
-		for(int phi = -180; phi <= 180; phi += deltaPhi) {
-			for(int theta = 0; theta < 360; theta += deltaTheta) {
-				double radPhi = Math.toRadians(phi + rand.nextInt(5));
-				double radTheta = Math.toRadians(theta + rand.nextInt(5));
-				double x = this.radius * (rand.nextDouble() * 0.2 + 1) * Math.sin(radPhi) * Math.cos(radTheta);
-				double y = this.radius * (rand.nextDouble() * 0.2 + 1) * Math.sin(radPhi) * Math.sin(radTheta);
-				double z = this.radius * (rand.nextDouble() * 0.2 + 1) * Math.cos(radPhi);
-				staticLines.add(new double[] {x, y, z});
-			}
-		}
+		this.staticLines = generateLines(spacing(5), spacing(8), 5, 0.2);
 	}
 	
 	/**
 	 * Generates some line vertices for the Corona which can be animated later
 	 */
 	public void generateAnimatedLines() {
-		this.animatedLines = new ArrayList<>();
-		int deltaPhi = 12;
-		int deltaTheta = 12;
+		this.animatedLines = generateLines(spacing(12), spacing(12), 3, 0.3);
+	}
+	
+	//the spacing in degrees between the lines at the current density
+	private int spacing(int degrees) {
+		return Math.max(1, Math.round(degrees / this.coronaDensity));
+	}
+	
+	/**
+	 * Scatters line end points over a shell around the Sun
+	 * 
+	 * @param deltaPhi the spacing of the lines from pole to pole in degrees
+	 * @param deltaTheta the spacing of the lines around the Sun in degrees
+	 * @param offset the random offset added to each angle in degrees
+	 * @param length how far past the surface the lines can reach, as a fraction of the radius
+	 */
+	private float[] generateLines(int deltaPhi, int deltaTheta, int offset, double length) {
+		int count = (360 / deltaPhi + 1) * ((360 + deltaTheta - 1) / deltaTheta);
+		float[] lines = new float[count * 3];
+		int i = 0;
 		for(int phi = -180; phi <= 180; phi += deltaPhi) {
 			for(int theta = 0; theta < 360; theta += deltaTheta) {
-				double radPhi = Math.toRadians(phi + rand.nextInt(3));
-				double radTheta = Math.toRadians(theta + rand.nextInt(3));
-				double x = this.radius * (rand.nextDouble() * 0.3 + 1) * Math.sin(radPhi) * Math.cos(radTheta);
-				double y = this.radius * (rand.nextDouble() * 0.3 + 1) * Math.sin(radPhi) * Math.sin(radTheta);
-				double z = this.radius * (rand.nextDouble() * 0.3 + 1) * Math.cos(radPhi);
-				animatedLines.add(new double[] {x, y, z});
+				double radPhi = Math.toRadians(phi + rand.nextInt(offset));
+				double radTheta = Math.toRadians(theta + rand.nextInt(offset));
+				lines[i++] = (float) (this.radius * (rand.nextDouble() * length + 1) * Math.sin(radPhi) * Math.cos(radTheta));
+				lines[i++] = (float) (this.radius * (rand.nextDouble() * length + 1) * Math.sin(radPhi) * Math.sin(radTheta));
+				lines[i++] = (float) (this.radius * (rand.nextDouble() * length + 1) * Math.cos(radPhi));
 			}
 		}
+		return lines;
 	}
 	
 	/**
-	 * Creates the display list with the line vertices 
+	 * Uploads the corona lines into a vertex buffer, replacing the old one if there is one
 	 * 
 	 * @param gl
 	 */
-	public void createLineList(GL2 gl) {
-		base = gl.glGenLists(staticLines.size());
-		
-		for (int i = 0; i < staticLines.size(); ++i) {
-			gl.glNewList(base + i, GL2.GL_COMPILE);
-				gl.glBegin(GL2.GL_LINES);
-					gl.glColor4d(Color.SUN[0], Color.SUN[1], Color.SUN[2], 1f);
-					gl.glVertex3d(0, 0, 0);
-					gl.glColor4d(Color.SUN[0], Color.SUN[1], Color.SUN[2], 0.2f);
-					gl.glVertex3d(staticLines.get(i)[0], staticLines.get(i)[1], staticLines.get(i)[2]);
-				gl.glEnd();
-			gl.glEndList();
+	public void createCorona(GL2 gl) {
+		if (this.corona != null) {
+			this.corona.dispose(gl);
 		}
+		this.corona = new CoronaMesh(gl, staticLines, animatedLines, Color.SUN, rand);
+		this.coronaChanged = false;
 	}
 	
-	public void draw(GL2 gl, double timeEllapsed) {
-		gl.glColorMaterial(GL2.GL_FRONT_AND_BACK, GL2.GL_AMBIENT_AND_DIFFUSE);
-		gl.glColor3fv(Color.SUN, 0);
+	/**
+	 * Works out a sphere around the Sun, its halo and its corona, for culling
+	 * 
+	 * @param out x, y, z of the centre and the radius
+	 */
+	public void getBoundingSphere(double[] out) {
+		out[0] = this.center[0];
+		out[1] = this.center[1];
+		out[2] = this.center[2];
+		//the longest corona lines reach 1.3 times the radius, plus up to a unit of jitter on each axis
+		out[3] = Math.max(this.radius * 1.3 + Math.sqrt(3), this.axisOn ? this.radius * 2 : 0);
+	}
+	
+	/**
+	 * Submits the Sun, its halo, its corona and its axis to the context's render queue
+	 * 
+	 * @param gl
+	 * @param context
+	 */
+	public void draw(GL2 gl, RenderContext context) {
+		//the particles reach much further than the Sun and keep moving while it's off screen
+		this.submitParticles(gl, context, context.getModelStack().top());
+		if (!context.isBodyVisible(this.stateIndex)) {
+			return;
+		}
 		
-		this.angle = (this.angle + 360/this.orbitPeriod*timeEllapsed) % 360;
-		gl.glPushMatrix();
+		MatrixStack stack = context.getModelStack();
+		stack.push();
 			if (this.axisOn) {
 				//draw the axis if it's on
-				gl.glLineWidth(1f);
-				gl.glBegin(GL2.GL_LINES);
-					gl.glVertex3f(0f, this.radius * 2, 0f);
-					gl.glVertex3f(0f, -this.radius * 2, 0f);
-				gl.glEnd();
+				axisCommand.setLength(this.radius * 2);
+				axisCommand.setColor(Color.SUN);
+				axisCommand.submit(context, stack.top(), false);
 			}
-			gl.glRotated(this.angle, 0, 1, 0);//spin the Sun around the y axis
+			stack.rotate(context.getState().getSpinAngle(this.stateIndex), 0, 1, 0);//spin the Sun around the y axis
 			
-			//check if the texture is available, if it doesn't, simply use paint the sphere
-			if (texture == null) {
-				glu.gluSphere(this.quadric, this.radius, 50, 50);
-			}
-			else {		
-				glu.gluQuadricTexture(quadric, true);
-				this.texture.enable(gl);
-				texture.bind(gl);
-				glu.gluSphere(quadric, this.radius, 50, 50);
-				texture.disable(gl);
-			}
+			//tessellate for the halo since that is the bigger silhouette
+			SphereMesh sphere = context.getSphere(gl, this.stateIndex, this.center, this.radius * 1.1);
+			this.model.set(stack.top()).scale(this.radius, this.radius, this.radius);
+			//if the texture isn't available, simply paint the sphere
+			sphereCommand.setSphere(sphere, texture);
+			sphereCommand.setColor(Color.SUN);
+			sphereCommand.submit(context, this.model, false);
 			
-			gl.glColor4f(0.7f, 0.7f, 0.7f, 0.1f);
-			glu.gluSphere(this.quadric, this.radius * 1.1, 50, 50);
-			this.drawCorona(gl);
-		gl.glPopMatrix();
+			//the halo is the same sphere scaled up a little
+			this.model.scale(1.1, 1.1, 1.1);
+			haloCommand.setSphere(sphere, null);
+			haloCommand.setColor(0.7f, 0.7f, 0.7f, 0.1f);
+			haloCommand.submit(context, this.model, true);
+			
+			this.submitCorona(gl, context, stack.top());
+		stack.pop();
+	}
+	
+	/**
+	 * There are two parts of the Corona, some lines are static, some lines are animated.
+	 * Both are in the same buffer and drawn together, picking a random jittered copy of the animated lines each frame.
+	 * 
+	 * @param gl
+	 * @param context
+	 * @param model the transform of the Sun
+	 */
+	private void submitCorona(GL2 gl, RenderContext context, Matrix4 model) {
+		if (this.corona == null || this.coronaChanged) {
+			this.createCorona(gl);
+		}
+		coronaCommand.frame = rand.nextInt(CoronaMesh.ANIMATION_FRAMES);
+		context.getModelView(model, coronaCommand.modelView);
+		context.getQueue().submit(RenderQueue.key(true, RenderQueue.FIXED_FUNCTION, 0, context.getDepth(model)), coronaCommand);
 	}
 	
 	/**
-	 * There are two parts of the Corona, some lines are on the display list for optimization, some lines are animated.
+	 * Moves the solar wind and prominences on and submits them, creating them the first time
 	 * 
 	 * @param gl
+	 * @param context
+	 * @param model the transform of the Sun, without its spin
 	 */
-	public void drawCorona(GL2 gl) {
-		for (int i = 0; i < staticLines.size(); ++i) {
-			gl.glCallList(base + i);
+	private void submitParticles(GL2 gl, RenderContext context, Matrix4 model) {
+		if (!this.particlesOn || this.particleBudget <= 0) {
+			return;
+		}
+		if (this.particles == null || this.particlesChanged) {
+			this.disposeParticles(gl);
+			this.particlesChanged = false;
+			if (!ParticleSystem.isSupported(gl)) {
+				System.out.println("Particles not available: GL 3.3 is needed");
+				this.particlesOn = false;
+				return;
+			}
+			//straight from the seed, so the particles don't depend on how much the corona has drawn from it
+			ParticleSystem created = new ParticleSystem(particleBudget, emissionRate, radius, seed);
+			try {
+				created.init(gl, particlesOnGpu);
+				this.particles = created;
+			}
+			catch (IOException | GLException e) {
+				System.out.println("Particles not available: " + e.getMessage());
+				created.dispose(gl);
+				this.particlesOn = false;
+				return;
+			}
 		}
 		
-		//varying the x,y,z and the alpha value, to have some animations
-		for (double[] line : animatedLines) {
-			gl.glBegin(GL2.GL_LINES);
-				gl.glColor4d(Color.SUN[0], Color.SUN[1], Color.SUN[2], 1f);
-				gl.glVertex3d(0, 0, 0);
-				gl.glColor4d(Color.SUN[0], Color.SUN[1], Color.SUN[2], rand.nextDouble() * 0.3);
-				gl.glVertex3d(line[0] + rand.nextDouble(), line[1] + rand.nextDouble(), line[2] + rand.nextDouble());
-			gl.glEnd();
+		this.particles.update(Math.min(MAX_PARTICLE_STEP, context.getFrameTime()));
+		if (context.getCamera().getFrustum().intersectsSphere(center[0], center[1], center[2], this.radius * PARTICLE_REACH)) {
+			this.particles.submit(context, model);
+		}
+	}
+	
+	private void disposeParticles(GL2 gl) {
+		if (this.particles != null) {
+			this.particles.dispose(gl);
+			this.particles = null;
+		}
+	}
+	
+	public float getCoronaDensity() {
+		return coronaDensity;
+	}
+	
+	/**
+	 * Changes how many lines the corona has, the buffer is rebuilt on the next draw
+	 * 
+	 * @param coronaDensity 1 is the default, 2 gives about four times as many lines
+	 */
+	public void setCoronaDensity(float coronaDensity) {
+		this.coronaDensity = coronaDensity;
+		this.generateStaticLines();
+		this.generateAnimatedLines();
+		this.coronaChanged = true;
+	}
+	
+	public void dispose(GL2 gl) {
+		if (this.corona != null) {
+			this.corona.dispose(gl);
+			this.corona = null;
 		}
+		this.disposeParticles(gl);
+	}
+	
+	public int getParticleBudget() {
+		return particleBudget;
+	}
+	
+	/**
+	 * Changes the most particles alive at once, they start again on the next draw
+	 * 
+	 * @param particleBudget 0 for none
+	 */
+	public void setParticleBudget(int particleBudget) {
+		this.particleBudget = Math.max(0, particleBudget);
+		this.particlesChanged = true;
+	}
+	
+	public float getEmissionRate() {
+		return emissionRate;
+	}
+	
+	/**
+	 * @param emissionRate how many particles the Sun throws off per second
+	 */
+	public void setEmissionRate(float emissionRate) {
+		this.emissionRate = Math.max(0, emissionRate);
+		if (this.particles != null) {
+			this.particles.setEmissionRate(this.emissionRate);
+		}
+	}
+	
+	public boolean isParticlesOnGpu() {
+		return particlesOnGpu;
+	}
+	
+	/**
+	 * Chooses where the particles are moved, they start again on the next draw
+	 * 
+	 * @param particlesOnGpu true to move them with transform feedback where the GPU can, false to move them on the CPU
+	 */
+	public void setParticlesOnGpu(boolean particlesOnGpu) {
+		this.particlesOnGpu = particlesOnGpu;
+		this.particlesChanged = true;
+	}
+	
+	/**
+	 * @return the particle system, null until the Sun is first drawn
+	 */
+	public ParticleSystem getParticles() {
+		return particles;
+	}
+	
+	//turns the solar wind and prominences on or off
+	public void toggleParticles() {
+		this.particlesOn = !this.particlesOn;
+	}
+	
+	public float getRadius() {
+		return radius;
+	}
+	
+	public int getStateIndex() {
+		return stateIndex;
+	}
+	
+	public void setStateIndex(int stateIndex) {
+		this.stateIndex = stateIndex;
 	}
 	
 	//turns the axis on or off
 	public void toggleAxis() {
 		this.axisOn = !this.axisOn;
 	}
+	
+	public String getTexturePath() {
+		return texturePath;
+	}
+	
+	public void setTexturePath(String texturePath) {
+		this.texturePath = texturePath;
+	}
 }
@@ -0,0 +1,255 @@
+package simulation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A large number of small bodies orbiting the Sun, like an asteroid belt.
+ * Everything is kept in primitive arrays, one entry per body, instead of one object per body,
+ * so the memory per body is fixed and updating walks the arrays in order.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class BodyCatalog {
+	private static final int BELT_BANDS = 16;
+	private static final int MAX_BELT_SIZE = 1 << 24; //the index has to fit in the sort key
+	
+	private final String name;
+	private final KeplerPropagator orbits;
+	private float[] radius;
+	private double mass; //the gravitational parameter of every body, only used in N-body mode
+	private float[] color = {0.6f, 0.6f, 0.6f};
+	
+	private volatile TripleBuffer<float[]> positions; //created on the first tick, after which no bodies can be added
+	
+	/**
+	 * @param name the name of the catalog
+	 * @param capacity how many bodies to make room for
+	 */
+	public BodyCatalog(String name, int capacity) {
+		this.name = name;
+		capacity = Math.max(1, capacity);
+		orbits = new KeplerPropagator(capacity);
+		radius = new float[capacity];
+	}
+	
+	/**
+	 * Adds a body, growing the arrays if needed
+	 * 
+	 * @param orbitDist the semi-major axis of the orbit around the Sun
+	 * @param orbitalPeriod the time taken to make one orbit around the Sun
+	 * @param eccentricity 0 for a circle up to but not including 1
+	 * @param inclination the tilt of the orbit in degrees
+	 * @param node the longitude of the ascending node in degrees
+	 * @param periapsis the argument of periapsis in degrees
+	 * @param phase the mean anomaly at the start in degrees
+	 * @param radius the radius of the body
+	 */
+	public void add(float orbitDist, float orbitalPeriod, float eccentricity, float inclination, float node, float periapsis, float phase, float radius) {
+		if (positions != null) {
+			throw new IllegalStateException("Bodies can't be added once the catalog has started moving");
+		}
+		int index = orbits.add(orbitDist, eccentricity, inclination, node, periapsis, phase, orbitalPeriod);
+		if (index == this.radius.length) {
+			this.radius = Arrays.copyOf(this.radius, index * 2);
+		}
+		this.radius[index] = radius;
+	}
+	
+	/**
+	 * Scatters bodies in a ring around the Sun, with periods following Kepler's third law
+	 * 
+	 * @param name the name of the catalog
+	 * @param count the number of bodies
+	 * @param inner the inner edge of the ring
+	 * @param outer the outer edge of the ring
+	 * @param referenceDist an orbit distance with a known period, like the Earth's
+	 * @param referencePeriod the period at that distance
+	 * @param maxEccentricity the largest eccentricity of an orbit
+	 * @param maxInclination the largest tilt of an orbit in degrees
+	 * @param seed the seed for the random generator, so the same scenario gives the same belt
+	 * @throws IllegalArgumentException if the count is negative or above 16 million
+	 */
+	public static BodyCatalog generateBelt(String name, int count, float inner, float outer, float referenceDist, float referencePeriod, 
+			float maxEccentricity, float maxInclination, long seed) {
+		if (count < 0 || count > MAX_BELT_SIZE) {
+			throw new IllegalArgumentException("Belt size must be between 0 and " + MAX_BELT_SIZE + ": " + count);
+		}
+		Random rand = new Random(seed);
+		float[] elements = new float[count * 7];
+		long[] keys = new long[count];
+		for (int i = 0; i < count; ++i) {
+			float dist = inner + rand.nextFloat() * (outer - inner);
+			float node = rand.nextFloat() * 360;
+			float periapsis = rand.nextFloat() * 360;
+			float phase = rand.nextFloat() * 360;
+			elements[i * 7] = dist;
+			elements[i * 7 + 1] = (float) (referencePeriod * Math.pow(dist / referenceDist, 1.5));
+			elements[i * 7 + 2] = rand.nextFloat() * maxEccentricity;
+			elements[i * 7 + 3] = (float) (rand.nextGaussian() * maxInclination / 3);
+			elements[i * 7 + 4] = node;
+			elements[i * 7 + 5] = periapsis;
+			elements[i * 7 + 6] = phase;
+			
+			//sort by distance band then by angle around the Sun, so neighbouring bodies are close in the arrays
+			//and stay close for many orbits, which lets the renderer cull them in chunks
+			long band = (long) ((dist - inner) / (outer - inner + 1e-6f) * BELT_BANDS);
+			long longitude = (long) ((node + periapsis + phase) % 360 / 360 * (1 << 20));
+			keys[i] = band << 44 | longitude << 24 | i;
+		}
+		Arrays.sort(keys);
+		
+		BodyCatalog catalog = new BodyCatalog(name, count);
+		for (long key : keys) {
+			int i = (int) (key & 0xFFFFFF);
+			catalog.add(elements[i * 7], elements[i * 7 + 1], elements[i * 7 + 2], elements[i * 7 + 3], elements[i * 7 + 4], 
+					elements[i * 7 + 5], elements[i * 7 + 6], 0.02f + rand.nextFloat() * 0.08f);
+		}
+		return catalog;
+	}
+	
+	/**
+	 * Reads a catalog from a CSV file with one body per line:
+	 * orbitDist, orbitalPeriod, eccentricity, inclination, node, periapsis, phase, radius.
+	 * Empty lines and lines starting with # are skipped.
+	 * 
+	 * @param name the name of the catalog
+	 * @param path the path of the CSV file
+	 * @throws IOException if the file can't be read
+	 * @throws IllegalArgumentException if a line doesn't have eight numbers
+	 */
+	public static BodyCatalog loadCsv(String name, String path) throws IOException {
+		BodyCatalog catalog = new BodyCatalog(name, 1024);
+		try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+			String line;
+			int lineNumber = 0;
+			float[] values = new float[8];
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split(",");
+				if (fields.length < values.length) {
+					throw new IllegalArgumentException(path + ":" + lineNumber + ": expected " + values.length + " values but got " + fields.length);
+				}
+				try {
+					for (int i = 0; i < values.length; ++i) {
+						values[i] = Float.parseFloat(fields[i].trim());
+					}
+					catalog.add(values[0], values[1], values[2], values[3], values[4], values[5], values[6], values[7]);
+				}
+				catch (NumberFormatException e) {
+					throw new IllegalArgumentException(path + ":" + lineNumber + ": " + e.getMessage());
+				}
+			}
+		}
+		return catalog;
+	}
+	
+	/**
+	 * Moves every body to where it is at the given time and publishes the new positions, called from the simulation thread
+	 * 
+	 * @param time the simulation time since the epoch
+	 */
+	public void setTime(double time) {
+		createBuffers();
+		orbits.setTime(time);
+		orbits.propagate(positions.getBack());
+		positions.publish();
+	}
+	
+	/**
+	 * Publishes the positions of the catalog's bodies from an N-body integration instead of their orbits,
+	 * called from the simulation thread
+	 * 
+	 * @param system the integration holding the bodies
+	 * @param first the index of the catalog's first body in the integration
+	 * @param origin the index of the body the positions are relative to, like the Sun
+	 */
+	public void publish(NBodySystem system, int first, int origin) {
+		createBuffers();
+		system.getPositions(first, getCount(), origin, positions.getBack());
+		positions.publish();
+	}
+	
+	/**
+	 * Adds every body of the catalog to an N-body integration, starting from where its orbit puts it
+	 * 
+	 * @param system
+	 * @return the index of the first body in the integration
+	 */
+	public int addTo(NBodySystem system) {
+		double[] position = new double[3];
+		double[] velocity = new double[3];
+		int first = system.getCount();
+		for (int i = 0; i < getCount(); ++i) {
+			orbits.getState(i, position, velocity);
+			system.add(position, velocity, mass);
+		}
+		return first;
+	}
+	
+	private void createBuffers() {
+		if (positions == null) {
+			int count = orbits.getCount();
+			positions = new TripleBuffer<>(new float[count * 3], new float[count * 3], new float[count * 3]);
+		}
+	}
+	
+	/**
+	 * Swaps in the newest positions from the simulation thread, called from the GL thread once a frame.
+	 * Every call can swap again, so everything drawn or picked in a frame should share what one call returned.
+	 * 
+	 * @return the positions, x, y, z for each body, or null if the catalog hasn't started moving yet
+	 */
+	public float[] getLatestPositions() {
+		if (positions == null) {
+			return null;
+		}
+		positions.update();
+		return positions.getFront();
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public int getCount() {
+		return orbits.getCount();
+	}
+	
+	public float getOrbitDist(int i) {
+		return (float) orbits.getSemiMajor(i);
+	}
+	
+	public float getRadius(int i) {
+		return radius[i];
+	}
+	
+	public double getMass() {
+		return mass;
+	}
+	
+	/**
+	 * @param mass the gravitational parameter of each body in N-body mode, 0 for bodies that don't pull on anything
+	 */
+	public void setMass(double mass) {
+		this.mass = mass;
+	}
+	
+	public float[] getColor() {
+		return color;
+	}
+	
+	public void setColor(float[] color) {
+		this.color = color;
+	}
+}
@@ -0,0 +1,128 @@
+package simulation;
+
+/**
+ * An immutable snapshot of every body's angles at the end of one simulation tick.
+ * The renderer only ever reads these, so it never sees a body half way through an update.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public final class BodyState {
+	private final long tick;
+	private final double time;
+	private final double[] orbitAngles;
+	private final double[] spinAngles;
+	private final double[] orbitRates;
+	private final double[] spinRates;
+	private final double[] positions;
+	
+	/**
+	 * The arrays are owned by the snapshot afterwards and must not be modified by the caller
+	 * 
+	 * @param tick the number of the tick that produced this snapshot
+	 * @param time the simulation time since the epoch
+	 * @param orbitAngles the angle around the parent of each body in degrees
+	 * @param spinAngles the angle around its own axis of each body in degrees
+	 * @param orbitRates how fast each orbit angle is turning in degrees per unit of time
+	 * @param spinRates how fast each spin angle is turning in degrees per unit of time
+	 * @param positions x, y, z of each body relative to the body it orbits
+	 */
+	public BodyState(long tick, double time, double[] orbitAngles, double[] spinAngles, double[] orbitRates, double[] spinRates, 
+			double[] positions) {
+		this.tick = tick;
+		this.time = time;
+		this.orbitAngles = orbitAngles;
+		this.spinAngles = spinAngles;
+		this.orbitRates = orbitRates;
+		this.spinRates = spinRates;
+		this.positions = positions;
+	}
+	
+	/**
+	 * Blends two snapshots of the same world at a time in between them. Every angle turns by as much as its rate says
+	 * it did over that time, so fast spins and short orbits keep going the right way however much the time is warped,
+	 * and the world puts the bodies on their orbits at the blended angles instead of cutting across them.
+	 * 
+	 * @param previous the older snapshot
+	 * @param current the newer snapshot
+	 * @param alpha 0 gives the previous snapshot, 1 gives the current one
+	 * @param world the world both came from, for the positions, or null to blend the positions in a straight line
+	 * @return a new snapshot in between the two
+	 */
+	public static BodyState interpolate(BodyState previous, BodyState current, double alpha, World world) {
+		if (previous == null || previous == current || alpha >= 1) {
+			return current;
+		}
+		int count = current.getBodyCount();
+		double span = current.time - previous.time;
+		double[] orbit = new double[count];
+		double[] spin = new double[count];
+		double[] positions = new double[count * 3];
+		for (int i = 0; i < count; ++i) {
+			orbit[i] = interpolateAngle(previous.orbitAngles[i], current.orbitAngles[i], current.orbitRates[i] * span, alpha);
+			spin[i] = interpolateAngle(previous.spinAngles[i], current.spinAngles[i], current.spinRates[i] * span, alpha);
+		}
+		for (int i = 0; i < positions.length; ++i) {
+			positions[i] = previous.positions[i] + (current.positions[i] - previous.positions[i]) * alpha;
+		}
+		if (world != null) {
+			world.writePositions(orbit, positions);
+		}
+		double time = previous.time + span * alpha;
+		return new BodyState(current.tick, time, orbit, spin, current.orbitRates, current.spinRates, positions);
+	}
+	
+	/**
+	 * Interpolates between two angles in degrees, wrapping around 360 the shortest way
+	 */
+	public static double interpolateAngle(double from, double to, double alpha) {
+		return interpolateAngle(from, to, 0, alpha);
+	}
+	
+	/**
+	 * Interpolates between two angles in degrees, knowing roughly how far it turned from one to the other.
+	 * The whole turns come from the expected change and the rest from the two angles, so the blend always ends on the second angle.
+	 * 
+	 * @param from
+	 * @param to
+	 * @param turned how far the angle is expected to have turned, any number of times around
+	 * @param alpha
+	 */
+	public static double interpolateAngle(double from, double to, double turned, double alpha) {
+		double off = to - from - turned;
+		off -= 360 * Math.rint(off / 360); //the shortest way from the expected angle to the actual one
+		return from + (turned + off) * alpha;
+	}
+
+	public long getTick() {
+		return tick;
+	}
+
+	public double getTime() {
+		return time;
+	}
+	
+	public int getBodyCount() {
+		return orbitAngles.length;
+	}
+	
+	public double getOrbitAngle(int index) {
+		return orbitAngles[index];
+	}
+	
+	public double getSpinAngle(int index) {
+		return spinAngles[index];
+	}
+	
+	/**
+	 * Copies the position of a body relative to the body it orbits
+	 * 
+	 * @param index the state index of the body
+	 * @param out the array to write x, y, z into
+	 */
+	public void getPosition(int index, double[] out) {
+		out[0] = positions[index * 3];
+		out[1] = positions[index * 3 + 1];
+		out[2] = positions[index * 3 + 2];
+	}
+}
@@ -0,0 +1,316 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import utils.Matrix4;
+
+/**
+ * Moves bodies along elliptical orbits given by their Keplerian elements, solving Kepler's equation for all of them in one pass.
+ * The elements are kept in primitive arrays, one entry per body, and the orientation of each orbit is turned into two axis
+ * vectors once when it is set, so the per tick loop is only arithmetic over arrays with no objects.
+ * Newton's method runs a fixed number of times instead of stopping once it has converged, and the double and single
+ * precision outputs have a loop each, so nothing in the loop body depends on the data and the JIT is free to unroll it.
+ * 
+ * Orbits lie in the xz plane and turn counter-clockwise around +y like the planets always have: with every angle at 0
+ * a body starts at (a, 0, 0). The inclination tilts the orbit around the x axis, the node and the argument of periapsis
+ * turn it around y before and after the tilt.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class KeplerPropagator {
+	private static final int PARALLEL_THRESHOLD = 16384; //below this a single thread is faster
+	private static final int CHUNK = 8192;
+	private static final int MAX_ITERATIONS = 8; //enough for e < 0.9 to reach double precision from the starting guess
+	//the Newton steps the batch loops always take, enough for e < 0.9 to reach each precision from the same guess
+	private static final int DOUBLE_ITERATIONS = 6;
+	private static final int FLOAT_ITERATIONS = 5;
+	private static final double TOLERANCE = 1e-12;
+	private static final double TWO_PI = 2 * Math.PI;
+	
+	private int count;
+	private double[] semiMajor;
+	private double[] semiMinor;
+	private double[] eccentricity;
+	private double[] meanAnomaly; //radians
+	private double[] startAnomaly; //the mean anomaly at time 0 in radians
+	private double[] meanMotion; //radians per second
+	//the directions of periapsis (p) and of the point a quarter orbit later (q) in world space
+	private double[] px, py, pz;
+	private double[] qx, qy, qz;
+	private final Matrix4 orientation = new Matrix4(); //scratch space for setting orbits
+	
+	/**
+	 * @param capacity how many bodies to make room for, grows as needed
+	 */
+	public KeplerPropagator(int capacity) {
+		capacity = Math.max(1, capacity);
+		semiMajor = new double[capacity];
+		semiMinor = new double[capacity];
+		eccentricity = new double[capacity];
+		meanAnomaly = new double[capacity];
+		startAnomaly = new double[capacity];
+		meanMotion = new double[capacity];
+		px = new double[capacity];
+		py = new double[capacity];
+		pz = new double[capacity];
+		qx = new double[capacity];
+		qy = new double[capacity];
+		qz = new double[capacity];
+	}
+	
+	/**
+	 * Adds a body at the end
+	 * 
+	 * @return the index of the body
+	 * @see #set(int, double, double, double, double, double, double, double)
+	 */
+	public int add(double semiMajor, double eccentricity, double inclination, double node, double periapsis, 
+			double meanAnomaly, double period) {
+		if (count == this.semiMajor.length) {
+			grow(count * 2);
+		}
+		set(count, semiMajor, eccentricity, inclination, node, periapsis, meanAnomaly, period);
+		return count++;
+	}
+	
+	/**
+	 * Sets the orbit of a body
+	 * 
+	 * @param index the index of the body
+	 * @param semiMajor half the longest diameter of the ellipse
+	 * @param eccentricity from 0 for a circle up to but not including 1
+	 * @param inclination the tilt of the orbit in degrees
+	 * @param node the longitude of the ascending node in degrees
+	 * @param periapsis the argument of periapsis in degrees
+	 * @param meanAnomaly where the body is along its orbit at time 0 in degrees
+	 * @param period the time taken for one orbit, 0 for a body that doesn't move
+	 */
+	public void set(int index, double semiMajor, double eccentricity, double inclination, double node, double periapsis, 
+			double meanAnomaly, double period) {
+		if (eccentricity < 0 || eccentricity >= 1) {
+			throw new IllegalArgumentException("Eccentricity must be in [0, 1): " + eccentricity);
+		}
+		this.semiMajor[index] = semiMajor;
+		this.semiMinor[index] = semiMajor * Math.sqrt(1 - eccentricity * eccentricity);
+		this.eccentricity[index] = eccentricity;
+		this.meanAnomaly[index] = Math.toRadians(meanAnomaly) % TWO_PI;
+		this.startAnomaly[index] = this.meanAnomaly[index];
+		this.meanMotion[index] = period == 0 ? 0 : TWO_PI / period;
+		
+		getOrientation(inclination, node, periapsis, orientation);
+		px[index] = orientation.get(0);
+		py[index] = orientation.get(1);
+		pz[index] = orientation.get(2);
+		//a quarter orbit after periapsis is -z in the orbit's own frame since orbits turn counter-clockwise around +y
+		qx[index] = -orientation.get(8);
+		qy[index] = -orientation.get(9);
+		qz[index] = -orientation.get(10);
+	}
+	
+	private void grow(int capacity) {
+		semiMajor = Arrays.copyOf(semiMajor, capacity);
+		semiMinor = Arrays.copyOf(semiMinor, capacity);
+		eccentricity = Arrays.copyOf(eccentricity, capacity);
+		meanAnomaly = Arrays.copyOf(meanAnomaly, capacity);
+		startAnomaly = Arrays.copyOf(startAnomaly, capacity);
+		meanMotion = Arrays.copyOf(meanMotion, capacity);
+		px = Arrays.copyOf(px, capacity);
+		py = Arrays.copyOf(py, capacity);
+		pz = Arrays.copyOf(pz, capacity);
+		qx = Arrays.copyOf(qx, capacity);
+		qy = Arrays.copyOf(qy, capacity);
+		qz = Arrays.copyOf(qz, capacity);
+	}
+	
+	/**
+	 * Works out the rotation from an orbit's own frame, with periapsis on +x, to world space
+	 */
+	public static Matrix4 getOrientation(double inclination, double node, double periapsis, Matrix4 out) {
+		return out.identity().rotate(node, 0, 1, 0).rotate(inclination, 1, 0, 0).rotate(periapsis, 0, 1, 0);
+	}
+	
+	/**
+	 * Works out the transform that turns the unit circle in the xz plane into the orbit's ellipse around its focus
+	 */
+	public static Matrix4 getOrbitMatrix(double semiMajor, double eccentricity, double inclination, double node, double periapsis, Matrix4 out) {
+		getOrientation(inclination, node, periapsis, out);
+		out.translate(-semiMajor * eccentricity, 0, 0);
+		return out.scale(semiMajor, 1, semiMajor * Math.sqrt(1 - eccentricity * eccentricity));
+	}
+	
+	/**
+	 * Solves Kepler's equation M = E - e sin(E) for the eccentric anomaly with Newton's method
+	 * 
+	 * @param meanAnomaly in radians
+	 * @param eccentricity
+	 * @return the eccentric anomaly in radians
+	 */
+	public static double solveKepler(double meanAnomaly, double eccentricity) {
+		//starting from M + e sin(M) keeps Newton from overshooting near periapsis
+		double e = meanAnomaly + eccentricity * Math.sin(meanAnomaly);
+		for (int k = 0; k < MAX_ITERATIONS; ++k) {
+			double step = (e - eccentricity * Math.sin(e) - meanAnomaly) / (1 - eccentricity * Math.cos(e));
+			e -= step;
+			if (Math.abs(step) < TOLERANCE) {
+				break;
+			}
+		}
+		return e;
+	}
+	
+	/**
+	 * Puts every body where it is along its orbit at the given time, straight from its starting point
+	 * so seeking anywhere costs the same as a normal tick
+	 * 
+	 * @param time the time since the epoch, can be negative
+	 */
+	public void setTime(double time) {
+		for (int i = 0; i < count; ++i) {
+			double m = (startAnomaly[i] + meanMotion[i] * time) % TWO_PI;
+			meanAnomaly[i] = m < 0 ? m + TWO_PI : m;
+		}
+	}
+	
+	/**
+	 * Writes the position of every body relative to the focus of its orbit
+	 * 
+	 * @param out x, y, z for each body
+	 */
+	public void propagate(double[] out) {
+		propagate(meanAnomaly, out);
+	}
+	
+	/**
+	 * Writes the position of every body at the given mean anomalies instead of its own, which are left alone,
+	 * so it can be called from another thread as long as no orbit is being set
+	 * 
+	 * @param meanAnomalies the mean anomaly of each body in radians
+	 * @param out x, y, z for each body
+	 */
+	public void propagate(double[] meanAnomalies, double[] out) {
+		if (count < PARALLEL_THRESHOLD) {
+			propagate(0, count, meanAnomalies, out);
+			return;
+		}
+		int chunks = (count + CHUNK - 1) / CHUNK;
+		IntStream.range(0, chunks).parallel().forEach(c -> propagate(c * CHUNK, Math.min(count, (c + 1) * CHUNK), meanAnomalies, out));
+	}
+	
+	/**
+	 * Writes the position of every body relative to the focus of its orbit in single precision, for catalogs going straight to the GPU
+	 * 
+	 * @param out x, y, z for each body
+	 */
+	public void propagate(float[] out) {
+		if (count < PARALLEL_THRESHOLD) {
+			propagate(0, count, out);
+			return;
+		}
+		int chunks = (count + CHUNK - 1) / CHUNK;
+		IntStream.range(0, chunks).parallel().forEach(c -> propagate(c * CHUNK, Math.min(count, (c + 1) * CHUNK), out));
+	}
+	
+	private void propagate(int from, int to, double[] meanAnomalies, double[] out) {
+		for (int i = from; i < to; ++i) {
+			//same as solveKepler, but keeping the sine and cosine of the last step for the position
+			double m = meanAnomalies[i];
+			double e = eccentricity[i];
+			double ecc = m + e * Math.sin(m);
+			double sin = Math.sin(ecc);
+			double cos = Math.cos(ecc);
+			for (int k = 1; k < DOUBLE_ITERATIONS; ++k) {
+				ecc -= (ecc - e * sin - m) / (1 - e * cos);
+				sin = Math.sin(ecc);
+				cos = Math.cos(ecc);
+			}
+			//the last step is tiny, so nudging the old sine and cosine saves working them out again
+			double step = (ecc - e * sin - m) / (1 - e * cos);
+			double s = sin;
+			sin -= cos * step;
+			cos += s * step;
+			double u = semiMajor[i] * (cos - e); //along periapsis
+			double v = semiMinor[i] * sin; //a quarter orbit later
+			out[i * 3] = px[i] * u + qx[i] * v;
+			out[i * 3 + 1] = py[i] * u + qy[i] * v;
+			out[i * 3 + 2] = pz[i] * u + qz[i] * v;
+		}
+	}
+	
+	//the same as the double loop with a step less, which is still well past single precision
+	private void propagate(int from, int to, float[] out) {
+		for (int i = from; i < to; ++i) {
+			double m = meanAnomaly[i];
+			double e = eccentricity[i];
+			double ecc = m + e * Math.sin(m);
+			double sin = Math.sin(ecc);
+			double cos = Math.cos(ecc);
+			for (int k = 1; k < FLOAT_ITERATIONS; ++k) {
+				ecc -= (ecc - e * sin - m) / (1 - e * cos);
+				sin = Math.sin(ecc);
+				cos = Math.cos(ecc);
+			}
+			double step = (ecc - e * sin - m) / (1 - e * cos);
+			double s = sin;
+			sin -= cos * step;
+			cos += s * step;
+			double u = semiMajor[i] * (cos - e);
+			double v = semiMinor[i] * sin;
+			out[i * 3] = (float) (px[i] * u + qx[i] * v);
+			out[i * 3 + 1] = (float) (py[i] * u + qy[i] * v);
+			out[i * 3 + 2] = (float) (pz[i] * u + qz[i] * v);
+		}
+	}
+	
+	/**
+	 * Works out the position and velocity of a body, for starting an N-body integration from the orbit
+	 * 
+	 * @param index the index of the body
+	 * @param position the array to write x, y, z into, relative to the focus
+	 * @param velocity the array to write the velocity into
+	 */
+	public void getState(int index, double[] position, double[] velocity) {
+		double e = eccentricity[index];
+		double ecc = solveKepler(meanAnomaly[index], e);
+		double sin = Math.sin(ecc);
+		double cos = Math.cos(ecc);
+		double rate = meanMotion[index] / (1 - e * cos); //how fast the eccentric anomaly changes
+		double u = semiMajor[index] * (cos - e);
+		double v = semiMinor[index] * sin;
+		double du = -semiMajor[index] * sin * rate;
+		double dv = semiMinor[index] * cos * rate;
+		position[0] = px[index] * u + qx[index] * v;
+		position[1] = py[index] * u + qy[index] * v;
+		position[2] = pz[index] * u + qz[index] * v;
+		velocity[0] = px[index] * du + qx[index] * dv;
+		velocity[1] = py[index] * du + qy[index] * dv;
+		velocity[2] = pz[index] * du + qz[index] * dv;
+	}
+	
+	public int getCount() {
+		return count;
+	}
+	
+	public double getSemiMajor(int index) {
+		return semiMajor[index];
+	}
+	
+	public double getEccentricity(int index) {
+		return eccentricity[index];
+	}
+	
+	/**
+	 * @return the mean anomaly in degrees
+	 */
+	public double getMeanAnomaly(int index) {
+		return Math.toDegrees(meanAnomaly[index]);
+	}
+	
+	/**
+	 * @param meanAnomaly in degrees
+	 */
+	public void setMeanAnomaly(int index, double meanAnomaly) {
+		this.meanAnomaly[index] = Math.toRadians(meanAnomaly) % TWO_PI;
+	}
+}
@@ -0,0 +1,528 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Integrates bodies under their mutual gravity, for what-if scenarios the fixed orbits can't show.
+ * Forces come from a Barnes-Hut octree, so each body only sums distant groups of bodies as one mass,
+ * and the positions are advanced with a kick-drift-kick leapfrog, which keeps the energy from drifting
+ * away over long runs. Everything is kept in primitive arrays, the tree included, and the forces are
+ * worked out on the fork/join pool.
+ * 
+ * Masses are gravitational parameters (G times the mass) so there is no G anywhere, and the energy is in the same units.
+ * Bodies with no mass are pulled but don't pull, they stay out of the tree and out of the energy, so a belt of them costs
+ * one short walk per body instead of a full Barnes-Hut pass.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class NBodySystem {
+	private static final int LEAF_TASK_SIZE = 512; //bodies per fork/join task
+	private static final int MAX_DEPTH = 48; //bodies closer than the root size / 2^48 share a leaf
+	private static final int NO_CHILD = -1;
+	
+	private int count;
+	private double[] x, y, z;
+	private double[] vx, vy, vz;
+	private double[] ax, ay, az;
+	private double[] mass;
+	
+	//the octree, one entry per node, children of a node are always after it
+	private int nodeCount;
+	private double[] nodeX, nodeY, nodeZ, nodeHalf; //centre and half the size of the cell
+	private double[] nodeMass, comX, comY, comZ; //total mass and centre of mass
+	private int[] children; //8 per node, NO_CHILD where empty
+	private int[] nodeBody; //first body in a leaf, NO_CHILD for inner nodes
+	private int[] nodeParent;
+	private int[] nextBody; //links bodies that share a leaf at the maximum depth
+	
+	private double theta;
+	private double softening;
+	private final ForkJoinPool pool;
+	
+	private double initialEnergy = Double.NaN;
+	private volatile double energy = Double.NaN;
+	private volatile double energyDrift;
+	private int energyInterval = 120;
+	private long steps;
+	
+	/**
+	 * @param capacity how many bodies to make room for, grows as needed
+	 * @param theta the opening angle, groups of bodies smaller than theta times their distance are treated as one mass
+	 * @param softening a length added to every distance so close encounters don't blow up
+	 */
+	public NBodySystem(int capacity, double theta, double softening) {
+		setTheta(theta);
+		setSoftening(softening);
+		this.pool = ForkJoinPool.commonPool();
+		capacity = Math.max(1, capacity);
+		x = new double[capacity];
+		y = new double[capacity];
+		z = new double[capacity];
+		vx = new double[capacity];
+		vy = new double[capacity];
+		vz = new double[capacity];
+		mass = new double[capacity];
+		allocateNodes(Math.max(64, capacity * 2));
+	}
+	
+	/**
+	 * Adds a body
+	 * 
+	 * @param position x, y, z
+	 * @param velocity x, y, z per second
+	 * @param mass the gravitational parameter, 0 for a body that is pulled but doesn't pull
+	 * @return the index of the body
+	 */
+	public int add(double[] position, double[] velocity, double mass) {
+		if (count == x.length) {
+			int capacity = count * 2;
+			x = Arrays.copyOf(x, capacity);
+			y = Arrays.copyOf(y, capacity);
+			z = Arrays.copyOf(z, capacity);
+			vx = Arrays.copyOf(vx, capacity);
+			vy = Arrays.copyOf(vy, capacity);
+			vz = Arrays.copyOf(vz, capacity);
+			this.mass = Arrays.copyOf(this.mass, capacity);
+		}
+		x[count] = position[0];
+		y[count] = position[1];
+		z[count] = position[2];
+		vx[count] = velocity[0];
+		vy[count] = velocity[1];
+		vz[count] = velocity[2];
+		this.mass[count] = mass;
+		initialEnergy = Double.NaN;
+		return count++;
+	}
+	
+	/**
+	 * Moves the whole system so its total momentum is zero, otherwise it slowly drifts away as a whole
+	 */
+	public void removeMomentum() {
+		double px = 0, py = 0, pz = 0, total = 0;
+		for (int i = 0; i < count; ++i) {
+			px += mass[i] * vx[i];
+			py += mass[i] * vy[i];
+			pz += mass[i] * vz[i];
+			total += mass[i];
+		}
+		if (total == 0) {
+			return;
+		}
+		for (int i = 0; i < count; ++i) {
+			vx[i] -= px / total;
+			vy[i] -= py / total;
+			vz[i] -= pz / total;
+		}
+	}
+	
+	/**
+	 * Advances every body by one leapfrog step
+	 * 
+	 * @param timeEllapsed
+	 */
+	public void step(double timeEllapsed) {
+		if (ax == null || ax.length < count) {
+			ax = new double[x.length];
+			ay = new double[x.length];
+			az = new double[x.length];
+			computeAccelerations();
+		}
+		if (Double.isNaN(initialEnergy)) {
+			initialEnergy = computeEnergy();
+			energy = initialEnergy;
+		}
+		
+		double half = timeEllapsed / 2;
+		for (int i = 0; i < count; ++i) {
+			vx[i] += ax[i] * half;
+			vy[i] += ay[i] * half;
+			vz[i] += az[i] * half;
+			x[i] += vx[i] * timeEllapsed;
+			y[i] += vy[i] * timeEllapsed;
+			z[i] += vz[i] * timeEllapsed;
+		}
+		computeAccelerations();
+		for (int i = 0; i < count; ++i) {
+			vx[i] += ax[i] * half;
+			vy[i] += ay[i] * half;
+			vz[i] += az[i] * half;
+		}
+		
+		steps++;
+		if (energyInterval > 0 && steps % energyInterval == 0) {
+			energy = computeEnergy();
+			energyDrift = initialEnergy == 0 ? 0 : (energy - initialEnergy) / Math.abs(initialEnergy);
+		}
+	}
+	
+	/**
+	 * Builds the tree and works out the acceleration of every body from it
+	 */
+	private void computeAccelerations() {
+		buildTree();
+		pool.invoke(new ForceTask(0, count, false));
+	}
+	
+	/**
+	 * Works out the total kinetic and potential energy, the potential coming from the tree with the same opening angle
+	 */
+	public double computeEnergy() {
+		if (count == 0) {
+			return 0;
+		}
+		buildTree();
+		double[] potential = new double[count];
+		pool.invoke(new ForceTask(0, count, true, potential));
+		double kinetic = 0, potentialEnergy = 0;
+		for (int i = 0; i < count; ++i) {
+			kinetic += 0.5 * mass[i] * (vx[i] * vx[i] + vy[i] * vy[i] + vz[i] * vz[i]);
+			potentialEnergy += 0.5 * mass[i] * potential[i]; //every pair is counted from both ends
+		}
+		return kinetic + potentialEnergy;
+	}
+	
+	private class ForceTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from, to;
+		private final boolean potentialOnly;
+		private final double[] potential;
+		
+		ForceTask(int from, int to, boolean potentialOnly) {
+			this(from, to, potentialOnly, null);
+		}
+		
+		ForceTask(int from, int to, boolean potentialOnly, double[] potential) {
+			this.from = from;
+			this.to = to;
+			this.potentialOnly = potentialOnly;
+			this.potential = potential;
+		}
+		
+		@Override
+		protected void compute() {
+			if (to - from > LEAF_TASK_SIZE) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ForceTask(from, middle, potentialOnly, potential), new ForceTask(middle, to, potentialOnly, potential));
+				return;
+			}
+			int[] stack = new int[8 * MAX_DEPTH + 8];
+			double[] result = new double[4];
+			for (int i = from; i < to; ++i) {
+				walk(i, stack, result);
+				if (potentialOnly) {
+					potential[i] = result[3];
+				}
+				else {
+					ax[i] = result[0];
+					ay[i] = result[1];
+					az[i] = result[2];
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Walks the tree for one body, opening cells that are too close for the opening angle
+	 * 
+	 * @param result the acceleration x, y, z and the potential
+	 */
+	private void walk(int i, int[] stack, double[] result) {
+		double px = x[i], py = y[i], pz = z[i];
+		double eps2 = softening * softening;
+		double theta2 = theta * theta;
+		double rx = 0, ry = 0, rz = 0, phi = 0;
+		
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (nodeMass[node] == 0) {
+				continue;
+			}
+			if (nodeBody[node] != NO_CHILD) {
+				//a leaf, sum its bodies directly
+				for (int j = nodeBody[node]; j != NO_CHILD; j = nextBody[j]) {
+					if (j == i) {
+						continue;
+					}
+					double dx = x[j] - px, dy = y[j] - py, dz = z[j] - pz;
+					double inv = 1 / Math.sqrt(dx * dx + dy * dy + dz * dz + eps2);
+					double f = mass[j] * inv * inv * inv;
+					rx += f * dx;
+					ry += f * dy;
+					rz += f * dz;
+					phi -= mass[j] * inv;
+				}
+				continue;
+			}
+			double dx = comX[node] - px, dy = comY[node] - py, dz = comZ[node] - pz;
+			double dist2 = dx * dx + dy * dy + dz * dz;
+			double size = 2 * nodeHalf[node];
+			if (size * size < theta2 * dist2) {
+				//far enough to treat the whole cell as one mass
+				double inv = 1 / Math.sqrt(dist2 + eps2);
+				double f = nodeMass[node] * inv * inv * inv;
+				rx += f * dx;
+				ry += f * dy;
+				rz += f * dz;
+				phi -= nodeMass[node] * inv;
+				continue;
+			}
+			for (int c = 0; c < 8; ++c) {
+				int child = children[node * 8 + c];
+				if (child != NO_CHILD) {
+					stack[top++] = child;
+				}
+			}
+		}
+		result[0] = rx;
+		result[1] = ry;
+		result[2] = rz;
+		result[3] = phi;
+	}
+	
+	private void buildTree() {
+		if (nextBody == null || nextBody.length < count) {
+			nextBody = new int[x.length];
+		}
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+		//bodies without mass are only pulled, so they are left out of the tree, which keeps test particles cheap
+		for (int i = 0; i < count; ++i) {
+			if (mass[i] == 0) {
+				continue;
+			}
+			minX = Math.min(minX, x[i]);
+			minY = Math.min(minY, y[i]);
+			minZ = Math.min(minZ, z[i]);
+			maxX = Math.max(maxX, x[i]);
+			maxY = Math.max(maxY, y[i]);
+			maxZ = Math.max(maxZ, z[i]);
+		}
+		if (minX > maxX) {
+			minX = minY = minZ = maxX = maxY = maxZ = 0;
+		}
+		double half = Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ)) / 2 * 1.0001 + 1e-9;
+		
+		nodeCount = 0;
+		newNode((minX + maxX) / 2, (minY + maxY) / 2, (minZ + maxZ) / 2, half, NO_CHILD);
+		for (int i = 0; i < count; ++i) {
+			if (mass[i] != 0) {
+				insert(i);
+			}
+		}
+		
+		//children are always after their parent, so going backwards sums every cell after all of its children
+		for (int node = 0; node < nodeCount; ++node) {
+			nodeMass[node] = comX[node] = comY[node] = comZ[node] = 0;
+		}
+		for (int node = nodeCount - 1; node >= 0; --node) {
+			for (int j = nodeBody[node]; j != NO_CHILD; j = nextBody[j]) {
+				nodeMass[node] += mass[j];
+				comX[node] += mass[j] * x[j];
+				comY[node] += mass[j] * y[j];
+				comZ[node] += mass[j] * z[j];
+			}
+			int parent = nodeParent[node];
+			if (parent != NO_CHILD) {
+				nodeMass[parent] += nodeMass[node];
+				comX[parent] += comX[node];
+				comY[parent] += comY[node];
+				comZ[parent] += comZ[node];
+			}
+			//every child has been added to this node by now, so its sums are final
+			if (nodeMass[node] > 0) {
+				comX[node] /= nodeMass[node];
+				comY[node] /= nodeMass[node];
+				comZ[node] /= nodeMass[node];
+			}
+		}
+	}
+	
+	private void insert(int body) {
+		nextBody[body] = NO_CHILD;
+		int node = 0;
+		int depth = 0;
+		while (true) {
+			if (nodeBody[node] != NO_CHILD) {
+				if (depth >= MAX_DEPTH) {
+					//too close to split any further, share the leaf
+					nextBody[body] = nodeBody[node];
+					nodeBody[node] = body;
+					return;
+				}
+				//split the leaf and push its body down a level
+				int other = nodeBody[node];
+				nodeBody[node] = NO_CHILD;
+				int child = getChild(node, other);
+				nodeBody[child] = other;
+				nextBody[other] = NO_CHILD;
+			}
+			int octant = getOctant(node, body);
+			int child = children[node * 8 + octant];
+			if (child == NO_CHILD) {
+				child = getChild(node, body);
+				nodeBody[child] = body;
+				return;
+			}
+			node = child;
+			depth++;
+		}
+	}
+	
+	private int getOctant(int node, int body) {
+		return (x[body] >= nodeX[node] ? 1 : 0) | (y[body] >= nodeY[node] ? 2 : 0) | (z[body] >= nodeZ[node] ? 4 : 0);
+	}
+	
+	//the child of a node in the octant of a body, created if it doesn't exist yet
+	private int getChild(int node, int body) {
+		int octant = getOctant(node, body);
+		int child = children[node * 8 + octant];
+		if (child != NO_CHILD) {
+			return child;
+		}
+		double half = nodeHalf[node] / 2;
+		child = newNode(nodeX[node] + ((octant & 1) != 0 ? half : -half), nodeY[node] + ((octant & 2) != 0 ? half : -half), 
+				nodeZ[node] + ((octant & 4) != 0 ? half : -half), half, node);
+		children[node * 8 + octant] = child;
+		return child;
+	}
+	
+	private int newNode(double cx, double cy, double cz, double half, int parent) {
+		if (nodeCount == nodeX.length) {
+			allocateNodes(nodeCount * 2);
+		}
+		int node = nodeCount++;
+		nodeX[node] = cx;
+		nodeY[node] = cy;
+		nodeZ[node] = cz;
+		nodeHalf[node] = half;
+		nodeParent[node] = parent;
+		nodeBody[node] = NO_CHILD;
+		Arrays.fill(children, node * 8, node * 8 + 8, NO_CHILD);
+		return node;
+	}
+	
+	private void allocateNodes(int capacity) {
+		if (nodeX == null) {
+			nodeX = new double[capacity];
+			nodeY = new double[capacity];
+			nodeZ = new double[capacity];
+			nodeHalf = new double[capacity];
+			nodeMass = new double[capacity];
+			comX = new double[capacity];
+			comY = new double[capacity];
+			comZ = new double[capacity];
+			children = new int[capacity * 8];
+			nodeBody = new int[capacity];
+			nodeParent = new int[capacity];
+			return;
+		}
+		nodeX = Arrays.copyOf(nodeX, capacity);
+		nodeY = Arrays.copyOf(nodeY, capacity);
+		nodeZ = Arrays.copyOf(nodeZ, capacity);
+		nodeHalf = Arrays.copyOf(nodeHalf, capacity);
+		nodeMass = Arrays.copyOf(nodeMass, capacity);
+		comX = Arrays.copyOf(comX, capacity);
+		comY = Arrays.copyOf(comY, capacity);
+		comZ = Arrays.copyOf(comZ, capacity);
+		children = Arrays.copyOf(children, capacity * 8);
+		nodeBody = Arrays.copyOf(nodeBody, capacity);
+		nodeParent = Arrays.copyOf(nodeParent, capacity);
+	}
+	
+	/**
+	 * Copies the position of a body relative to another one
+	 * 
+	 * @param index the body
+	 * @param origin the body to measure from, like the Sun
+	 * @param out the array to write x, y, z into
+	 */
+	public void getPosition(int index, int origin, double[] out) {
+		out[0] = x[index] - x[origin];
+		out[1] = y[index] - y[origin];
+		out[2] = z[index] - z[origin];
+	}
+	
+	/**
+	 * Copies the positions of a range of bodies relative to another one
+	 * 
+	 * @param first the first body to copy
+	 * @param length the number of bodies to copy
+	 * @param origin the body to measure from, like the Sun
+	 * @param out x, y, z for each body
+	 */
+	public void getPositions(int first, int length, int origin, float[] out) {
+		double ox = x[origin], oy = y[origin], oz = z[origin];
+		for (int i = 0; i < length; ++i) {
+			out[i * 3] = (float) (x[first + i] - ox);
+			out[i * 3 + 1] = (float) (y[first + i] - oy);
+			out[i * 3 + 2] = (float) (z[first + i] - oz);
+		}
+	}
+	
+	public int getCount() {
+		return count;
+	}
+	
+	/**
+	 * @return the number of cells in the last tree built
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+	
+	public double getTheta() {
+		return theta;
+	}
+	
+	/**
+	 * @param theta the opening angle, 0 sums every pair exactly, around 0.5 is the usual trade off
+	 */
+	public void setTheta(double theta) {
+		if (theta < 0) {
+			throw new IllegalArgumentException("Opening angle can't be negative: " + theta);
+		}
+		this.theta = theta;
+	}
+	
+	public double getSoftening() {
+		return softening;
+	}
+	
+	public void setSoftening(double softening) {
+		if (softening < 0) {
+			throw new IllegalArgumentException("Softening can't be negative: " + softening);
+		}
+		this.softening = softening;
+	}
+	
+	/**
+	 * @return the total energy the last time it was measured
+	 */
+	public double getEnergy() {
+		return energy;
+	}
+	
+	/**
+	 * @return how far the total energy has moved from the start, as a fraction of the starting energy
+	 */
+	public double getEnergyDrift() {
+		return energyDrift;
+	}
+	
+	/**
+	 * @param energyInterval how many steps between energy measurements, 0 to turn them off
+	 */
+	public void setEnergyInterval(int energyInterval) {
+		this.energyInterval = energyInterval;
+	}
+	
+	public long getSteps() {
+		return steps;
+	}
+}
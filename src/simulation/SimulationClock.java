@@ -0,0 +1,128 @@
+package simulation;
+
+/**
+ * Keeps the simulation time in double precision, counted in the units the periods are given in (days in the scenarios)
+ * from an epoch. Every tick moves it on by the real time passed times the time scale, which can be negative to run backwards.
+ * Since each body works out its state from the time alone, jumping to any date is as cheap as a normal tick.
+ *
+ * @author Thong Teav
+ * 14883251
+ */
+public class SimulationClock {
+	public static final double J2000 = 2451545.0; //the Julian date of the usual astronomical epoch
+	public static final double MAX_TIME_SCALE = 1e6;
+
+	private final double epoch; //the Julian date at time 0
+	private double time;
+	private double timeScale = 1;
+	private double maxTimeScale = MAX_TIME_SCALE;
+
+	/**
+	 * @param epoch the Julian date at time 0
+	 */
+	public SimulationClock(double epoch) {
+		this.epoch = epoch;
+	}
+
+	/**
+	 * Moves the clock on by some real time, called from the simulation thread
+	 *
+	 * @param realTime the real time passed
+	 * @return the new simulation time
+	 */
+	public synchronized double advance(double realTime) {
+		time += realTime * timeScale;
+		return time;
+	}
+
+	/**
+	 * Jumps to a time, the bodies get there on the next tick
+	 *
+	 * @param time the time since the epoch
+	 */
+	public synchronized void seek(double time) {
+		this.time = time;
+	}
+
+	/**
+	 * Jumps to a date
+	 *
+	 * @param julianDate
+	 */
+	public synchronized void seekJulianDate(double julianDate) {
+		this.time = julianDate - epoch;
+	}
+
+	public synchronized double getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the current date, assuming the time is in days
+	 */
+	public synchronized double getJulianDate() {
+		return epoch + time;
+	}
+
+	public double getEpoch() {
+		return epoch;
+	}
+
+	public synchronized double getTimeScale() {
+		return timeScale;
+	}
+
+	/**
+	 * @param timeScale how much simulation time passes per unit of real time, negative to go backwards,
+	 * clamped to the most the world can keep up with, a million either way at most
+	 */
+	public synchronized void setTimeScale(double timeScale) {
+		this.timeScale = Math.max(-maxTimeScale, Math.min(maxTimeScale, timeScale));
+	}
+
+	public synchronized double getMaxTimeScale() {
+		return maxTimeScale;
+	}
+
+	/**
+	 * Limits the time scale for a world that can't follow big jumps each tick, clamping the current one too
+	 *
+	 * @param maxTimeScale the fastest the time can go either way, no more than a million
+	 */
+	public synchronized void setMaxTimeScale(double maxTimeScale) {
+		this.maxTimeScale = Math.min(MAX_TIME_SCALE, Math.abs(maxTimeScale));
+		this.setTimeScale(timeScale);
+	}
+
+	/**
+	 * Flips the direction time runs in
+	 */
+	public synchronized void reverse() {
+		this.timeScale = -this.timeScale;
+	}
+
+	/**
+	 * @param period the time taken for one turn, negative to turn the other way, 0 for something that doesn't turn
+	 * @return how fast something turns in degrees per unit of time
+	 */
+	public static double turnRate(double period) {
+		return period == 0 ? 0 : 360 / period;
+	}
+
+	/**
+	 * Works out the angle of something turning at a steady rate, kept in [0, 360) for any time including negative ones
+	 *
+	 * @param startAngle the angle at time 0 in degrees
+	 * @param period the time taken for one turn, negative to turn the other way, 0 for something that doesn't turn
+	 * @param time
+	 */
+	public static double angleAt(double startAngle, double period, double time) {
+		if (period == 0) {
+			return startAngle;
+		}
+		//only the fraction of a turn is kept, so the angle stays exact however far the time is from the epoch
+		double turns = time / period;
+		double angle = (startAngle + (turns - Math.floor(turns)) * 360) % 360;
+		return angle < 0 ? angle + 360 : angle;
+	}
+}
@@ -0,0 +1,184 @@
+package simulation;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ticks a {@link World} at a fixed rate on its own thread and publishes a snapshot after every tick.
+ * Each tick moves the {@link SimulationClock} on and puts the world at the new time.
+ * The renderer picks up the latest pair of snapshots and interpolates between them, so the frame rate
+ * and the simulation rate are independent of each other.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class SimulationEngine implements Runnable {
+	private static final int MAX_STEPS_PER_WAKE = 5; //stop catching up after a long stall instead of spiralling
+	
+	private final World world;
+	private final SimulationClock clock;
+	private final double tickLength;
+	private final long tickNanos;
+	
+	private volatile Snapshot snapshot;
+	private volatile boolean running;
+	private Thread thread;
+	private long tick;
+	
+	/**
+	 * The latest two snapshots published by the engine, swapped as a single reference
+	 */
+	public static final class Snapshot {
+		private final BodyState previous;
+		private final BodyState current;
+		private final long publishedAt;
+		private final long tickNanos;
+		private final World world;
+		
+		private Snapshot(BodyState previous, BodyState current, long publishedAt, long tickNanos, World world) {
+			this.previous = previous;
+			this.current = current;
+			this.publishedAt = publishedAt;
+			this.tickNanos = tickNanos;
+			this.world = world;
+		}
+		
+		/**
+		 * @param nanoTime the current {@link System#nanoTime()}
+		 * @return how far the given time is into the tick after the current snapshot, from 0 to 1
+		 */
+		public double getAlpha(long nanoTime) {
+			double alpha = (double) (nanoTime - publishedAt) / tickNanos;
+			return Math.max(0, Math.min(1, alpha));
+		}
+		
+		/**
+		 * Interpolates the two snapshots, rendering one tick behind the simulation
+		 * 
+		 * @param nanoTime the current {@link System#nanoTime()}
+		 */
+		public BodyState interpolate(long nanoTime) {
+			return BodyState.interpolate(previous, current, getAlpha(nanoTime), world);
+		}
+
+		public BodyState getPrevious() {
+			return previous;
+		}
+
+		public BodyState getCurrent() {
+			return current;
+		}
+	}
+	
+	/**
+	 * @param world the world to advance
+	 * @param ticksPerSecond how many fixed steps to take per second
+	 */
+	public SimulationEngine(World world, double ticksPerSecond) {
+		this(world, ticksPerSecond, new SimulationClock(SimulationClock.J2000));
+	}
+	
+	/**
+	 * @param world the world to advance
+	 * @param ticksPerSecond how many fixed steps to take per second
+	 * @param clock the clock to take the time from
+	 */
+	public SimulationEngine(World world, double ticksPerSecond, SimulationClock clock) {
+		if (ticksPerSecond <= 0) {
+			throw new IllegalArgumentException("Tick rate must be positive: " + ticksPerSecond);
+		}
+		this.world = world;
+		this.clock = clock;
+		this.tickLength = 1 / ticksPerSecond;
+		this.tickNanos = (long) (1e9 / ticksPerSecond);
+		
+		world.setTime(clock.getTime());
+		BodyState initial = capture(clock.getTime());
+		this.snapshot = new Snapshot(initial, initial, System.nanoTime(), tickNanos, world);
+	}
+	
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "simulation");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	public synchronized void stop() {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			thread = null;
+		}
+	}
+	
+	@Override
+	public void run() {
+		long next = System.nanoTime() + tickNanos;
+		while (running) {
+			long now = System.nanoTime();
+			if (now < next) {
+				LockSupport.parkNanos(next - now);
+				continue;
+			}
+			
+			int steps = 0;
+			while (now >= next && steps < MAX_STEPS_PER_WAKE) {
+				step();
+				next += tickNanos;
+				steps++;
+			}
+			if (now >= next) {
+				//too far behind, drop the missed ticks rather than stalling the renderer
+				next = now + tickNanos;
+			}
+		}
+	}
+	
+	/**
+	 * Moves the clock on by one tick and publishes the world at the new time. Called by the engine thread,
+	 * or directly when stepping without a thread.
+	 */
+	public void step() {
+		double time = clock.advance(tickLength);
+		world.setTime(time);
+		tick++;
+		snapshot = new Snapshot(snapshot.current, capture(time), System.nanoTime(), tickNanos, world);
+	}
+	
+	private BodyState capture(double time) {
+		int count = world.getBodyCount();
+		double[] orbitAngles = new double[count];
+		double[] spinAngles = new double[count];
+		double[] orbitRates = new double[count];
+		double[] spinRates = new double[count];
+		double[] positions = new double[count * 3];
+		world.writeState(orbitAngles, spinAngles, positions);
+		world.writeRates(orbitRates, spinRates);
+		return new BodyState(tick, time, orbitAngles, spinAngles, orbitRates, spinRates, positions);
+	}
+	
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+	
+	public SimulationClock getClock() {
+		return clock;
+	}
+	
+	public double getTickLength() {
+		return tickLength;
+	}
+	
+	public boolean isRunning() {
+		return running;
+	}
+}
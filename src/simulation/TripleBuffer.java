@@ -0,0 +1,72 @@
+package simulation;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands arrays from one writer thread to one reader thread without locking or copying.
+ * The writer fills its back buffer and publishes it, the reader swaps in the newest published buffer
+ * whenever it wants, and neither ever touches the buffer the other one is using.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class TripleBuffer<T> {
+	private static final class Slot<T> {
+		final T buffer;
+		final boolean fresh;
+		
+		Slot(T buffer, boolean fresh) {
+			this.buffer = buffer;
+			this.fresh = fresh;
+		}
+	}
+	
+	private T back;
+	private T front;
+	private final AtomicReference<Slot<T>> middle;
+	
+	/**
+	 * @param back the buffer the writer starts filling
+	 * @param middle the spare buffer
+	 * @param front the buffer the reader starts with
+	 */
+	public TripleBuffer(T back, T middle, T front) {
+		this.back = back;
+		this.middle = new AtomicReference<>(new Slot<>(middle, false));
+		this.front = front;
+	}
+	
+	/**
+	 * @return the buffer the writer should fill, only call from the writer thread
+	 */
+	public T getBack() {
+		return back;
+	}
+	
+	/**
+	 * Makes the back buffer the newest one for the reader, only call from the writer thread
+	 */
+	public void publish() {
+		back = middle.getAndSet(new Slot<>(back, true)).buffer;
+	}
+	
+	/**
+	 * Swaps in the newest published buffer if there is one, only call from the reader thread
+	 * 
+	 * @return true if the front buffer changed
+	 */
+	public boolean update() {
+		if (!middle.get().fresh) {
+			return false;
+		}
+		front = middle.getAndSet(new Slot<>(front, false)).buffer;
+		return true;
+	}
+	
+	/**
+	 * @return the buffer the reader is using, only call from the reader thread
+	 */
+	public T getFront() {
+		return front;
+	}
+}
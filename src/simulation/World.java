@@ -0,0 +1,51 @@
+package simulation;
+
+/**
+ * Something the simulation engine can move through time and take snapshots of.
+ * Implementations must not touch OpenGL, since they are stepped from the simulation thread.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public interface World {
+	/**
+	 * @return the number of bodies written by {@link #writeState(double[], double[], double[])}
+	 */
+	int getBodyCount();
+	
+	/**
+	 * Moves every body to where it is at the given time. The time can jump anywhere, forwards or backwards.
+	 * 
+	 * @param time the simulation time since the epoch
+	 * @see SimulationClock
+	 */
+	void setTime(double time);
+	
+	/**
+	 * Copies the current angles and positions of every body into the given arrays, indexed by the body's state index
+	 * 
+	 * @param orbitAngles the angle around the parent in degrees
+	 * @param spinAngles the angle around the body's own axis in degrees
+	 * @param positions x, y, z relative to the parent, three entries per body
+	 */
+	void writeState(double[] orbitAngles, double[] spinAngles, double[] positions);
+	
+	/**
+	 * Copies how fast the angles of every body are turning right now, so the renderer knows how many turns
+	 * a body made between two snapshots however far apart they are
+	 * 
+	 * @param orbitRates the rate of the angle around the parent in degrees per unit of time
+	 * @param spinRates the rate of the angle around the body's own axis in degrees per unit of time
+	 */
+	void writeRates(double[] orbitRates, double[] spinRates);
+	
+	/**
+	 * Works out where every body is from its angle around its parent alone, for drawing bodies in between two snapshots.
+	 * Called from the render thread, so it may only read what doesn't change once the world is built.
+	 * 
+	 * @param orbitAngles the angle around the parent in degrees
+	 * @param positions x, y, z relative to the parent, holding positions blended in a straight line on entry,
+	 * which are kept for bodies whose position doesn't follow from their angle
+	 */
+	void writePositions(double[] orbitAngles, double[] positions);
+}
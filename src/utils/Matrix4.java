@@ -0,0 +1,182 @@
+package utils;
+
+/**
+ * A 4x4 matrix stored in column-major order like OpenGL expects.
+ * The transform methods multiply on the right the same way glTranslate/glRotate/glScale do,
+ * and none of them allocate, so a matrix can be reused every frame.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class Matrix4 {
+	private final double[] m = new double[16];
+	private final double[] tmp = new double[16];
+	private final double[] op = new double[16]; //the right hand side of perspective and lookAt
+	
+	public Matrix4() {
+		identity();
+	}
+	
+	public Matrix4 identity() {
+		for (int i = 0; i < 16; ++i) {
+			m[i] = i % 5 == 0 ? 1 : 0;
+		}
+		return this;
+	}
+	
+	public Matrix4 set(Matrix4 other) {
+		System.arraycopy(other.m, 0, m, 0, 16);
+		return this;
+	}
+	
+	public Matrix4 translate(double x, double y, double z) {
+		for (int i = 0; i < 4; ++i) {
+			m[12 + i] += m[i] * x + m[4 + i] * y + m[8 + i] * z;
+		}
+		return this;
+	}
+	
+	public Matrix4 scale(double x, double y, double z) {
+		for (int i = 0; i < 4; ++i) {
+			m[i] *= x;
+			m[4 + i] *= y;
+			m[8 + i] *= z;
+		}
+		return this;
+	}
+	
+	/**
+	 * Rotates around an axis through the origin, the same as glRotated
+	 * 
+	 * @param degrees
+	 * @param x the axis, doesn't need to be normalised
+	 * @param y
+	 * @param z
+	 */
+	public Matrix4 rotate(double degrees, double x, double y, double z) {
+		double length = Math.sqrt(x * x + y * y + z * z);
+		if (length == 0 || degrees == 0) {
+			return this;
+		}
+		x /= length;
+		y /= length;
+		z /= length;
+		double rad = Math.toRadians(degrees);
+		double c = Math.cos(rad);
+		double s = Math.sin(rad);
+		double t = 1 - c;
+		
+		//columns of the rotation matrix
+		double r0 = x * x * t + c,     r1 = y * x * t + z * s, r2 = z * x * t - y * s;
+		double r4 = x * y * t - z * s, r5 = y * y * t + c,     r6 = z * y * t + x * s;
+		double r8 = x * z * t + y * s, r9 = y * z * t - x * s, r10 = z * z * t + c;
+		
+		for (int i = 0; i < 4; ++i) {
+			double a = m[i], b = m[4 + i], d = m[8 + i];
+			m[i] = a * r0 + b * r1 + d * r2;
+			m[4 + i] = a * r4 + b * r5 + d * r6;
+			m[8 + i] = a * r8 + b * r9 + d * r10;
+		}
+		return this;
+	}
+	
+	/**
+	 * Applies a perspective projection, the same as gluPerspective
+	 * 
+	 * @param fovy the vertical field of view in degrees
+	 * @param aspect the width divided by the height
+	 * @param near the distance to the near clipping plane
+	 * @param far the distance to the far clipping plane
+	 */
+	public Matrix4 perspective(double fovy, double aspect, double near, double far) {
+		double f = 1 / Math.tan(Math.toRadians(fovy) / 2);
+		for (int i = 0; i < 16; ++i) {
+			op[i] = 0;
+		}
+		op[0] = f / aspect;
+		op[5] = f;
+		op[10] = (far + near) / (near - far);
+		op[11] = -1;
+		op[14] = 2 * far * near / (near - far);
+		return multiply(op);
+	}
+	
+	/**
+	 * Applies a viewing transform, the same as gluLookAt
+	 */
+	public Matrix4 lookAt(double eyeX, double eyeY, double eyeZ, double centerX, double centerY, double centerZ, 
+			double upX, double upY, double upZ) {
+		//forward
+		double fx = centerX - eyeX, fy = centerY - eyeY, fz = centerZ - eyeZ;
+		double length = Math.sqrt(fx * fx + fy * fy + fz * fz);
+		fx /= length;
+		fy /= length;
+		fz /= length;
+		//side = forward x up
+		double sx = fy * upZ - fz * upY, sy = fz * upX - fx * upZ, sz = fx * upY - fy * upX;
+		length = Math.sqrt(sx * sx + sy * sy + sz * sz);
+		sx /= length;
+		sy /= length;
+		sz /= length;
+		//up = side x forward
+		double ux = sy * fz - sz * fy, uy = sz * fx - sx * fz, uz = sx * fy - sy * fx;
+		
+		op[0] = sx;
+		op[4] = sy;
+		op[8] = sz;
+		op[1] = ux;
+		op[5] = uy;
+		op[9] = uz;
+		op[2] = -fx;
+		op[6] = -fy;
+		op[10] = -fz;
+		op[3] = op[7] = op[11] = op[12] = op[13] = op[14] = 0;
+		op[15] = 1;
+		multiply(op);
+		return translate(-eyeX, -eyeY, -eyeZ);
+	}
+	
+	/**
+	 * Multiplies this matrix on the right by another one
+	 */
+	public Matrix4 multiply(Matrix4 other) {
+		return multiply(other.m);
+	}
+	
+	private Matrix4 multiply(double[] o) {
+		for (int col = 0; col < 4; ++col) {
+			for (int row = 0; row < 4; ++row) {
+				tmp[col * 4 + row] = m[row] * o[col * 4] + m[4 + row] * o[col * 4 + 1] 
+						+ m[8 + row] * o[col * 4 + 2] + m[12 + row] * o[col * 4 + 3];
+			}
+		}
+		System.arraycopy(tmp, 0, m, 0, 16);
+		return this;
+	}
+	
+	/**
+	 * Transforms a point, treating w as 1
+	 * 
+	 * @param in x, y, z of the point
+	 * @param out where to write the result, can be the same array as in
+	 */
+	public void transformPoint(double[] in, double[] out) {
+		double x = in[0], y = in[1], z = in[2];
+		out[0] = m[0] * x + m[4] * y + m[8] * z + m[12];
+		out[1] = m[1] * x + m[5] * y + m[9] * z + m[13];
+		out[2] = m[2] * x + m[6] * y + m[10] * z + m[14];
+	}
+	
+	public double get(int index) {
+		return m[index];
+	}
+	
+	/**
+	 * Copies the matrix into a float array, for uploading to the GPU
+	 */
+	public void get(float[] dst, int offset) {
+		for (int i = 0; i < 16; ++i) {
+			dst[offset + i] = (float) m[i];
+		}
+	}
+}
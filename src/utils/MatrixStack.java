@@ -0,0 +1,90 @@
+package utils;
+
+/**
+ * A stack of matrices worked out on the CPU, the same idea as glPushMatrix and glPopMatrix.
+ * Every level is allocated up front, so pushing and popping never create garbage.
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class MatrixStack {
+	private final Matrix4[] levels;
+	private int top;
+	
+	/**
+	 * @param depth how many levels the stack can hold
+	 */
+	public MatrixStack(int depth) {
+		levels = new Matrix4[depth];
+		for (int i = 0; i < depth; ++i) {
+			levels[i] = new Matrix4();
+		}
+	}
+	
+	/**
+	 * Empties the stack down to a single identity matrix
+	 */
+	public MatrixStack reset() {
+		top = 0;
+		levels[0].identity();
+		return this;
+	}
+	
+	/**
+	 * Copies the top matrix onto a new level
+	 * 
+	 * @throws IllegalStateException if the stack is full
+	 */
+	public MatrixStack push() {
+		if (top + 1 == levels.length) {
+			throw new IllegalStateException("Matrix stack overflow, depth " + levels.length);
+		}
+		levels[top + 1].set(levels[top]);
+		top++;
+		return this;
+	}
+	
+	/**
+	 * Goes back to the matrix before the last push
+	 * 
+	 * @throws IllegalStateException if there is nothing to pop
+	 */
+	public MatrixStack pop() {
+		if (top == 0) {
+			throw new IllegalStateException("Matrix stack underflow");
+		}
+		top--;
+		return this;
+	}
+	
+	public MatrixStack translate(double x, double y, double z) {
+		levels[top].translate(x, y, z);
+		return this;
+	}
+	
+	public MatrixStack rotate(double degrees, double x, double y, double z) {
+		levels[top].rotate(degrees, x, y, z);
+		return this;
+	}
+	
+	public MatrixStack scale(double x, double y, double z) {
+		levels[top].scale(x, y, z);
+		return this;
+	}
+	
+	public MatrixStack multiply(Matrix4 other) {
+		levels[top].multiply(other);
+		return this;
+	}
+	
+	/**
+	 * @return the matrix on top, changes to it stay until it is popped
+	 */
+	public Matrix4 top() {
+		return levels[top];
+	}
+	
+	public int getDepth() {
+		return top + 1;
+	}
+}
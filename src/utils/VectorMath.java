@@ -0,0 +1,47 @@
+package utils;
+
+/**
+ * Small helpers for working with 3D vectors stored in double arrays
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class VectorMath {
+	
+	/**
+	 * Rotates the vector in place around an axis through the origin, the same way as glRotated
+	 * 
+	 * @param v the vector to rotate
+	 * @param degrees the angle to rotate by, counter-clockwise when looking down the axis
+	 * @param x the axis, doesn't need to be normalised
+	 * @param y
+	 * @param z
+	 */
+	public static void rotate(double[] v, double degrees, double x, double y, double z) {
+		double length = Math.sqrt(x * x + y * y + z * z);
+		if (length == 0 || degrees == 0) {
+			return;
+		}
+		x /= length;
+		y /= length;
+		z /= length;
+		double rad = Math.toRadians(degrees);
+		double c = Math.cos(rad);
+		double s = Math.sin(rad);
+		double dot = x * v[0] + y * v[1] + z * v[2];
+		//Rodrigues' rotation formula
+		double rx = v[0] * c + (y * v[2] - z * v[1]) * s + x * dot * (1 - c);
+		double ry = v[1] * c + (z * v[0] - x * v[2]) * s + y * dot * (1 - c);
+		double rz = v[2] * c + (x * v[1] - y * v[0]) * s + z * dot * (1 - c);
+		v[0] = rx;
+		v[1] = ry;
+		v[2] = rz;
+	}
+	
+	public static double distance(double[] a, double[] b) {
+		double dx = a[0] - b[0];
+		double dy = a[1] - b[1];
+		double dz = a[2] - b[2];
+		return Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+}
@@ -1,8 +1,8 @@
 package viewer;
 
 import com.jogamp.opengl.GL2;
-import com.jogamp.opengl.glu.GLU;
 
+import utils.Matrix4;
 import utils.Movement;
 
 /**
@@ -13,8 +13,11 @@ import utils.Movement;
  */
 public class Camera {
 	private static final double FOV = 80;
+	private static final double NEAR = 0.1; //clipping planes
+	public static final double FAR = 500;
 	private final static double MOVE_DIST = 10;
 	private final static double LOOK_AT_DIST = 40; //depends on eye[] and lookAt[]	
+	private final static double FOCUS_RATE = 3; //how quickly the camera closes in on what it's focused on, per second
 	
 	private double windowWidth = 1;
 	private double windowHeight = 1;
@@ -31,19 +34,45 @@ public class Camera {
 	private Movement move = Movement.NONE;
 	private Movement elevate = Movement.NONE;	
 	
+	private Matrix4 projection = new Matrix4();
+	private Matrix4 view = new Matrix4();
+	private Matrix4 viewProjection = new Matrix4();
+	private Frustum frustum = new Frustum();
+	private float[] upload = new float[16]; //scratch space for handing the matrices to GL
+	private double[] point = new double[3]; //scratch space for moving the eye
+	private boolean changed = true; //the matrices are out of date
+	private long version; //counts the times the matrices have changed, so shaders know when to upload them again
+	private volatile boolean focusing; //follows the focus point instead of flying freely
+	private double[] focus = new double[3];
+	private double focusDistance;
+	
 	public void draw(GL2 gl){
+		if (this.changed) {
+			this.updateMatrices();
+		}
 		// set up projection first
         gl.glMatrixMode(GL2.GL_PROJECTION);
-        gl.glLoadIdentity();
-        GLU glu = new GLU();
-        //clipping plane
-        glu.gluPerspective(FOV, (float) windowWidth / (float) windowHeight, 0.1, 500);
+        projection.get(upload, 0);
+        gl.glLoadMatrixf(upload, 0);
         // set up the camera position and orientation
         gl.glMatrixMode(GL2.GL_MODELVIEW);
-        gl.glLoadIdentity();
-        glu.gluLookAt(eye[0],    eye[1],    eye[2], 	// eye
-                	  lookAt[0], lookAt[1], lookAt[2],  // looking at 
-                      0.0,       1.0,       0.0); 		// y is up   
+        view.get(upload, 0);
+        gl.glLoadMatrixf(upload, 0);
+	}
+	
+	/**
+	 * Works out the projection and view matrices and the frustum from the current position and window size,
+	 * the same ones gluPerspective and gluLookAt would give
+	 */
+	public void updateMatrices() {
+		projection.identity().perspective(FOV, windowWidth / windowHeight, NEAR, FAR);
+		view.identity().lookAt(eye[0],    eye[1],    eye[2], 	// eye
+                lookAt[0], lookAt[1], lookAt[2],  // looking at 
+                0.0,       1.0,       0.0); 		// y is up
+		viewProjection.set(projection).multiply(view);
+		frustum.set(viewProjection);
+		changed = false;
+		version++;
 	}
 	
 	/**
@@ -52,6 +81,10 @@ public class Camera {
 	 * @param timeEllapsed
 	 */
 	public void update(double timeEllapsed) {
+		if (this.pitch != Movement.NONE || this.yaw != Movement.NONE || this.strafe != Movement.NONE 
+				|| this.elevate != Movement.NONE || this.move != Movement.NONE || this.focusing) {
+			this.changed = true;
+		}
 		if (this.pitch == Movement.PITCH_UP) {
 			pitchUp(timeEllapsed);
 		}
@@ -80,17 +113,195 @@ public class Camera {
 			moveDown(timeEllapsed);
 		}
 		
-		if (this.move == Movement.FORWARD) {
+		if (this.focusing) {
+			//moving forward and back zooms in and out instead, halving or doubling the distance each second
+			if (this.move == Movement.FORWARD) {
+				this.focusDistance *= Math.pow(0.5, timeEllapsed);
+			}
+			else if (this.move == Movement.BACKWARD) {
+				this.focusDistance *= Math.pow(2, timeEllapsed);
+			}
+			this.approachFocus(timeEllapsed);
+		}
+		else if (this.move == Movement.FORWARD) {
 			moveForward(timeEllapsed);
 		}
 		else if (this.move == Movement.BACKWARD) {
 			moveBackward(timeEllapsed);
 		}
-	}		
+	}
+	
+	//eases the eye towards the point the focus distance behind the focus, looking the way the camera faces
+	private void approachFocus(double timeEllapsed) {
+		projection(-this.focusDistance, this.pitchAngle, this.yawAngle, 1, this.point);
+		double step = Math.min(1, FOCUS_RATE * timeEllapsed);
+		for (int i = 0; i < 3; ++i) {
+			//the projection starts from the eye, so shift it to start from the focus
+			double target = this.point[i] - this.eye[i] + this.focus[i];
+			this.eye[i] += (target - this.eye[i]) * step;
+		}
+		projection(LOOK_AT_DIST, this.pitchAngle, this.yawAngle, 1, this.lookAt);
+	}
+	
+	/**
+	 * Starts flying towards a point and then follows it. Turning the camera circles around the point,
+	 * moving forward and back zooms, and strafing or moving up and down lets go of it.
+	 * 
+	 * @param x the point in world space
+	 * @param y
+	 * @param z
+	 * @param distance how far from the point to stop
+	 */
+	public void focusOn(double x, double y, double z, double distance) {
+		this.followFocus(x, y, z);
+		this.focusDistance = distance;
+		this.focusing = true;
+	}
+	
+	/**
+	 * Moves the point being followed, as the thing focused on moves
+	 */
+	public void followFocus(double x, double y, double z) {
+		focus[0] = x;
+		focus[1] = y;
+		focus[2] = z;
+	}
+	
+	public void clearFocus() {
+		this.focusing = false;
+	}
+	
+	public boolean hasFocus() {
+		return focusing;
+	}
+	
+	/**
+	 * Works out the ray from the eye through a point on the screen, the same ray the matrices project onto that pixel
+	 * 
+	 * @param x the position on the window in pixels from the left
+	 * @param y the position on the window in pixels from the top
+	 * @param origin where to write the start of the ray
+	 * @param direction where to write the normalised direction of the ray
+	 */
+	public void getPickRay(double x, double y, double[] origin, double[] direction) {
+		//the basis of the view, the same one lookAt builds
+		double fx = lookAt[0] - eye[0], fy = lookAt[1] - eye[1], fz = lookAt[2] - eye[2];
+		double length = Math.sqrt(fx * fx + fy * fy + fz * fz);
+		fx /= length;
+		fy /= length;
+		fz /= length;
+		//right is forward cross y up
+		double rx = -fz, rz = fx;
+		length = Math.sqrt(rx * rx + rz * rz);
+		rx /= length;
+		rz /= length;
+		//up is right cross forward
+		double ux = -rz * fy, uy = rz * fx - rx * fz, uz = rx * fy;
+		
+		double tanHalf = Math.tan(Math.toRadians(FOV / 2));
+		double sx = (2 * x / windowWidth - 1) * tanHalf * windowWidth / windowHeight;
+		double sy = (1 - 2 * y / windowHeight) * tanHalf;
+		double dx = fx + rx * sx + ux * sy;
+		double dy = fy + uy * sy;
+		double dz = fz + rz * sx + uz * sy;
+		length = Math.sqrt(dx * dx + dy * dy + dz * dz);
+		System.arraycopy(eye, 0, origin, 0, 3);
+		direction[0] = dx / length;
+		direction[1] = dy / length;
+		direction[2] = dz / length;
+	}
+	
+	/**
+	 * @return the angle one pixel covers at the middle of the screen, in radians
+	 */
+	public double getPixelAngle() {
+		return 2 * Math.tan(Math.toRadians(FOV / 2)) / windowHeight;
+	}
 
 	public void newWindowSize(int width, int height) {
         windowWidth = Math.max(1.0, width);
         windowHeight = Math.max(1.0, height);
+        changed = true;
+	}
+	
+	/**
+	 * Works out how big a sphere looks on screen
+	 * 
+	 * @param center the center of the sphere in world space
+	 * @param radius the radius of the sphere
+	 * @return the radius of the sphere on screen in pixels
+	 */
+	public double getProjectedRadius(double[] center, double radius) {
+		double dx = center[0] - eye[0];
+		double dy = center[1] - eye[1];
+		double dz = center[2] - eye[2];
+		double dist = Math.sqrt(dx * dx + dy * dy + dz * dz);
+		if (dist <= radius) {
+			return Double.POSITIVE_INFINITY; //the camera is inside the sphere
+		}
+		//FOV is the vertical field of view given to gluPerspective
+		return radius / (dist * Math.tan(Math.toRadians(FOV / 2))) * (windowHeight / 2);
+	}
+	
+	public Matrix4 getProjectionMatrix() {
+		return projection;
+	}
+	
+	public Matrix4 getViewMatrix() {
+		return view;
+	}
+	
+	/**
+	 * @return a number that goes up every time the matrices change, to tell whether copies of them are out of date
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	/**
+	 * @return the view volume as of the last {@link #draw(GL2)} or {@link #updateMatrices()}
+	 */
+	public Frustum getFrustum() {
+		return frustum;
+	}
+	
+	public double[] getEye() {
+		return eye;
+	}
+	
+	public double[] getLookAt() {
+		return lookAt;
+	}
+	
+	public double getPitch() {
+		return pitchAngle;
+	}
+	
+	public double getYaw() {
+		return yawAngle;
+	}
+	
+	/**
+	 * Puts the camera at a position looking in a direction, used to replay a recorded flight
+	 * 
+	 * @param eye the position
+	 * @param pitch the angle above the horizon in degrees
+	 * @param yaw the angle around the y axis in degrees
+	 */
+	public void setPose(double[] eye, double pitch, double yaw) {
+		System.arraycopy(eye, 0, this.eye, 0, 3);
+		this.pitchAngle = pitch;
+		this.yawAngle = yaw;
+		projection(LOOK_AT_DIST, this.pitchAngle, this.yawAngle, 1, this.lookAt);
+		this.changed = true;
+	}
+	
+	public double getWindowWidth() {
+		return windowWidth;
+	}
+	
+	public double getWindowHeight() {
+		return windowHeight;
 	}
 	
 	//movement methods-----------------------------------------------------------------------------
@@ -105,27 +316,29 @@ public class Camera {
 	}
 	
 	public void moveBackward(double timeEllapsed) {
-		this.eye = projection(-MOVE_DIST, this.pitchAngle, this.yawAngle, timeEllapsed);
-		this.lookAt = projection(LOOK_AT_DIST, this.pitchAngle, this.yawAngle, timeEllapsed);
+		projection(-MOVE_DIST, this.pitchAngle, this.yawAngle, timeEllapsed, this.point);
+		System.arraycopy(this.point, 0, this.eye, 0, 3);
+		projection(LOOK_AT_DIST, this.pitchAngle, this.yawAngle, 1, this.lookAt);
 	}
 	
 	public void moveForward(double timeEllapsed) {
-		this.eye = projection(MOVE_DIST, this.pitchAngle, this.yawAngle, timeEllapsed);
-		this.lookAt = projection(LOOK_AT_DIST, this.pitchAngle, this.yawAngle, timeEllapsed);
+		projection(MOVE_DIST, this.pitchAngle, this.yawAngle, timeEllapsed, this.point);
+		System.arraycopy(this.point, 0, this.eye, 0, 3);
+		projection(LOOK_AT_DIST, this.pitchAngle, this.yawAngle, 1, this.lookAt);
 	}
 	
 	public void pitchUp(double timeEllapsed) {
 		if (this.pitchAngle + MOVE_DIST * timeEllapsed < 89) {
 			this.pitchAngle += MOVE_DIST * timeEllapsed;
 		}
-		this.lookAt = projection(LOOK_AT_DIST, this.pitchAngle, this.yawAngle, timeEllapsed);
+		projection(LOOK_AT_DIST, this.pitchAngle, this.yawAngle, 1, this.lookAt);
 	}
 	
 	public void pitchDown(double timeEllapsed) {
 		if (this.pitchAngle - MOVE_DIST * timeEllapsed > -89) {
 			this.pitchAngle -= MOVE_DIST * timeEllapsed;
 		}
-		this.lookAt = projection(LOOK_AT_DIST, this.pitchAngle, this.yawAngle, timeEllapsed);
+		projection(LOOK_AT_DIST, this.pitchAngle, this.yawAngle, 1, this.lookAt);
 	}
 	
 	public void yawLeft(double timeEllapsed) {
@@ -133,12 +346,12 @@ public class Camera {
 		if(this.yawAngle <= 0) {
 			this.yawAngle = 360;
 		}
-		this.lookAt = projection(LOOK_AT_DIST, this.pitchAngle, this.yawAngle, timeEllapsed);
+		projection(LOOK_AT_DIST, this.pitchAngle, this.yawAngle, 1, this.lookAt);
 	}
 	
 	public void yawRight(double timeEllapsed) {
 		this.yawAngle = (this.yawAngle + MOVE_DIST * timeEllapsed) % 360;
-		this.lookAt = projection(LOOK_AT_DIST, this.pitchAngle, this.yawAngle, timeEllapsed);
+		projection(LOOK_AT_DIST, this.pitchAngle, this.yawAngle, 1, this.lookAt);
 	}
 	
 	public void strafe(double angle, double timeEllapsed) {
@@ -156,15 +369,17 @@ public class Camera {
 		strafe(this.yawAngle + 90, timeEllapsed);
 	}
 	
-	public double[] projection(double distance, double pitchAngle, double yawAngle, double timeEllapsed) {
-		double[] newPoint = new double[3];
-		
-		newPoint[1] = eye[1] + Math.sin(Math.toRadians(pitchAngle)) * distance * timeEllapsed;
+	/**
+	 * Works out the point some distance from the eye in the given direction.
+	 * The look-at point is always a whole LOOK_AT_DIST away, so it never lands on the eye after a step of no time.
+	 * 
+	 * @param out the array to write x, y, z into, must not be the eye
+	 */
+	public void projection(double distance, double pitchAngle, double yawAngle, double timeEllapsed, double[] out) {
+		out[1] = eye[1] + Math.sin(Math.toRadians(pitchAngle)) * distance * timeEllapsed;
 		double distXZ = Math.cos(Math.toRadians(pitchAngle)) * distance * timeEllapsed;
-		newPoint[0] = eye[0] + Math.cos(Math.toRadians(yawAngle)) * distXZ;
-		newPoint[2] = eye[2] + Math.sin(Math.toRadians(yawAngle)) * distXZ;
-		
-		return newPoint;
+		out[0] = eye[0] + Math.cos(Math.toRadians(yawAngle)) * distXZ;
+		out[2] = eye[2] + Math.sin(Math.toRadians(yawAngle)) * distXZ;
 	}
 	//---------------------------------------------------------------------------------------------
 	
@@ -179,10 +394,16 @@ public class Camera {
 	
 	public void setStrafe(Movement m) {
 		this.strafe = m;
+		if (m != Movement.NONE) {
+			this.focusing = false;
+		}
 	}
 	
 	public void setElevate(Movement m) {
 		this.elevate = m;
+		if (m != Movement.NONE) {
+			this.focusing = false;
+		}
 	}
 	
 	public void setMove(Movement m) {
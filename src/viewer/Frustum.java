@@ -0,0 +1,71 @@
+package viewer;
+
+import utils.Matrix4;
+
+/**
+ * The six planes of the camera's view volume, for skipping anything the camera can't see
+ * 
+ * @author Thong Teav
+ * 14883251
+ */
+public class Frustum {
+	public static final int OUTSIDE = 0;
+	public static final int INTERSECTS = 1;
+	public static final int INSIDE = 2;
+	
+	//a, b, c, d for each plane, normalised so a point's distance is ax + by + cz + d, positive on the inside
+	private final double[] planes = new double[24];
+	
+	/**
+	 * Pulls the planes out of a combined projection * view matrix
+	 * 
+	 * @param clip the matrix taking world space to clip space
+	 */
+	public void set(Matrix4 clip) {
+		for (int p = 0; p < 6; ++p) {
+			int row = p / 2; //left/right use x, bottom/top use y, near/far use z
+			double sign = p % 2 == 0 ? 1 : -1;
+			double length = 0;
+			for (int col = 0; col < 4; ++col) {
+				double value = clip.get(col * 4 + 3) + sign * clip.get(col * 4 + row);
+				planes[p * 4 + col] = value;
+				if (col < 3) {
+					length += value * value;
+				}
+			}
+			length = Math.sqrt(length);
+			for (int col = 0; col < 4; ++col) {
+				planes[p * 4 + col] /= length;
+			}
+		}
+	}
+	
+	/**
+	 * @return true if any part of the sphere could be on screen
+	 */
+	public boolean intersectsSphere(double x, double y, double z, double radius) {
+		for (int p = 0; p < 24; p += 4) {
+			if (planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] < -radius) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return {@link #OUTSIDE}, {@link #INSIDE} if the whole sphere is in view, or {@link #INTERSECTS}
+	 */
+	public int classifySphere(double x, double y, double z, double radius) {
+		int result = INSIDE;
+		for (int p = 0; p < 24; p += 4) {
+			double distance = planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3];
+			if (distance < -radius) {
+				return OUTSIDE;
+			}
+			if (distance < radius) {
+				result = INTERSECTS;
+			}
+		}
+		return result;
+	}
+}